@@ -2,16 +2,14 @@ package demos;
 
 import static org.lwjgl.opengl.GL11.GL_QUADS;
 
-import java.io.IOException;
+import gl.StreamingTexture;
 
+import kinect.FrameListener;
+import kinect.KinectFrame;
 import kinect.KinectModule;
 
-import org.OpenNI.Context;
-import org.OpenNI.StatusException;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
-import org.newdawn.slick.opengl.Texture;
-import org.newdawn.slick.util.BufferedImageUtil;
 
 /**
  * Cette dmonstration affiche la camra RGB ainsi que la camra
@@ -19,19 +17,14 @@ import org.newdawn.slick.util.BufferedImageUtil;
  * @author Jonathan Cheseaux et William Trouleau
  *
  */
-public class CamerasDemonstration extends Demonstrations{
+public class CamerasDemonstration extends Demonstrations implements FrameListener {
 
 	/**Le module grant les donnes fournies par la Kinect */
 	private KinectModule kinect;
 	
 	/** Les diffrentes textures de profondeur, rgb */
-	private Texture depthMapTex;
-	private Texture rgbMapTex;
-	
-	private int turn = 0;
-
-	/** OpenNI variables */
-	private Context context;
+	private StreamingTexture depthMapTex;
+	private StreamingTexture rgbMapTex;
 
 	/**
 	 * Initialise la dmonstration
@@ -40,16 +33,12 @@ public class CamerasDemonstration extends Demonstrations{
 		super(DemoType.CAMERAS);
 		kinect = KinectModule.getInstance();
 		
-		try {
-			// on charge les diffrentes textures en mmoire
-			depthMapTex = BufferedImageUtil.getTexture("rgbImage", kinect.getDepthTexture());
-			rgbMapTex = BufferedImageUtil.getTexture("rgbImage", kinect.getRGBImageTexture());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// on charge les diffrentes textures en mmoire
+		depthMapTex = new StreamingTexture(kinect.getWidth(), kinect.getHeight());
+		rgbMapTex = new StreamingTexture(kinect.getWidth(), kinect.getHeight());
+		rgbMapTex.update(kinect.getRGBBuffer());
+		kinect.addFrameListener(this);
 
-		context = kinectModule.getContext();
-	
 	}
 
 	@Override
@@ -66,11 +55,7 @@ public class CamerasDemonstration extends Demonstrations{
 	 * Demande une nouvelle image de profondeur  la Kinect
 	 */
 	private void UpdateCameraDepth() {
-		try {
-			depthMapTex = BufferedImageUtil.getTexture("depthImage", kinect.getDepthTexture());
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		depthMapTex.update(kinect.getDepthBuffer());
 	}
 	
 	/**
@@ -85,11 +70,7 @@ public class CamerasDemonstration extends Demonstrations{
 	 * Demande une nouvelle image de la camra RGB de la Kinect
 	 */
 	private void updateCameraRGB() {
-		try {
-			rgbMapTex = BufferedImageUtil.getTexture("rgbImage", kinect.getRGBImageTexture());
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		rgbMapTex.update(kinect.getRGBBuffer());
 	}
 	
 	/**
@@ -123,34 +104,27 @@ public class CamerasDemonstration extends Demonstrations{
 		GL11.glEnd();
 	}
 	
+	/**
+	 * Met  jour les textures une fois par image de la Kinect, si la dmonstration est affiche
+	 */
 	@Override
-	public void draw() throws Exception {
-		try {
-			context.waitAnyUpdateAll();
+	public void frameArrived(KinectFrame frame) {
+		if (!isVisible()) {
+			return;
 		}
-		catch(StatusException e)
-		{  System.out.println(e); 
-		System.exit(1);
+		if (depthMapTex.getWidth() != frame.getWidth() || depthMapTex.getHeight() != frame.getHeight()) {
+			// Le mode du capteur a chang
+			depthMapTex.release();
+			rgbMapTex.release();
+			depthMapTex = new StreamingTexture(frame.getWidth(), frame.getHeight());
+			rgbMapTex = new StreamingTexture(frame.getWidth(), frame.getHeight());
 		}
-		
-		switch (turn) {
-		case 0:
-			UpdateCameraDepth();
-			break;
-			
-		case 1:
-		case 2:
-			updateCameraRGB();
-			break;
-			
-		case 3:
-			
-			break;
-			
-		default:
-			break;
-		}
-		
+		UpdateCameraDepth();
+		updateCameraRGB();
+	}
+
+	@Override
+	public void draw() throws Exception {
 		//RGB IMAGE
 		GL11.glPushMatrix();
 		GL11.glColor3f(1.0f, 1.0f, 1.0f);
@@ -178,8 +152,6 @@ public class CamerasDemonstration extends Demonstrations{
 		drawCameraTexture();
 		kinect.drawSkeletons();
 		GL11.glPopMatrix();
-		
-		turn = (turn+1)%4;
 	}
 
 
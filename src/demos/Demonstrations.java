@@ -5,7 +5,6 @@ import gestures.HandGesture;
 import gestures.KinectMouseListener;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -51,6 +50,9 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 	
 	/** Module de la Kinect */
 	protected KinectModule kinectModule;
+
+	/** Dimensions de la projection des squelettes : celles du VGA, auxquelles la taille des dessins est rgle */
+	private static final float SKELETON_WIDTH = 640, SKELETON_HEIGHT = 480;
 	
 	/** Texture du curseur de la main */
 	protected Texture handIcon;
@@ -153,7 +155,6 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 
 			if (drawCursor || drawSkeleton) {
 				
-				kinectModule.updateDepth();
 				setSkeletonProjection();
 				
 				for (int userID : kinectModule.getUsers()) {
@@ -166,12 +167,9 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 								drawAvatar(userID);
 							}
 							if (drawCursor) {
-								Iterator<HandGesture> it = common.getGestureIterator();
-								while (it.hasNext()) {
-									HandGesture gesture = it.next();
-									if (gesture.getMouseLeftPos() != null && gesture.getMouseRightPos() != null) {
-										drawHands(userID);
-									}
+								HandGesture gesture = common.getUserGesture(userID);
+								if (gesture != null && gesture.getMouseLeftPos() != null && gesture.getMouseRightPos() != null) {
+									drawHands(userID);
 								}
 							}
 						}
@@ -199,10 +197,10 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 	 */
 	private void drawHands(int userID) throws Exception {
 		SkeletonJointPosition left = kinectModule.getJointsMap(userID).get(SkeletonJoint.LEFT_HAND);
-		Vec2 leftPos = new Vec2(left.getPosition().getX(), 480 - left.getPosition().getY());
+		Vec2 leftPos = toSkeletonView(left);
 		
 		SkeletonJointPosition right = kinectModule.getJointsMap(userID).get(SkeletonJoint.RIGHT_HAND);
-		Vec2 rightPos = new Vec2(right.getPosition().getX(), 480 - right.getPosition().getY());
+		Vec2 rightPos = toSkeletonView(right);
 		
 		drawHand(leftPos.x, leftPos.y);
 		drawHand(rightPos.x, rightPos.y);
@@ -253,10 +251,10 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 	 */
 	private void drawBox(int userID, SkeletonJoint joint1, SkeletonJoint joint2, Texture tex, float scale) {
 		SkeletonJointPosition pos = kinectModule.getJointsMap(userID).get(joint1);
-		Vec2 pos1 = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 pos1 = toSkeletonView(pos);
 
 		pos = kinectModule.getJointsMap(userID).get(joint2);
-		Vec2 pos2 = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 pos2 = toSkeletonView(pos);
 
 		// get normalize axes between the 2 joints
 		Vec2 axe = pos1.sub(pos2);
@@ -302,8 +300,8 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 		SkeletonJointPosition neckPos = kinectModule.getJointsMap(userID).get(neck);
 		SkeletonJointPosition headPos = kinectModule.getJointsMap(userID).get(head);
 		
-		Vec2 pos2 = new Vec2(neckPos.getPosition().getX(), 480 - neckPos.getPosition().getY());
-		Vec2 pos1 = new Vec2(headPos.getPosition().getX(), 480 - headPos.getPosition().getY());
+		Vec2 pos2 = toSkeletonView(neckPos);
+		Vec2 pos1 = toSkeletonView(headPos);
 		
 		Vec2 axis = pos1.sub(pos2);
 		axis.normalize();
@@ -347,7 +345,7 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 	{
 		float scale = 7.0f;
 		
-		kinectModule.getJoints(new Integer(user));
+		kinectModule.getJoints(user);
 
 		drawBox(user, SkeletonJoint.HEAD, SkeletonJoint.NECK, common.getAvatar(), scale);
 		drawHead(user, SkeletonJoint.HEAD, SkeletonJoint.NECK, common.getAvatar_head());
@@ -385,50 +383,50 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 		GL11.glEnable(GL11.GL_BLEND);
 		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
 		
-		kinectModule.getJoints(new Integer(user));
+		kinectModule.getJoints(user);
 		
         SkeletonJointPosition pos = kinectModule.getJointsMap(user).get(SkeletonJoint.HEAD);
-		Vec2 head_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 head_pos = toSkeletonView(pos);
 //		head_pos = changeOfVariable(head_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.NECK);
 		
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.LEFT_SHOULDER);
-		Vec2 left_shoulder_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 left_shoulder_pos = toSkeletonView(pos);
 //		left_shoulder_pos = changeOfVariable(left_shoulder_pos);		
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.LEFT_ELBOW);
-		Vec2 left_elbow_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 left_elbow_pos = toSkeletonView(pos);
 //		left_elbow_pos = changeOfVariable(left_elbow_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.LEFT_HAND);
-		Vec2 left_hand_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 left_hand_pos = toSkeletonView(pos);
 //    	left_hand_pos = changeOfVariable(left_hand_pos);
 		
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.RIGHT_SHOULDER);
-		Vec2 right_shoulder_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 right_shoulder_pos = toSkeletonView(pos);
 //		right_shoulder_pos = changeOfVariable(right_shoulder_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.RIGHT_ELBOW);
-		Vec2 right_elbow_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 right_elbow_pos = toSkeletonView(pos);
 //		right_elbow_pos = changeOfVariable(right_elbow_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.RIGHT_HAND);
-		Vec2 right_hand_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 right_hand_pos = toSkeletonView(pos);
 //		right_hand_pos = changeOfVariable(right_hand_pos);
 		
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.LEFT_HIP);
-		Vec2 left_hip_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 left_hip_pos = toSkeletonView(pos);
 //		left_hip_pos = changeOfVariable(left_hip_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.LEFT_KNEE);
-		Vec2 left_knee_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 left_knee_pos = toSkeletonView(pos);
 //		left_knee_pos = changeOfVariable(left_knee_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.LEFT_FOOT);
-		Vec2 left_foot_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 left_foot_pos = toSkeletonView(pos);
 //    	left_foot_pos = changeOfVariable(left_foot_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.RIGHT_HIP);
-		Vec2 right_hip_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 right_hip_pos = toSkeletonView(pos);
 //		right_hip_pos = changeOfVariable(right_hip_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.RIGHT_KNEE);
-		Vec2 right_knee_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 right_knee_pos = toSkeletonView(pos);
 //		right_knee_pos = changeOfVariable(right_knee_pos);
 		pos = kinectModule.getJointsMap(user).get(SkeletonJoint.RIGHT_FOOT);
-		Vec2 right_foot_pos = new Vec2(pos.getPosition().getX(), 480 - pos.getPosition().getY());
+		Vec2 right_foot_pos = toSkeletonView(pos);
 //		right_foot_pos = changeOfVariable(right_foot_pos);
 		
 		double dt = 0.05;
@@ -519,21 +517,29 @@ public abstract class Demonstrations extends Observable implements Observer, Kin
 	}
 	
 
+	/**
+	 * Position d'un joint dans la projection des squelettes, quel que soit le mode du capteur
+	 */
+	private Vec2 toSkeletonView(SkeletonJointPosition joint) {
+		return new Vec2(kinectModule.toViewX(joint.getPosition().getX(), SKELETON_WIDTH),
+				kinectModule.toViewY(joint.getPosition().getY(), SKELETON_HEIGHT));
+	}
+
 	/**
 	 * Skeleton Projection
 	 * 
-	 * Orthogonal projection: [0 ; 640] x [0 ; 480]
+	 * Orthogonal projection: [0 ; SKELETON_WIDTH] x [0 ; SKELETON_HEIGHT]
 	 * 
-	 * WARNING: coordinates of Kinect images, need the following change of variable to 
-	 * interact with usual orthogonal projection :
-	 * x = x*Display.getWidth()/640;
-	 * y = Display.getHeight() - y*Display.getHeight()/480;
+	 * WARNING: coordinates of Kinect images depend on the sensor mode, use toSkeletonView() here,
+	 * and the following change of variable to interact with usual orthogonal projection :
+	 * x = kinectModule.toScreenX(x);
+	 * y = kinectModule.toScreenY(y);
 	 * 
 	 */
 	private void setSkeletonProjection() {
 		GL11.glMatrixMode(GL11.GL_PROJECTION);
 		GL11.glLoadIdentity();
-		GL11.glOrtho(0, 640, 0, 480, 1, -1);
+		GL11.glOrtho(0, SKELETON_WIDTH, 0, SKELETON_HEIGHT, 1, -1);
 
 		GL11.glMatrixMode(GL11.GL_MODELVIEW);
 		GL11.glLoadIdentity();
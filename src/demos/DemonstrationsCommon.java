@@ -5,8 +5,9 @@ import gestures.KinectMouseListener;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+
+import kinect.KinectModule;
+import kinect.UserRegistry;
 
 import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureLoader;
@@ -31,8 +32,9 @@ public class DemonstrationsCommon {
 	/** Texture du curseur de la main */
 	private Texture handCursorTexture = null;
 	
-	/** HashMap liant un utilisateur  ses gestures */
-	private HashMap<Integer, HandGesture> userGesture = new HashMap<Integer, HandGesture>();
+	/** Utilisateurs suivis, et gestures de chacun (effaces par le registre lorsque l'utilisateur est perdu) */
+	private UserRegistry users = KinectModule.getInstance().getUserRegistry();
+	private UserRegistry.Slot<HandGesture> userGesture = users.createSlot();
 	
 	/** Dfinit toutes les dmonstrations qui se sont abonns au KinectMouseListener */
 	private ArrayList<KinectMouseListener> subscribers = new ArrayList<KinectMouseListener>();
@@ -60,36 +62,15 @@ public class DemonstrationsCommon {
 	 * Ajoute un HandGesture pour un nouvel utilisateur
 	 * @param userID, l'ID de l'utilisateur
 	 */
-	public synchronized void addUserGesture(Integer userID) {
-		if (!userGesture.containsKey(userID)) {
-			userGesture.put(userID, new HandGesture(userID));
+	public synchronized void addUserGesture(int userID) {
+		if (userGesture.get(userID) == null) {
+			HandGesture gesture = new HandGesture(userID);
 			for (KinectMouseListener listener : subscribers) {
-				userGesture.get(userID).addKinectMouseListener(listener);
-			}
-		}
-	}
-	
-	/**
-	 * Supprime les HandGesture d'un utilisateur (si celui-ci quitte le champ
-	 * de vision de la Kinect)
-	 * @param userID, l'id de l'utilisateur
-	 */
-	public synchronized void removeUserGesture(Integer userID) {
-		HandGesture gesture = userGesture.get(userID);
-		if (gesture != null) {
-			for (KinectMouseListener listener : subscribers) {
-				//Not very useful, since the gesture will be deleted
-				//but better be cautious...
-				gesture.removeKinectMouseListener(listener);
+				gesture.addKinectMouseListener(listener);
 			}
-			userGesture.remove(userID);
+			userGesture.set(userID, gesture);
 		}
 	}
-	
-	
-	public synchronized Iterator<HandGesture> getGestureIterator() {
-		return userGesture.values().iterator();
-	}
 
 	/**
 	 * Abonne une dmonstration aux HandGesture de tous les utilisateurs
@@ -101,8 +82,11 @@ public class DemonstrationsCommon {
 			if (listener instanceof PhysicsDemonstration) {
 				TextDisplay.println("Physics ACTIVATED");
 			}
-			for (HandGesture gesture : userGesture.values()) {
-				gesture.addKinectMouseListener(listener);
+			for (int i = 0; i < users.getUserCount(); i++) {
+				HandGesture gesture = userGesture.get(users.getUser(i));
+				if (gesture != null) {
+					gesture.addKinectMouseListener(listener);
+				}
 			}
 		}
 	}
@@ -117,13 +101,16 @@ public class DemonstrationsCommon {
 			if (listener instanceof PhysicsDemonstration) {
 				TextDisplay.println("Physics DEACTIVATED");
 			}
-			for (HandGesture gesture : userGesture.values()) {
-				gesture.removeKinectMouseListener(listener);
+			for (int i = 0; i < users.getUserCount(); i++) {
+				HandGesture gesture = userGesture.get(users.getUser(i));
+				if (gesture != null) {
+					gesture.removeKinectMouseListener(listener);
+				}
 			}
 		}
 	}
 	
-	public synchronized HandGesture getUserGesture(Integer userID) {
+	public synchronized HandGesture getUserGesture(int userID) {
 		return userGesture.get(userID);
 	}
 	
@@ -2,25 +2,22 @@ package demos;
 
 import static org.lwjgl.opengl.GL11.GL_QUADS;
 import gestures.KinectMouseListener;
+import gl.StreamingTexture;
 
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
 
+import kinect.FrameListener;
+import kinect.KinectFrame;
 import kinect.KinectModule;
 
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
-import org.newdawn.slick.opengl.Texture;
-import org.newdawn.slick.util.BufferedImageUtil;
 
 /**
  * Dmonstration affichant la camra depth et RGB de la Kinect
  * @author Jonathan Cheseaux et William Trouleau
  *
  */
-public class KinectDemonstration extends Demonstrations implements KinectMouseListener{
+public class KinectDemonstration extends Demonstrations implements KinectMouseListener, FrameListener {
 
 	/** Texture ID de l'image de profondeur */
 	public static final int DEPTH_TEXTURE = 1;
@@ -31,10 +28,7 @@ public class KinectDemonstration extends Demonstrations implements KinectMouseLi
 	
 	/** Module de kinect */
 	private KinectModule kinect;
-	private Texture depthMapTex;
-	private BufferedImage kinectDepthImage;
-	
-	private int frame = 0;
+	private StreamingTexture depthMapTex;
 
 	/**
 	 * Construit une nouvelle dmonstration Kinect
@@ -53,33 +47,40 @@ public class KinectDemonstration extends Demonstrations implements KinectMouseLi
 		}
 		
 		kinect = KinectModule.getInstance();
+		kinect.addFrameListener(this);
 	}
 	
 	/**
 	 * Redemande une nouvelle image de la camera de profondeur
 	 */
 	public void refreshDepthMapTexture() {
+		// Envoi direct des buffers  OpenGL, sans BufferedImage intermdiaire
+		if (depthMapTex != null
+				&& (depthMapTex.getWidth() != kinect.getWidth() || depthMapTex.getHeight() != kinect.getHeight())) {
+			// Le mode du capteur a chang
+			depthMapTex.release();
+			depthMapTex = null;
+		}
+		if (depthMapTex == null) {
+			depthMapTex = new StreamingTexture(kinect.getWidth(), kinect.getHeight());
+		}
 		if (textureType == DEPTH_TEXTURE) {
-			kinectDepthImage = kinect.getDepthTexture();
-			
-			// Flip the image vertically
-			AffineTransform tx = AffineTransform.getScaleInstance(1, -1);
-			tx.translate(0, -kinectDepthImage.getHeight(null));
-			AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-			kinectDepthImage = op.filter(kinectDepthImage, null);
-			
+			depthMapTex.update(kinect.getDepthBuffer());
 		} else if (textureType == RGB_TEXTURE) {
-			kinectDepthImage = kinect.getRGBImageTexture();
-			
-		}
-		
-		try {
-			depthMapTex = BufferedImageUtil.getTexture("kinectDepth", kinectDepthImage);
-		} catch (IOException e) {
-			e.printStackTrace();
+			depthMapTex.update(kinect.getRGBBuffer());
 		}
 	}
 	
+	/**
+	 * Met  jour la texture une fois par image de la Kinect, si la dmonstration est affiche
+	 */
+	@Override
+	public void frameArrived(KinectFrame frame) {
+		if (isVisible()) {
+			refreshDepthMapTexture();
+		}
+	}
+
 	@Override
 	public void setProjection() {
 		GL11.glMatrixMode(GL11.GL_PROJECTION);
@@ -95,25 +96,34 @@ public class KinectDemonstration extends Demonstrations implements KinectMouseLi
 	 */
 	public void drawKinectDepth() {
 		try {
-			refreshDepthMapTexture();
+			if (depthMapTex == null) {
+				refreshDepthMapTexture();
+			}
 			depthMapTex.bind();
 
+			// L'image de profondeur commence par le haut, l'image RGB par le bas
+			float scaleX = depthMapTex.getMaxU();
+			float bottom = 0;
+			float top = depthMapTex.getMaxV();
+			if (textureType == DEPTH_TEXTURE) {
+				bottom = top;
+				top = 0;
+			}
+
 			GL11.glPushMatrix();
 			GL11.glScalef(Display.getWidth(), Display.getHeight(),1.0f);
-			float scaleY = 480.0f/512.0f;
-			float scaleX = 640.0f/1024.0f;
 			GL11.glBegin(GL_QUADS);
 			{
-				GL11.glTexCoord2f(0, 0);
+				GL11.glTexCoord2f(0, bottom);
 				GL11.glVertex3f(0, 0, 0);
 
-				GL11.glTexCoord2f(0, scaleY);
+				GL11.glTexCoord2f(0, top);
 				GL11.glVertex3f(0, 1, 0);
 
-				GL11.glTexCoord2f(scaleX, scaleY);
+				GL11.glTexCoord2f(scaleX, top);
 				GL11.glVertex3f(1, 1, 0);
 
-				GL11.glTexCoord2f(scaleX, 0);
+				GL11.glTexCoord2f(scaleX, bottom);
 				GL11.glVertex3f(1, 0, 0);
 
 			}
@@ -134,10 +144,6 @@ public class KinectDemonstration extends Demonstrations implements KinectMouseLi
 		// Retrieve Kinect image and display it
 //		TextDisplay.println("Draw Kinect Demonstration!");
 		
-		if (frame%2 == 0) {
-			kinect.updateDepth();
-		}
-		frame = (frame+1)%2;
 		setProjection();
 		drawKinectDepth();
 	}
@@ -366,8 +366,8 @@ public class Menu extends Observable implements KinectMouseListener, Observer{
 	
 	
 	private Vec2 changeOfVariable(float x, float y) {
-		x = x*Display.getWidth()/640;
-		y = Display.getHeight() - y*Display.getHeight()/480;
+		x = kinectModule.toScreenX(x);
+		y = kinectModule.toScreenY(y);
 
 		return new Vec2(x, y);
 	}
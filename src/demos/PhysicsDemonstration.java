@@ -8,9 +8,11 @@ import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
+import kinect.FrameListener;
+import kinect.KinectFrame;
 import kinect.KinectModule;
+import kinect.UserRegistry;
 
 import org.OpenNI.IObservable;
 import org.OpenNI.IObserver;
@@ -47,7 +49,7 @@ import box2d.PhysicsWorld;
  * @author Jonathan Cheseaux et William Trouleau
  *
  */
-public class PhysicsDemonstration extends Demonstrations {
+public class PhysicsDemonstration extends Demonstrations implements FrameListener {
 	
 	private int count = 0;
 
@@ -69,17 +71,21 @@ public class PhysicsDemonstration extends Demonstrations {
 	private final int texBallNumber = 3;
 	private ArrayList<Texture> ballTexture = new ArrayList<Texture>(texBallNumber);
 	
+	/** Utilisateurs suivis : leurs slots sont vids lorsqu'ils sont perdus (voir LostUserObserver) */
+	private UserRegistry users = KinectModule.getInstance().getUserRegistry();
+
 	// Gestures parameters
-	private HashMap<Integer, MouseJoint> userLeftJoint = new HashMap<Integer, MouseJoint>();
-	private HashMap<Integer, MouseJoint> userRightJoint = new HashMap<Integer, MouseJoint>();
+	private UserRegistry.Slot<MouseJoint> userLeftJoint = users.createSlot();
+	private UserRegistry.Slot<MouseJoint> userRightJoint = users.createSlot();
 	
 	// Skeleton parameters
-	private HashMap<Integer, Body[]> userSkeletonBody = new HashMap<Integer, Body[]>();
-	private HashMap<Integer, MouseJoint[]> userSkeletonJoint = new HashMap<Integer, MouseJoint[]>();
+	private UserRegistry.Slot<Body[]> userSkeletonBody = users.createSlot();
+	private UserRegistry.Slot<MouseJoint[]> userSkeletonJoint = users.createSlot();
 	
 	public PhysicsDemonstration(DemoType type) {
 		super(type);
 		KinectModule.getInstance().addEventObserver(new LostUserObserver());
+		KinectModule.getInstance().addFrameListener(this);
 		setCursorVisible(false);
 		setSkeletonVisible(true);
 		loadTexture();
@@ -243,7 +249,11 @@ public class PhysicsDemonstration extends Demonstrations {
 			return;
 		}
 		
-		for (UserHandPainter painter : kinectModule.getHandPainters().values()) {
+		for (int i = 0; i < users.getUserCount(); i++) {
+			UserHandPainter painter = kinectModule.getHandPainter(users.getUser(i));
+			if (painter == null) {
+				continue;
+			}
 			if (painter.isFetchLeft()) {
 				drawPolygonContours(painter.getLeftPolygon(), Color.green);
 			}
@@ -350,8 +360,8 @@ public class PhysicsDemonstration extends Demonstrations {
 	 * @return
 	 */
 	private Vec2 changeOfVariable(float x, float y) {
-		x = x*Display.getWidth()/640;
-		y = Display.getHeight() - y*Display.getHeight()/480;
+		x = kinectModule.toScreenX(x);
+		y = kinectModule.toScreenY(y);
 
 		return new Vec2(x, y);
 	}
@@ -370,14 +380,23 @@ public class PhysicsDemonstration extends Demonstrations {
 
 	}
 
+	/**
+	 * Dplace les corps du squelette une fois par image de la Kinect, si la dmonstration est affiche
+	 */
 	@Override
-	public synchronized void draw() {
+	public synchronized void frameArrived(KinectFrame frame) {
+		if (!isVisible()) {
+			return;
+		}
 		try {
 			handlePhysicsSkeleton();
 		} catch (StatusException e) {
 			e.printStackTrace();
 		}
-		
+	}
+
+	@Override
+	public synchronized void draw() {
 		GL11.glEnable(GL11.GL_BLEND);
 		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
 		
@@ -400,7 +419,7 @@ public class PhysicsDemonstration extends Demonstrations {
 			users.add(userID);
 			
 			if (kinectModule.isSkeletonReady(userID)) {
-				Body[] bodies = userSkeletonBody.get(new Integer(userID));
+				Body[] bodies = userSkeletonBody.get(userID);
 
 
 				Vec2 leftFoot = getBonePos(userID, SkeletonJoint.LEFT_FOOT);
@@ -418,7 +437,7 @@ public class PhysicsDemonstration extends Demonstrations {
 					bodies[0] = addBone(radius, leftFoot.x, leftFoot.y, 1);
 					bodies[1] = addBone(radius, rightFoot.x, rightFoot.y, 1);
 					bodies[2] = addBone(radius, head.x, head.y, 1);
-					userSkeletonBody.put(new Integer(userID), bodies);
+					userSkeletonBody.set(userID, bodies);
 
 //					System.out.println("Bodies: " + bodies[0] + ", " + bodies[1] + ", " + bodies[2]);
 
@@ -431,7 +450,7 @@ public class PhysicsDemonstration extends Demonstrations {
 					joints[1].setUserData(new BodyData("bone", Color.WHITE, -1));
 					joints[2] = createMouseJoint(bodies[2], (int)head.x, (int)head.y, jointForce);
 					joints[2].setUserData(new BodyData("bone", Color.WHITE, -1));
-					userSkeletonJoint.put(new Integer(userID), joints);
+					userSkeletonJoint.set(userID, joints);
 				}
 				// User was already here
 				else {
@@ -454,7 +473,7 @@ public class PhysicsDemonstration extends Demonstrations {
 						bodies[0].getFixtureList().setFilterData(allow_filt);
 						
 						// Update joints target
-						MouseJoint[] joints = userSkeletonJoint.get(new Integer(userID));
+						MouseJoint[] joints = userSkeletonJoint.get(userID);
 						joints[0].setTarget(leftFoot);
 					}
 					
@@ -464,7 +483,7 @@ public class PhysicsDemonstration extends Demonstrations {
 						bodies[1].getFixtureList().setFilterData(allow_filt);
 						
 						// Update joints target
-						MouseJoint[] joints = userSkeletonJoint.get(new Integer(userID));
+						MouseJoint[] joints = userSkeletonJoint.get(userID);
 						joints[1].setTarget(rightFoot);
 					}
 					
@@ -539,22 +558,22 @@ public class PhysicsDemonstration extends Demonstrations {
 	@Override
 	public synchronized  void mouseLeftClicked(int userID, int x, int y) {
 		super.mouseLeftClicked(userID, x, y);
-		x = x*Display.getWidth()/640;
-		y = Display.getHeight() - y*Display.getHeight()/480;
+		x = kinectModule.toScreenX(x);
+		y = kinectModule.toScreenY(y);
 		
-		MouseJoint leftJoint = userLeftJoint.get(new Integer(userID));
+		MouseJoint leftJoint = userLeftJoint.get(userID);
 		if  (leftJoint == null) {
 			boolean hitDetected = false;
 			for (Body body : world.getBodies()) {
 				if (world.isInsideBody(body, x, y)) {
 					hitDetected = true;
 					leftJoint = createMouseJoint(body, x, y, 100f);
-					userLeftJoint.put(new Integer(userID), leftJoint);
+					userLeftJoint.set(userID, leftJoint);
 					break;
 				}
 			}
 			if (!hitDetected) {
-				UserHandPainter painter = kinectModule.getHandPainters().get(new Integer(userID));
+				UserHandPainter painter = kinectModule.getHandPainter(userID);
 				if (painter != null) {
 					painter.enableLeft(true);
 				}
@@ -565,24 +584,24 @@ public class PhysicsDemonstration extends Demonstrations {
 	@Override
 	public synchronized  void mouseRightClicked(int userID, int x, int y) {
 		super.mouseRightClicked(userID, x, y);
-		x = x*Display.getWidth()/640;
-		y = Display.getHeight() - y*Display.getHeight()/480;
+		x = kinectModule.toScreenX(x);
+		y = kinectModule.toScreenY(y);
 		
-		MouseJoint rightJoint = userRightJoint.get(new Integer(userID));
+		MouseJoint rightJoint = userRightJoint.get(userID);
 		if  (rightJoint == null) {
 			boolean hitDetected = false;
 			for (Body body : world.getBodies()) {
 				if (world.isInsideBody(body, x, y)) {
 					hitDetected = true;
 					rightJoint = createMouseJoint(body, x, y, 100f);
-					userRightJoint.put(new Integer(userID), rightJoint);
+					userRightJoint.set(userID, rightJoint);
 					TextDisplay.println("Joint ajout ! Numro " + userID);
-					System.out.println("Joint droite mouse clicked = " + userRightJoint);
+					System.out.println("Joint droite mouse clicked = " + rightJoint);
 					break;
 				}
 			}
 			if (!hitDetected) {
-				UserHandPainter painter = kinectModule.getHandPainters().get(new Integer(userID));
+				UserHandPainter painter = kinectModule.getHandPainter(userID);
 				if (painter != null) {
 					painter.enableRight(true);
 				}
@@ -593,15 +612,15 @@ public class PhysicsDemonstration extends Demonstrations {
 	@Override
 	public synchronized void mouseLeftReleased(int userID, int posx, int posy) {
 		super.mouseLeftReleased(userID, posx, posy);
-		posx = posx*Display.getWidth()/640;
-		posy = Display.getHeight() - posy*Display.getHeight()/480;
+		posx = kinectModule.toScreenX(posx);
+		posy = kinectModule.toScreenY(posy);
 
-		MouseJoint leftJoint = userLeftJoint.get(new Integer(userID));
+		MouseJoint leftJoint = userLeftJoint.get(userID);
 		if (leftJoint != null) {
 			world.destroyJoint(leftJoint);
-			userLeftJoint.put(new Integer(userID), null);
+			userLeftJoint.set(userID, null);
 		} 
-		UserHandPainter painter = kinectModule.getHandPainters().get(new Integer(userID));
+		UserHandPainter painter = kinectModule.getHandPainter(userID);
 		if (painter.isFetchLeft()) {
 			Polygon poly = polyAlgo.simplifyPolygon(painter.getLeftPolygon());
 			
@@ -624,15 +643,15 @@ public class PhysicsDemonstration extends Demonstrations {
 	public synchronized void mouseRightReleased(int userID, int posx, int posy) {
 		super.mouseRightReleased(userID, posx, posy);
 //		TextDisplay.println(Thread.currentThread().getStackTrace()[1].getMethodName());
-		posx = posx*Display.getWidth()/640;
-		posy = Display.getHeight() - posy*Display.getHeight()/480;
+		posx = kinectModule.toScreenX(posx);
+		posy = kinectModule.toScreenY(posy);
 
-		MouseJoint rightJoint = userRightJoint.get(new Integer(userID));
+		MouseJoint rightJoint = userRightJoint.get(userID);
 		if (rightJoint != null) {
 			world.destroyJoint(rightJoint);
-			userRightJoint.put(new Integer(userID), null);
+			userRightJoint.set(userID, null);
 		} 
-		UserHandPainter painter = kinectModule.getHandPainters().get(new Integer(userID));
+		UserHandPainter painter = kinectModule.getHandPainter(userID);
 		if (painter.isFetchRight()) {
 			Polygon poly = polyAlgo.simplifyPolygon(painter.getRightPolygon());
 			Rectangle bounds = poly.getBounds();
@@ -653,16 +672,16 @@ public class PhysicsDemonstration extends Demonstrations {
 	@Override
 	public synchronized void mouseLeftPressed(int userID, int x, int y) {
 		super.mouseLeftPressed(userID, x, y);
-		x = x*Display.getWidth()/640;
-		y = Display.getHeight() - y*Display.getHeight()/480;
+		x = kinectModule.toScreenX(x);
+		y = kinectModule.toScreenY(y);
 
-		MouseJoint leftJoint = userLeftJoint.get(new Integer(userID));
+		MouseJoint leftJoint = userLeftJoint.get(userID);
 		if (leftJoint != null) {
 			Vec2 position = new Vec2(x,y).mul(PhysicsWorld.PTM_RATIO);
 			leftJoint.setTarget(position);
 		} else {
 			//Draw with hand
-			UserHandPainter painter = kinectModule.getHandPainters().get(new Integer(userID));
+			UserHandPainter painter = kinectModule.getHandPainter(userID);
 			painter.updateLeft(x,y);
 		}
 	}
@@ -670,20 +689,19 @@ public class PhysicsDemonstration extends Demonstrations {
 	@Override
 	public synchronized void mouseRightPressed(int userID, int x, int y) {
 		super.mouseRightPressed(userID, x, y);
-		x = x*Display.getWidth()/640;
-		y = Display.getHeight() - y*Display.getHeight()/480;
+		x = kinectModule.toScreenX(x);
+		y = kinectModule.toScreenY(y);
 
-		MouseJoint rightJoint = userRightJoint.get(new Integer(userID));
+		MouseJoint rightJoint = userRightJoint.get(userID);
 		System.out.println("GETTING userRightJoint for user " + userID);
 		System.out.println("Right joint is = " + rightJoint);
-		System.out.println("UserRIghtJoint = " + userRightJoint);
 		if (rightJoint != null) {
 			Vec2 position = new Vec2(x,y).mul(PhysicsWorld.PTM_RATIO);
 			rightJoint.setTarget(position);
 		} else {
 			TextDisplay.println("Right joint is null :(");
 			//Draw with hand
-			UserHandPainter painter = kinectModule.getHandPainters().get(new Integer(userID));
+			UserHandPainter painter = kinectModule.getHandPainter(userID);
 			painter.updateRight(x,y);
 		}
 
@@ -703,13 +721,13 @@ public class PhysicsDemonstration extends Demonstrations {
 	@Override
 	public synchronized void multiPressed(int userID, int leftx, int lefty, int rightx, int righty) {
 		super.multiPressed(userID, leftx, lefty, rightx, righty);
-		leftx = leftx*Display.getWidth()/640;
-		lefty = Display.getHeight() - lefty*Display.getHeight()/480;
-		rightx = rightx*Display.getWidth()/640;
-		righty = Display.getHeight() - righty*Display.getHeight()/480;
+		leftx = kinectModule.toScreenX(leftx);
+		lefty = kinectModule.toScreenY(lefty);
+		rightx = kinectModule.toScreenX(rightx);
+		righty = kinectModule.toScreenY(righty);
 		
-		MouseJoint rightJoint = userRightJoint.get(new Integer(userID));
-		MouseJoint leftJoint = userLeftJoint.get(new Integer(userID));
+		MouseJoint rightJoint = userRightJoint.get(userID);
+		MouseJoint leftJoint = userLeftJoint.get(userID);
 		
 		// Click case
 		if (rightJoint == null || leftJoint == null) {
@@ -719,8 +737,8 @@ public class PhysicsDemonstration extends Demonstrations {
 					leftJoint = createMouseJoint(body, leftx, lefty, 100f);
 					rightJoint = createMouseJoint(body, rightx, righty, 100f);
 					// add joints to hashtables
-					userLeftJoint.put(new Integer(userID), leftJoint);
-					userRightJoint.put(new Integer(userID), rightJoint);
+					userLeftJoint.set(userID, leftJoint);
+					userRightJoint.set(userID, rightJoint);
 				}
 			}
 		}
@@ -738,26 +756,26 @@ public class PhysicsDemonstration extends Demonstrations {
 	@Override
 	public synchronized void multiReleased(int userID, int leftx, int lefty, int rightx, int righty) {
 		super.multiReleased(userID, leftx, lefty, rightx, righty);
-		leftx = leftx*Display.getWidth()/640;
-		lefty = Display.getHeight() - lefty*Display.getHeight()/480;
-		rightx = rightx*Display.getWidth()/640;
-		righty = Display.getHeight() - righty*Display.getHeight()/480;
+		leftx = kinectModule.toScreenX(leftx);
+		lefty = kinectModule.toScreenY(lefty);
+		rightx = kinectModule.toScreenX(rightx);
+		righty = kinectModule.toScreenY(righty);
 		
-		MouseJoint rightJoint = userRightJoint.get(new Integer(userID));
-		MouseJoint leftJoint = userLeftJoint.get(new Integer(userID));
+		MouseJoint rightJoint = userRightJoint.get(userID);
+		MouseJoint leftJoint = userLeftJoint.get(userID);
 		
 		// if both joints are non null then an object is being carried
 		if (rightJoint != null) {
 			// destroy joint
 			world.destroyJoint(rightJoint);
-			userRightJoint.put(new Integer(userID), null);
+			userRightJoint.set(userID, null);
 			rightJoint = null;
 		}
 		
 		if (leftJoint != null) {
 			// destroy joint
 			world.destroyJoint(leftJoint);
-			userLeftJoint.put(new Integer(userID), null);
+			userLeftJoint.set(userID, null);
 			leftJoint = null;			
 		}
 	}
@@ -910,20 +928,20 @@ public class PhysicsDemonstration extends Demonstrations {
 		{
 			int userID = args.getId();
 
-			MouseJoint leftJoint = userLeftJoint.get(new Integer(userID));
+			MouseJoint leftJoint = userLeftJoint.get(userID);
 			if (leftJoint != null) {
 				world.destroyJoint(leftJoint);
 				leftJoint = null;
 			}
 			
-			MouseJoint rightJoint = userRightJoint.get(new Integer(userID));
+			MouseJoint rightJoint = userRightJoint.get(userID);
 			if (rightJoint != null) {
 				world.destroyJoint(rightJoint);
 				rightJoint = null;
 			}
 			
-			userRightJoint.put(new Integer(userID), null);
-			userLeftJoint.put(new Integer(userID), null);
+			userRightJoint.set(userID, null);
+			userLeftJoint.set(userID, null);
 			
 			
 			System.out.println("Remove physcis skeleton for user " + userID);
@@ -940,7 +958,7 @@ public class PhysicsDemonstration extends Demonstrations {
 				}
 			}
 
-			userSkeletonJoint.put(userID, null);
+			userSkeletonJoint.set(userID, null);
 			
 			// Remove bodies from world
 			if (bodies != null) {
@@ -956,7 +974,7 @@ public class PhysicsDemonstration extends Demonstrations {
 					}
 				}
 			}
-			userSkeletonBody.put(userID, null);
+			userSkeletonBody.set(userID, null);
 		}
 	}
 
@@ -5,7 +5,8 @@ import java.awt.Point;
 import javax.swing.event.EventListenerList;
 
 /**
- * Get hands position in skeleton projection: [0 ; 640] x [0 ; 480]
+ * Get hands position in skeleton projection: [0 ; width] x [0 ; height] of the active sensor mode
+ * (see KinectModule.getSensorMode(), and KinectModule.toScreenX() / toScreenY() to convert them)
  * @author Jonathan Cheseaux et William Trouleau
  */
 public class HandGesture {
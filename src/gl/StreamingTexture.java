@@ -0,0 +1,103 @@
+package gl;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL11;
+import org.newdawn.slick.opengl.TextureImpl;
+
+/**
+ * Texture OpenGL mise  jour  chaque image depuis un buffer direct (RGB, 3 octets par pixel).
+ * La texture est alloue une seule fois avec des dimensions en puissances de deux,
+ * puis seule la zone de l'image est rcrite avec glTexSubImage2D :
+ * ni BufferedImage, ni copie intermdiaire, ni nouvelle texture par image.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class StreamingTexture {
+
+	/** Identifiant de la texture OpenGL */
+	private int textureID;
+
+	/** Dimensions de l'image */
+	private final int width, height;
+
+	/** Dimensions de la texture (puissances de deux) */
+	private final int textureWidth, textureHeight;
+
+	/**
+	 * Cre la texture (le contexte OpenGL doit exister)
+	 * @param width, largeur de l'image
+	 * @param height, hauteur de l'image
+	 */
+	public StreamingTexture(int width, int height) {
+		this.width = width;
+		this.height = height;
+		textureWidth = nextPowerOfTwo(width);
+		textureHeight = nextPowerOfTwo(height);
+
+		textureID = GL11.glGenTextures();
+		bind();
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGB, textureWidth, textureHeight, 0,
+				GL11.GL_RGB, GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+	}
+
+	private static int nextPowerOfTwo(int value) {
+		int power = 1;
+		while (power < value) {
+			power *= 2;
+		}
+		return power;
+	}
+
+	/**
+	 * Remplace le contenu de la texture
+	 * @param pixels, buffer direct de width*height*3 octets, premire range en haut de l'image
+	 */
+	public void update(ByteBuffer pixels) {
+		bind();
+		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+		GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, width, height,
+				GL11.GL_RGB, GL11.GL_UNSIGNED_BYTE, pixels);
+	}
+
+	/**
+	 * Active la texture
+	 */
+	public void bind() {
+		// Slick garde en cache la dernire texture lie : on l'oblige  relier les siennes
+		TextureImpl.unbind();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return la coordonne de texture horizontale du bord droit de l'image
+	 */
+	public float getMaxU() {
+		return (float) width / textureWidth;
+	}
+
+	/**
+	 * @return la coordonne de texture verticale du bas de l'image
+	 */
+	public float getMaxV() {
+		return (float) height / textureHeight;
+	}
+
+	/**
+	 * Libre la texture OpenGL
+	 */
+	public void release() {
+		GL11.glDeleteTextures(textureID);
+		textureID = 0;
+	}
+}
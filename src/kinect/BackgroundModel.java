@@ -0,0 +1,268 @@
+package kinect;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Modle de l'arrire-plan, pixel par pixel : moyenne et variance des dernires profondeurs de l'arrire-plan,
+ * gardes dans un buffer circulaire de short[] avec leurs sommes (aucune allocation par image).
+ * Un pixel est au premier plan s'il est plus proche que la moyenne de plus de THRESHOLD carts-types
+ * (et d'au moins MIN_MARGIN mm), ou s'il a une mesure alors que l'arrire-plan n'en a jamais eu (trop loin).
+ * Les utilisateurs sont ainsi dtects ds leur arrive, sans attendre les labels de NITE.
+ *
+ * Seuls les pixels de l'arrire-plan mettent le modle  jour ; les pixels labelliss par NITE ne le mettent
+ * jamais  jour, et un objet immobile au premier plan est intgr  l'arrire-plan aprs absorbFrames images.
+ * Les trous (profondeur nulle) n'y entrent pas. Le traitement peut tre dcoup en bandes de ranges (ForkJoin).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class BackgroundModel {
+
+	/**
+	 * Traitement d'une bande de ranges
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class BandTask extends RecursiveAction {
+		private final int from, to;
+		private int count;
+
+		BandTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			count = updateRange(from, to);
+		}
+	}
+
+	/**
+	 * Traitement d'une image complte par bandes
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class FrameTask extends RecursiveAction {
+		@Override
+		protected void compute() {
+			for (BandTask band : bands) {
+				band.reinitialize();
+			}
+			invokeAll(bands);
+		}
+	}
+
+	/** Nombre maximum d'chantillons par pixel (les sommes des carrs tiennent dans un int jusqu' MAX_DEPTH) */
+	public static final int MAX_HISTORY = 16;
+
+	/** Profondeur maximale (mm) prise en compte, au-del la mesure est un trou */
+	public static final int MAX_DEPTH = DepthColorizer.MAX_DEPTH;
+
+	/** Nombre d'chantillons ncessaires avant de classer un pixel */
+	private static final int MIN_SAMPLES = 4;
+
+	/** Rglages par dfaut : carts-types, marge minimale (mm), images avant intgration d'un objet immobile */
+	public static final float DEFAULT_THRESHOLD = 4;
+	public static final int DEFAULT_MIN_MARGIN = 60;
+	public static final int DEFAULT_ABSORB_FRAMES = 300;
+
+	private final int width, height, history, minMargin, absorbFrames;
+
+	/** Carr du seuil en carts-types, en virgule fixe sur 8 bits */
+	private final long threshold2;
+
+	/** Derniers chantillons de chaque pixel : ring[k][pixel] */
+	private final short[][] ring;
+
+	/** Par pixel : prochain emplacement du buffer circulaire, nombre d'chantillons */
+	private final byte[] head, count;
+
+	/** Par pixel : somme et somme des carrs des chantillons */
+	private final int[] sum, sumSquares;
+
+	/** Par pixel : images conscutives sans mesure (si aucun chantillon), et au premier plan sans label */
+	private final byte[] holeFrames;
+	private final char[] foregroundFrames;
+
+	/** Image en cours */
+	private short[] depth, scene;
+	private byte[] foreground;
+
+	/** Mode parallle */
+	private boolean parallel = false;
+	private ForkJoinPool pool;
+	private BandTask[] bands;
+	private FrameTask frameTask;
+
+	/**
+	 * @param width, largeur des images
+	 * @param height, hauteur des images
+	 * @param history, le nombre d'chantillons gards par pixel, entre MIN_SAMPLES et MAX_HISTORY
+	 * @param threshold, l'cart minimal  la moyenne, en carts-types, d'un pixel au premier plan
+	 * @param minMargin, l'cart minimal  la moyenne en mm, pour les pixels presque sans bruit
+	 * @param absorbFrames, le nombre d'images aprs lequel un objet immobile sans label rejoint l'arrire-plan
+	 */
+	public BackgroundModel(int width, int height, int history, float threshold, int minMargin, int absorbFrames) {
+		if (history < MIN_SAMPLES || history > MAX_HISTORY) {
+			throw new IllegalArgumentException("History must be between " + MIN_SAMPLES + " and " + MAX_HISTORY);
+		}
+		this.width = width;
+		this.height = height;
+		this.history = history;
+		this.minMargin = minMargin;
+		this.absorbFrames = Math.min(absorbFrames, Character.MAX_VALUE);
+		threshold2 = Math.round(threshold * threshold * 256);
+		ring = new short[history][width * height];
+		head = new byte[width * height];
+		count = new byte[width * height];
+		sum = new int[width * height];
+		sumSquares = new int[width * height];
+		holeFrames = new byte[width * height];
+		foregroundFrames = new char[width * height];
+	}
+
+	/**
+	 * Cre un modle avec les rglages par dfaut (16 chantillons, 4 carts-types, 60 mm, 10 s  30 images/s)
+	 */
+	public BackgroundModel(int width, int height) {
+		this(width, height, MAX_HISTORY, DEFAULT_THRESHOLD, DEFAULT_MIN_MARGIN, DEFAULT_ABSORB_FRAMES);
+	}
+
+	/**
+	 * Active ou dsactive le traitement parallle par bandes de ranges
+	 */
+	public void setParallel(boolean parallel) {
+		if (parallel && pool == null) {
+			pool = ParallelRows.pool();
+			int bandCount = ParallelRows.bandCount(height);
+			bands = new BandTask[bandCount];
+			for (int i = 0; i < bandCount; i++) {
+				bands[i] = new BandTask(height * i / bandCount * width, height * (i + 1) / bandCount * width);
+			}
+			frameTask = new FrameTask();
+		}
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Classe les pixels d'une image, puis met  jour le modle avec ceux de l'arrire-plan
+	 * @param depth, la profondeur de chaque pixel
+	 * @param scene, le label NITE de chaque pixel (null s'il n'y en a pas) : les pixels labelliss
+	 * ne rejoignent jamais l'arrire-plan
+	 * @param foreground, reoit 1 pour chaque pixel au premier plan, 0 sinon
+	 * @return le nombre de pixels au premier plan
+	 */
+	public int update(short[] depth, short[] scene, byte[] foreground) {
+		this.depth = depth;
+		this.scene = scene;
+		this.foreground = foreground;
+		int total = 0;
+		if (parallel) {
+			frameTask.reinitialize();
+			pool.invoke(frameTask);
+			for (BandTask band : bands) {
+				total += band.count;
+			}
+		} else {
+			total = updateRange(0, depth.length);
+		}
+		this.depth = this.scene = null;
+		this.foreground = null;
+		return total;
+	}
+
+	/**
+	 * Oublie l'arrire-plan appris
+	 */
+	public void reset() {
+		for (int pos = 0; pos < count.length; pos++) {
+			head[pos] = count[pos] = holeFrames[pos] = 0;
+			sum[pos] = sumSquares[pos] = 0;
+			foregroundFrames[pos] = 0;
+		}
+	}
+
+	/**
+	 * Classe et apprend les pixels [from, to[ de l'image en cours
+	 * @return le nombre de pixels au premier plan
+	 */
+	private int updateRange(int from, int to) {
+		short[] depth = this.depth, scene = this.scene;
+		byte[] foreground = this.foreground;
+		int total = 0;
+		for (int pos = from; pos < to; pos++) {
+			int value = depth[pos];
+			if (value >= MAX_DEPTH || value < 0) {
+				value = 0;
+			}
+			int n = count[pos];
+			boolean front = false;
+			if (value != 0) {
+				if (n >= MIN_SAMPLES) {
+					int s = sum[pos];
+					// n * (moyenne - mesure), compar  n * marge puis  n * seuil * variance
+					long diff = s - (long) n * value;
+					if (diff > (long) n * minMargin) {
+						long variance = (long) n * sumSquares[pos] - (long) s * s;
+						front = (diff * diff << 8) > threshold2 * variance;
+					}
+				} else if (n == 0 && holeFrames[pos] >= MIN_SAMPLES) {
+					// L'arrire-plan est hors de porte : toute mesure est au premier plan
+					front = true;
+				}
+			} else if (n == 0 && holeFrames[pos] < Byte.MAX_VALUE) {
+				holeFrames[pos]++;
+			}
+			foreground[pos] = front ? (byte) 1 : 0;
+
+			boolean labelled = scene != null && scene[pos] != 0;
+			boolean learn = false;
+			if (front) {
+				total++;
+				if (!labelled) {
+					int frames = foregroundFrames[pos] + 1;
+					if (frames >= absorbFrames) {
+						// Objet immobile : il rejoint progressivement l'arrire-plan
+						learn = true;
+					} else {
+						foregroundFrames[pos] = (char) frames;
+					}
+				}
+			} else if (value != 0) {
+				// Un trou ne dit rien de l'objet ventuellement immobile  cet endroit
+				foregroundFrames[pos] = 0;
+				learn = !labelled;
+			}
+			if (learn && value != 0) {
+				int slot = head[pos];
+				if (n == history) {
+					int old = ring[slot][pos];
+					sum[pos] -= old;
+					sumSquares[pos] -= old * old;
+				} else {
+					count[pos] = (byte) (n + 1);
+				}
+				ring[slot][pos] = (short) value;
+				sum[pos] += value;
+				sumSquares[pos] += value * value;
+				head[pos] = (byte) (slot + 1 == history ? 0 : slot + 1);
+			}
+		}
+		return total;
+	}
+}
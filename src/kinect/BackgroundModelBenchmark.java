@@ -0,0 +1,233 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.OpenNI.GeneralException;
+
+/**
+ * Mesure le modle de l'arrire-plan sur des sessions enregistres (fichiers en argument), ou sans Kinect
+ * sur une session synthtique : la pice vide, puis des utilisateurs qui entrent et bougent, avec le bruit
+ * de mesure du capteur (proportionnel au carr de la profondeur) et des trous. Comme NITE, la session
+ * ne labellise chaque utilisateur que LABEL_DELAY images aprs son arrive.
+ * Pour chaque session : dure par image en srie et en parallle, part des pixels labelliss dtects
+ * au premier plan, faux positifs parmi les pixels sans label, et images o un utilisateur
+ * sans label est dtect (pour la session synthtique : parmi celles o un utilisateur attend son label).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class BackgroundModelBenchmark {
+
+	private static final int USERS = 4;
+	private static final int WIDTH = SyntheticFrameSource.WIDTH, HEIGHT = SyntheticFrameSource.HEIGHT;
+	private static final long FRAME_PERIOD = 33333;
+
+	/** Images de la pice vide, puis avec les utilisateurs */
+	private static final int EMPTY_FRAMES = 30, FRAMES = 300;
+
+	/** Retard des labels sur l'arrive de chaque utilisateur, en images */
+	private static final int LABEL_DELAY = 30;
+
+	/** Profondeur du mur du fond de la session synthtique (mm) */
+	private static final short BACKGROUND = 4500;
+
+	/** cart-type du bruit de mesure, par mm de profondeur, et part des pixels sans mesure */
+	private static final float NOISE = 1.5e-6f;
+	private static final float HOLES = 0.01f;
+
+	/** Images ignores dans les statistiques, le temps d'apprendre l'arrire-plan */
+	private static final int LEARN_FRAMES = 10;
+
+	/** Part de l'image au premier plan sans label  partir de laquelle un utilisateur est dtect */
+	private static final float MIN_AREA = 0.01f;
+
+	/** Rsultats attendus sur la session synthtique */
+	private static final float MIN_RECALL = 0.95f, MAX_FALSE_POSITIVES = 0.005f, MIN_EARLY = 0.9f;
+
+	/**
+	 * Statistiques d'un passage sur une session
+	 */
+	private static class Result {
+		int frames;
+		long nanos;
+		long foreground;
+		long labelled, labelledForeground;
+		long unlabelled, unlabelledForeground;
+		int waitingFrames, earlyFrames, falseFrames;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, GeneralException {
+		File[] files = new File[args.length];
+		boolean[] waiting = null;
+		if (args.length == 0) {
+			File file = File.createTempFile("background", ".session");
+			file.deleteOnExit();
+			waiting = generate(file);
+			files = new File[] { file };
+		} else {
+			for (int i = 0; i < args.length; i++) {
+				files[i] = new File(args[i]);
+			}
+		}
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores");
+
+		boolean ok = true;
+		for (File file : files) {
+			// Chauffe
+			run(file, false, waiting);
+			Result serial = run(file, false, waiting);
+			Result parallel = run(file, true, waiting);
+			float recall = (float) serial.labelledForeground / Math.max(1, serial.labelled);
+			float falsePositives = (float) serial.unlabelledForeground / Math.max(1, serial.unlabelled);
+			System.out.printf("%s: %d frames, serial %.2f ms/frame, parallel %.2f ms/frame%n", file.getName(),
+					serial.frames, serial.nanos / 1e6 / serial.frames, parallel.nanos / 1e6 / parallel.frames);
+			System.out.printf("  labelled pixels in the foreground: %.2f%%, unlabelled false positives: %.3f%%%n",
+					100 * recall, 100 * falsePositives);
+			if (waiting != null) {
+				float early = (float) serial.earlyFrames / Math.max(1, serial.waitingFrames);
+				System.out.printf("  user detected before its label in %d of %d frames (%.0f ms of delay each), "
+						+ "%d false detections%n", serial.earlyFrames, serial.waitingFrames,
+						LABEL_DELAY * FRAME_PERIOD / 1000f, serial.falseFrames);
+				ok &= recall >= MIN_RECALL && falsePositives <= MAX_FALSE_POSITIVES && early >= MIN_EARLY
+						&& serial.falseFrames == 0;
+			} else {
+				System.out.printf("  unlabelled user detected in %d frames%n", serial.earlyFrames);
+			}
+			ok &= serial.foreground == parallel.foreground;
+		}
+		System.out.println(ok ? "OK: users detected before their labels, serial and parallel identical" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Rejoue une session et classe chaque image avec un nouveau modle
+	 * @param waiting, pour chaque image, true si un utilisateur attend son label (null si inconnu)
+	 */
+	private static Result run(File file, boolean parallel, boolean[] waiting) throws IOException, GeneralException {
+		ReplayFrameSource source = new ReplayFrameSource(file, false, false);
+		int width = source.getWidth(), height = source.getHeight();
+		short[] depth = new short[width * height];
+		short[] scene = new short[width * height];
+		byte[] foreground = new byte[width * height];
+		BackgroundModel model = new BackgroundModel(width, height);
+		model.setParallel(parallel);
+		int minArea = (int) (MIN_AREA * width * height);
+
+		Result result = new Result();
+		for (int f = 0;; f++) {
+			try {
+				source.waitForUpdate(Long.MAX_VALUE);
+			} catch (GeneralException e) {
+				break;
+			}
+			source.getDepthMap().get(depth);
+			source.getSceneMap().get(scene);
+			long start = System.nanoTime();
+			result.foreground += model.update(depth, scene, foreground);
+			result.nanos += System.nanoTime() - start;
+			result.frames++;
+			if (f < LEARN_FRAMES) {
+				continue;
+			}
+
+			long unlabelled = 0, unlabelledForeground = 0;
+			for (int pos = 0; pos < depth.length; pos++) {
+				if (scene[pos] != 0) {
+					result.labelled++;
+					result.labelledForeground += foreground[pos];
+				} else if (depth[pos] != 0) {
+					unlabelled++;
+					unlabelledForeground += foreground[pos];
+				}
+			}
+			boolean detected = unlabelledForeground >= minArea;
+			if (waiting == null) {
+				result.unlabelled += unlabelled;
+				result.unlabelledForeground += unlabelledForeground;
+				result.earlyFrames += detected ? 1 : 0;
+			} else if (waiting[f]) {
+				// Les pixels sans label comprennent l'utilisateur qui attend : ils ne comptent pas
+				result.waitingFrames++;
+				result.earlyFrames += detected ? 1 : 0;
+			} else {
+				result.unlabelled += unlabelled;
+				result.unlabelledForeground += unlabelledForeground;
+				result.falseFrames += detected ? 1 : 0;
+			}
+		}
+		source.release();
+		return result;
+	}
+
+	/**
+	 * Enregistre la session synthtique
+	 * @return pour chaque image, true si un utilisateur visible n'a pas encore de label
+	 */
+	private static boolean[] generate(File file) throws IOException, InterruptedException, GeneralException {
+		SyntheticFrameSource source = new SyntheticFrameSource(USERS, SyntheticFrameSource.Motion.values(), false);
+		Random random = new Random(0);
+		short[] depth = new short[WIDTH * HEIGHT];
+		short[] scene = new short[WIDTH * HEIGHT];
+		float[][] skeleton = new float[KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		int[] arrival = new int[USERS + 1];
+		boolean[] visible = new boolean[USERS + 1];
+		boolean[] labelled = new boolean[USERS + 1];
+		boolean[] waiting = new boolean[EMPTY_FRAMES + FRAMES];
+
+		SessionRecorder recorder = new SessionRecorder(file, WIDTH, HEIGHT);
+		for (int f = 0; f < EMPTY_FRAMES + FRAMES; f++) {
+			SessionRecorder.Frame frame;
+			while ((frame = recorder.beginFrame()) == null) {
+				Thread.sleep(1);
+			}
+			int[] users = new int[0];
+			if (f < EMPTY_FRAMES) {
+				Arrays.fill(depth, BACKGROUND);
+				Arrays.fill(scene, (short) 0);
+			} else {
+				source.waitForUpdate(0);
+				source.getDepthMap().get(depth);
+				source.getSceneMap().get(scene);
+				users = source.getUsers();
+			}
+
+			// Chaque utilisateur (re)venu n'est labellis qu'aprs LABEL_DELAY images
+			boolean[] present = new boolean[USERS + 1];
+			for (int user : users) {
+				present[user] = true;
+				if (!visible[user]) {
+					arrival[user] = f;
+				}
+				labelled[user] = f - arrival[user] >= LABEL_DELAY;
+				waiting[f] |= !labelled[user];
+			}
+			visible = present;
+			for (int pos = 0; pos < depth.length; pos++) {
+				if (scene[pos] != 0 && !labelled[scene[pos]]) {
+					scene[pos] = 0;
+				}
+				if (random.nextFloat() < HOLES) {
+					depth[pos] = 0;
+				} else {
+					float z = depth[pos];
+					depth[pos] = (short) Math.round(z + random.nextGaussian() * NOISE * z * z);
+				}
+			}
+
+			frame.setMaps(depth, scene, f * FRAME_PERIOD, f);
+			for (int user : users) {
+				if (labelled[user]) {
+					source.getSkeleton(user, skeleton);
+					frame.addUser(user, true, skeleton);
+				}
+			}
+			recorder.commitFrame(frame);
+		}
+		recorder.close();
+		return waiting;
+	}
+}
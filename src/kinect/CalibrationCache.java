@@ -0,0 +1,324 @@
+package kinect;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Cache sur disque des calibrations de squelette, pour qu'un utilisateur qui revient (ou une personne
+ * de taille proche) soit suivi immdiatement au lieu d'attendre la dtection de pose et la calibration.
+ * Chaque emplacement contient le fichier de calibration d'OpenNI et la taille de la personne calibre ;
+ * un nouvel utilisateur reoit la calibration de la taille la plus proche,  getTolerance() prs.
+ * Le cache garde CAPACITY emplacements, le moins rcemment utilis tant remplac.
+ * Les dates d'utilisation ne sont crites dans l'index qu'avec la prochaine calibration enregistre ou retire,
+ * ou par flush() : une calibration rutilise ne cote aucune criture sur le thread de capture.
+ * Il mesure aussi le temps entre l'apparition d'un utilisateur et le dbut de son suivi,
+ * avec et sans calibration en cache.
+ * Les sources d'un mme rpertoire partagent la mme instance (voir forDirectory).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class CalibrationCache {
+
+	/** Proprit systme dsignant le rpertoire du cache, ou "off" pour le dsactiver */
+	public static final String DIRECTORY_PROPERTY = "kinect.calibrationCache";
+	public static final String DEFAULT_DIRECTORY = "calibration";
+
+	/** Nombre d'emplacements */
+	public static final int CAPACITY = 16;
+
+	/** cart de taille maximal (mm) pour rutiliser une calibration */
+	public static final float DEFAULT_TOLERANCE = 60;
+
+	private static final String INDEX_FILE = "index.txt";
+
+	private static final HashMap<File, CalibrationCache> caches = new HashMap<File, CalibrationCache>();
+
+	private final File directory;
+
+	/** Taille de la personne de chaque emplacement (mm), NaN si l'emplacement est vide */
+	private final float[] heights = new float[CAPACITY];
+	/** Date de dernire utilisation de chaque emplacement (ms) */
+	private final long[] lastUsed = new long[CAPACITY];
+
+	private float tolerance = DEFAULT_TOLERANCE;
+
+	/** true si des dates d'utilisation n'ont pas encore t crites dans l'index */
+	private boolean dirty = false;
+
+	/** Calibrations rutilises, utilisateurs sans calibration proche, calibrations refuses par OpenNI */
+	private int hits, misses, failures;
+
+	/** Temps avant le suivi : nombre d'utilisateurs, somme des ms et des images, avec et sans cache */
+	private int cachedCount, fullCount;
+	private long cachedMillis, fullMillis;
+	private long cachedFrames, fullFrames;
+
+	/**
+	 * @return le cache du rpertoire, cr et charg au premier appel
+	 */
+	public static synchronized CalibrationCache forDirectory(File directory) {
+		File key = directory.getAbsoluteFile();
+		CalibrationCache cache = caches.get(key);
+		if (cache == null) {
+			cache = new CalibrationCache(key);
+			caches.put(key, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * @return le cache dsign par la proprit kinect.calibrationCache, null s'il est dsactiv
+	 */
+	public static CalibrationCache fromProperties() {
+		String directory = System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY);
+		return "off".equalsIgnoreCase(directory) ? null : forDirectory(new File(directory));
+	}
+
+	private CalibrationCache(File directory) {
+		this.directory = directory;
+		for (int i = 0; i < CAPACITY; i++) {
+			heights[i] = Float.NaN;
+		}
+		load();
+	}
+
+	/**
+	 * Lit l'index : une ligne "emplacement taille dernire-utilisation" par calibration
+	 */
+	private void load() {
+		File index = new File(directory, INDEX_FILE);
+		if (!index.exists()) {
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length != 3) {
+					continue;
+				}
+				int slot = Integer.parseInt(fields[0]);
+				if (slot >= 0 && slot < CAPACITY && getFile(slot).exists()) {
+					heights[slot] = Float.parseFloat(fields[1]);
+					lastUsed[slot] = Long.parseLong(fields[2]);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (NumberFormatException e) {
+			System.err.println("Corrupted calibration index: " + e.getMessage());
+		}
+	}
+
+	private void save() {
+		dirty = false;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Cannot create " + directory);
+			return;
+		}
+		try (PrintWriter writer = new PrintWriter(new FileWriter(new File(directory, INDEX_FILE)))) {
+			for (int i = 0; i < CAPACITY; i++) {
+				if (!Float.isNaN(heights[i])) {
+					writer.println(i + " " + heights[i] + " " + lastUsed[i]);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return le fichier de calibration OpenNI d'un emplacement
+	 */
+	public File getFile(int slot) {
+		return new File(directory, "skeleton" + slot + ".bin");
+	}
+
+	/**
+	 * Cherche la calibration d'une personne de taille proche
+	 * @param height, la taille de l'utilisateur (mm), voir estimateHeight
+	 * @return l'emplacement, ou -1 s'il n'y en a pas
+	 */
+	public synchronized int find(float height) {
+		int best = -1;
+		float bestDifference = tolerance;
+		for (int i = 0; i < CAPACITY; i++) {
+			float difference = Math.abs(heights[i] - height);
+			if (difference <= bestDifference) {
+				bestDifference = difference;
+				best = i;
+			}
+		}
+		if (best < 0) {
+			misses++;
+			return -1;
+		}
+		hits++;
+		lastUsed[best] = System.currentTimeMillis();
+		dirty = true;
+		return best;
+	}
+
+	/**
+	 * Rserve l'emplacement o enregistrer une nouvelle calibration : celui d'une personne de mme taille,
+	 * un emplacement vide, ou le moins rcemment utilis. Le fichier doit ensuite tre crit, puis valid par commit.
+	 * @return l'emplacement
+	 */
+	public synchronized int allocate(float height) {
+		int slot = 0;
+		for (int i = 0; i < CAPACITY; i++) {
+			if (Math.abs(heights[i] - height) <= tolerance / 2) {
+				return i;
+			}
+			if (Float.isNaN(heights[i])) {
+				if (!Float.isNaN(heights[slot])) {
+					slot = i;
+				}
+			} else if (!Float.isNaN(heights[slot]) && lastUsed[i] < lastUsed[slot]) {
+				slot = i;
+			}
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Cannot create " + directory);
+		}
+		return slot;
+	}
+
+	/**
+	 * Valide une calibration crite dans le fichier d'un emplacement
+	 */
+	public synchronized void commit(int slot, float height) {
+		heights[slot] = height;
+		lastUsed[slot] = System.currentTimeMillis();
+		save();
+	}
+
+	/**
+	 * Oublie une calibration qu'OpenNI n'a pas pu charger
+	 */
+	public synchronized void remove(int slot) {
+		failures++;
+		heights[slot] = Float.NaN;
+		getFile(slot).delete();
+		save();
+	}
+
+	/**
+	 * crit dans l'index les dates d'utilisation pas encore enregistres (par exemple  la libration de la source)
+	 */
+	public synchronized void flush() {
+		if (dirty) {
+			save();
+		}
+	}
+
+	/**
+	 * Enregistre le temps coul entre l'apparition d'un utilisateur et le dbut de son suivi
+	 * @param cached, true si la calibration vient du cache
+	 */
+	public synchronized void recordTimeToTracking(long millis, int frames, boolean cached) {
+		if (cached) {
+			cachedCount++;
+			cachedMillis += millis;
+			cachedFrames += frames;
+		} else {
+			fullCount++;
+			fullMillis += millis;
+			fullFrames += frames;
+		}
+	}
+
+	public void setTolerance(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public float getTolerance() {
+		return tolerance;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CalibrationCache: " + hits + " hits, " + misses + " misses, " + failures + " failures; "
+				+ "time to tracking " + average(cachedMillis, cachedCount) + " ms / " + average(cachedFrames, cachedCount)
+				+ " frames cached (" + cachedCount + " users), " + average(fullMillis, fullCount) + " ms / "
+				+ average(fullFrames, fullCount) + " frames with pose calibration (" + fullCount + " users)";
+	}
+
+	private static String average(long sum, int count) {
+		return count == 0 ? "-" : String.valueOf(sum / count);
+	}
+
+	/**
+	 * Estime la taille d'un utilisateur  partir de sa silhouette : hauteur de sa bote englobante,
+	 * convertie en mm  sa profondeur moyenne
+	 * @param depth, scene, cartes de profondeur et de labels de l'image
+	 * @param yzFactor, hauteur du champ de vision  1 mm de profondeur (2 * tan(fov vertical / 2))
+	 * @return la taille en mm, ou NaN si l'utilisateur n'est pas entirement visible (coup en haut ou en bas)
+	 */
+	public static float estimateHeight(ShortBuffer depth, ShortBuffer scene, int width, int height, int user,
+			float yzFactor) {
+		float[] heights = new float[1];
+		estimateHeights(depth, scene, width, height, new int[] { user }, 1, yzFactor, heights);
+		return heights[0];
+	}
+
+	/**
+	 * Estime la taille de plusieurs utilisateurs en un seul parcours de l'image (voir estimateHeight)
+	 * @param users, les ID des utilisateurs, dont les count premiers sont estims
+	 * @param heights, reoit la taille de chaque utilisateur (mme index que users), ou NaN
+	 */
+	public static void estimateHeights(ShortBuffer depth, ShortBuffer scene, int width, int height, int[] users,
+			int count, float yzFactor, float[] heights) {
+		int maxUser = 0;
+		for (int i = 0; i < count; i++) {
+			maxUser = Math.max(maxUser, users[i]);
+		}
+		// Index de chaque ID dans users, -1 pour les utilisateurs ignors
+		int[] index = new int[maxUser + 1];
+		Arrays.fill(index, -1);
+		for (int i = 0; i < count; i++) {
+			if (users[i] > 0) {
+				index[users[i]] = i;
+			}
+		}
+		int[] top = new int[count], bottom = new int[count], depthCount = new int[count];
+		long[] depthSum = new long[count];
+		Arrays.fill(top, height);
+		Arrays.fill(bottom, -1);
+
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				int label = scene.get(row + x);
+				if (label <= 0 || label > maxUser || index[label] < 0) {
+					continue;
+				}
+				int i = index[label];
+				if (y < top[i]) {
+					top[i] = y;
+				}
+				bottom[i] = y;
+				int z = depth.get(row + x);
+				if (z != 0) {
+					depthSum[i] += z;
+					depthCount[i]++;
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (depthCount[i] == 0 || top[i] == 0 || bottom[i] == height - 1) {
+				heights[i] = Float.NaN;
+			} else {
+				float z = depthSum[i] / (float) depthCount[i];
+				heights[i] = (bottom[i] - top[i] + 1) / (float) height * z * yzFactor;
+			}
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package kinect;
+
+import java.awt.Color;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Colore l'image de profondeur en une seule passe par pixel.
+ * L'histogramme cumul est calcul en entiers, puis converti en une table (profondeur x couleur d'utilisateur)
+ * de couleurs RGB empaquetes dans un int : chaque pixel ne cote plus qu'une lecture dans cette table,
+ * sans calcul flottant ni appel aux getters de Color.
+ *
+ * En mode parallle, l'image est dcoupe en bandes de lignes traites sur un ForkJoinPool :
+ * chaque bande compte son propre histogramme, les histogrammes partiels sont fusionns,
+ * puis chaque bande crit ses pixels. Les tches et les histogrammes sont allous une seule fois.
+ *
+ * Si une RegionOfInterest est fournie, l'histogramme et la coloration ne parcourent que ses intervalles ;
+ * les autres pixels ne sont pas crits.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class DepthColorizer {
+
+	/**
+	 * Traitement d'une bande de lignes
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class BandTask extends RecursiveAction {
+		private final int fromRow, toRow;
+		private final int[] counts = new int[MAX_DEPTH];
+		private int points;
+		private boolean counting;
+
+		BandTask(int fromRow, int toRow) {
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (counting) {
+				points = countRows(fromRow, toRow, counts);
+			} else {
+				colorizeRows(fromRow, toRow);
+			}
+		}
+	}
+
+	/**
+	 * Coloration d'une image complte : comptage par bandes, fusion, table, puis criture par bandes
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class FrameTask extends RecursiveAction {
+		@Override
+		protected void compute() {
+			runBands(true);
+			int points = 0;
+			for (int i = 0; i < MAX_DEPTH; i++) {
+				histogram[i] = 0;
+			}
+			for (BandTask band : bands) {
+				int[] counts = band.counts;
+				for (int i = 1; i < MAX_DEPTH; i++) {
+					histogram[i] += counts[i];
+				}
+				points += band.points;
+			}
+			buildTable(points);
+			runBands(false);
+		}
+
+		private void runBands(boolean counting) {
+			for (BandTask band : bands) {
+				band.reinitialize();
+				band.counting = counting;
+			}
+			invokeAll(bands);
+		}
+	}
+
+	/** Profondeur maximale (mm) prise en compte par l'histogramme */
+	public static final int MAX_DEPTH = 10000;
+
+	/** Nombre de labels dont la ligne de la table est prcalcule */
+	private static final int MAX_LABELS = 256;
+
+	/** Couleur des pixels au premier plan selon le BackgroundModel, mais sans label */
+	public static final Color FOREGROUND_COLOR = Color.ORANGE;
+
+	/** Composantes RGB de chaque couleur, suivies de celles de FOREGROUND_COLOR */
+	private final int[] red, green, blue;
+
+	/** Nombre de couleurs des labels, et dbut de la ligne de la table pour le premier plan sans label */
+	private final int colorCount, foregroundRow;
+
+	/** Histogramme des profondeurs de l'image en cours */
+	private final int[] histogram = new int[MAX_DEPTH];
+
+	/** Couleur empaquete (0xRRGGBB) pour chaque couleur et chaque profondeur : lut[couleur * MAX_DEPTH + profondeur] */
+	private final int[] lut;
+
+	/** Dbut de la ligne de la table correspondant  chaque label */
+	private final int[] labelRows = new int[MAX_LABELS];
+
+	/** Dimensions des images */
+	private final int width, height;
+
+	/** Pool et tches du mode parallle (crs au premier passage en mode parallle) */
+	private boolean parallel = false;
+	private ForkJoinPool pool;
+	private BandTask[] bands;
+	private FrameTask frameTask;
+
+	/** Image en cours de coloration */
+	private short[] depth, scene;
+	private byte[] foreground, rgb;
+	private RegionOfInterest roi;
+
+	/**
+	 * @param colors, les couleurs des utilisateurs ; la dernire est celle de l'arrire-plan
+	 * et la premire n'est pas utilise (mme convention que KinectModule)
+	 * @param width, largeur des images
+	 * @param height, hauteur des images
+	 */
+	public DepthColorizer(Color[] colors, int width, int height) {
+		this.width = width;
+		this.height = height;
+		colorCount = colors.length;
+		foregroundRow = colorCount * MAX_DEPTH;
+		red = new int[colorCount + 1];
+		green = new int[colorCount + 1];
+		blue = new int[colorCount + 1];
+		for (int i = 0; i <= colorCount; i++) {
+			Color color = i < colorCount ? colors[i] : FOREGROUND_COLOR;
+			red[i] = color.getRed();
+			green[i] = color.getGreen();
+			blue[i] = color.getBlue();
+		}
+		lut = new int[(colorCount + 1) * MAX_DEPTH];
+		for (int label = 0; label < MAX_LABELS; label++) {
+			labelRows[label] = colorID(label) * MAX_DEPTH;
+		}
+	}
+
+	/**
+	 * Active ou dsactive le traitement parallle par bandes de lignes
+	 * @param parallel, false pour revenir au traitement sur le seul thread appelant
+	 */
+	public void setParallel(boolean parallel) {
+		if (parallel && pool == null) {
+			pool = ParallelRows.pool();
+			int bandCount = ParallelRows.bandCount(height);
+			bands = new BandTask[bandCount];
+			for (int i = 0; i < bandCount; i++) {
+				bands[i] = new BandTask(height * i / bandCount, height * (i + 1) / bandCount);
+			}
+			frameTask = new FrameTask();
+		}
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @return l'indice de la couleur d'un label (0 pour l'arrire-plan)
+	 */
+	private int colorID(int label) {
+		return label == 0 ? colorCount - 1 : label % (colorCount - 2) + 1;
+	}
+
+	/**
+	 * Colore une image : calcule l'histogramme, la table de couleurs, puis crit chaque pixel
+	 * @param depth, la profondeur de chaque pixel
+	 * @param scene, le label (utilisateur) de chaque pixel
+	 * @param rgb, reoit 3 octets par pixel
+	 */
+	public void colorize(short[] depth, short[] scene, byte[] rgb) {
+		colorize(depth, scene, rgb, null);
+	}
+
+	/**
+	 * Colore les pixels d'une rgion de l'image
+	 * @param roi, la rgion  traiter, ou null pour toute l'image
+	 */
+	public void colorize(short[] depth, short[] scene, byte[] rgb, RegionOfInterest roi) {
+		colorize(depth, scene, null, rgb, roi);
+	}
+
+	/**
+	 * Colore une image en distinguant les pixels sans label qui sont au premier plan (FOREGROUND_COLOR)
+	 * @param foreground, 1 pour chaque pixel au premier plan (voir BackgroundModel), ou null
+	 * @param roi, la rgion  traiter, ou null pour toute l'image
+	 */
+	public void colorize(short[] depth, short[] scene, byte[] foreground, byte[] rgb, RegionOfInterest roi) {
+		this.depth = depth;
+		this.scene = scene;
+		this.foreground = foreground;
+		this.rgb = rgb;
+		this.roi = roi;
+		if (parallel) {
+			frameTask.reinitialize();
+			pool.invoke(frameTask);
+		} else {
+			int points = countRows(0, height, histogram);
+			buildTable(points);
+			colorizeRows(0, height);
+		}
+		this.depth = this.scene = null;
+		this.foreground = this.rgb = null;
+		this.roi = null;
+	}
+
+	/**
+	 * Compte l'histogramme des ranges [fromRow, toRow[ de l'image en cours, limites  la rgion s'il y en a une
+	 * @return le nombre de pixels compts
+	 */
+	private int countRows(int fromRow, int toRow, int[] counts) {
+		if (roi == null) {
+			return countHistogram(depth, fromRow * width, toRow * width, counts);
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		int total = 0;
+		for (int y = fromRow; y < toRow; y++) {
+			for (int i = 0; i < roi.getSpanCount(y); i++) {
+				int from = y * width + roi.getSpanStart(y, i);
+				int to = y * width + roi.getSpanEnd(y, i);
+				for (int pos = from; pos < to; pos++) {
+					counts[depth[pos]]++;
+				}
+				total += to - from;
+			}
+		}
+		total -= counts[0];
+		counts[0] = 0;
+		return total;
+	}
+
+	/**
+	 * crit les ranges [fromRow, toRow[ de l'image en cours, limites  la rgion s'il y en a une
+	 */
+	private void colorizeRows(int fromRow, int toRow) {
+		if (roi == null) {
+			colorizeRange(depth, scene, rgb, fromRow * width, toRow * width);
+			return;
+		}
+		for (int y = fromRow; y < toRow; y++) {
+			for (int i = 0; i < roi.getSpanCount(y); i++) {
+				colorizeRange(depth, scene, rgb, y * width + roi.getSpanStart(y, i), y * width + roi.getSpanEnd(y, i));
+			}
+		}
+	}
+
+	/**
+	 * Compte les profondeurs non nulles d'une partie de l'image (counts[0] est remis  zro)
+	 * @return le nombre de pixels compts
+	 */
+	static int countHistogram(short[] depth, int from, int to, int[] counts) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		for (int pos = from; pos < to; pos++) {
+			counts[depth[pos]]++;
+		}
+		int points = to - from - counts[0];
+		counts[0] = 0;
+		return points;
+	}
+
+	/**
+	 * Construit la table de couleurs  partir de l'histogramme.
+	 * L'intensit d'une profondeur vaut 1 - (proportion des pixels plus proches), en virgule fixe sur 8 bits.
+	 * Seules les profondeurs prsentes dans l'image sont calcules : les autres ne seront pas lues.
+	 * @param points, le nombre de pixels de profondeur non nulle
+	 */
+	private void buildTable(int points) {
+		for (int c = 0; c < red.length; c++) {
+			lut[c * MAX_DEPTH] = 0;
+		}
+		int cumulative = 0;
+		for (int d = 1; d < MAX_DEPTH; d++) {
+			if (histogram[d] == 0) {
+				continue;
+			}
+			cumulative += histogram[d];
+			int intensity = (int) (((long) (points - cumulative) << 8) / points);
+			for (int c = 0; c < red.length; c++) {
+				lut[c * MAX_DEPTH + d] = ((red[c] * intensity) >> 8) << 16
+						| ((green[c] * intensity) >> 8) << 8
+						| ((blue[c] * intensity) >> 8);
+			}
+		}
+	}
+
+	/**
+	 * crit les pixels d'une partie de l'image  partir de la table de couleurs
+	 */
+	void colorizeRange(short[] depth, short[] scene, byte[] rgb, int from, int to) {
+		int[] lut = this.lut;
+		int[] labelRows = this.labelRows;
+		byte[] foreground = this.foreground;
+		for (int pos = from; pos < to; pos++) {
+			int label = scene[pos];
+			int row = label >= 0 && label < MAX_LABELS ? labelRows[label] : colorID(label) * MAX_DEPTH;
+			if (label == 0 && foreground != null && foreground[pos] != 0) {
+				row = foregroundRow;
+			}
+			int color = lut[row + depth[pos]];
+			int offset = 3 * pos;
+			rgb[offset] = (byte) (color >> 16);
+			rgb[offset+1] = (byte) (color >> 8);
+			rgb[offset+2] = (byte) color;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package kinect;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Mesure le cot par image de la coloration de la profondeur (640x480) :
+ * ancien calcul (histogramme flottant et getters de Color) contre DepthColorizer, en srie, en parallle
+ * et limit aux botes englobantes des utilisateurs (mode ROI).
+ * Les images sont synthtiques : un sol en pente bruit et deux utilisateurs.
+ * Vrifie que DepthColorizer donne les couleurs de l'ancien calcul ( l'arrondi prs), en srie comme en parallle.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class DepthColorizerBenchmark {
+
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int WARMUP = 100;
+	private static final int FRAMES = 300;
+
+	/** cart maximal acceptable avec l'ancien calcul, par canal (arrondi de l'histogramme entier) */
+	private static final int MAX_ERROR = 1;
+
+	private static final Color colors[] = {Color.RED, Color.CYAN, Color.GREEN, Color.MAGENTA, Color.PINK, Color.YELLOW, Color.BLUE, Color.WHITE};
+
+	public static void main(String[] args) {
+		short[] depth = new short[WIDTH * HEIGHT];
+		short[] scene = new short[WIDTH * HEIGHT];
+		fillScene(depth, scene, new Random(42));
+
+		byte[] expected = new byte[WIDTH * HEIGHT * 3];
+		byte[] actual = new byte[WIDTH * HEIGHT * 3];
+		byte[] parallel = new byte[WIDTH * HEIGHT * 3];
+		float[] histogram = new float[DepthColorizer.MAX_DEPTH];
+		DepthColorizer colorizer = new DepthColorizer(colors, WIDTH, HEIGHT);
+		DepthColorizer parallelColorizer = new DepthColorizer(colors, WIDTH, HEIGHT);
+		parallelColorizer.setParallel(true);
+
+		for (int i = 0; i < WARMUP; i++) {
+			colorizeFloat(depth, scene, expected, histogram);
+			colorizer.colorize(depth, scene, actual);
+			parallelColorizer.colorize(depth, scene, parallel);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			colorizeFloat(depth, scene, expected, histogram);
+		}
+		double floatMs = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+		start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			colorizer.colorize(depth, scene, actual);
+		}
+		double lutMs = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+		start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			parallelColorizer.colorize(depth, scene, parallel);
+		}
+		double parallelMs = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+		int maxError = 0;
+		for (int i = 0; i < expected.length; i++) {
+			maxError = Math.max(maxError, Math.abs((expected[i] & 0xFF) - (actual[i] & 0xFF)));
+		}
+		boolean parallelEquals = Arrays.equals(actual, parallel);
+
+		RegionOfInterest roi = new RegionOfInterest(WIDTH, HEIGHT);
+		for (int i = 0; i < WARMUP; i++) {
+			roi.compute(scene);
+			colorizer.colorize(depth, scene, actual, roi);
+		}
+		start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			roi.compute(scene);
+			colorizer.colorize(depth, scene, actual, roi);
+		}
+		double roiMs = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+		System.out.printf("float histogram + Color : %.3f ms/frame%n", floatMs);
+		System.out.printf("int histogram + RGB LUT : %.3f ms/frame (x%.1f)%n", lutMs, floatMs / lutMs);
+		System.out.printf("parallel (%d cores)      : %.3f ms/frame (x%.1f)%n",
+				Runtime.getRuntime().availableProcessors(), parallelMs, floatMs / parallelMs);
+		System.out.printf("ROI (%.0f%% of the pixels) : %.3f ms/frame (x%.1f)%n",
+				100.0 * roi.getPixelCount() / (WIDTH * HEIGHT), roiMs, floatMs / roiMs);
+		System.out.println("max channel difference  : " + maxError);
+		System.out.println("parallel equals serial  : " + parallelEquals);
+		boolean ok = maxError <= MAX_ERROR && parallelEquals;
+		System.out.println(ok ? "OK: same colors as the float histogram" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Gnre un sol en pente bruit, avec quelques utilisateurs rectangulaires devant
+	 */
+	private static void fillScene(short[] depth, short[] scene, Random random) {
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int pos = y * WIDTH + x;
+				depth[pos] = random.nextInt(20) == 0 ? 0 : (short) (1000 + 6 * y + random.nextInt(30));
+			}
+		}
+		for (int user = 1; user <= 2; user++) {
+			int left = 120 + (user - 1) * 300;
+			for (int y = 80; y < 460; y++) {
+				for (int x = left; x < left + 100; x++) {
+					int pos = y * WIDTH + x;
+					depth[pos] = (short) (1500 + 300 * user + random.nextInt(50));
+					scene[pos] = (short) user;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ancienne coloration de KinectModule (calcHist puis boucle par pixel)
+	 */
+	private static void colorizeFloat(short[] depth, short[] scene, byte[] imgbytes, float[] histogram) {
+		for (int i = 0; i < histogram.length; ++i)
+			histogram[i] = 0;
+
+		int points = 0;
+		for (int pos = 0; pos < depth.length; pos++) {
+			short depthVal = depth[pos];
+			if (depthVal != 0) {
+				histogram[depthVal]++;
+				points++;
+			}
+		}
+		for (int i = 1; i < histogram.length; i++) {
+			histogram[i] += histogram[i-1];
+		}
+		if (points > 0) {
+			for (int i = 1; i < histogram.length; i++) {
+				histogram[i] = 1.0f - (histogram[i] / (float)points);
+			}
+		}
+
+		for (int pos = 0; pos < depth.length; pos++) {
+			short pixel = depth[pos];
+			short user = scene[pos];
+			imgbytes[3*pos] = 0;
+			imgbytes[3*pos+1] = 0;
+			imgbytes[3*pos+2] = 0;
+			int colorID = user % (colors.length-2) + 1;
+			if (user == 0) {
+				colorID = colors.length-1;
+			}
+			if (pixel != 0) {
+				float histValue = histogram[pixel];
+				imgbytes[3*pos] = (byte)(histValue*colors[colorID].getRed());
+				imgbytes[3*pos+1] = (byte)(histValue*colors[colorID].getGreen());
+				imgbytes[3*pos+2] = (byte)(histValue*colors[colorID].getBlue());
+			}
+		}
+	}
+}
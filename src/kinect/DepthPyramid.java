@@ -0,0 +1,161 @@
+package kinect;
+
+/**
+ * Pyramide de profondeur : l'image est rduite de moiti  chaque niveau
+ * (niveau 0 : 640x480, niveau 1 : 320x240, niveau 2 : 160x120).
+ * Chaque pixel rduit reprend la profondeur et le label d'un des pixels non nuls de son bloc 2x2,
+ * choisi selon la Reduction ; les trous (profondeur nulle) ne sont donc pas mlangs aux mesures.
+ * Les tableaux de chaque niveau sont allous une seule fois.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class DepthPyramid {
+
+	/**
+	 * Choix du pixel reprsentant un bloc 2x2
+	 */
+	public enum Reduction {
+		/** Le pixel le plus proche (garde les silhouettes fines) */
+		MIN,
+		/** Le pixel mdian (filtre le bruit) */
+		MEDIAN
+	}
+
+	/** Nombre de niveaux rduits */
+	public static final int LEVELS = 2;
+
+	/** Les profondeurs sont codes sur 15 bits : un trou (0 - 1) devient 0x7FFF, plus loin que toute mesure */
+	private static final int HOLE_MASK = 0x7FFF;
+
+	/** Dimensions de chaque niveau */
+	private final int[] widths = new int[LEVELS + 1];
+	private final int[] heights = new int[LEVELS + 1];
+
+	/** Profondeur et labels de chaque niveau (le niveau 0 est l'image complte) */
+	private final short[][] depths = new short[LEVELS + 1][];
+	private final short[][] scenes = new short[LEVELS + 1][];
+
+	/** Nombre de niveaux rduits calculs pour l'image courante */
+	private int computedLevels = 0;
+
+	DepthPyramid(int width, int height) {
+		widths[0] = width;
+		heights[0] = height;
+		for (int level = 1; level <= LEVELS; level++) {
+			widths[level] = widths[level-1] / 2;
+			heights[level] = heights[level-1] / 2;
+			depths[level] = new short[widths[level] * heights[level]];
+			scenes[level] = new short[widths[level] * heights[level]];
+		}
+	}
+
+	/**
+	 * Calcule les niveaux rduits
+	 * @param depth, la profondeur de l'image complte
+	 * @param scene, les labels de l'image complte
+	 * @param levels, le nombre de niveaux rduits  calculer (0  LEVELS)
+	 * @param reduction, le choix du pixel reprsentant chaque bloc
+	 */
+	void compute(short[] depth, short[] scene, int levels, Reduction reduction) {
+		depths[0] = depth;
+		scenes[0] = scene;
+		computedLevels = Math.min(levels, LEVELS);
+		for (int level = 1; level <= computedLevels; level++) {
+			reduce(level, reduction);
+		}
+	}
+
+	/**
+	 * Rduit le niveau level-1 dans le niveau level.
+	 * Chaque pixel est cod en un entier (profondeur - 1) << 16 | label, les trous devenant la plus grande
+	 * profondeur : le tri du bloc se fait alors sans branchement, avec Math.min et Math.max.
+	 */
+	private void reduce(int level, Reduction reduction) {
+		short[] srcDepth = depths[level-1];
+		short[] srcScene = scenes[level-1];
+		short[] dstDepth = depths[level];
+		short[] dstScene = scenes[level];
+		int srcWidth = widths[level-1];
+		int width = widths[level];
+		int height = heights[level];
+		boolean median = reduction == Reduction.MEDIAN;
+
+		for (int y = 0; y < height; y++) {
+			int top = 2 * y * srcWidth;
+			int bottom = top + srcWidth;
+			int pos = y * width;
+			for (int x = 0; x < width; x++, pos++) {
+				int left = 2 * x;
+				int k0 = key(srcDepth, srcScene, top + left);
+				int k1 = key(srcDepth, srcScene, top + left + 1);
+				int k2 = key(srcDepth, srcScene, bottom + left);
+				int k3 = key(srcDepth, srcScene, bottom + left + 1);
+
+				int min01 = Math.min(k0, k1);
+				int max01 = Math.max(k0, k1);
+				int min23 = Math.min(k2, k3);
+				int max23 = Math.max(k2, k3);
+				int chosen = Math.min(min01, min23);
+				if (median) {
+					// Mdiane infrieure des pixels non nuls : le deuxime plus petit s'il y en a au moins 3
+					int holes = hole(srcDepth, top + left) + hole(srcDepth, top + left + 1)
+							+ hole(srcDepth, bottom + left) + hole(srcDepth, bottom + left + 1);
+					if (holes <= 1) {
+						chosen = Math.min(Math.max(min01, min23), Math.min(max01, max23));
+					}
+				}
+
+				int depth = ((chosen >>> 16) + 1) & HOLE_MASK;
+				dstDepth[pos] = (short) depth;
+				dstScene[pos] = depth == 0 ? 0 : (short) chosen;
+			}
+		}
+	}
+
+	private static int key(short[] depth, short[] scene, int pos) {
+		return ((depth[pos] - 1) & HOLE_MASK) << 16 | (scene[pos] & 0xFFFF);
+	}
+
+	private static int hole(short[] depth, int pos) {
+		return depth[pos] == 0 ? 1 : 0;
+	}
+
+	/**
+	 * @return le nombre de niveaux rduits disponibles pour cette image
+	 */
+	public int getComputedLevels() {
+		return computedLevels;
+	}
+
+	public int getWidth(int level) {
+		return widths[level];
+	}
+
+	public int getHeight(int level) {
+		return heights[level];
+	}
+
+	/**
+	 * @param level, de 0 (image complte)  getComputedLevels()
+	 * @return la profondeur du niveau
+	 */
+	public short[] getDepth(int level) {
+		checkLevel(level);
+		return depths[level];
+	}
+
+	/**
+	 * @param level, de 0 (image complte)  getComputedLevels()
+	 * @return les labels du niveau
+	 */
+	public short[] getScene(int level) {
+		checkLevel(level);
+		return scenes[level];
+	}
+
+	private void checkLevel(int level) {
+		if (level < 0 || level > computedLevels) {
+			throw new IllegalArgumentException("Pyramid level " + level + " not computed, use KinectModule.requestPyramidLevel");
+		}
+	}
+}
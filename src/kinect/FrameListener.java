@@ -0,0 +1,16 @@
+package kinect;
+
+/**
+ * Interface  implmenter pour tre prvenu de l'arrive d'une nouvelle image de la Kinect.
+ * Chaque image n'est signale qu'une seule fois, sur le thread de rendu (depuis KinectModule.updateDepth()).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public interface FrameListener {
+
+	/**
+	 * Appele une fois par nouvelle image, aprs la mise  jour des squelettes et des gestures
+	 * @param frame, l'image (numro de squence et timestamp du capteur), valide jusqu'au prochain appel
+	 */
+	public void frameArrived(KinectFrame frame);
+}
@@ -0,0 +1,114 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Mesure l'anneau d'images partag (FrameRingWriter / FrameRingReader), sans capteur :
+ * - cot d'une criture (copie de l'image dans l'anneau) ;
+ * - dbit de capture d'un KinectModule (utilisateurs synthtiques, aussi vite que possible)
+ *   sans publication, avec publication, puis avec deux lecteurs dans d'autres JVM :
+ *   l'un rapide, l'autre traitant chaque image en SLOW_READER_MS (il est dpass par l'crivain et doit sauter).
+ * La publication ne doit pas ralentir la capture en attendant les lecteurs, et chaque lecteur doit
+ * lire des images intactes : le programme choue si un lecteur n'en a lu aucune.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class FrameRingBenchmark {
+
+	private static final int USERS = 4;
+	private static final long DURATION_MS = 4000;
+	private static final int WRITES = 2000;
+	private static final int SLOW_READER_MS = 100;
+
+	/** false si un processus lecteur a chou */
+	private static boolean readersOk = true;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File shm = new File("/dev/shm");
+		File ring = shm.isDirectory() ? new File(shm, "kinect-benchmark.ring")
+				: File.createTempFile("kinect-benchmark", ".ring");
+		ring.deleteOnExit();
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores, ring " + ring + ", "
+				+ FrameRingWriter.DEFAULT_SLOTS + " slots");
+
+		measureWrite(ring);
+
+		// Chauffe
+		capture(null, false);
+
+		System.out.printf("Capture without publishing: %.0f frames/s%n", capture(null, false));
+		System.out.printf("Capture with publishing: %.0f frames/s%n", capture(ring, false));
+		System.out.printf("Capture with publishing and 2 reader processes: %.0f frames/s%n", capture(ring, true));
+		System.out.println(readersOk ? "OK: every reader got intact frames" : "FAILED: a reader got no intact frame");
+		if (!readersOk) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * crit WRITES images dans l'anneau, sans lecteur
+	 */
+	private static void measureWrite(File ring) throws IOException {
+		SyntheticFrameSource source = new SyntheticFrameSource(USERS, SyntheticFrameSource.Motion.values(), false);
+		KinectFrame frame = new KinectFrame(source.getWidth(), source.getHeight());
+		source.getDepthMap().get(frame.depth);
+		source.getSceneMap().get(frame.scene);
+		frame.userCount = USERS;
+		FrameRingWriter writer = new FrameRingWriter(ring, FrameRingWriter.DEFAULT_SLOTS,
+				source.getWidth(), source.getHeight());
+		for (int i = 0; i < WRITES; i++) {
+			writer.write(frame);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < WRITES; i++) {
+			writer.write(frame);
+		}
+		long elapsed = System.nanoTime() - start;
+		writer.close();
+		long bytes = 4L * source.getWidth() * source.getHeight();
+		System.out.printf("Write: %.0f us/frame (%.1f GB/s of depth and labels)%n",
+				elapsed / 1e3 / WRITES, bytes * WRITES / (elapsed / 1e9) / 1e9);
+	}
+
+	/**
+	 * @param ring, l'anneau o publier, null pour ne pas publier
+	 * @param readers, true pour lancer les deux processus lecteurs
+	 * @return le nombre d'images captures par seconde
+	 */
+	private static double capture(File ring, boolean readers) throws IOException, InterruptedException {
+		KinectModule module = new KinectModule(
+				new SyntheticFrameSource(USERS, SyntheticFrameSource.Motion.values(), false));
+		if (ring != null) {
+			module.startPublishing(ring);
+		}
+		ArrayList<Process> processes = new ArrayList<Process>();
+		if (readers) {
+			double seconds = DURATION_MS / 1000.0;
+			processes.add(startReader(ring, seconds, 0));
+			processes.add(startReader(ring, seconds, SLOW_READER_MS));
+		}
+		long startSequence = module.getSkeletonSnapshot().getSequence();
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < DURATION_MS * 1000000L) {
+			module.updateDepth();
+			Thread.sleep(1);
+		}
+		double fps = (module.getSkeletonSnapshot().getSequence() - startSequence) / ((System.nanoTime() - start) / 1e9);
+		for (Process process : processes) {
+			readersOk &= process.waitFor() == 0;
+		}
+		module.close();
+		return fps;
+	}
+
+	private static Process startReader(File ring, double seconds, int workMillis) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				FrameRingReader.class.getName(), ring.getPath(), String.valueOf(seconds), String.valueOf(workMillis));
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		return builder.start();
+	}
+}
@@ -0,0 +1,78 @@
+package kinect;
+
+import java.nio.ByteOrder;
+
+/**
+ * Constantes du format de l'anneau d'images partag entre processus (voir FrameRingWriter et FrameRingReader).
+ *
+ * En-tte de HEADER_SIZE octets : MAGIC (int), VERSION (int), nombre d'emplacements (int), largeur maximale (int),
+ * hauteur maximale (int), nombre maximum d'utilisateurs (int), nombre de joints (int), taille d'un emplacement (int),
+ * numro de la dernire image publie (long, 0 si aucune), tat de l'crivain (int, WRITER_OPEN ou WRITER_CLOSED).
+ *
+ * Puis les emplacements, l'image n tant dans l'emplacement n % nombre d'emplacements :
+ * numro de dbut (long), timestamp en s (long), numro d'image (int), nombre d'utilisateurs (int),
+ * largeur et hauteur de l'image (int, qui changent avec le mode du capteur),
+ * ID de chaque utilisateur (int), tracking de chaque utilisateur (int, 0 ou 1),
+ * squelettes (x, y, z, confiance en float pour chaque joint de KinectModule.TRACKED_JOINTS, en coordonnes projectives),
+ * profondeur (short par pixel), labels (short par pixel), numro de fin (long).
+ * La profondeur et les labels occupent la place d'une image de taille maximale, quelle que soit celle de l'image.
+ *
+ * L'crivain crit le numro de dbut, puis les donnes, puis le numro de fin. Un lecteur lit le numro de fin,
+ * les donnes, puis le numro de dbut : l'image est intacte si les deux valent le numro attendu.
+ * Toutes les valeurs sont crites en little-endian.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public final class FrameRingFormat {
+
+	/** "KRNG" */
+	public static final int MAGIC = 0x4B524E47;
+
+	/** Version courante du format */
+	public static final int VERSION = 2;
+
+	/** Ordre des octets dans le fichier */
+	public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/** Position des champs de l'en-tte */
+	static final int SLOT_COUNT = 8, WIDTH = 12, HEIGHT = 16, MAX_USERS = 20, JOINT_COUNT = 24, SLOT_SIZE = 28;
+	static final int LATEST = 32, WRITER_STATE = 40;
+
+	/** Taille de l'en-tte en octets */
+	public static final int HEADER_SIZE = 64;
+
+	/** tat de l'crivain */
+	public static final int WRITER_OPEN = 1, WRITER_CLOSED = 0;
+
+	/** Position des champs dans un emplacement */
+	static final int BEGIN = 0, TIMESTAMP = 8, FRAME_ID = 16, USER_COUNT = 20, FRAME_WIDTH = 24, FRAME_HEIGHT = 28;
+	static final int USERS = 32;
+
+	private FrameRingFormat() {
+	}
+
+	static int trackingOffset(int maxUsers) {
+		return USERS + 4 * maxUsers;
+	}
+
+	static int skeletonsOffset(int maxUsers) {
+		return trackingOffset(maxUsers) + 4 * maxUsers;
+	}
+
+	static int depthOffset(int maxUsers, int jointCount) {
+		return skeletonsOffset(maxUsers) + 4 * maxUsers * jointCount * KinectFrame.JOINT_SIZE;
+	}
+
+	static int sceneOffset(int maxUsers, int jointCount, int width, int height) {
+		return depthOffset(maxUsers, jointCount) + 2 * width * height;
+	}
+
+	static int endOffset(int maxUsers, int jointCount, int width, int height) {
+		// Align sur 8 octets
+		return (sceneOffset(maxUsers, jointCount, width, height) + 2 * width * height + 7) & ~7;
+	}
+
+	static int slotSize(int maxUsers, int jointCount, int width, int height) {
+		return endOffset(maxUsers, jointCount, width, height) + 8;
+	}
+}
@@ -0,0 +1,348 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lit, depuis n'importe quelle JVM, l'anneau d'images publi par un KinectModule (voir FrameRingWriter).
+ * Les images ne sont pas copies : Frame donne des vues sur le fichier projet en mmoire.
+ * L'crivain n'attend jamais les lecteurs ; un lecteur trop lent, dpass d'un tour par l'crivain,
+ * saute directement  la dernire image publie (voir getSkipped()). Une image peut aussi tre crase
+ * pendant sa lecture : isValid() doit tre appele aprs l'avoir utilise, et ses donnes ignores si elle est fausse.
+ *
+ * En ligne de commande : FrameRingReader fichier [dure en s] [traitement par image en ms]
+ * lit l'anneau et affiche des statistiques.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class FrameRingReader {
+
+	/**
+	 * Vue sur une image de l'anneau, valide jusqu'au prochain appel  next()
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	public class Frame {
+		private long sequence;
+		private int slot;
+		private int offset;
+
+		private void set(long sequence, int slot) {
+			this.sequence = sequence;
+			this.slot = slot;
+			offset = slotOffset(slot);
+		}
+
+		/**
+		 * @return le numro de l'image, attribu par l'crivain  partir de 1
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return le timestamp du capteur (s)
+		 */
+		public long getTimestamp() {
+			return buffer.getLong(offset + FrameRingFormat.TIMESTAMP);
+		}
+
+		public int getFrameID() {
+			return buffer.getInt(offset + FrameRingFormat.FRAME_ID);
+		}
+
+		/**
+		 * @return la largeur de l'image, au plus FrameRingReader.getWidth()
+		 */
+		public int getWidth() {
+			return Math.max(0, Math.min(width, buffer.getInt(offset + FrameRingFormat.FRAME_WIDTH)));
+		}
+
+		public int getHeight() {
+			return Math.max(0, Math.min(height, buffer.getInt(offset + FrameRingFormat.FRAME_HEIGHT)));
+		}
+
+		public int getUserCount() {
+			return Math.max(0, Math.min(maxUsers, buffer.getInt(offset + FrameRingFormat.USER_COUNT)));
+		}
+
+		/**
+		 * @param index, de 0  getUserCount() - 1
+		 * @return l'ID de l'utilisateur
+		 */
+		public int getUser(int index) {
+			return buffer.getInt(offset + FrameRingFormat.USERS + 4 * index);
+		}
+
+		public boolean isTracking(int index) {
+			return buffer.getInt(offset + trackingOffset + 4 * index) != 0;
+		}
+
+		/**
+		 * @param index, de 0  getUserCount() - 1
+		 * @param joint, index dans KinectModule.TRACKED_JOINTS
+		 * @param component, KinectFrame.X, Y, Z ou CONFIDENCE
+		 */
+		public float getJoint(int index, int joint, int component) {
+			return buffer.getFloat(offset + skeletonsOffset
+					+ 4 * ((index * jointCount + joint) * KinectFrame.JOINT_SIZE + component));
+		}
+
+		/**
+		 * Copie le squelette d'un utilisateur
+		 * @param joints, reoit x, y, z, confiance de chaque joint (voir KinectFrame)
+		 */
+		public void getSkeleton(int index, float[][] joints) {
+			for (int j = 0; j < Math.min(joints.length, jointCount); j++) {
+				for (int c = 0; c < KinectFrame.JOINT_SIZE; c++) {
+					joints[j][c] = getJoint(index, j, c);
+				}
+			}
+		}
+
+		/**
+		 * @return la profondeur (mm) de chaque pixel, vue sur l'anneau
+		 */
+		public ShortBuffer getDepthMap() {
+			return limit(depthViews[slot]);
+		}
+
+		/**
+		 * @return le label (utilisateur) de chaque pixel, vue sur l'anneau
+		 */
+		public ShortBuffer getSceneMap() {
+			return limit(sceneViews[slot]);
+		}
+
+		/**
+		 * @return la vue, limite aux getWidth() * getHeight() pixels de l'image
+		 */
+		private ShortBuffer limit(ShortBuffer view) {
+			view.clear();
+			view.limit(getWidth() * getHeight());
+			return view;
+		}
+
+		/**
+		 * @return true si l'image n'a pas t crase depuis que next() l'a renvoye :
+		 * tout ce qui en a t lu auparavant est cohrent
+		 */
+		public boolean isValid() {
+			loadFence();
+			if (buffer.getLong(offset + FrameRingFormat.BEGIN) == sequence) {
+				return true;
+			}
+			torn++;
+			return false;
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int slotCount, slotSize, width, height, maxUsers, jointCount;
+	private final int trackingOffset, skeletonsOffset, endOffset;
+	private final ShortBuffer[] depthViews, sceneViews;
+	private final Frame frame = new Frame();
+
+	/** Numro de la dernire image renvoye par next() */
+	private long lastRead = 0;
+
+	/** Images sautes parce que l'crivain avait un tour d'avance, images crases pendant leur lecture */
+	private long skipped = 0, torn = 0;
+
+	/** Lecture volatile servant de barrire entre les champs (voir FrameRingWriter.fence()) */
+	private static volatile int barrier;
+
+	/**
+	 * Ouvre un anneau existant en lecture seule
+	 * @param path, le fichier de l'anneau
+	 * @throws IOException si le fichier n'existe pas ou n'est pas un anneau d'images
+	 */
+	public FrameRingReader(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		FileChannel channel = file.getChannel();
+		if (channel.size() < FrameRingFormat.HEADER_SIZE) {
+			file.close();
+			throw new IOException("Not a frame ring: " + path);
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		buffer.order(FrameRingFormat.ORDER);
+		if (buffer.getInt(0) != FrameRingFormat.MAGIC || buffer.getInt(4) != FrameRingFormat.VERSION) {
+			file.close();
+			throw new IOException("Not a frame ring, or unsupported version: " + path);
+		}
+		slotCount = buffer.getInt(FrameRingFormat.SLOT_COUNT);
+		width = buffer.getInt(FrameRingFormat.WIDTH);
+		height = buffer.getInt(FrameRingFormat.HEIGHT);
+		maxUsers = buffer.getInt(FrameRingFormat.MAX_USERS);
+		jointCount = buffer.getInt(FrameRingFormat.JOINT_COUNT);
+		slotSize = buffer.getInt(FrameRingFormat.SLOT_SIZE);
+		if (slotSize != FrameRingFormat.slotSize(maxUsers, jointCount, width, height)
+				|| channel.size() < FrameRingFormat.HEADER_SIZE + (long) slotCount * slotSize) {
+			file.close();
+			throw new IOException("Corrupted frame ring header: " + path);
+		}
+		trackingOffset = FrameRingFormat.trackingOffset(maxUsers);
+		skeletonsOffset = FrameRingFormat.skeletonsOffset(maxUsers);
+		endOffset = FrameRingFormat.endOffset(maxUsers, jointCount, width, height);
+
+		depthViews = new ShortBuffer[slotCount];
+		sceneViews = new ShortBuffer[slotCount];
+		for (int s = 0; s < slotCount; s++) {
+			int slot = slotOffset(s);
+			depthViews[s] = view(buffer, slot + FrameRingFormat.depthOffset(maxUsers, jointCount),
+					2 * width * height).asShortBuffer();
+			sceneViews[s] = view(buffer, slot + FrameRingFormat.sceneOffset(maxUsers, jointCount, width, height),
+					2 * width * height).asShortBuffer();
+		}
+	}
+
+	/**
+	 * @return une vue de length octets de buffer  partir de offset, dans l'ordre des octets de l'anneau
+	 */
+	static ByteBuffer view(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		return view.slice().order(FrameRingFormat.ORDER);
+	}
+
+	private int slotOffset(int slot) {
+		return FrameRingFormat.HEADER_SIZE + slot * slotSize;
+	}
+
+	private static void loadFence() {
+		int b = barrier;
+	}
+
+	/**
+	 * Passe  l'image suivante. Si l'crivain a un tour d'avance, saute  la dernire image publie.
+	 * @return la vue sur l'image (toujours le mme objet), ou null s'il n'y a pas de nouvelle image
+	 */
+	public Frame next() {
+		while (true) {
+			long latest = buffer.getLong(FrameRingFormat.LATEST);
+			if (latest < lastRead) {
+				// L'crivain a recr l'anneau
+				lastRead = 0;
+			}
+			if (latest == lastRead) {
+				return null;
+			}
+			long wanted = lastRead + 1;
+			// L'emplacement de l'image suivante est peut-tre dj en cours de rcriture
+			if (latest - wanted >= slotCount - 1) {
+				skipped += latest - wanted;
+				wanted = latest;
+			}
+			int slot = (int) (wanted % slotCount);
+			loadFence();
+			long end = buffer.getLong(slotOffset(slot) + endOffset);
+			loadFence();
+			lastRead = wanted;
+			if (end == wanted) {
+				frame.set(wanted, slot);
+				return frame;
+			}
+			// crase entre la lecture de LATEST et celle de l'emplacement
+			skipped++;
+		}
+	}
+
+	/**
+	 * @return false si l'crivain a ferm l'anneau
+	 */
+	public boolean isWriterOpen() {
+		return buffer.getInt(FrameRingFormat.WRITER_STATE) == FrameRingFormat.WRITER_OPEN;
+	}
+
+	/**
+	 * @return la largeur maximale des images (voir Frame.getWidth())
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return la hauteur maximale des images (voir Frame.getHeight())
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return le nombre d'images sautes parce que ce lecteur tait trop lent
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return le nombre d'images crases pendant leur lecture (isValid() a renvoy false)
+	 */
+	public long getTorn() {
+		return torn;
+	}
+
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Lit l'anneau pendant la dure donne, en comptant les pixels des utilisateurs de chaque image ;
+	 * se termine avec le code 1 si aucune image intacte n'a t lue
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: FrameRingReader <ring file> [seconds] [work ms per frame]");
+			System.exit(1);
+		}
+		File path = new File(args[0]);
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+		long work = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+		FrameRingReader reader = new FrameRingReader(path);
+		long frames = 0, userPixels = 0, users = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < seconds * 1e9 && reader.isWriterOpen()) {
+			Frame frame = reader.next();
+			if (frame == null) {
+				Thread.sleep(1);
+				continue;
+			}
+			ShortBuffer scene = frame.getSceneMap();
+			int pixels = 0;
+			for (int i = 0; i < scene.limit(); i++) {
+				if (scene.get(i) != 0) {
+					pixels++;
+				}
+			}
+			int count = frame.getUserCount();
+			if (work > 0) {
+				Thread.sleep(work);
+			}
+			if (frame.isValid()) {
+				frames++;
+				userPixels += pixels;
+				users += count;
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Reader (%d ms/frame): %d frames (%.0f/s), %d skipped, %d torn, %.1f users and %d user pixels per frame%n",
+				work, frames, frames / elapsed, reader.getSkipped(), reader.getTorn(),
+				users / (double) Math.max(1, frames), userPixels / Math.max(1, frames));
+		reader.close();
+		if (frames == 0) {
+			System.exit(1);
+		}
+	}
+}
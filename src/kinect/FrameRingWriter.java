@@ -0,0 +1,223 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Publie les images du capteur dans un fichier projet en mmoire (voir FrameRingFormat), pour que d'autres
+ * processus (statistiques, second affichage) lisent la profondeur et les squelettes sans accder  la Kinect,
+ * qu'OpenNI rserve  un seul processus. Sous Linux, un fichier de /dev/shm reste entirement en mmoire.
+ * L'criture ne fait que des copies dans l'anneau : elle n'attend jamais les lecteurs,
+ * qui dtectent eux-mmes les images crases (voir FrameRingReader).
+ * Utilis uniquement par le thread de capture.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class FrameRingWriter {
+
+	/** Nombre d'emplacements par dfaut : une seconde  30 images/s */
+	public static final int DEFAULT_SLOTS = 32;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int slotCount, slotSize, jointCount, width, height;
+	private final int endOffset;
+
+	/** Vues de chaque emplacement, cres une fois */
+	private final ShortBuffer[] depthViews, sceneViews;
+	private final IntBuffer[] userViews;
+	private final FloatBuffer[] skeletonViews;
+
+	/** Numro de la dernire image crite */
+	private long sequence = 0;
+
+	/** criture volatile servant de barrire entre les champs (voir fence()) */
+	private static volatile int barrier;
+
+	/**
+	 * Cre (ou remplace) l'anneau. Le nouvel anneau est prpar dans un fichier temporaire puis renomm :
+	 * un fichier existant n'est jamais tronqu sous ses lecteurs, qui le voient ferm et gardent leur projection.
+	 * @param path, le fichier, par exemple /dev/shm/kinect.ring
+	 * @param slotCount, le nombre d'images gardes
+	 * @param width, height, les dimensions maximales des images
+	 */
+	public FrameRingWriter(File path, int slotCount, int width, int height) throws IOException {
+		if (slotCount < 2) {
+			throw new IllegalArgumentException("A frame ring needs at least 2 slots");
+		}
+		this.slotCount = slotCount;
+		this.width = width;
+		this.height = height;
+		int maxUsers = KinectFrame.MAX_USERS;
+		jointCount = KinectModule.TRACKED_JOINTS.length;
+		slotSize = FrameRingFormat.slotSize(maxUsers, jointCount, width, height);
+		endOffset = FrameRingFormat.endOffset(maxUsers, jointCount, width, height);
+		long size = FrameRingFormat.HEADER_SIZE + (long) slotCount * slotSize;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Frame ring too large: " + size + " bytes");
+		}
+
+		File parent = path.getAbsoluteFile().getParentFile();
+		File temporary = File.createTempFile(path.getName(), ".tmp", parent);
+		file = new RandomAccessFile(temporary, "rw");
+		file.setLength(size);
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.order(FrameRingFormat.ORDER);
+
+		depthViews = new ShortBuffer[slotCount];
+		sceneViews = new ShortBuffer[slotCount];
+		userViews = new IntBuffer[slotCount];
+		skeletonViews = new FloatBuffer[slotCount];
+		for (int s = 0; s < slotCount; s++) {
+			int slot = slotOffset(s);
+			userViews[s] = FrameRingReader.view(buffer, slot + FrameRingFormat.USERS, 8 * maxUsers).asIntBuffer();
+			skeletonViews[s] = FrameRingReader.view(buffer, slot + FrameRingFormat.skeletonsOffset(maxUsers),
+					4 * maxUsers * jointCount * KinectFrame.JOINT_SIZE).asFloatBuffer();
+			depthViews[s] = FrameRingReader.view(buffer, slot + FrameRingFormat.depthOffset(maxUsers, jointCount),
+					2 * width * height).asShortBuffer();
+			sceneViews[s] = FrameRingReader.view(buffer,
+					slot + FrameRingFormat.sceneOffset(maxUsers, jointCount, width, height), 2 * width * height).asShortBuffer();
+		}
+
+		buffer.putInt(0, FrameRingFormat.MAGIC);
+		buffer.putInt(4, FrameRingFormat.VERSION);
+		buffer.putInt(FrameRingFormat.SLOT_COUNT, slotCount);
+		buffer.putInt(FrameRingFormat.WIDTH, width);
+		buffer.putInt(FrameRingFormat.HEIGHT, height);
+		buffer.putInt(FrameRingFormat.MAX_USERS, maxUsers);
+		buffer.putInt(FrameRingFormat.JOINT_COUNT, jointCount);
+		buffer.putInt(FrameRingFormat.SLOT_SIZE, slotSize);
+		buffer.putLong(FrameRingFormat.LATEST, 0);
+		buffer.putInt(FrameRingFormat.WRITER_STATE, FrameRingFormat.WRITER_OPEN);
+
+		closeExisting(path);
+		try {
+			Files.move(temporary.toPath(), path.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			file.close();
+			temporary.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Marque ferm l'anneau que le nouveau remplace (par exemple celui d'un processus arrt sans close()),
+	 * pour que ses lecteurs cessent d'attendre des images et rouvrent le fichier
+	 */
+	private static void closeExisting(File path) {
+		if (path.length() < FrameRingFormat.HEADER_SIZE) {
+			return;
+		}
+		try {
+			RandomAccessFile existing = new RandomAccessFile(path, "rw");
+			try {
+				MappedByteBuffer header = existing.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+						FrameRingFormat.HEADER_SIZE);
+				header.order(FrameRingFormat.ORDER);
+				if (header.getInt(0) == FrameRingFormat.MAGIC) {
+					header.putInt(FrameRingFormat.WRITER_STATE, FrameRingFormat.WRITER_CLOSED);
+				}
+			} finally {
+				existing.close();
+			}
+		} catch (IOException e) {
+			// Ce n'est pas un anneau lisible : il est simplement remplac
+		}
+	}
+
+	private int slotOffset(int slot) {
+		return FrameRingFormat.HEADER_SIZE + slot * slotSize;
+	}
+
+	/**
+	 * crit une image dans l'emplacement suivant, puis la publie dans l'en-tte
+	 * @throws IllegalArgumentException si l'image dpasse les dimensions maximales de l'anneau
+	 */
+	public void write(KinectFrame frame) {
+		if (frame.getWidth() > width || frame.getHeight() > height) {
+			throw new IllegalArgumentException("Frame larger than the ring: " + frame.getWidth() + "x" + frame.getHeight());
+		}
+		long number = ++sequence;
+		int s = (int) (number % slotCount);
+		int slot = slotOffset(s);
+
+		// Les lecteurs de l'image prcdemment dans cet emplacement verront qu'elle est crase
+		buffer.putLong(slot + FrameRingFormat.BEGIN, number);
+		fence();
+
+		buffer.putLong(slot + FrameRingFormat.TIMESTAMP, frame.timestamp);
+		buffer.putInt(slot + FrameRingFormat.FRAME_ID, frame.frameID);
+		buffer.putInt(slot + FrameRingFormat.USER_COUNT, frame.userCount);
+		buffer.putInt(slot + FrameRingFormat.FRAME_WIDTH, frame.getWidth());
+		buffer.putInt(slot + FrameRingFormat.FRAME_HEIGHT, frame.getHeight());
+		IntBuffer users = userViews[s];
+		users.clear();
+		users.put(frame.users, 0, frame.userCount);
+		users.position(KinectFrame.MAX_USERS);
+		for (int i = 0; i < frame.userCount; i++) {
+			users.put(frame.tracking[i] ? 1 : 0);
+		}
+		FloatBuffer skeletons = skeletonViews[s];
+		skeletons.clear();
+		for (int i = 0; i < frame.userCount; i++) {
+			for (float[] joint : frame.skeletons[i]) {
+				skeletons.put(joint);
+			}
+		}
+		ShortBuffer depth = depthViews[s];
+		depth.clear();
+		depth.put(frame.depth);
+		ShortBuffer scene = sceneViews[s];
+		scene.clear();
+		scene.put(frame.scene);
+
+		fence();
+		buffer.putLong(slot + endOffset, number);
+		fence();
+		buffer.putLong(FrameRingFormat.LATEST, number);
+	}
+
+	/**
+	 * Empche le compilateur de dplacer les critures d'un ct  l'autre de l'appel.
+	 * Les critures d'un MappedByteBuffer ne sont pas ordonnes par le modle mmoire de Java ;
+	 * l'criture d'un volatile les ordonne en pratique (barrire complte sur x86).
+	 */
+	static void fence() {
+		barrier = 0;
+	}
+
+	/**
+	 * @return le numro de la dernire image crite
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Signale aux lecteurs que plus aucune image ne sera crite, puis ferme le fichier.
+	 * La projection reste valide pour les lecteurs ; elle est libre par le ramasse-miettes.
+	 */
+	public void close() {
+		buffer.putInt(FrameRingFormat.WRITER_STATE, FrameRingFormat.WRITER_CLOSED);
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
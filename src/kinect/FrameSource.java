@@ -0,0 +1,104 @@
+package kinect;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import org.OpenNI.GeneralException;
+import org.OpenNI.IObservable;
+import org.OpenNI.StatusException;
+import org.OpenNI.UserEventArgs;
+
+/**
+ * Source des images (profondeur, labels des utilisateurs, squelettes) utilise par le KinectModule.
+ * L'implmentation par dfaut interroge la Kinect via OpenNI, mais une session enregistre
+ * peut galement tre rejoue, ce qui permet de faire tourner l'application sans capteur.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public interface FrameSource {
+
+	/**
+	 * Attend la prochaine image et la rend disponible via les accesseurs
+	 * @param timeout, l'attente maximale en ms
+	 * @return true si une nouvelle image est disponible, false si elle n'est pas arrive  temps
+	 * @throws GeneralException, si la source ne peut plus fournir d'images
+	 */
+	boolean waitForUpdate(long timeout) throws GeneralException;
+
+	/**
+	 * Rinitialise la source lorsqu'elle ne fournit plus d'images (capteur bloqu ou dbranch).
+	 * Les utilisateurs prsents sont signals comme perdus.
+	 * @return false si la source ne peut pas tre rinitialise
+	 * @throws GeneralException, si la rinitialisation a chou (elle pourra tre retente)
+	 */
+	boolean restart() throws GeneralException;
+
+	/**
+	 * Change la rsolution et la frquence des images,  appeler entre deux waitForUpdate()
+	 * @return false si la source ne permet pas ce mode (elle garde alors le sien)
+	 */
+	boolean setMode(SensorMode mode);
+
+	/** Largeur des images de profondeur */
+	int getWidth();
+
+	/** Hauteur des images de profondeur */
+	int getHeight();
+
+	/**
+	 * Renvoie la carte de profondeur de l'image courante (en mm, 0 si inconnue)
+	 * @return un buffer de width*height valeurs, positionn au dbut
+	 */
+	ShortBuffer getDepthMap();
+
+	/**
+	 * Renvoie la carte des labels de l'image courante (ID de l'utilisateur, 0 pour l'arrire-plan)
+	 * @return un buffer de width*height valeurs, positionn au dbut
+	 */
+	ShortBuffer getSceneMap();
+
+	/**
+	 * Renvoie l'image de la camra RGB (3 octets par pixel),  la rsolution de la profondeur ;
+	 * comme les autres cartes, elle n'est lue que par le thread de capture
+	 * @return le buffer de l'image, ou null si la source n'a pas de camra RGB
+	 */
+	ByteBuffer getImageMap();
+
+	/** Timestamp de l'image courante, en microsecondes */
+	long getTimestamp();
+
+	/** Numro de l'image courante */
+	int getFrameID();
+
+	/**
+	 * Renvoie les ID des utilisateurs prsents dans l'image courante
+	 * @throws StatusException
+	 */
+	int[] getUsers() throws StatusException;
+
+	/**
+	 * @param user, l'ID de l'utilisateur
+	 * @return true si le squelette de l'utilisateur est suivi
+	 */
+	boolean isSkeletonTracking(int user);
+
+	/**
+	 * Remplit le squelette d'un utilisateur, en coordonnes projectives (pixels et profondeur)
+	 * @param user, l'ID de l'utilisateur
+	 * @param joints, reoit pour chaque joint de KinectModule.TRACKED_JOINTS les valeurs
+	 * x, y, z et confiance (voir KinectFrame.X ... KinectFrame.CONFIDENCE) ; tout est nul si le joint n'est pas connu
+	 * @throws StatusException
+	 */
+	void getSkeleton(int user, float[][] joints) throws StatusException;
+
+	/** vnement lev lorsqu'un utilisateur est calibr et que son squelette est suivi */
+	IObservable<UserEventArgs> getUserTrackedEvent();
+
+	/** vnement lev lorsqu'un utilisateur quitte le champ de vision */
+	IObservable<UserEventArgs> getLostUserEvent();
+
+	/**
+	 * Libre les ressources de la source
+	 */
+	void release();
+}
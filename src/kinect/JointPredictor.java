@@ -0,0 +1,256 @@
+package kinect;
+
+import org.OpenNI.SkeletonJoint;
+
+/**
+ * Filtre et prdit la position des joints pour compenser la latence entre la mesure de la Kinect
+ * et l'affichage (capture, traitement, vsync).
+ * Chaque coordonne est lisse par un filtre "One Euro" : un passe-bas dont la frquence de coupure
+ * augmente avec la vitesse (peu de tremblement  l'arrt, peu de retard en mouvement).
+ * La vitesse est ensuite estime par moindres carrs sur les dernires positions filtres
+ * (buffer circulaire), et le joint est extrapol  vitesse constante jusqu' l'instant d'affichage prvu.
+ * Les rglages (coupure, ractivit, avance) sont propres  chaque joint.
+ * Tout l'tat est gard dans des tableaux de float allous une fois : aucune allocation par image.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class JointPredictor {
+
+	/** Nombre de positions filtres gardes pour estimer la vitesse */
+	private static final int HISTORY = 4;
+
+	/** Au-del de cet cart entre deux mesures (s), le joint repart de zro (utilisateur rapparu) */
+	private static final float MAX_GAP = 0.5f;
+
+	/** Coordonnes filtres : X, Y et Z */
+	private static final int AXES = 3;
+
+	/** Rglages par dfaut : frquence de coupure minimale (Hz), ractivit, coupure de la drive (Hz), avance (ms) */
+	public static final float DEFAULT_MIN_CUTOFF = 1f;
+	public static final float DEFAULT_BETA = 0.05f;
+	public static final float DEFAULT_DERIVATIVE_CUTOFF = 1f;
+	public static final float DEFAULT_LEAD_MS = 50f;
+
+	private static final int JOINTS = KinectModule.TRACKED_JOINTS.length;
+
+	/** Rglages de chaque joint */
+	private final float[] minCutoff = new float[JOINTS];
+	private final float[] beta = new float[JOINTS];
+	private final float[] derivativeCutoff = new float[JOINTS];
+	private final float[] lead = new float[JOINTS];
+
+	/** tat par (utilisateur, joint) : true si le joint a un historique, et temps de sa dernire mesure (s) */
+	private boolean[] tracked;
+	private float[] lastTime;
+	/** Position du buffer circulaire et nombre de positions qu'il contient */
+	private int[] head;
+	private int[] filled;
+	/** Temps des positions du buffer : [(user * JOINTS + joint) * HISTORY + i] */
+	private float[] times;
+
+	/** tat par (utilisateur, joint, axe) : valeur filtre, drive filtre */
+	private float[] value;
+	private float[] derivative;
+	/** Positions filtres du buffer : [((user * JOINTS + joint) * AXES + axe) * HISTORY + i] */
+	private float[] history;
+
+	/** Nombre d'ID d'utilisateurs pour lesquels l'tat est allou */
+	private int capacity = 0;
+
+	/** Rfrence des temps, pour garder des float prcis (s) */
+	private long origin = -1;
+
+	public JointPredictor() {
+		for (int j = 0; j < JOINTS; j++) {
+			minCutoff[j] = DEFAULT_MIN_CUTOFF;
+			beta[j] = DEFAULT_BETA;
+			derivativeCutoff[j] = DEFAULT_DERIVATIVE_CUTOFF;
+			lead[j] = DEFAULT_LEAD_MS / 1000f;
+		}
+		ensureCapacity(KinectFrame.MAX_USERS);
+	}
+
+	/**
+	 * Rgle le filtrage et la prdiction d'un joint
+	 * @param joint, l'articulation (doit faire partie de KinectModule.TRACKED_JOINTS)
+	 * @param minCutoff, frquence de coupure  l'arrt (Hz) : plus elle est basse, moins le joint tremble
+	 * @param beta, augmentation de la coupure avec la vitesse : plus il est grand, moins le joint est en retard
+	 * @param leadMs, avance de la prdiction (ms), 0 pour seulement filtrer
+	 */
+	public void configure(SkeletonJoint joint, float minCutoff, float beta, float leadMs) {
+		int j = KinectFrame.jointIndex(joint);
+		if (j < 0) {
+			throw new IllegalArgumentException(joint + " is not tracked");
+		}
+		this.minCutoff[j] = minCutoff;
+		this.beta[j] = beta;
+		this.lead[j] = leadMs / 1000f;
+	}
+
+	/**
+	 * Rgle l'avance de tous les joints
+	 * @param leadMs, dlai attendu entre la mesure et l'affichage (ms)
+	 */
+	public void setLead(float leadMs) {
+		for (int j = 0; j < JOINTS; j++) {
+			lead[j] = leadMs / 1000f;
+		}
+	}
+
+	/**
+	 * Oublie l'historique d'un utilisateur
+	 */
+	public void reset(int user) {
+		if (user >= 0 && user < capacity) {
+			for (int j = 0; j < JOINTS; j++) {
+				tracked[user * JOINTS + j] = false;
+			}
+		}
+	}
+
+	/**
+	 * Oublie l'historique de tous les utilisateurs et la rfrence des temps (par exemple lorsque la rsolution
+	 * change, ou lorsque la source redmarre et que ses timestamps repartent de zro)
+	 */
+	public void resetAll() {
+		for (int state = 0; state < capacity * JOINTS; state++) {
+			tracked[state] = false;
+		}
+		origin = -1;
+	}
+
+	/**
+	 * Filtre et prdit le squelette d'un utilisateur
+	 * @param user, l'ID de l'utilisateur
+	 * @param skeleton, le squelette mesur : [joint][KinectFrame.X ... KinectFrame.CONFIDENCE]
+	 * @param timestamp, le timestamp de la mesure (s)
+	 * @param out, reoit le squelette prdit (peut tre skeleton lui-mme) ; les joints inconnus restent nuls
+	 */
+	public void update(int user, float[][] skeleton, long timestamp, float[][] out) {
+		if (user < 0) {
+			return;
+		}
+		ensureCapacity(user + 1);
+		if (origin < 0) {
+			origin = timestamp;
+		}
+		float time = (timestamp - origin) / 1e6f;
+
+		for (int j = 0; j < JOINTS; j++) {
+			float[] measured = skeleton[j];
+			float[] predicted = out[j];
+			int state = user * JOINTS + j;
+			if (measured[KinectFrame.CONFIDENCE] == 0) {
+				tracked[state] = false;
+				if (predicted != measured) {
+					System.arraycopy(measured, 0, predicted, 0, KinectFrame.JOINT_SIZE);
+				}
+				continue;
+			}
+
+			float dt = time - lastTime[state];
+			boolean restart = !tracked[state] || dt <= 0 || dt > MAX_GAP;
+			tracked[state] = true;
+			lastTime[state] = time;
+			int slot = restart ? 0 : (head[state] + 1) % HISTORY;
+			head[state] = slot;
+			filled[state] = restart ? 1 : Math.min(filled[state] + 1, HISTORY);
+			times[state * HISTORY + slot] = time;
+
+			for (int axis = 0; axis < AXES; axis++) {
+				int index = state * AXES + axis;
+				float raw = measured[axis];
+				float filtered;
+				if (restart) {
+					filtered = raw;
+					derivative[index] = 0;
+				} else {
+					float previous = value[index];
+					float rawDerivative = (raw - previous) / dt;
+					derivative[index] += smoothing(derivativeCutoff[j], dt) * (rawDerivative - derivative[index]);
+					float cutoff = minCutoff[j] + beta[j] * Math.abs(derivative[index]);
+					filtered = previous + smoothing(cutoff, dt) * (raw - previous);
+				}
+				value[index] = filtered;
+				history[index * HISTORY + slot] = filtered;
+				predicted[axis] = filtered + velocity(state, index) * lead[j];
+			}
+			predicted[KinectFrame.CONFIDENCE] = measured[KinectFrame.CONFIDENCE];
+		}
+	}
+
+	/**
+	 * @return le coefficient du passe-bas exponentiel de frquence de coupure cutoff, pour un pas dt
+	 */
+	private static float smoothing(float cutoff, float dt) {
+		float tau = 1f / (2f * (float) Math.PI * cutoff);
+		return 1f / (1f + tau / dt);
+	}
+
+	/**
+	 * Pente (par seconde), par moindres carrs, des positions filtres du buffer d'un axe
+	 */
+	private float velocity(int state, int index) {
+		int count = filled[state];
+		if (count < 2) {
+			return 0;
+		}
+		float meanT = 0, meanV = 0;
+		for (int i = 0; i < count; i++) {
+			meanT += times[state * HISTORY + i];
+			meanV += history[index * HISTORY + i];
+		}
+		meanT /= count;
+		meanV /= count;
+		float covariance = 0, variance = 0;
+		for (int i = 0; i < count; i++) {
+			float t = times[state * HISTORY + i] - meanT;
+			covariance += t * (history[index * HISTORY + i] - meanV);
+			variance += t * t;
+		}
+		return variance == 0 ? 0 : covariance / variance;
+	}
+
+	/**
+	 * Agrandit l'tat pour des ID d'utilisateurs jusqu' users - 1 (seule allocation,  l'arrive d'un grand ID)
+	 */
+	private void ensureCapacity(int users) {
+		if (users <= capacity) {
+			return;
+		}
+		int size = Math.max(users, capacity * 2);
+		tracked = grow(tracked, size * JOINTS);
+		lastTime = grow(lastTime, size * JOINTS);
+		head = grow(head, size * JOINTS);
+		filled = grow(filled, size * JOINTS);
+		times = grow(times, size * JOINTS * HISTORY);
+		value = grow(value, size * JOINTS * AXES);
+		derivative = grow(derivative, size * JOINTS * AXES);
+		history = grow(history, size * JOINTS * AXES * HISTORY);
+		capacity = size;
+	}
+
+	private static float[] grow(float[] array, int size) {
+		float[] grown = new float[size];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, array.length);
+		}
+		return grown;
+	}
+
+	private static boolean[] grow(boolean[] array, int size) {
+		boolean[] grown = new boolean[size];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, array.length);
+		}
+		return grown;
+	}
+
+	private static int[] grow(int[] array, int size) {
+		int[] grown = new int[size];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, array.length);
+		}
+		return grown;
+	}
+}
@@ -0,0 +1,190 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.OpenNI.GeneralException;
+import org.OpenNI.StatusException;
+
+/**
+ * Mesure l'effet du JointPredictor sur la latence "mouvement-affichage" de la main droite.
+ * Une position mesure au temps t est affiche au temps t + DISPLAY_DELAY_MS ; on compare la position
+ * affiche  la position relle de la main  cet instant :
+ * - erreur moyenne (pixels) ;
+ * - retard apparent (ms) : le dcalage qui rapproche le plus la courbe affiche de la trajectoire relle ;
+ * - tremblement : variation moyenne de la position affiche lorsque la main est immobile.
+ * Sans argument, la trajectoire est synthtique (mouvements et pauses, bruit de mesure connu) ;
+ * avec le chemin d'une session enregistre, la trajectoire relle est celle de l'enregistrement.
+ * Sur la trajectoire synthtique, vrifie que le filtre rduit le tremblement et que la prdiction
+ * rduit l'erreur et le retard par rapport aux positions brutes et filtres.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class JointPredictorBenchmark {
+
+	/** Dlai entre la mesure et l'affichage (traitement, vsync) */
+	private static final float DISPLAY_DELAY_MS = JointPredictor.DEFAULT_LEAD_MS;
+
+	private static final int FRAMES = 3000;
+	private static final long FRAME_PERIOD = 33333;
+	private static final float NOISE = 2f;
+
+	/** Dcalages tests pour estimer le retard apparent */
+	private static final int MAX_SHIFT_MS = 200;
+
+	private static final int HAND = KinectFrame.RIGHT_HAND;
+
+	public static void main(String[] args) throws IOException, StatusException {
+		long[] times = new long[FRAMES];
+		float[][] truth = new float[FRAMES][2];
+		float[][] measured = new float[FRAMES][2];
+		int count = args.length > 0 ? loadSession(new File(args[0]), times, truth, measured)
+				: synthesize(times, truth, measured);
+		System.out.println(count + " frames" + (args.length > 0 ? " from " + args[0] : " (synthetic)")
+				+ ", display delay " + DISPLAY_DELAY_MS + " ms");
+
+		double[] raw = measure("raw", null, times, truth, measured, count);
+		JointPredictor filterOnly = new JointPredictor();
+		filterOnly.setLead(0);
+		double[] filtered = measure("One Euro filter", filterOnly, times, truth, measured, count);
+		JointPredictor predictor = new JointPredictor();
+		predictor.setLead(DISPLAY_DELAY_MS);
+		double[] predicted = measure("filter + prediction", predictor, times, truth, measured, count);
+
+		// Dans un enregistrement, la trajectoire relle est la mesure bruite : rien  vrifier
+		if (args.length == 0) {
+			boolean ok = filtered[2] < raw[2] && predicted[2] < raw[2]
+					&& predicted[0] < raw[0] && predicted[1] < raw[1] && predicted[1] < filtered[1];
+			System.out.println(ok ? "OK: less jitter than raw, less error and lag with prediction" : "FAILED");
+			if (!ok) {
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Trajectoire synthtique : alternance de gestes (sommes de sinusodes) et de pauses
+	 */
+	private static int synthesize(long[] times, float[][] truth, float[][] measured) {
+		Random random = new Random(7);
+		for (int i = 0; i < FRAMES; i++) {
+			times[i] = i * FRAME_PERIOD;
+			double t = times[i] / 1e6;
+			// Pause d'une seconde toutes les quatre secondes
+			double active = (t % 4) < 3 ? t - Math.floor(t / 4) : Math.floor(t / 4) * 3 + 3;
+			truth[i][0] = (float) (320 + 150 * Math.sin(2 * Math.PI * 0.4 * active) + 40 * Math.sin(2 * Math.PI * 1.3 * active));
+			truth[i][1] = (float) (240 + 100 * Math.cos(2 * Math.PI * 0.3 * active));
+			measured[i][0] = truth[i][0] + (float) random.nextGaussian() * NOISE;
+			measured[i][1] = truth[i][1] + (float) random.nextGaussian() * NOISE;
+		}
+		return FRAMES;
+	}
+
+	/**
+	 * Lit la main droite du premier utilisateur suivi de chaque image d'une session
+	 * (la trajectoire relle est alors la mesure elle-mme)
+	 */
+	private static int loadSession(File file, long[] times, float[][] truth, float[][] measured)
+			throws IOException, StatusException {
+		ReplayFrameSource source = new ReplayFrameSource(file, false, false);
+		float[][] skeleton = new float[KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		int count = 0;
+		try {
+			while (count < FRAMES) {
+				source.waitForUpdate(Long.MAX_VALUE);
+				for (int user : source.getUsers()) {
+					if (!source.isSkeletonTracking(user)) {
+						continue;
+					}
+					source.getSkeleton(user, skeleton);
+					if (skeleton[HAND][KinectFrame.CONFIDENCE] == 0) {
+						continue;
+					}
+					times[count] = source.getTimestamp();
+					measured[count][0] = truth[count][0] = skeleton[HAND][KinectFrame.X];
+					measured[count][1] = truth[count][1] = skeleton[HAND][KinectFrame.Y];
+					count++;
+					break;
+				}
+			}
+		} catch (GeneralException e) {
+			// Fin de l'enregistrement
+		}
+		source.release();
+		return count;
+	}
+
+	/**
+	 * @return l'erreur moyenne (pixels), le retard apparent (ms) et le tremblement (pixels par image, NaN sans pause)
+	 */
+	private static double[] measure(String name, JointPredictor predictor, long[] times, float[][] truth,
+			float[][] measured, int count) {
+		float[][] skeleton = new float[KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		float[][] displayed = new float[count][2];
+		for (int i = 0; i < count; i++) {
+			skeleton[HAND][KinectFrame.X] = measured[i][0];
+			skeleton[HAND][KinectFrame.Y] = measured[i][1];
+			skeleton[HAND][KinectFrame.CONFIDENCE] = 1;
+			if (predictor != null) {
+				predictor.update(1, skeleton, times[i], skeleton);
+			}
+			displayed[i][0] = skeleton[HAND][KinectFrame.X];
+			displayed[i][1] = skeleton[HAND][KinectFrame.Y];
+		}
+
+		// Erreur par rapport  la position relle au moment de l'affichage, dcale de shift ms
+		double bestError = Double.MAX_VALUE;
+		int lag = 0;
+		double error = 0;
+		for (int shift = -MAX_SHIFT_MS; shift <= MAX_SHIFT_MS; shift++) {
+			double e = error(times, truth, displayed, count, DISPLAY_DELAY_MS - shift);
+			if (shift == 0) {
+				error = e;
+			}
+			if (e < bestError) {
+				bestError = e;
+				lag = shift;
+			}
+		}
+
+		// Tremblement : variation de la position affiche quand la position relle ne bouge pas
+		double jitter = 0;
+		int still = 0;
+		for (int i = 1; i < count; i++) {
+			if (truth[i][0] == truth[i-1][0] && truth[i][1] == truth[i-1][1]) {
+				jitter += Math.hypot(displayed[i][0] - displayed[i-1][0], displayed[i][1] - displayed[i-1][1]);
+				still++;
+			}
+		}
+
+		System.out.printf("%-20s: error %.1f px, apparent lag %d ms, jitter %s%n", name, error, lag,
+				still == 0 ? "n/a" : String.format("%.2f px/frame", jitter / still));
+		return new double[] { error, lag, still == 0 ? Double.NaN : jitter / still };
+	}
+
+	/**
+	 * Erreur moyenne entre la position affiche et la position relle delayMs plus tard
+	 */
+	private static double error(long[] times, float[][] truth, float[][] displayed, int count, float delayMs) {
+		double sum = 0;
+		int compared = 0;
+		int k = 0;
+		for (int i = 0; i < count; i++) {
+			double target = times[i] + delayMs * 1000.0;
+			while (k + 1 < count && times[k + 1] < target) {
+				k++;
+			}
+			if (k + 1 >= count || times[k] > target) {
+				continue;
+			}
+			// Position relle interpole entre les mesures k et k+1
+			double a = (target - times[k]) / (double) (times[k + 1] - times[k]);
+			double x = truth[k][0] + a * (truth[k + 1][0] - truth[k][0]);
+			double y = truth[k][1] + a * (truth[k + 1][1] - truth[k][1]);
+			sum += Math.hypot(displayed[i][0] - x, displayed[i][1] - y);
+			compared++;
+		}
+		return compared == 0 ? 0 : sum / compared;
+	}
+}
@@ -0,0 +1,294 @@
+package kinect;
+
+import java.awt.Rectangle;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.OpenNI.Point3D;
+import org.OpenNI.SkeletonJoint;
+import org.OpenNI.SkeletonJointPosition;
+
+/**
+ * Une image capture par le thread de capture : profondeur, labels des utilisateurs,
+ * image de profondeur colore et squelettes. Les tableaux sont allous une fois
+ * et rutiliss d'une image  l'autre.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class KinectFrame {
+
+	/** Nombre maximum d'utilisateurs par image */
+	public static final int MAX_USERS = 16;
+
+	/** Indices des valeurs d'un joint dans les squelettes : coordonnes projectives et confiance */
+	public static final int X = 0, Y = 1, Z = 2, CONFIDENCE = 3;
+
+	/** Nombre de valeurs par joint */
+	public static final int JOINT_SIZE = 4;
+
+	/** Position renvoye pour un joint inconnu */
+	private static final SkeletonJointPosition UNKNOWN = new SkeletonJointPosition(new Point3D(), 0);
+
+	/** Index de chaque SkeletonJoint (par ordinal) dans KinectModule.TRACKED_JOINTS, -1 s'il n'est pas suivi */
+	private static final int[] JOINT_INDEX = new int[SkeletonJoint.values().length];
+	static {
+		Arrays.fill(JOINT_INDEX, -1);
+		for (int j = 0; j < KinectModule.TRACKED_JOINTS.length; j++) {
+			JOINT_INDEX[KinectModule.TRACKED_JOINTS[j].ordinal()] = j;
+		}
+	}
+
+	/** Index de chaque articulation dans les squelettes (ordre de KinectModule.TRACKED_JOINTS) */
+	public static final int HEAD = jointIndex(SkeletonJoint.HEAD), NECK = jointIndex(SkeletonJoint.NECK),
+			LEFT_SHOULDER = jointIndex(SkeletonJoint.LEFT_SHOULDER), LEFT_ELBOW = jointIndex(SkeletonJoint.LEFT_ELBOW),
+			LEFT_HAND = jointIndex(SkeletonJoint.LEFT_HAND),
+			RIGHT_SHOULDER = jointIndex(SkeletonJoint.RIGHT_SHOULDER), RIGHT_ELBOW = jointIndex(SkeletonJoint.RIGHT_ELBOW),
+			RIGHT_HAND = jointIndex(SkeletonJoint.RIGHT_HAND),
+			TORSO = jointIndex(SkeletonJoint.TORSO),
+			LEFT_HIP = jointIndex(SkeletonJoint.LEFT_HIP), LEFT_KNEE = jointIndex(SkeletonJoint.LEFT_KNEE),
+			LEFT_FOOT = jointIndex(SkeletonJoint.LEFT_FOOT),
+			RIGHT_HIP = jointIndex(SkeletonJoint.RIGHT_HIP), RIGHT_KNEE = jointIndex(SkeletonJoint.RIGHT_KNEE),
+			RIGHT_FOOT = jointIndex(SkeletonJoint.RIGHT_FOOT);
+
+	/** Dimensions de l'image */
+	private final int width, height;
+
+	/** Profondeur (mm) et labels de chaque pixel */
+	short[] depth;
+	short[] scene;
+
+	/** Image de profondeur colore, 3 octets (RGB) par pixel */
+	byte[] image;
+
+	/** Image de la camra RGB, 3 octets par pixel, alloue au premier usage, et false si la source n'en a pas */
+	byte[] rgb;
+	boolean hasRgb = false;
+
+	/** 1 pour chaque pixel au premier plan selon le modle de l'arrire-plan, et leur nombre (-1 sans modle) */
+	byte[] foreground;
+	int foregroundCount = -1;
+
+	/** Nuage de points (X, Y, Z en mm, voir PointCloud), allou au premier usage, et nombre de points (-1 sans nuage) */
+	FloatBuffer points;
+	int pointCount = -1;
+
+	/** Utilisateurs prsents dans l'image */
+	int userCount = 0;
+	int[] users = new int[MAX_USERS];
+	boolean[] tracking = new boolean[MAX_USERS];
+
+	/**
+	 * Squelette de chaque utilisateur : skeletons[index][joint][X, Y, Z ou CONFIDENCE],
+	 * joints dans l'ordre de KinectModule.TRACKED_JOINTS, tout  zro si le joint n'est pas connu
+	 */
+	float[][][] skeletons = new float[MAX_USERS][KinectModule.TRACKED_JOINTS.length][JOINT_SIZE];
+
+	/** Botes englobantes des utilisateurs, calcules  partir des labels, et true si elles l'ont t pour cette image */
+	RegionOfInterest roi;
+	boolean roiComputed = false;
+
+	/** true si seuls les pixels de roi ont t colors dans image (les autres sont noirs) */
+	boolean roiImage = false;
+
+	/** Profondeur et labels rduits (niveaux demands via KinectModule.requestPyramidLevel) */
+	DepthPyramid pyramid;
+
+	/** Contours des utilisateurs, et true s'ils ont t calculs pour cette image */
+	UserContours contours = new UserContours();
+	boolean contoured = false;
+
+	/** Copie immuable des utilisateurs et des squelettes, publie par KinectModule.getSkeletonSnapshot() */
+	SkeletonSnapshot snapshot = SkeletonSnapshot.EMPTY;
+
+	/** Numro de squence attribu par le thread de capture (0 tant qu'aucune image n'est arrive) */
+	long sequence = 0;
+
+	/** Timestamp (s) et numro de l'image fournis par le capteur */
+	long timestamp;
+	int frameID;
+
+	KinectFrame(int width, int height) {
+		this.width = width;
+		this.height = height;
+		depth = new short[width * height];
+		scene = new short[width * height];
+		image = new byte[width * height * 3];
+		foreground = new byte[width * height];
+		roi = new RegionOfInterest(width, height);
+		pyramid = new DepthPyramid(width, height);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public short[] getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return l'image de la camra RGB (3 octets par pixel, premire range en haut), null si la source n'en a pas
+	 */
+	public byte[] getRGB() {
+		return hasRgb ? rgb : null;
+	}
+
+	public short[] getScene() {
+		return scene;
+	}
+
+	public byte[] getImage() {
+		return image;
+	}
+
+	/**
+	 * @return 1 pour chaque pixel au premier plan, labellis ou non par NITE (voir KinectModule.setBackgroundModelEnabled),
+	 * ou null si le modle de l'arrire-plan est dsactiv
+	 */
+	public byte[] getForeground() {
+		return foregroundCount >= 0 ? foreground : null;
+	}
+
+	/**
+	 * @return le nombre de pixels au premier plan, -1 si le modle de l'arrire-plan est dsactiv
+	 */
+	public int getForegroundCount() {
+		return foregroundCount;
+	}
+
+	/**
+	 * @return les points 3D de cette image, X, Y, Z  la suite entre la position 0 et la limite du buffer
+	 * (voir KinectModule.setPointCloud), ou null si le nuage de points est dsactiv.
+	 * Le buffer est rutilis par le thread de capture, comme les autres tableaux de l'image.
+	 */
+	public FloatBuffer getPoints() {
+		return pointCount >= 0 ? points : null;
+	}
+
+	/**
+	 * @return le nombre de points, -1 si le nuage de points est dsactiv
+	 */
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * @return les rgions occupes par les utilisateurs dans cette image, null si elles n'ont pas t calcules
+	 * (ni mode rgion d'intrt, ni contours)
+	 */
+	public RegionOfInterest getRegionOfInterest() {
+		return roiComputed ? roi : null;
+	}
+
+	/**
+	 * @return la pyramide de profondeur de cette image (seuls les niveaux demands sont calculs)
+	 */
+	public DepthPyramid getPyramid() {
+		return pyramid;
+	}
+
+	/**
+	 * @return le contour simplifi de chaque utilisateur de cette image (voir KinectModule.setContoursEnabled),
+	 * ou null si les contours ne sont pas calculs
+	 */
+	public UserContours getContours() {
+		return contoured ? contours : null;
+	}
+
+	/**
+	 * Renvoie la bote englobante d'un utilisateur dans cette image
+	 * @param user, l'ID de l'utilisateur
+	 * @param bounds, reoit la bote englobante
+	 * @return false si l'utilisateur n'a aucun pixel dans l'image, ou si les rgions n'ont pas t calcules
+	 */
+	public boolean getUserBounds(int user, Rectangle bounds) {
+		return roiComputed && roi.getBounds(user, bounds);
+	}
+
+	/**
+	 * @return l'tat immuable des utilisateurs de cette image, qui peut tre gard et lu depuis n'importe quel thread
+	 */
+	public SkeletonSnapshot getSkeletonSnapshot() {
+		return snapshot;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getFrameID() {
+		return frameID;
+	}
+
+	public int getUserCount() {
+		return userCount;
+	}
+
+	/**
+	 * @param index, l'index de l'utilisateur dans l'image (entre 0 et getUserCount())
+	 * @return l'ID de l'utilisateur
+	 */
+	public int getUser(int index) {
+		return users[index];
+	}
+
+	/**
+	 * @return l'index de l'utilisateur dans l'image, -1 s'il est absent
+	 */
+	public int indexOf(int user) {
+		for (int i = 0; i < userCount; i++) {
+			if (users[i] == user) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true si le squelette de l'utilisateur est suivi dans cette image
+	 */
+	public boolean isTracking(int user) {
+		int index = indexOf(user);
+		return index >= 0 && tracking[index];
+	}
+
+	/**
+	 * @return l'index d'une articulation dans KinectModule.TRACKED_JOINTS, -1 si elle n'est pas suivie
+	 */
+	public static int jointIndex(SkeletonJoint joint) {
+		return JOINT_INDEX[joint.ordinal()];
+	}
+
+	/**
+	 * Renvoie la position d'un joint, en coordonnes projectives.
+	 * Cre un SkeletonJointPosition : les traitements par image lisent plutt getSkeleton().
+	 * @param user, l'ID de l'utilisateur
+	 * @param joint, l'articulation
+	 * @return la position, avec une confiance nulle si elle n'est pas connue
+	 */
+	public SkeletonJointPosition getJoint(int user, SkeletonJoint joint) {
+		int index = indexOf(user);
+		int j = jointIndex(joint);
+		if (index < 0 || j < 0) {
+			return UNKNOWN;
+		}
+		float[] values = skeletons[index][j];
+		return new SkeletonJointPosition(new Point3D(values[X], values[Y], values[Z]), values[CONFIDENCE]);
+	}
+
+	/**
+	 * @param index, l'index de l'utilisateur dans l'image (entre 0 et getUserCount())
+	 * @return son squelette : [joint][X, Y, Z ou CONFIDENCE], joints dans l'ordre de KinectModule.TRACKED_JOINTS
+	 */
+	public float[][] getSkeleton(int index) {
+		return skeletons[index];
+	}
+}
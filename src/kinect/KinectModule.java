@@ -21,6 +21,7 @@
  ****************************************************************************/
 package kinect;
 
+import gestures.HandGesture;
 import gestures.UserHandPainter;
 
 import java.awt.Color;
@@ -33,32 +34,26 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.OpenNI.CalibrationProgressEventArgs;
-import org.OpenNI.CalibrationProgressStatus;
-import org.OpenNI.Context;
-import org.OpenNI.DepthGenerator;
-import org.OpenNI.DepthMetaData;
+import org.OpenNI.FieldOfView;
 import org.OpenNI.GeneralException;
 import org.OpenNI.IObservable;
 import org.OpenNI.IObserver;
-import org.OpenNI.ImageGenerator;
-import org.OpenNI.OutArg;
-import org.OpenNI.Point3D;
-import org.OpenNI.PoseDetectionCapability;
-import org.OpenNI.SceneMetaData;
-import org.OpenNI.ScriptNode;
-import org.OpenNI.SkeletonCapability;
 import org.OpenNI.SkeletonJoint;
 import org.OpenNI.SkeletonJointPosition;
-import org.OpenNI.SkeletonProfile;
 import org.OpenNI.StatusException;
 import org.OpenNI.UserEventArgs;
-import org.OpenNI.UserGenerator;
 import org.jbox2d.common.Vec2;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
 
@@ -74,381 +69,1170 @@ import demos.DemonstrationsCommon;
 public class KinectModule
 {
 	/**
-	 * Cet observer nous notifie lorsqu'un nouvel utilisateur est dtect par la Kinect
+	 * Cet observateur nous notifie lorsque un utilisateur disparait du champ de vision de la Kinect.
+	 * Ses gestures et son dessin  la main sont effacs par le UserRegistry.
 	 * @author Jonathan Cheseaux et William Trouleau
 	 *
 	 */
-	class NewUserObserver implements IObserver<UserEventArgs>
+	class LostUserObserver implements IObserver<UserEventArgs>
 	{
 		@Override
 		public void update(IObservable<UserEventArgs> observable,
 				UserEventArgs args)
 		{
+			skeletons.remove(args.getId());
 
+//			TextDisplay.println("Lost user " + args.getId());
+		}
+	}
+
+	/**
+	 * Cet observer nous notifie lorsqu'un nouvel utilisateur est dtect par la Kinect
+	 * et est compltement calibr (tracking activ)
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	class UserTrackedObserver implements IObserver<UserEventArgs>
+	{
+		@Override
+		public void update(IObservable<UserEventArgs> observable,
+				UserEventArgs args)
+		{
 			try
 			{
-				// Si la calibration n'est pas faite, on l'invoque
-				if (skeletonCap.needPoseForCalibration())
-				{
-					poseDetectionCap.startPoseDetection(calibPose, args.getId());
-				}
-				else
-				{
-					skeletonCap.requestSkeletonCalibration(args.getId(), true);
+				if (isApplicationModule()) {
+					DemonstrationsCommon.getInstance().addUserGesture(args.getId());
 				}
+				skeletons.add(args.getId());
+				handPainters.set(args.getId(), new UserHandPainter(args.getId()));
+				getJoints(args.getId());
 			} catch (StatusException e)
 			{
 				e.printStackTrace();
 			}
 		}
 	}
+
 	/**
-	 * Cet observateur nous notifie lorsque un utilisateur disparait du champ de vision de la Kinect
+	 * Les vnements de la source sont levs sur le thread de capture : cet observer
+	 * les met en attente pour qu'ils soient traits sur le thread de rendu (voir dispatchUserEvents)
 	 * @author Jonathan Cheseaux et William Trouleau
 	 *
 	 */
-	class LostUserObserver implements IObserver<UserEventArgs>
+	class UserEventForwarder implements IObserver<UserEventArgs>
 	{
+		private boolean lost;
+
+		UserEventForwarder(boolean lost) {
+			this.lost = lost;
+		}
+
 		@Override
 		public void update(IObservable<UserEventArgs> observable,
 				UserEventArgs args)
 		{
-			DemonstrationsCommon.getInstance().removeUserGesture(args.getId());
-			handPainters.remove(args.getId());
-			joints.remove(args.getId());
+			pendingUserEvents.add(new PendingUserEvent(args.getId(), lost));
+		}
+	}
 
-//			TextDisplay.println("Lost user " + args.getId());
+	/**
+	 * vnement utilisateur en attente de traitement
+	 */
+	private static class PendingUserEvent {
+		final int user;
+		final boolean lost;
+
+		PendingUserEvent(int user, boolean lost) {
+			this.user = user;
+			this.lost = lost;
 		}
 	}
 
 	/**
-	 * Cet observer nous notifie lorsqu'un nouvel utilisateur est dtect par la Kinect
-	 * et est compltement calibr (tracking activ)
+	 * Thread de capture : attend les images de la source, rcupre les squelettes,
+	 * colore l'image de profondeur et publie le tout dans le triple buffer.
+	 * Le thread de rendu n'attend ainsi jamais la Kinect.
 	 * @author Jonathan Cheseaux et William Trouleau
 	 *
 	 */
-	class CalibrationCompleteObserver implements IObserver<CalibrationProgressEventArgs>
+	class CaptureThread extends Thread
 	{
+		CaptureThread() {
+			super("KinectCapture");
+			setDaemon(true);
+		}
+
 		@Override
-		public void update(IObservable<CalibrationProgressEventArgs> observable,
-				CalibrationProgressEventArgs args)
-		{
-			System.out.println("Calibration complete: " + args.getStatus());
-			try
-			{
-				if (args.getStatus() == CalibrationProgressStatus.OK)
-				{
-					System.out.println("starting tracking "  +args.getUser());
-					DemonstrationsCommon.getInstance().addUserGesture(args.getUser());
-					skeletonCap.startTracking(args.getUser());
-					joints.put(new Integer(args.getUser()), new HashMap<SkeletonJoint, SkeletonJointPosition>());
-					handPainters.put(new Integer(args.getUser()), new UserHandPainter(args.getUser()));
-					getJoints(args.getUser());
+		public void run() {
+			try {
+				captureLoop();
+			} finally {
+				if (closing) {
+					// close() n'a pas attendu la fin du thread : la source est libre ici
+					releaseSource();
 				}
-				else if (args.getStatus() != CalibrationProgressStatus.MANUAL_ABORT)
-				{
-					if (skeletonCap.needPoseForCalibration())
-					{
-						poseDetectionCap.startPoseDetection(calibPose, args.getUser());
+			}
+		}
+
+		private void captureLoop() {
+			long sequence = 0;
+			// Images du mode courant ; remplaces  chaque changement de mode, puis publies dans frames
+			TripleBuffer<KinectFrame> buffers = frames;
+			watchdog.reset(System.nanoTime());
+			while (!isInterrupted()) {
+				SensorMode mode = requestedMode.getAndSet(null);
+				if (mode != null && mode != sensorMode && applyMode(mode)) {
+					buffers = createFrames(source.getWidth(), source.getHeight());
+				}
+				boolean updated;
+				try {
+					updated = source.waitForUpdate(POLL_TIMEOUT);
+				} catch (GeneralException e) {
+					// Fin de la session rejoue ou Kinect en erreur : on garde la dernire image
+					e.printStackTrace();
+					if (!restartSource()) {
+						return;
 					}
-					else
-					{
-						skeletonCap.requestSkeletonCalibration(args.getUser(), true);
+					continue;
+				}
+				if (!updated) {
+					if (watchdog.getHealth() == SensorWatchdog.Health.STALLED && !restartSource()) {
+						return;
 					}
+					continue;
 				}
-			} catch (StatusException e)
-			{
+				watchdog.frameArrived(System.nanoTime());
+				KinectFrame frame = buffers.getBackBuffer();
+				try {
+					captureFrame(frame);
+					frame.sequence = ++sequence;
+					frame.snapshot = new SkeletonSnapshot(frame);
+					buffers.publish();
+					if (frames != buffers) {
+						// Premire image du nouveau mode : le thread de rendu passe aux nouvelles images
+						frames = buffers;
+					}
+				} catch (StatusException e) {
+					e.printStackTrace();
+				} catch (RuntimeException e) {
+					// Une erreur d'un traitement (contours, anneau partag, tche ForkJoin...) ne perd que cette image
+					System.err.println("Frame dropped:");
+					e.printStackTrace();
+					// L'image a pu tre  moiti colore : elle sera entirement efface au prochain passage en mode ROI
+					frame.roiImage = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rinitialise la source bloque, sur le thread de capture : le rendu continue avec la dernire image.
+	 * Les tentatives sont rptes tous les getStallTimeout() ms jusqu' ce que la source reparte.
+	 * @return false si la source ne peut pas tre rinitialise (session rejoue), ou si le module est ferm
+	 */
+	private boolean restartSource() {
+		while (!captureThread.isInterrupted()) {
+			System.err.println("Kinect stalled (" + watchdog + "), restarting");
+			try {
+				if (!source.restart()) {
+					return false;
+				}
+				watchdog.restarted(System.nanoTime());
+				// Les timestamps de la source repartent de zro : la prdiction aussi
+				JointPredictor predictor = jointPredictor;
+				if (predictor != null) {
+					predictor.resetAll();
+				}
+				return true;
+			} catch (GeneralException e) {
 				e.printStackTrace();
 			}
+			try {
+				Thread.sleep(watchdog.getStallTimeout());
+			} catch (InterruptedException e) {
+				return false;
+			}
 		}
+		return false;
 	}
 
-	/**Variable lies  la Kinect */
-	private OutArg<ScriptNode> scriptNode;
-	private Context context;
-	private DepthGenerator depthGen;
-	private UserGenerator userGen;
-	private SkeletonCapability skeletonCap;
-	private PoseDetectionCapability poseDetectionCap;
-	private byte[] imgbytes;
-	private float histogram[];
-	String calibPose = null;
-	HashMap<Integer, HashMap<SkeletonJoint, SkeletonJointPosition>> joints;
+	/**
+	 * Change le mode de la source, sur le thread de capture, entre deux images.
+	 * La coloration est recre  la nouvelle rsolution ; la prdiction des joints repart de zro,
+	 * leurs coordonnes projectives changeant d'chelle.
+	 * @return false si la source refuse le mode
+	 */
+	private boolean applyMode(SensorMode mode) {
+		if (!source.setMode(mode)) {
+			System.err.println("Sensor mode " + mode + " refused by the source");
+			if (modePolicy != null) {
+				System.err.println("Automatic sensor mode disabled");
+				modePolicy = null;
+			}
+			return false;
+		}
+		sensorMode = mode;
+		DepthColorizer newColorizer = new DepthColorizer(colors, source.getWidth(), source.getHeight());
+		newColorizer.setParallel(colorizer.isParallel());
+		colorizer = newColorizer;
+		JointPredictor predictor = jointPredictor;
+		if (predictor != null) {
+			predictor.resetAll();
+		}
+		watchdog.setExpectedFrameRate(mode.getFrameRate());
+		watchdog.reset(System.nanoTime());
+		System.out.println("Sensor mode " + mode);
+		return true;
+	}
+
+	/**
+	 * @return un triple buffer d'images vides aux dimensions donnes
+	 */
+	private static TripleBuffer<KinectFrame> createFrames(int width, int height) {
+		return new TripleBuffer<KinectFrame>(new KinectFrame(width, height),
+				new KinectFrame(width, height), new KinectFrame(width, height));
+	}
+
+	/** Articulations rcupres pour chaque utilisateur */
+	public static final SkeletonJoint[] TRACKED_JOINTS = {
+		SkeletonJoint.HEAD, SkeletonJoint.NECK,
+		SkeletonJoint.LEFT_SHOULDER, SkeletonJoint.LEFT_ELBOW, SkeletonJoint.LEFT_HAND,
+		SkeletonJoint.RIGHT_SHOULDER, SkeletonJoint.RIGHT_ELBOW, SkeletonJoint.RIGHT_HAND,
+		SkeletonJoint.TORSO,
+		SkeletonJoint.LEFT_HIP, SkeletonJoint.LEFT_KNEE, SkeletonJoint.LEFT_FOOT,
+		SkeletonJoint.RIGHT_HIP, SkeletonJoint.RIGHT_KNEE, SkeletonJoint.RIGHT_FOOT
+	};
+
+	/** Attente maximale d'une image par le thread de capture, avant de vrifier l'tat de la source (ms) */
+	private static final long POLL_TIMEOUT = 100;
+
+	/** Proprit systme dsignant une session  rejouer  la place de la Kinect */
+	public static final String REPLAY_PROPERTY = "kinect.replay";
+
+	/** Proprit systme dsignant le fichier dans lequel enregistrer la session */
+	public static final String RECORD_PROPERTY = "kinect.record";
+
+	/** Proprit systme dsactivant les traitements parallles de la profondeur, coloration et filtrage (pour comparaison) */
+	public static final String SERIAL_COLORIZE_PROPERTY = "kinect.serialColorize";
+
+	/** Proprit systme activant le filtre temporel de la profondeur ("median" ou "exponential") */
+	public static final String DEPTH_FILTER_PROPERTY = "kinect.depthFilter";
+
+	/** Proprit systme activant la prdiction des joints : avance en ms, ou "on" pour l'avance par dfaut (dsactive sinon) */
+	public static final String JOINT_PREDICTION_PROPERTY = "kinect.jointPrediction";
+
+	/** Proprit systme dsignant l'anneau partag dans lequel publier les images (par exemple /dev/shm/kinect.ring) */
+	public static final String PUBLISH_PROPERTY = "kinect.publish";
+
+	/** Proprit systme choisissant le mode du capteur : "vga", "qvga", ou "auto" pour le choisir selon la charge */
+	public static final String MODE_PROPERTY = "kinect.mode";
+
+	/** Proprit systme activant le mode ROI (seuls les utilisateurs sont colors) */
+	public static final String ROI_PROPERTY = "kinect.roi";
+
+	/** Proprit systme activant le modle de l'arrire-plan (utilisateurs dtects avant leur label NITE) */
+	public static final String BACKGROUND_MODEL_PROPERTY = "kinect.backgroundModel";
+
+	/** Proprit systme activant le nuage de points de chaque image ("all" ou "users") */
+	public static final String POINT_CLOUD_PROPERTY = "kinect.pointCloud";
+
+	/** Proprit systme activant le contour de la silhouette de chaque utilisateur */
+	public static final String CONTOURS_PROPERTY = "kinect.contours";
+
+	/** Niveau de la pyramide dont les labels donnent les contours (320x240 en VGA) */
+	private static final int CONTOUR_LEVEL = 1;
+
+	/** Source des images (Kinect ou session enregistre) */
+	private FrameSource source;
+
+	/**
+	 * Enregistreur de session et anneau partag avec d'autres processus, null s'ils sont inactifs.
+	 * Remplacs sous le verrou du module, lus sans verrou par le thread de capture.
+	 */
+	private volatile SessionRecorder recorder;
+	private volatile FrameRingWriter publisher;
+
+	/** Module ferm (voir close()), et source libre */
+	private volatile boolean closing = false;
+	private final AtomicBoolean sourceReleased = new AtomicBoolean();
+
+	/** Surveillance de l'arrive des images */
+	private final SensorWatchdog watchdog = new SensorWatchdog();
+
+	/** Images changes entre le thread de capture et le thread de rendu, remplaces  chaque changement de mode */
+	private volatile TripleBuffer<KinectFrame> frames;
+	private CaptureThread captureThread;
+
+	/** Image fixe par le dernier updateDepth(), que le thread de capture ne rutilise pas avant l'appel suivant */
+	private KinectFrame currentFrame;
+
+	/** Image de profondeur colore prte  tre envoye  OpenGL, et le numro de l'image qu'elle contient */
+	private ByteBuffer depthBuffer;
+	private long depthBufferSequence = -1;
+
+	/** Image de la camra RGB prte  tre envoye  OpenGL, et le numro de l'image qu'elle contient */
+	private ByteBuffer rgbBuffer;
+	private long rgbBufferSequence = -1;
+	private boolean rgbBufferBlack = false;
+
+	/** Numro de la dernire image traite par updateDepth() */
+	private long lastUpdatedSequence = 0;
+
+	/** Consommateurs prvenus  chaque nouvelle image */
+	private ArrayList<FrameListener> frameListeners = new ArrayList<FrameListener>();
+
+	/** vnements utilisateurs en attente, et leur diffusion sur le thread de rendu */
+	private ConcurrentLinkedQueue<PendingUserEvent> pendingUserEvents = new ConcurrentLinkedQueue<PendingUserEvent>();
+
+	/** Utilisateurs suivis et tat de chaque sous-systme pour chacun d'eux */
+	private final UserRegistry userRegistry = new UserRegistry();
+
+	/** Coloration de l'image de profondeur, utilise uniquement par le thread de capture */
+	private DepthColorizer colorizer;
+
+	/** Filtre temporel de la profondeur, null s'il est dsactiv */
+	private volatile TemporalDepthFilter depthFilter;
+
+	/** Modle de l'arrire-plan, null s'il est dsactiv */
+	private volatile BackgroundModel backgroundModel;
+
+	/** Pixels convertis en nuage de points, null si le nuage est dsactiv */
+	private volatile PointCloud.Content pointCloudContent;
+
+	/** Conversion en nuage de points, utilise uniquement par le thread de capture */
+	private PointCloud pointCloud;
+
+	/** Calcul du contour de chaque utilisateur */
+	private volatile boolean contoursEnabled = Boolean.getBoolean(CONTOURS_PROPERTY);
+
+	/** Filtrage et prdiction des joints, utilis uniquement par le thread de capture, null s'il est dsactiv */
+	private volatile JointPredictor jointPredictor;
+
+	/** Nombre de niveaux de la pyramide de profondeur demands par les consommateurs, et leur rduction */
+	private volatile int pyramidLevels = 0;
+	private volatile DepthPyramid.Reduction pyramidReduction = DepthPyramid.Reduction.MIN;
 
-	/** HashMap associant un utilitaire de dessin  la main pour chaque User */
-	private HashMap<Integer, UserHandPainter> handPainters = new HashMap<Integer, UserHandPainter>();
+	/** En mode ROI, seules les botes englobantes des utilisateurs sont traites, le reste de l'image est noir */
+	private volatile boolean regionOfInterestMode = Boolean.getBoolean(ROI_PROPERTY);
 
-	/** Dfinit si l'utilisateur doit tre dtour de l'arrire-plan */
-	private boolean drawBackground = false;
+	/** Joints de chaque utilisateur suivi, lus au plus une fois par image */
+	private final SkeletonCache skeletons = new SkeletonCache();
 
-	/** Dimensions de l'image camra */
-	int width, height;
+	/** Squelettes de l'image traite par updateDepth(), lisibles sans verrou depuis tous les threads */
+	private final AtomicReference<SkeletonSnapshot> skeletonSnapshot =
+			new AtomicReference<SkeletonSnapshot>(SkeletonSnapshot.EMPTY);
 
-	/** Chemin d'accs au fichier de configuration */
-	private final String SAMPLE_XML_FILE = "SamplesConfig.xml";
+	/** Utilitaire de dessin  la main de chaque utilisateur */
+	private final UserRegistry.Slot<UserHandPainter> handPainters = userRegistry.createSlot();
+
+	/** Mode courant du capteur (null si la source n'est dans aucun mode connu), et mode demand en attente */
+	private volatile SensorMode sensorMode;
+	private final AtomicReference<SensorMode> requestedMode = new AtomicReference<SensorMode>();
+
+	/** Choix automatique du mode selon la charge de la boucle de rendu, null s'il est dsactiv */
+	private volatile SensorModePolicy modePolicy;
+
+	/** Date du dernier appel  updateDepth(), en ns */
+	private long lastUpdateTime = -1;
+
+	/** Dimensions de l'image camra de la dernire image rcupre par le thread de rendu */
+	volatile int width, height;
 
 	/** Instance du module singleton Kinect */
 	private static KinectModule instance;
 
-	private KinectModule()
+	/**
+	 * Cre un module indpendant, avec son propre thread de capture. L'application utilise le module
+	 * de getInstance() ; les modules crs directement servent aux capteurs supplmentaires
+	 * (voir SensorFusion) et ne pilotent pas les gestures des dmonstrations.
+	 * @param source, la source des images de ce capteur
+	 */
+	public KinectModule(FrameSource source)
 	{
+		this.source = source;
 
-		try {
-			scriptNode = new OutArg<ScriptNode>();
-			context = Context.createFromXmlFile(SAMPLE_XML_FILE, scriptNode);
-
-			//Activation du mode mirroir (image inverse) et initialisation de la camra de profondeur
-			context.setGlobalMirror(true);
-			depthGen = DepthGenerator.create(context);
-			DepthMetaData depthMD = depthGen.getMetaData();
-
-			// L'histogramme nous permet de stocker les informations de profondeurs antrieures
-			histogram = new float[10000];
-			
-			// Rsolution de la camera de profondeur
-			width = depthMD.getFullXRes();
-			height = depthMD.getFullYRes();
-			imgbytes = new byte[width*height*3];
-
-			// Initialisation du module responsable du tracking des utilisateurs
-			userGen = UserGenerator.create(context);
-			skeletonCap = userGen.getSkeletonCapability();
-			poseDetectionCap = userGen.getPoseDetectionCapability();
-
-			//Ajout des diffrents observers
-			userGen.getNewUserEvent().addObserver(new NewUserObserver());
-			userGen.getLostUserEvent().addObserver(new LostUserObserver());
-			skeletonCap.getCalibrationCompleteEvent().addObserver(new CalibrationCompleteObserver());
-			
-			//Joints du squelette pour chaque user
-			calibPose = skeletonCap.getSkeletonCalibrationPose();
-			joints = new HashMap<Integer, HashMap<SkeletonJoint,SkeletonJointPosition>>();
-			skeletonCap.setSkeletonProfile(SkeletonProfile.ALL);
-			
-			context.startGeneratingAll();
+		// Rsolution de la camera de profondeur
+		width = source.getWidth();
+		height = source.getHeight();
+		sensorMode = SensorMode.fromSize(width, height);
+		if (sensorMode != null) {
+			watchdog.setExpectedFrameRate(sensorMode.getFrameRate());
+		}
 
-		} catch (GeneralException e) {
-			e.printStackTrace();
-			System.exit(1);
+		// L'histogramme des profondeurs donne l'intensit de chaque pixel
+		colorizer = new DepthColorizer(colors, width, height);
+		colorizer.setParallel(!Boolean.getBoolean(SERIAL_COLORIZE_PROPERTY));
+		// Une valeur de proprit errone est signale, et le traitement garde son rglage par dfaut
+		String filter = System.getProperty(DEPTH_FILTER_PROPERTY);
+		if (filter != null) {
+			try {
+				setTemporalFilter(TemporalDepthFilter.Mode.valueOf(filter.toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown " + DEPTH_FILTER_PROPERTY + " \"" + filter + "\", depth filter disabled");
+			}
 		}
-	}
+		setBackgroundModelEnabled(Boolean.getBoolean(BACKGROUND_MODEL_PROPERTY));
+		String cloud = System.getProperty(POINT_CLOUD_PROPERTY);
+		if (cloud != null) {
+			try {
+				setPointCloud(PointCloud.Content.valueOf(cloud.toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown " + POINT_CLOUD_PROPERTY + " \"" + cloud + "\", point cloud disabled");
+			}
+		}
+		// Les squelettes sont ceux mesurs, sauf si la prdiction est demande
+		String prediction = System.getProperty(JOINT_PREDICTION_PROPERTY);
+		if (prediction != null && !"off".equalsIgnoreCase(prediction)) {
+			JointPredictor predictor = new JointPredictor();
+			if (!"on".equalsIgnoreCase(prediction)) {
+				try {
+					predictor.setLead(Float.parseFloat(prediction));
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid " + JOINT_PREDICTION_PROPERTY + " \"" + prediction + "\", default lead of "
+							+ JointPredictor.DEFAULT_LEAD_MS + " ms");
+				}
+			}
+			jointPredictor = predictor;
+		}
+		frames = createFrames(width, height);
+		currentFrame = frames.getFrontBuffer();
+		depthBuffer = BufferUtils.createByteBuffer(width * height * 3);
+		rgbBuffer = BufferUtils.createByteBuffer(width * height * 3);
 
-	//Permet d'ajouter un observer  l'vnement "user perdu"
-	public void addEventObserver(IObserver<UserEventArgs> observer) {
+		//Ajout des diffrents observers
 		try {
-			userGen.getLostUserEvent().addObserver(observer);
+			source.getLostUserEvent().addObserver(new UserEventForwarder(true));
+			source.getUserTrackedEvent().addObserver(new UserEventForwarder(false));
 		} catch (StatusException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		userRegistry.getUserLostEvent().addObserver(new LostUserObserver());
+		userRegistry.getUserArrivedEvent().addObserver(new UserTrackedObserver());
+
+		captureThread = new CaptureThread();
+		captureThread.start();
+	}
+
+	/**
+	 * @return true si ce module est celui de l'application (getInstance()), dont les utilisateurs ont des gestures
+	 */
+	boolean isApplicationModule() {
+		return instance == this;
+	}
+
+	/**
+	 * Arrte le thread de capture et l'enregistrement, puis libre la source.
+	 * Si le thread de capture est encore bloqu dans la source aprs une seconde, la source n'est pas libre
+	 * sous lui : c'est le thread lui-mme qui la libre en se terminant.
+	 */
+	public void close() {
+		closing = true;
+		captureThread.interrupt();
+		try {
+			captureThread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stopRecording();
+		stopPublishing();
+		if (!captureThread.isAlive()) {
+			releaseSource();
+		} else {
+			System.err.println("Capture thread still running, the source will be released when it ends");
+		}
+	}
+
+	/**
+	 * Libre la source une seule fois, depuis close() ou depuis le thread de capture s'il se termine aprs
+	 */
+	private void releaseSource() {
+		if (sourceReleased.compareAndSet(false, true)) {
+			source.release();
+		}
+	}
+
+	//Permet d'ajouter un observer  l'vnement "user perdu"
+	public void addEventObserver(IObserver<UserEventArgs> observer) {
+		userRegistry.getUserLostEvent().addObserver(observer);
 	}
 
 	public synchronized static KinectModule getInstance() {
 		if(instance == null) {
 			synchronized (KinectModule.class) {
-				instance = new KinectModule();
+				instance = new KinectModule(createDefaultSource());
+				String record = System.getProperty(RECORD_PROPERTY);
+				if (record != null) {
+					instance.startRecording(new File(record));
+				}
+				String publish = System.getProperty(PUBLISH_PROPERTY);
+				if (publish != null) {
+					instance.startPublishing(new File(publish));
+				}
+				String mode = System.getProperty(MODE_PROPERTY);
+				if ("auto".equalsIgnoreCase(mode)) {
+					instance.setAutomaticMode(true);
+				} else if ("qvga".equalsIgnoreCase(mode)) {
+					instance.setSensorMode(SensorMode.QVGA_60);
+				} else if ("vga".equalsIgnoreCase(mode)) {
+					instance.setSensorMode(SensorMode.VGA_30);
+				}
 			}
 		}
 		return instance;
 	}
 
 	/**
-	 * Code rcupr sur le site de SimpleOpenNI
-	 * @param depth
+	 * Initialise le module avec une source d'images donne (par exemple une session rejoue).
+	 * Doit tre appele avant le premier appel  getInstance().
+	 * @param source, la source des images
+	 * @return l'instance du module
+	 */
+	public synchronized static KinectModule createInstance(FrameSource source) {
+		if (instance != null) {
+			throw new IllegalStateException("KinectModule already initialized");
+		}
+		instance = new KinectModule(source);
+		return instance;
+	}
+
+	/**
+	 * Cre la source par dfaut : la session dsigne par la proprit kinect.replay
+	 * si elle est dfinie, des utilisateurs synthtiques avec kinect.synthetic, la Kinect sinon
 	 */
-	private void calcHist(ShortBuffer depth)
+	private static FrameSource createDefaultSource() {
+		try {
+			String replay = System.getProperty(REPLAY_PROPERTY);
+			if (replay != null) {
+				return new ReplayFrameSource(new File(replay), true, true);
+			}
+			String synthetic = System.getProperty(SyntheticFrameSource.SYNTHETIC_PROPERTY);
+			if (synthetic != null) {
+				return SyntheticFrameSource.fromSpec(synthetic, true);
+			}
+			return new OpenNIFrameSource();
+		} catch (GeneralException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.exit(1);
+		return null;
+	}
+
+	/**
+	 * Remplit une image  partir des donnes courantes de la source (thread de capture)
+	 * @param frame, l'image  remplir
+	 * @throws StatusException
+	 */
+	private void captureFrame(KinectFrame frame) throws StatusException
 	{
-		// reset
-		for (int i = 0; i < histogram.length; ++i)
-			histogram[i] = 0;
+		source.getDepthMap().get(frame.depth);
+		source.getSceneMap().get(frame.scene);
+		frame.timestamp = source.getTimestamp();
+		frame.frameID = source.getFrameID();
+		// La camra RGB est copie ici : le thread de rendu ne touche jamais au gnrateur, qui peut tre
+		// libr par un redmarrage ou un changement de mode
+		ByteBuffer pixels = source.getImageMap();
+		int rgbSize = frame.getWidth() * frame.getHeight() * 3;
+		frame.hasRgb = pixels != null && pixels.remaining() == rgbSize;
+		if (frame.hasRgb) {
+			if (frame.rgb == null) {
+				frame.rgb = new byte[rgbSize];
+			}
+			pixels.get(frame.rgb);
+		}
 
-		depth.rewind();
+		int[] users = source.getUsers();
+		frame.userCount = Math.min(users.length, KinectFrame.MAX_USERS);
+		for (int i = 0; i < frame.userCount; i++) {
+			int user = users[i];
+			frame.users[i] = user;
+			frame.tracking[i] = source.isSkeletonTracking(user);
+			if (frame.tracking[i]) {
+				source.getSkeleton(user, frame.skeletons[i]);
+			} else {
+				for (float[] joint : frame.skeletons[i]) {
+					Arrays.fill(joint, 0);
+				}
+			}
+		}
 
-		int points = 0;
-		while(depth.remaining() > 0)
-		{
-			short depthVal = depth.get();
-			if (depthVal != 0)
-			{
-				histogram[depthVal]++;
-				points++;
+		SessionRecorder sessionRecorder = recorder;
+		if (sessionRecorder != null) {
+			recordFrame(sessionRecorder, frame);
+		}
+
+		// Prdiction aprs l'enregistrement, qui garde les joints mesurs
+		JointPredictor predictor = jointPredictor;
+		if (predictor != null) {
+			for (int i = 0; i < frame.userCount; i++) {
+				if (frame.tracking[i]) {
+					predictor.update(frame.users[i], frame.skeletons[i], frame.timestamp, frame.skeletons[i]);
+				} else {
+					predictor.reset(frame.users[i]);
+				}
 			}
 		}
 
-		for (int i = 1; i < histogram.length; i++)
-		{
-			histogram[i] += histogram[i-1];
+		// Filtrage aprs l'enregistrement, qui garde la profondeur brute
+		TemporalDepthFilter filter = depthFilter;
+		if (filter != null) {
+			if (filter.getWidth() != frame.getWidth() || filter.getHeight() != frame.getHeight()) {
+				// Le mode a chang : l'historique est recr  la nouvelle rsolution
+				TemporalDepthFilter resized = new TemporalDepthFilter(frame.getWidth(), frame.getHeight(), filter.getMode());
+				resized.setParallel(colorizer.isParallel());
+				depthFilter = filter = resized;
+			}
+			filter.filter(frame.depth);
 		}
 
-		if (points > 0)
-		{
-			for (int i = 1; i < histogram.length; i++)
-			{
-				histogram[i] = 1.0f - (histogram[i] / (float)points);
+		FrameRingWriter ring = publisher;
+		if (ring != null) {
+			// Ne fait que des copies, sans jamais attendre les lecteurs
+			ring.write(frame);
+		}
+
+		// Premier plan sur la profondeur filtre, moins bruite
+		BackgroundModel model = backgroundModel;
+		if (model != null) {
+			if (model.getWidth() != frame.getWidth() || model.getHeight() != frame.getHeight()) {
+				BackgroundModel resized = new BackgroundModel(frame.getWidth(), frame.getHeight());
+				resized.setParallel(model.isParallel());
+				backgroundModel = model = resized;
+			}
+			frame.foregroundCount = model.update(frame.depth, frame.scene, frame.foreground);
+		} else {
+			frame.foregroundCount = -1;
+		}
+
+		PointCloud.Content content = pointCloudContent;
+		if (content != null) {
+			if (pointCloud == null || pointCloud.getWidth() != frame.getWidth() || pointCloud.getHeight() != frame.getHeight()) {
+				pointCloud = createPointCloud(frame.getWidth(), frame.getHeight());
+				pointCloud.setParallel(colorizer.isParallel());
 			}
+			if (frame.points == null) {
+				frame.points = PointCloud.createBuffer(frame.getWidth(), frame.getHeight());
+			}
+			pointCloud.setContent(content);
+			frame.pointCount = pointCloud.compute(frame.depth, frame.scene, frame.points);
+		} else {
+			frame.pointCount = -1;
+		}
+
+		boolean contours = contoursEnabled;
+		frame.pyramid.compute(frame.depth, frame.scene, contours ? Math.max(pyramidLevels, CONTOUR_LEVEL) : pyramidLevels,
+				pyramidReduction);
+
+		boolean roiMode = regionOfInterestMode;
+		if (roiMode) {
+			// Seuls les pixels colors lors du dernier passage de cette image sont  effacer
+			if (frame.roiImage) {
+				frame.roi.clear(frame.image);
+			} else {
+				Arrays.fill(frame.image, (byte) 0);
+			}
+		}
+		// Les rgions ne servent qu' la coloration en mode rgion d'intrt et aux contours
+		frame.roiComputed = roiMode || contours;
+		if (frame.roiComputed) {
+			frame.roi.compute(frame.scene);
 		}
+		if (contours) {
+			DepthPyramid pyramid = frame.pyramid;
+			frame.contours.compute(pyramid.getScene(CONTOUR_LEVEL), pyramid.getWidth(CONTOUR_LEVEL),
+					pyramid.getHeight(CONTOUR_LEVEL), CONTOUR_LEVEL, frame.roi, frame.users, frame.userCount);
+		} else {
+			frame.contours.clear();
+		}
+		frame.contoured = contours;
+		colorizer.colorize(frame.depth, frame.scene, model != null ? frame.foreground : null, frame.image,
+				roiMode ? frame.roi : null);
+		frame.roiImage = roiMode;
+	}
+
+	/**
+	 * Active le filtre temporel de la profondeur (appliqu avant la pyramide et la coloration),
+	 * ou le dsactive. L'historique repart de zro  chaque appel.
+	 * @param mode, le type de filtrage, ou null pour dsactiver le filtre
+	 */
+	public void setTemporalFilter(TemporalDepthFilter.Mode mode) {
+		if (mode == null) {
+			depthFilter = null;
+			return;
+		}
+		TemporalDepthFilter filter = new TemporalDepthFilter(width, height, mode);
+		filter.setParallel(colorizer.isParallel());
+		depthFilter = filter;
 	}
 
 	/**
-	 * Met  jour la camera de profondeur
+	 * Active le modle de l'arrire-plan, ou le dsactive : chaque image indique alors les pixels au premier plan
+	 * (KinectFrame.getForeground()), y compris ceux des utilisateurs que NITE n'a pas encore labelliss,
+	 * colors en DepthColorizer.FOREGROUND_COLOR. L'arrire-plan est rappris  chaque activation.
+	 * @param enabled
 	 */
-	public void updateDepth()
+	public void setBackgroundModelEnabled(boolean enabled) {
+		if (!enabled) {
+			backgroundModel = null;
+			return;
+		}
+		BackgroundModel model = new BackgroundModel(width, height);
+		model.setParallel(colorizer.isParallel());
+		backgroundModel = model;
+	}
+
+	public boolean isBackgroundModelEnabled() {
+		return backgroundModel != null;
+	}
+
+	/**
+	 * Active le nuage de points de chaque image (KinectFrame.getPoints()), calcul sur le thread de capture
+	 * aprs le filtre temporel, ou le dsactive
+	 * @param content, les pixels convertis, ou null pour dsactiver le nuage
+	 */
+	public void setPointCloud(PointCloud.Content content) {
+		pointCloudContent = content;
+	}
+
+	public PointCloud.Content getPointCloud() {
+		return pointCloudContent;
+	}
+
+	/**
+	 * Active ou dsactive le contour de la silhouette de chaque utilisateur (KinectFrame.getContours()),
+	 * extrait sur le thread de capture des labels rduits de la pyramide
+	 * @param enabled
+	 */
+	public void setContoursEnabled(boolean enabled) {
+		contoursEnabled = enabled;
+	}
+
+	public boolean isContoursEnabled() {
+		return contoursEnabled;
+	}
+
+	/**
+	 * Cre la conversion en nuage de points avec le champ de vision de la Kinect s'il est connu (nominal sinon)
+	 */
+	private PointCloud createPointCloud(int width, int height) {
+		if (source instanceof OpenNIFrameSource) {
+			try {
+				FieldOfView fov = ((OpenNIFrameSource) source).getFieldOfView();
+				return new PointCloud(width, height, fov.getHFOV(), fov.getVFOV());
+			} catch (StatusException e) {
+				e.printStackTrace();
+			}
+		}
+		return new PointCloud(width, height);
+	}
+
+	/**
+	 * Remplace le filtrage et la prdiction des joints (appliqus  chaque image avant la publication des squelettes)
+	 * @param predictor, le prdicteur, ventuellement rgl joint par joint, ou null pour utiliser les joints mesurs
+	 */
+	public void setJointPredictor(JointPredictor predictor) {
+		jointPredictor = predictor;
+	}
+
+	/**
+	 * Demande le calcul de la pyramide de profondeur jusqu' un niveau donn, une seule fois par image
+	 * pour tous les consommateurs (voir KinectFrame.getPyramid())
+	 * @param level, 1 pour 320x240, 2 pour 320x240 et 160x120
+	 */
+	public synchronized void requestPyramidLevel(int level) {
+		if (level < 0 || level > DepthPyramid.LEVELS) {
+			throw new IllegalArgumentException("Pyramid level must be between 0 and " + DepthPyramid.LEVELS);
+		}
+		pyramidLevels = Math.max(pyramidLevels, level);
+	}
+
+	/**
+	 * Choisit le pixel reprsentant chaque bloc 2x2 de la pyramide (le plus proche par dfaut)
+	 * @param reduction
+	 */
+	public void setPyramidReduction(DepthPyramid.Reduction reduction) {
+		pyramidReduction = reduction;
+	}
+
+	/**
+	 * Active ou dsactive le mode ROI : l'histogramme et la coloration ne traitent plus que
+	 * les botes englobantes des utilisateurs, l'arrire-plan n'est plus affich
+	 * @param enabled
+	 */
+	public void setRegionOfInterestMode(boolean enabled) {
+		regionOfInterestMode = enabled;
+	}
+
+	public boolean isRegionOfInterestMode() {
+		return regionOfInterestMode;
+	}
+
+	/**
+	 * Renvoie l'image fixe par le dernier appel  updateDepth(), celle dont sont issus les squelettes
+	 * et les images de profondeur. L'image reste valide jusqu'au prochain updateDepth() ;
+	 *  n'utiliser que depuis le thread de rendu.
+	 * @return l'image courante (vide tant qu'aucune image n'a t capture)
+	 */
+	public KinectFrame latestFrame() {
+		return currentFrame;
+	}
+
+	/**
+	 * Rcupre la dernire image publie par le thread de capture et la fixe jusqu'au prochain appel
+	 */
+	private KinectFrame advanceFrame() {
+		TripleBuffer<KinectFrame> buffers = frames;
+		buffers.update();
+		KinectFrame frame = buffers.getFrontBuffer();
+		currentFrame = frame;
+		width = frame.getWidth();
+		height = frame.getHeight();
+		return frame;
+	}
+
+	/**
+	 * Demande un changement de mode du capteur, appliqu par le thread de capture avant l'image suivante.
+	 * Les images, les squelettes et les conversions de coordonnes (voir toScreenX()) suivent le nouveau mode
+	 * ds la premire image capture dans ce mode. L'enregistrement d'une session en cours est arrt.
+	 * @param mode, le mode voulu
+	 */
+	public void setSensorMode(SensorMode mode) {
+		requestedMode.set(mode);
+		SensorModePolicy policy = modePolicy;
+		if (policy != null) {
+			policy.setMode(mode);
+		}
+	}
+
+	/**
+	 * @return le mode courant du capteur, null si la source n'est dans aucun mode connu
+	 */
+	public SensorMode getSensorMode() {
+		return sensorMode;
+	}
+
+	/**
+	 * Active ou dsactive le choix automatique du mode : QVGA  60 images/s lorsque la boucle de rendu
+	 * dpasse son budget, VGA  30 images/s sinon (voir SensorModePolicy)
+	 */
+	public void setAutomaticMode(boolean enabled) {
+		if (!enabled) {
+			modePolicy = null;
+		} else if (modePolicy == null) {
+			SensorMode mode = sensorMode;
+			modePolicy = new SensorModePolicy(mode == null ? SensorMode.VGA_30 : mode);
+		}
+	}
+
+	/**
+	 * @return le choix automatique du mode, null s'il est dsactiv
+	 */
+	public SensorModePolicy getModePolicy() {
+		return modePolicy;
+	}
+
+	/**
+	 * Mesure la dure du tour de la boucle de rendu et change de mode si le choix automatique le recommande
+	 */
+	private void updateModePolicy() {
+		long now = System.nanoTime();
+		SensorModePolicy policy = modePolicy;
+		if (policy != null && lastUpdateTime >= 0) {
+			SensorMode mode = policy.update(now, now - lastUpdateTime);
+			if (mode != sensorMode && requestedMode.get() == null) {
+				requestedMode.set(mode);
+			}
+		}
+		lastUpdateTime = now;
+	}
+
+	/**
+	 * Convertit une abscisse de l'image du capteur (coordonnes projectives dans le mode courant)
+	 * en abscisse d'une vue de largeur donne
+	 */
+	public float toViewX(float x, float viewWidth) {
+		return x * viewWidth / width;
+	}
+
+	/**
+	 * Convertit une ordonne de l'image du capteur en ordonne d'une vue de hauteur donne,
+	 * l'origine tant en bas de la vue comme avec glOrtho
+	 */
+	public float toViewY(float y, float viewHeight) {
+		return viewHeight - y * viewHeight / height;
+	}
+
+	/**
+	 * Convertit une abscisse de l'image du capteur en abscisse de l'cran
+	 */
+	public float toScreenX(float x) {
+		return toViewX(x, Display.getWidth());
+	}
+
+	/**
+	 * Convertit une ordonne de l'image du capteur en ordonne de l'cran (origine en bas)
+	 */
+	public float toScreenY(float y) {
+		return toViewY(y, Display.getHeight());
+	}
+
+	public int toScreenX(int x) {
+		return x * Display.getWidth() / width;
+	}
+
+	public int toScreenY(int y) {
+		return Display.getHeight() - y * Display.getHeight() / height;
+	}
+
+	/**
+	 * Traite, sur le thread de rendu, les vnements utilisateurs reus par le thread de capture
+	 */
+	private void dispatchUserEvents() {
+		PendingUserEvent event;
+		while ((event = pendingUserEvents.poll()) != null) {
+			if (event.lost) {
+				userRegistry.userLost(event.user);
+			} else {
+				userRegistry.userArrived(event.user);
+			}
+		}
+	}
+
+	/**
+	 * Met  jour la camera de profondeur : rcupre la dernire image capture (sans attendre
+	 * la Kinect), la fixe jusqu'au prochain appel (voir latestFrame()) et, si elle est nouvelle, met  jour les squelettes et les gestures des utilisateurs
+	 * puis prvient les FrameListener. Appele une fois par tour de la boucle de rendu.
+	 * @return true si une nouvelle image est arrive depuis le dernier appel
+	 */
+	public boolean updateDepth()
 	{
+		updateModePolicy();
+		// Les vnements sont traits aprs avoir fix l'image : ceux qui la suivent dj (utilisateur perdu
+		// encore suivi dans l'image, ou l'inverse) sont couverts par le cache des squelettes et les tests ci-dessous
+		KinectFrame frame = advanceFrame();
+		dispatchUserEvents();
+		if (frame.sequence == lastUpdatedSequence) {
+			return false;
+		}
+		lastUpdatedSequence = frame.sequence;
+		skeletonSnapshot.set(frame.snapshot);
+
 		try {
-			context.waitAnyUpdateAll();
-			context.setGlobalMirror(true);
-			DepthMetaData depthMD = depthGen.getMetaData();
-			SceneMetaData sceneMD = userGen.getUserPixels(0);
-
-			ShortBuffer scene = sceneMD.getData().createShortBuffer();
-			ShortBuffer depth = depthMD.getData().createShortBuffer();
-			calcHist(depth);
-			depth.rewind();
-
-			for (int i = 0; i < userGen.getUsers().length; i++) {
-				int user = userGen.getUsers()[i];
-				if (skeletonCap.isSkeletonTracking(userGen.getUsers()[i])) {
-					getJoints(userGen.getUsers()[i]);
+			for (int i = 0; i < frame.userCount; i++) {
+				int user = frame.users[i];
+				if (!frame.tracking[i]) {
+					continue;
 				}
-				if (joints.containsKey(new Integer(user))) {
-					SkeletonJointPosition leftHand = joints.get(new Integer(user)).get(SkeletonJoint.LEFT_HAND);
-					SkeletonJointPosition rightHand = joints.get(new Integer(user)).get(SkeletonJoint.RIGHT_HAND);
-					SkeletonJointPosition head = joints.get(new Integer(user)).get(SkeletonJoint.HEAD);
-					if ((leftHand != null && head != null && head.getConfidence() != 0 && leftHand.getConfidence() != 0)
-							&& (rightHand != null && rightHand.getConfidence() != 0)){
-						Point3D leftPos = leftHand.getPosition();
-						Point3D rightPos = rightHand.getPosition();
-						Point leftPoint = new Point();
-						leftPoint.setLocation(leftPos.getX(), leftPos.getY());
-						Point rightPoint = new Point();
-						rightPoint.setLocation(rightPos.getX(), rightPos.getY());
-						DemonstrationsCommon.getInstance().getUserGesture(user)
-							.updateDepth((int) leftPos.getZ(), leftPoint, (int) head.getPosition().getZ(),
-								(int) rightPos.getZ(), rightPoint);
-					}
-
+				getJoints(user);
+				if (!isApplicationModule()) {
+					continue;
 				}
-			}
-
-			while(depth.remaining() > 0)
-			{
-				int pos = depth.position();
-				short pixel = depth.get();
-				short user = scene.get();
-				imgbytes[3*pos] = 0;
-				imgbytes[3*pos+1] = 0;
-				imgbytes[3*pos+2] = 0;                	
-
-				if (drawBackground || pixel != 0)
-				{
-					int colorID = user % (colors.length-2) + 1;
-					if (user == 0)
-					{
-						colorID = colors.length-1;
-					} 
-					if (pixel != 0)
-					{
-						float histValue = histogram[pixel];
-						imgbytes[3*pos] = (byte)(histValue*colors[colorID].getRed());
-						imgbytes[3*pos+1] = (byte)(histValue*colors[colorID].getGreen());
-						imgbytes[3*pos+2] = (byte)(histValue*colors[colorID].getBlue());
+				// Les gestures lisent directement le squelette de l'image, sans passer par les SkeletonJointPosition
+				float[][] skeleton = frame.skeletons[i];
+				float[] leftHand = skeleton[KinectFrame.LEFT_HAND];
+				float[] rightHand = skeleton[KinectFrame.RIGHT_HAND];
+				float[] head = skeleton[KinectFrame.HEAD];
+				if (head[KinectFrame.CONFIDENCE] != 0 && leftHand[KinectFrame.CONFIDENCE] != 0
+						&& rightHand[KinectFrame.CONFIDENCE] != 0) {
+					Point leftPoint = new Point();
+					leftPoint.setLocation(leftHand[KinectFrame.X], leftHand[KinectFrame.Y]);
+					Point rightPoint = new Point();
+					rightPoint.setLocation(rightHand[KinectFrame.X], rightHand[KinectFrame.Y]);
+					HandGesture gesture = DemonstrationsCommon.getInstance().getUserGesture(user);
+					if (gesture != null) {
+						gesture.updateDepth((int) leftHand[KinectFrame.Z], leftPoint, (int) head[KinectFrame.Z],
+							(int) rightHand[KinectFrame.Z], rightPoint);
 					}
 				}
 			}
-		} catch (GeneralException e) {
+		} catch (StatusException e) {
 			e.printStackTrace();
 		}
+
+		for (FrameListener listener : frameListeners) {
+			listener.frameArrived(frame);
+		}
+		return true;
+	}
+
+	/**
+	 * Ajoute un consommateur prvenu  chaque nouvelle image (sur le thread de rendu)
+	 * @param listener
+	 */
+	public void addFrameListener(FrameListener listener) {
+		frameListeners.add(listener);
+	}
+
+	public void removeFrameListener(FrameListener listener) {
+		frameListeners.remove(listener);
 	}
 
 	Color colors[] = {Color.RED, Color.CYAN, Color.GREEN, Color.MAGENTA, Color.PINK, Color.YELLOW, Color.BLUE, Color.WHITE};
 	
 	/**
-	 * Renvoie la position d'un joint spcifique
-	 * @param user, l'ID de l'utilisateur
-	 * @param joint, le joint  rcuprer
-	 * @throws StatusException
+	 * Commence l'enregistrement de la session (profondeur, labels et squelettes)
+	 * @param file, le fichier de sortie
 	 */
-	public synchronized void  getJoint(int user, SkeletonJoint joint) throws StatusException
-	{
-		SkeletonJointPosition pos = skeletonCap.getSkeletonJointPosition(user, joint);
-		if (pos.getPosition().getZ() != 0)
-		{
-			joints.get(user).put(joint, new SkeletonJointPosition(depthGen.convertRealWorldToProjective(pos.getPosition()), pos.getConfidence()));
+	public synchronized void startRecording(File file) {
+		stopRecording();
+		try {
+			recorder = new SessionRecorder(file, width, height);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		else
-		{
-			joints.get(user).put(joint, new SkeletonJointPosition(new Point3D(), 0));
+	}
+
+	/**
+	 * Termine l'enregistrement en cours
+	 */
+	public synchronized void stopRecording() {
+		SessionRecorder stopped = recorder;
+		if (stopped != null) {
+			recorder = null;
+			stopped.close();
 		}
 	}
 
-	public boolean isSkeletonReady(int user) {
-		return skeletonCap.isSkeletonTracking(user);
+	public boolean isRecording() {
+		return recorder != null;
 	}
 
 	/**
-	 * Renvoie la position de tous les membres d'un utilisateur
-	 * @param user, l'ID de l'utilisateur
-	 * @throws StatusException
+	 * Transmet l'image courante  l'enregistreur. Ne fait qu'une copie :
+	 * la compression et l'criture se font sur le thread de l'enregistreur.
+	 * Si l'enregistrement est arrt entre-temps, l'image est simplement perdue.
 	 */
-	public void getJoints(int user) throws StatusException
-	{
-		getJoint(user, SkeletonJoint.HEAD);
-		getJoint(user, SkeletonJoint.NECK);
+	private void recordFrame(SessionRecorder recorder, KinectFrame captured) {
+		if (recorder.getWidth() != captured.getWidth() || recorder.getHeight() != captured.getHeight()) {
+			// Une session n'a qu'une rsolution
+			synchronized (this) {
+				if (this.recorder == recorder) {
+					System.err.println("Sensor mode changed, recording stopped");
+					stopRecording();
+				}
+			}
+			return;
+		}
+		SessionRecorder.Frame frame = recorder.beginFrame();
+		if (frame == null) {
+			return;
+		}
+		frame.setMaps(captured.depth, captured.scene, captured.timestamp, captured.frameID);
+		for (int i = 0; i < captured.userCount; i++) {
+			frame.addUser(captured.users[i], captured.tracking[i], captured.skeletons[i]);
+		}
+		recorder.commitFrame(frame);
+	}
 
-		getJoint(user, SkeletonJoint.LEFT_SHOULDER);
-		getJoint(user, SkeletonJoint.LEFT_ELBOW);
-		getJoint(user, SkeletonJoint.LEFT_HAND);
+	/**
+	 * Commence la publication des images (profondeur filtre, labels et squelettes, prdits si la prdiction
+	 * est active) dans un anneau partag, lisible par d'autres processus avec FrameRingReader
+	 * @param file, le fichier de l'anneau, recr
+	 */
+	public synchronized void startPublishing(File file) {
+		stopPublishing();
+		try {
+			// Emplacements assez grands pour tous les modes
+			publisher = new FrameRingWriter(file, FrameRingWriter.DEFAULT_SLOTS, Math.max(width, SensorMode.VGA_30.getWidth()),
+					Math.max(height, SensorMode.VGA_30.getHeight()));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-		getJoint(user, SkeletonJoint.RIGHT_SHOULDER);
-		getJoint(user, SkeletonJoint.RIGHT_ELBOW);
-		getJoint(user, SkeletonJoint.RIGHT_HAND);
+	/**
+	 * Termine la publication en cours ; les lecteurs voient l'anneau ferm
+	 */
+	public synchronized void stopPublishing() {
+		FrameRingWriter stopped = publisher;
+		if (stopped != null) {
+			publisher = null;
+			stopped.close();
+		}
+	}
 
-		getJoint(user, SkeletonJoint.TORSO);
+	public boolean isPublishing() {
+		return publisher != null;
+	}
 
-		getJoint(user, SkeletonJoint.LEFT_HIP);
-		getJoint(user, SkeletonJoint.LEFT_KNEE);
-		getJoint(user, SkeletonJoint.LEFT_FOOT);
+	/**
+	 * @return l'tat de la source : OK, DEGRADED (images en retard) ou STALLED (bloque, en cours de rinitialisation)
+	 */
+	public SensorWatchdog.Health getHealth() {
+		return watchdog.getHealth();
+	}
 
-		getJoint(user, SkeletonJoint.RIGHT_HIP);
-		getJoint(user, SkeletonJoint.RIGHT_KNEE);
-		getJoint(user, SkeletonJoint.RIGHT_FOOT);
+	public SensorWatchdog getWatchdog() {
+		return watchdog;
+	}
 
+	public boolean isSkeletonReady(int user) {
+		return skeletonSnapshot.get().isTracking(user);
 	}
 
-	private BufferedImage writePixels(ByteBuffer pixels, int width, int height) {
-		int[] packedPixels = new int[width * height * 3];
+	/**
+	 * Renvoie l'tat des utilisateurs et de leurs squelettes de l'image traite par updateDepth().
+	 * Cet tat est immuable : il peut tre lu sans verrou depuis n'importe quel thread.
+	 */
+	public SkeletonSnapshot getSkeletonSnapshot() {
+		return skeletonSnapshot.get();
+	}
 
-		int bufferInd = 0;
-		for (int row = height - 1; row >= 0; row--) {
-			for (int col = 0; col < width; col++) {
-				int R, G, B;
-				R = pixels.get(bufferInd++);
-				G = pixels.get(bufferInd++);
-				B = pixels.get(bufferInd++);
-				int index = (row * width + col) * 3;
-				packedPixels[index++] = R;
-				packedPixels[index++] = G;
-				packedPixels[index] = B;
-			}
-		}
-		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		WritableRaster wr = img.getRaster();
-		wr.setPixels(0, 0, width, height, packedPixels);
-		return img;
+	/**
+	 * Met  jour la position de tous les membres d'un utilisateur (voir getJointsMap).
+	 * Les joints sont lus dans l'image de updateDepth(), une seule fois par image :
+	 * les appels suivants de la mme image ne font que lire le cache.
+	 * @param user, l'ID de l'utilisateur
+	 * @throws StatusException
+	 */
+	public void getJoints(int user) throws StatusException
+	{
+		skeletons.get(skeletonSnapshot.get(), user);
 	}
 
-	
 	/**
-	 * renvoie l'image de la camra de profondeur
+	 * renvoie l'image de la camra de profondeur, celle de l'image fixe par updateDepth()
 	 * @return
 	 */
 	public synchronized BufferedImage getDepthTexture() {
+		KinectFrame frame = latestFrame();
+		byte[] imgbytes = frame.image;
+		int width = frame.getWidth(), height = frame.getHeight();
 		DataBufferByte dataBuffer = new DataBufferByte(imgbytes, width*height*3);
 		WritableRaster raster = Raster.createInterleavedRaster(dataBuffer, width, height, width * 3, 3, new int[]{0, 1, 2}, null); 
 		ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[]{8, 8, 8}, false, false, ComponentColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
 		return new BufferedImage(colorModel, raster, false, null);
 	}
 
+	/**
+	 * Renvoie l'image de profondeur colore dans un buffer direct rutilisable,
+	 *  envoyer tel quel  OpenGL (voir gl.StreamingTexture).
+	 * Le buffer contient l'image fixe par updateDepth() : il peut tre lu depuis un FrameListener,
+	 * et n'est recopi que lorsque cette image change.
+	 * @return un buffer de width*height*3 octets (RGB), premire range en haut de l'image
+	 */
+	public synchronized ByteBuffer getDepthBuffer() {
+		KinectFrame frame = latestFrame();
+		if (frame.sequence != depthBufferSequence) {
+			if (depthBuffer.capacity() != frame.image.length) {
+				depthBuffer = BufferUtils.createByteBuffer(frame.image.length);
+			}
+			depthBuffer.clear();
+			depthBuffer.put(frame.image);
+			depthBuffer.flip();
+			depthBufferSequence = frame.sequence;
+		}
+		return depthBuffer;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
 
 	/**
 	 * Mthode de dessin de cercle OPenGL
@@ -456,8 +1240,8 @@ public class KinectModule
 	 * @param joint la position du joint  dessiner
 	 */
 	private void drawCircle(int userID, SkeletonJoint joint){
-		SkeletonJointPosition pos = joints.get(userID).get(joint);
-		Vec2 position = new Vec2(pos.getPosition().getX(), Display.getHeight() - pos.getPosition().getY());
+		SkeletonJointPosition pos = getJointsMap(userID).get(joint);
+		Vec2 position = new Vec2(toScreenX(pos.getPosition().getX()), toScreenY(pos.getPosition().getY()));
 		float radius = 5;
 		GL11.glBegin(GL11.GL_TRIANGLE_FAN);
 		GL11.glVertex2f(position.x, position.y);
@@ -479,8 +1263,8 @@ public class KinectModule
 	 */
 	public void drawSkeletons() throws StatusException
 	{
-		for (Integer user : userGen.getUsers()) {
-			if (!skeletonCap.isSkeletonTracking(user)) {
+		for (Integer user : getUsers()) {
+			if (!isSkeletonReady(user)) {
 				continue;
 			}
 			getJoints(user);
@@ -509,21 +1293,36 @@ public class KinectModule
 	}
 
 	/**
-	 * Renvoie l'image de la camra RGB
-	 * @return une BufferedImage
+	 * Renvoie l'image de la camra RGB de l'image fixe par updateDepth(), dans un buffer direct rutilisable,
+	 *  envoyer tel quel  OpenGL (voir gl.StreamingTexture). Les ranges sont copies en bloc et inverses,
+	 * la premire range du buffer tant le bas de l'image ; elles ne sont recopies que lorsque l'image change.
+	 * @return un buffer de width*height*3 octets (RGB), noir s'il n'y a pas de camra RGB
 	 */
-	public BufferedImage getRGBImageTexture() {
-		ImageGenerator image = null;
-		BufferedImage bimg = null;
-		try {
-			image = org.OpenNI.ImageGenerator.create(context);			
-			ByteBuffer bufferImage = image.getMetaData().getData().createByteBuffer();
-			bimg = writePixels(bufferImage, 640, 480);
-			return bimg;
-		} catch (GeneralException e) {
-			e.printStackTrace();
+	public synchronized ByteBuffer getRGBBuffer() {
+		KinectFrame frame = latestFrame();
+		if (frame.sequence == rgbBufferSequence) {
+			return rgbBuffer;
 		}
-		return null;
+		int rowSize = frame.getWidth() * 3, height = frame.getHeight();
+		if (rgbBuffer.capacity() != rowSize * height) {
+			rgbBuffer = BufferUtils.createByteBuffer(rowSize * height);
+		}
+		rgbBuffer.clear();
+		if (frame.hasRgb) {
+			for (int row = height - 1; row >= 0; row--) {
+				rgbBuffer.put(frame.rgb, row * rowSize, rowSize);
+			}
+			rgbBuffer.flip();
+		} else if (!rgbBufferBlack) {
+			// Pas de camra RGB (session rejoue) : le buffer est effac une fois, puis reste noir
+			while (rgbBuffer.hasRemaining()) {
+				rgbBuffer.put((byte) 0);
+			}
+			rgbBuffer.flip();
+		}
+		rgbBufferBlack = !frame.hasRgb;
+		rgbBufferSequence = frame.sequence;
+		return rgbBuffer;
 	}
 
 	/**
@@ -531,24 +1330,39 @@ public class KinectModule
 	 * @return
 	 */
 	public int[] getUsers() {
-		try {
-			return userGen.getUsers();
-		} catch (StatusException e) {
-			e.printStackTrace();
-		}
-		return null;
+		return skeletonSnapshot.get().getUsers();
 	}
 
-	public HashMap<Integer, UserHandPainter> getHandPainters() {
-		return handPainters;
+	/**
+	 * @return l'utilitaire de dessin  la main de l'utilisateur, null s'il n'est pas suivi
+	 */
+	public UserHandPainter getHandPainter(int userID) {
+		return handPainters.get(userID);
+	}
+
+	/**
+	 * @return le registre des utilisateurs suivis, dans lequel chaque sous-systme garde leur tat
+	 */
+	public UserRegistry getUserRegistry() {
+		return userRegistry;
 	}
 
+	/**
+	 * @return les positions des joints de l'utilisateur dans l'image courante, null s'il n'est pas suivi
+	 */
 	public HashMap<SkeletonJoint, SkeletonJointPosition> getJointsMap(int userID) {
-		return joints.get(new Integer(userID));
+		return skeletons.get(skeletonSnapshot.get(), userID);
+	}
+
+	/**
+	 * @return le cache des squelettes, et ses compteurs de lectures vites
+	 */
+	public SkeletonCache getSkeletonCache() {
+		return skeletons;
 	}
 
-	public Context getContext() {
-		return context;
+	public FrameSource getFrameSource() {
+		return source;
 	}
 
 }
@@ -0,0 +1,224 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Teste une installation  plusieurs Kinect sans capteur : une session est gnre pour chaque capteur,
+ * chacun voyant les mmes personnes (immobiles, mesures avec du bruit) depuis une position diffrente,
+ * puis chaque session est rejoue par son propre KinectModule.
+ * - dbit : images captures par seconde, au total, avec 1  SENSORS capteurs ;
+ * - fusion :  chaque SensorFusion.update(), il doit y avoir exactement une personne par personne visible,
+ *   mme lorsqu'elle est vue par deux capteurs, et son ID ne doit pas changer.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class MultiSensorBenchmark {
+
+	private static final int WIDTH = 640, HEIGHT = 480;
+	private static final int FRAMES = 90;
+	private static final long FRAME_PERIOD = 33333;
+	private static final long DURATION_MS = 3000;
+
+	/** Bruit de mesure des joints (mm) */
+	private static final float NOISE = 15;
+
+	/** Profondeur de l'arrire-plan (mm) */
+	private static final short BACKGROUND = 4500;
+
+	/** Position des capteurs : angle (degrs) et position dans la pice (mm) */
+	private static final SensorCalibration[] SENSORS = {
+		new SensorCalibration(0, 0, 0, 0),
+		new SensorCalibration(-35, 2000, 0, 0),
+		new SensorCalibration(35, -2000, 0, 0),
+	};
+
+	/** Position des torses des personnes (mm) */
+	private static final float[][] PEOPLE = {
+		{ -1200, 0, 2800 }, { 0, 0, 2200 }, { 900, 0, 3200 }, { 2600, 0, 2600 }, { -2800, 0, 2400 },
+	};
+
+	/** Position des joints par rapport au torse (mm) */
+	private static final float[][] BODY = SyntheticFrameSource.BODY;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File[] sessions = new File[SENSORS.length];
+		boolean[] visible = new boolean[PEOPLE.length];
+		for (int s = 0; s < SENSORS.length; s++) {
+			sessions[s] = File.createTempFile("sensor" + s, ".session");
+			sessions[s].deleteOnExit();
+			int seen = generate(sessions[s], s, visible);
+			System.out.println("Sensor " + s + ": " + seen + " people");
+		}
+		int expected = 0;
+		for (boolean v : visible) {
+			expected += v ? 1 : 0;
+		}
+		System.out.println(expected + " different people, " + Runtime.getRuntime().availableProcessors() + " cores");
+
+		boolean ok = true;
+		for (int n = 1; n <= SENSORS.length; n++) {
+			ok &= run(sessions, n, expected);
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Rejoue les sessions des n premiers capteurs et les fusionne pendant DURATION_MS
+	 * @return false si la fusion de tous les capteurs a chou
+	 */
+	private static boolean run(File[] sessions, int n, int expected) throws IOException, InterruptedException {
+		SensorFusion fusion = new SensorFusion();
+		KinectModule[] modules = new KinectModule[n];
+		for (int s = 0; s < n; s++) {
+			modules[s] = new KinectModule(new ReplayFrameSource(sessions[s], false, true));
+			fusion.addSensor(modules[s], SENSORS[s]);
+		}
+
+		// Attend que chaque capteur suive ses utilisateurs
+		while (!allTracking(fusion)) {
+			fusion.update();
+			Thread.sleep(1);
+		}
+
+		long[] startSequences = new long[n];
+		for (int s = 0; s < n; s++) {
+			startSequences[s] = modules[s].getSkeletonSnapshot().getSequence();
+		}
+		long start = System.nanoTime();
+		long updates = 0, wrongCount = 0, idChanges = 0;
+		int[] ids = null;
+		while (System.nanoTime() - start < DURATION_MS * 1000000L) {
+			SkeletonSnapshot fused = fusion.update();
+			updates++;
+			if (n == SENSORS.length) {
+				if (fused.getUserCount() != expected) {
+					wrongCount++;
+				}
+				int[] users = fused.getUsers();
+				Arrays.sort(users);
+				if (ids != null && !Arrays.equals(ids, users)) {
+					idChanges++;
+				}
+				ids = users;
+			}
+			Thread.sleep(1);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long frames = 0;
+		for (int s = 0; s < n; s++) {
+			frames += modules[s].getSkeletonSnapshot().getSequence() - startSequences[s];
+			modules[s].close();
+		}
+		System.out.printf("%d sensor(s): %.0f frames/s in total, %.0f frames/s per sensor%n",
+				n, frames / seconds, frames / seconds / n);
+		if (n == SENSORS.length) {
+			System.out.println(updates + " fusions, " + (ids == null ? 0 : ids.length) + " fused users "
+					+ Arrays.toString(ids));
+			System.out.println(wrongCount == 0 && idChanges == 0 ? "OK: every person fused exactly once, stable IDs"
+					: "FAILED: " + wrongCount + " wrong user counts, " + idChanges + " ID changes");
+			return wrongCount == 0 && idChanges == 0;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true si tous les capteurs ont publi une image o leurs utilisateurs sont suivis
+	 */
+	private static boolean allTracking(SensorFusion fusion) {
+		for (int s = 0; s < fusion.getSensorCount(); s++) {
+			SkeletonSnapshot snapshot = fusion.getSensor(s).getSkeletonSnapshot();
+			if (snapshot.getUserCount() == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Enregistre la session d'un capteur : arrire-plan plat, chaque personne visible est un rectangle
+	 * dans les cartes de profondeur et de labels, et un squelette bruit
+	 * @param visible, marque les personnes vues par ce capteur
+	 * @return le nombre de personnes vues par ce capteur
+	 */
+	private static int generate(File file, int sensor, boolean[] visible) throws IOException, InterruptedException {
+		SensorCalibration calibration = SENSORS[sensor];
+		Random random = new Random(sensor);
+		short[] depth = new short[WIDTH * HEIGHT];
+		short[] scene = new short[WIDTH * HEIGHT];
+		float[][][] skeletons = new float[PEOPLE.length][BODY.length][KinectFrame.JOINT_SIZE];
+		int[] users = new int[PEOPLE.length];
+		float[] world = new float[3];
+		float[] torso = new float[3];
+		int seen = 0;
+
+		SessionRecorder recorder = new SessionRecorder(file, WIDTH, HEIGHT);
+		for (int f = 0; f < FRAMES; f++) {
+			SessionRecorder.Frame frame;
+			while ((frame = recorder.beginFrame()) == null) {
+				Thread.sleep(1);
+			}
+			Arrays.fill(depth, BACKGROUND);
+			Arrays.fill(scene, (short) 0);
+			int count = 0;
+			for (int p = 0; p < PEOPLE.length; p++) {
+				calibration.toProjective(PEOPLE[p], WIDTH, HEIGHT, torso);
+				if (torso[KinectFrame.Z] < 500 || torso[KinectFrame.X] < 0 || torso[KinectFrame.X] >= WIDTH) {
+					continue;
+				}
+				visible[p] = true;
+				// Chaque capteur numrote ses utilisateurs  sa faon
+				int user = (p + sensor) % PEOPLE.length + 1;
+				float[][] skeleton = skeletons[count];
+				for (int j = 0; j < BODY.length; j++) {
+					world[0] = PEOPLE[p][0] + BODY[j][0] + (float) random.nextGaussian() * NOISE;
+					world[1] = PEOPLE[p][1] + BODY[j][1] + (float) random.nextGaussian() * NOISE;
+					world[2] = PEOPLE[p][2] + (float) random.nextGaussian() * NOISE;
+					float[] joint = skeleton[j];
+					calibration.toProjective(world, WIDTH, HEIGHT, joint);
+					boolean inside = joint[KinectFrame.X] >= 0 && joint[KinectFrame.X] < WIDTH
+							&& joint[KinectFrame.Y] >= 0 && joint[KinectFrame.Y] < HEIGHT;
+					joint[KinectFrame.CONFIDENCE] = inside ? 1 : 0;
+				}
+				fillBox(depth, scene, skeleton, (short) torso[KinectFrame.Z], (short) user);
+				users[count++] = user;
+			}
+			frame.setMaps(depth, scene, f * FRAME_PERIOD, f);
+			for (int i = 0; i < count; i++) {
+				frame.addUser(users[i], true, skeletons[i]);
+			}
+			recorder.commitFrame(frame);
+			seen = count;
+		}
+		recorder.close();
+		return seen;
+	}
+
+	/**
+	 * Dessine la bote englobante des joints connus d'une personne
+	 */
+	private static void fillBox(short[] depth, short[] scene, float[][] skeleton, short z, short user) {
+		float minX = WIDTH, minY = HEIGHT, maxX = -1, maxY = -1;
+		for (float[] joint : skeleton) {
+			if (joint[KinectFrame.CONFIDENCE] != 0) {
+				minX = Math.min(minX, joint[KinectFrame.X]);
+				maxX = Math.max(maxX, joint[KinectFrame.X]);
+				minY = Math.min(minY, joint[KinectFrame.Y]);
+				maxY = Math.max(maxY, joint[KinectFrame.Y]);
+			}
+		}
+		for (int y = Math.max(0, (int) minY); y <= Math.min(HEIGHT - 1, (int) maxY); y++) {
+			for (int x = Math.max(0, (int) minX); x <= Math.min(WIDTH - 1, (int) maxX); x++) {
+				int i = y * WIDTH + x;
+				if (z < depth[i]) {
+					depth[i] = z;
+					scene[i] = user;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,673 @@
+package kinect;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.OpenNI.CalibrationProgressEventArgs;
+import org.OpenNI.CalibrationProgressStatus;
+import org.OpenNI.Context;
+import org.OpenNI.DepthGenerator;
+import org.OpenNI.DepthMetaData;
+import org.OpenNI.Device;
+import org.OpenNI.FieldOfView;
+import org.OpenNI.GeneralException;
+import org.OpenNI.IObservable;
+import org.OpenNI.IObserver;
+import org.OpenNI.ImageGenerator;
+import org.OpenNI.ImageMap;
+import org.OpenNI.ImageMetaData;
+import org.OpenNI.License;
+import org.OpenNI.MapOutputMode;
+import org.OpenNI.NodeInfo;
+import org.OpenNI.NodeType;
+import org.OpenNI.OutArg;
+import org.OpenNI.Point3D;
+import org.OpenNI.PoseDetectionCapability;
+import org.OpenNI.Query;
+import org.OpenNI.SceneMetaData;
+import org.OpenNI.ScriptNode;
+import org.OpenNI.SkeletonCapability;
+import org.OpenNI.SkeletonJointPosition;
+import org.OpenNI.SkeletonProfile;
+import org.OpenNI.StatusException;
+import org.OpenNI.UserEventArgs;
+import org.OpenNI.UserGenerator;
+
+/**
+ * Source d'images branche directement sur la Kinect via OpenNI.
+ * Elle s'occupe galement de la dtection de pose et de la calibration des nouveaux utilisateurs.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class OpenNIFrameSource implements FrameSource {
+
+	/**
+	 * Cet observer nous notifie lorsqu'un nouvel utilisateur est dtect par la Kinect
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	class NewUserObserver implements IObserver<UserEventArgs>
+	{
+		@Override
+		public void update(IObservable<UserEventArgs> observable,
+				UserEventArgs args)
+		{
+			userAppeared(args.getId());
+			try
+			{
+				// Si la calibration n'est pas faite, on l'invoque (une calibration en cache peut la remplacer, voir applyCachedCalibrations)
+				if (skeletonCap.needPoseForCalibration())
+				{
+					poseDetectionCap.startPoseDetection(calibPose, args.getId());
+				}
+				else
+				{
+					skeletonCap.requestSkeletonCalibration(args.getId(), true);
+				}
+			} catch (StatusException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Cet observer nous notifie lorsque la calibration d'un utilisateur est termine
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	class CalibrationCompleteObserver implements IObserver<CalibrationProgressEventArgs>
+	{
+		@Override
+		public void update(IObservable<CalibrationProgressEventArgs> observable,
+				CalibrationProgressEventArgs args)
+		{
+			System.out.println("Calibration complete: " + args.getStatus());
+			try
+			{
+				if (args.getStatus() == CalibrationProgressStatus.OK)
+				{
+					System.out.println("starting tracking "  +args.getUser());
+					skeletonCap.startTracking(args.getUser());
+					userTracked(args.getUser(), false);
+					saveCalibration(args.getUser());
+				}
+				else if (args.getStatus() != CalibrationProgressStatus.MANUAL_ABORT)
+				{
+					if (skeletonCap.needPoseForCalibration())
+					{
+						poseDetectionCap.startPoseDetection(calibPose, args.getUser());
+					}
+					else
+					{
+						skeletonCap.requestSkeletonCalibration(args.getUser(), true);
+					}
+				}
+			} catch (StatusException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Oublie l'attente de calibration d'un utilisateur parti
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	class LostUserObserver implements IObserver<UserEventArgs>
+	{
+		@Override
+		public void update(IObservable<UserEventArgs> observable,
+				UserEventArgs args)
+		{
+			if (args.getId() < pendingFrames.length) {
+				pendingFrames[args.getId()] = 0;
+			}
+			lostUserEvent.notify(args.getId());
+		}
+	}
+
+	/** Chemin d'accs au fichier de configuration */
+	public static final String SAMPLE_XML_FILE = "SamplesConfig.xml";
+
+	/** Licence de NITE (celle du fichier de configuration), ncessaire au suivi des squelettes */
+	private static final String LICENSE_VENDOR = "PrimeSense";
+	private static final String LICENSE_KEY = "0KOIk2JeIBYClPWVnMoRKn5cdY4=";
+
+	/** Mode de la camra de profondeur lorsqu'un capteur est ouvert sans fichier de configuration */
+	private static final MapOutputMode DEVICE_MODE = new MapOutputMode(640, 480, 30);
+
+	/** Intervalle entre deux vrifications de l'arrive d'une image, en ms */
+	private static final long POLL_INTERVAL = 1;
+
+	/** Fichier de configuration, ou null si le capteur est ouvert par son index ; gards pour restart() */
+	private final String xmlFile;
+	private final int device;
+
+	/**Variable lies  la Kinect */
+	private OutArg<ScriptNode> scriptNode;
+	private Context context;
+	private DepthGenerator depthGen;
+	private UserGenerator userGen;
+	private ImageGenerator imageGen;
+	private SkeletonCapability skeletonCap;
+	private PoseDetectionCapability poseDetectionCap;
+	private String calibPose = null;
+
+	/** Buffers de l'image courante */
+	private ShortBuffer depth;
+	private ShortBuffer scene;
+	private long timestamp;
+	private int frameID;
+
+	/** Image RGB courante, copie dans un buffer allou une seule fois */
+	private ImageMetaData imageMD = new ImageMetaData();
+	private ByteBuffer image;
+
+	/** Image RGB  sa rsolution d'origine, lorsqu'elle doit tre rduite  celle de la profondeur,
+	 * et une range de chaque rsolution */
+	private ByteBuffer fullImage;
+	private byte[] fullRow, reducedRow;
+
+	/** Positions (monde rel) des joints d'un utilisateur, converties en une seule fois */
+	private final Point3D[] realWorld = new Point3D[KinectModule.TRACKED_JOINTS.length];
+	private final float[] confidences = new float[KinectModule.TRACKED_JOINTS.length];
+
+	/** Dimensions de l'image camra */
+	private int width, height;
+
+	/** Mode demand par setMode(), rappliqu par restart() ; null pour celui de la configuration */
+	private SensorMode mode;
+
+	/** Calibrations enregistres, null si le cache est dsactiv */
+	private CalibrationCache calibrationCache;
+
+	/** Hauteur du champ de vision  1 mm de profondeur, pour estimer la taille des utilisateurs */
+	private float yzFactor;
+
+	/** Par ID d'utilisateur : instant (ns) et image de son apparition, images restantes pour trouver une calibration en cache */
+	private long[] appearedTime = new long[16];
+	private int[] appearedFrame = new int[16];
+	private int[] pendingFrames = new int[16];
+
+	/** Utilisateurs en attente d'une calibration en cache, et leur taille, estimes ensemble  chaque image */
+	private int[] pendingUsers = new int[16];
+	private float[] pendingHeights = new float[16];
+
+	/** Nombre d'images pendant lesquelles on attend qu'un nouvel utilisateur soit entirement visible */
+	private static final int CACHE_LOOKUP_FRAMES = 15;
+
+	/** vnement lev lorsque le tracking d'un utilisateur commence */
+	private UserEventObservable userTrackedEvent = new UserEventObservable();
+
+	/** vnement lev lorsqu'un utilisateur est perdu, relay depuis le UserGenerator du contexte courant */
+	private UserEventObservable lostUserEvent = new UserEventObservable();
+
+	/**
+	 * Initialise la Kinect  partir du fichier de configuration
+	 * @param xmlFile, le fichier de configuration OpenNI
+	 * @throws GeneralException, si la Kinect ne peut tre initialise
+	 */
+	public OpenNIFrameSource(String xmlFile) throws GeneralException {
+		this.xmlFile = xmlFile;
+		device = -1;
+		openFromXmlFile();
+	}
+
+	private void openFromXmlFile() throws GeneralException {
+		scriptNode = new OutArg<ScriptNode>();
+		context = Context.createFromXmlFile(xmlFile, scriptNode);
+
+		//Activation du mode mirroir (image inverse) et initialisation de la camra de profondeur
+		context.setGlobalMirror(true);
+		depthGen = DepthGenerator.create(context);
+		createGenerators(null, null);
+	}
+
+	public OpenNIFrameSource() throws GeneralException {
+		this(SAMPLE_XML_FILE);
+	}
+
+	/**
+	 * Ouvre l'un des capteurs branchs, pour une installation  plusieurs Kinect
+	 * (un KinectModule par capteur, voir SensorFusion). Chaque capteur a son propre contexte OpenNI.
+	 * @param device, l'index du capteur, entre 0 et getDeviceCount()
+	 * @throws GeneralException, si le capteur n'existe pas ou ne peut tre initialis
+	 */
+	public OpenNIFrameSource(int device) throws GeneralException {
+		xmlFile = null;
+		this.device = device;
+		openDevice();
+	}
+
+	private void openDevice() throws GeneralException {
+		context = new Context();
+		context.addLicense(new License(LICENSE_VENDOR, LICENSE_KEY));
+		NodeInfo info = null;
+		int index = 0;
+		for (NodeInfo node : context.enumerateProductionTrees(NodeType.DEVICE)) {
+			if (index++ == device) {
+				info = node;
+				break;
+			}
+		}
+		if (info == null) {
+			context.release();
+			throw new GeneralException("No Kinect #" + device);
+		}
+		Device node = (Device) context.createProductionTree(info);
+
+		// Tous les gnrateurs sont crs sur ce capteur
+		Query deviceQuery = new Query();
+		deviceQuery.addNeededNode(node);
+		depthGen = DepthGenerator.create(context, deviceQuery);
+		depthGen.setMapOutputMode(DEVICE_MODE);
+		context.setGlobalMirror(true);
+		Query depthQuery = new Query();
+		depthQuery.addNeededNode(depthGen);
+		createGenerators(depthQuery, deviceQuery);
+	}
+
+	/**
+	 * @return le nombre de Kinect branches
+	 */
+	public static int getDeviceCount() throws GeneralException {
+		Context context = new Context();
+		try {
+			int count = 0;
+			for (@SuppressWarnings("unused") NodeInfo node : context.enumerateProductionTrees(NodeType.DEVICE)) {
+				count++;
+			}
+			return count;
+		} finally {
+			context.release();
+		}
+	}
+
+	/**
+	 * Cre le suivi des utilisateurs et la camra RGB, puis dmarre la capture
+	 * @param userQuery, contraintes du gnrateur d'utilisateurs (null pour le premier disponible)
+	 * @param imageQuery, contraintes de la camra RGB (null pour la premire disponible)
+	 */
+	private void createGenerators(Query userQuery, Query imageQuery) throws GeneralException {
+		DepthMetaData depthMD = depthGen.getMetaData();
+
+		// Rsolution de la camera de profondeur
+		width = depthMD.getFullXRes();
+		height = depthMD.getFullYRes();
+
+		// Initialisation du module responsable du tracking des utilisateurs
+		userGen = userQuery == null ? UserGenerator.create(context) : UserGenerator.create(context, userQuery);
+		skeletonCap = userGen.getSkeletonCapability();
+		poseDetectionCap = userGen.getPoseDetectionCapability();
+
+		//Ajout des diffrents observers
+		userGen.getNewUserEvent().addObserver(new NewUserObserver());
+		userGen.getLostUserEvent().addObserver(new LostUserObserver());
+		skeletonCap.getCalibrationCompleteEvent().addObserver(new CalibrationCompleteObserver());
+
+		calibrationCache = CalibrationCache.fromProperties();
+		yzFactor = (float) (2 * Math.tan(depthGen.getFieldOfView().getVFOV() / 2));
+
+		calibPose = skeletonCap.getSkeletonCalibrationPose();
+		skeletonCap.setSkeletonProfile(SkeletonProfile.ALL);
+
+		// Camra RGB, cre une seule fois (absente si le fichier de configuration ne la dclare pas)
+		try {
+			imageGen = imageQuery == null ? ImageGenerator.create(context) : ImageGenerator.create(context, imageQuery);
+		} catch (GeneralException e) {
+			System.err.println("No RGB camera: " + e.getMessage());
+		}
+
+		context.startGeneratingAll();
+	}
+
+	/**
+	 * Attend la prochaine image en vrifiant rgulirement si elle est arrive, plutt qu'avec
+	 * waitAnyUpdateAll() qui ne rend jamais la main si le capteur se bloque (dconnexion USB)
+	 */
+	@Override
+	public boolean waitForUpdate(long timeout) throws GeneralException {
+		long start = System.nanoTime();
+		while (!depthGen.isNewDataAvailable()) {
+			if ((System.nanoTime() - start) / 1000000L >= timeout) {
+				return false;
+			}
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		context.waitNoneUpdateAll();
+		context.setGlobalMirror(true);
+		DepthMetaData depthMD = depthGen.getMetaData();
+		SceneMetaData sceneMD = userGen.getUserPixels(0);
+		depth = depthMD.getData().createShortBuffer();
+		scene = sceneMD.getData().createShortBuffer();
+		timestamp = depthMD.getTimestamp();
+		frameID = depthMD.getFrameID();
+		applyCachedCalibrations();
+		return true;
+	}
+
+	/**
+	 * Libre le contexte OpenNI et en cre un nouveau, avec la mme configuration
+	 */
+	@Override
+	public boolean restart() throws GeneralException {
+		if (context != null) {
+			// Les utilisateurs de l'ancien contexte sont perdus
+			try {
+				for (int user : userGen.getUsers()) {
+					lostUserEvent.notify(user);
+				}
+			} catch (StatusException e) {
+				e.printStackTrace();
+			}
+			Arrays.fill(pendingFrames, 0);
+			context.release();
+			context = null;
+		}
+		if (xmlFile != null) {
+			openFromXmlFile();
+		} else {
+			openDevice();
+		}
+		if (mode != null && !setMode(mode)) {
+			mode = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Change le mode de la camra de profondeur ; le suivi des utilisateurs suit sa rsolution.
+	 * La camra RGB reste dans son mode : getImageMap() la rduit  la rsolution de la profondeur.
+	 */
+	@Override
+	public boolean setMode(SensorMode mode) {
+		try {
+			depthGen.setMapOutputMode(new MapOutputMode(mode.getWidth(), mode.getHeight(), mode.getFrameRate()));
+		} catch (StatusException e) {
+			System.err.println("Sensor mode " + mode + " not supported: " + e.getMessage());
+			return false;
+		}
+		this.mode = mode;
+		width = mode.getWidth();
+		height = mode.getHeight();
+		return true;
+	}
+
+	/**
+	 * Note l'apparition d'un utilisateur, et le met en attente d'une calibration en cache
+	 */
+	private void userAppeared(int user) {
+		if (user >= pendingFrames.length) {
+			int size = Math.max(user + 1, pendingFrames.length * 2);
+			appearedTime = Arrays.copyOf(appearedTime, size);
+			appearedFrame = Arrays.copyOf(appearedFrame, size);
+			pendingFrames = Arrays.copyOf(pendingFrames, size);
+			pendingUsers = new int[size];
+			pendingHeights = new float[size];
+		}
+		appearedTime[user] = System.nanoTime();
+		appearedFrame[user] = frameID;
+		pendingFrames[user] = calibrationCache == null ? 0 : CACHE_LOOKUP_FRAMES;
+	}
+
+	/**
+	 * Pour chaque utilisateur en attente, ds qu'il est entirement visible : si une personne de mme taille
+	 * a dj t calibre, sa calibration est charge et le suivi commence tout de suite.
+	 * Sinon, ou si OpenNI refuse la calibration, la calibration normale (dj lance) continue.
+	 */
+	private void applyCachedCalibrations() {
+		int count = 0;
+		for (int user = 0; user < pendingFrames.length; user++) {
+			if (pendingFrames[user] != 0) {
+				pendingUsers[count++] = user;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+		// Un seul parcours de l'image pour tous les utilisateurs en attente
+		CalibrationCache.estimateHeights(depth, scene, width, height, pendingUsers, count, yzFactor, pendingHeights);
+		for (int i = 0; i < count; i++) {
+			int user = pendingUsers[i];
+			float userHeight = pendingHeights[i];
+			if (Float.isNaN(userHeight)) {
+				pendingFrames[user]--;
+				continue;
+			}
+			pendingFrames[user] = 0;
+			int slot = calibrationCache.find(userHeight);
+			if (slot < 0) {
+				continue;
+			}
+			try {
+				if (skeletonCap.needPoseForCalibration()) {
+					poseDetectionCap.stopPoseDetection(user);
+				}
+				if (skeletonCap.isSkeletonCalibrating(user)) {
+					skeletonCap.abortSkeletonCalibration(user);
+				}
+				skeletonCap.loadSkeletonCalibrationDatadFromFile(user, calibrationCache.getFile(slot).getPath());
+				skeletonCap.startTracking(user);
+				System.out.println("Cached calibration for user " + user + " (" + (int) userHeight + " mm)");
+				userTracked(user, true);
+			} catch (StatusException e) {
+				System.err.println("Cached calibration rejected: " + e.getMessage());
+				calibrationCache.remove(slot);
+				try {
+					if (skeletonCap.needPoseForCalibration()) {
+						poseDetectionCap.startPoseDetection(calibPose, user);
+					} else {
+						skeletonCap.requestSkeletonCalibration(user, true);
+					}
+				} catch (StatusException e2) {
+					e2.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Enregistre dans le cache la calibration d'un utilisateur qui vient d'tre calibr
+	 */
+	private void saveCalibration(int user) {
+		if (calibrationCache == null || depth == null) {
+			return;
+		}
+		float userHeight = CalibrationCache.estimateHeight(depth, scene, width, height, user, yzFactor);
+		if (Float.isNaN(userHeight)) {
+			return;
+		}
+		int slot = calibrationCache.allocate(userHeight);
+		try {
+			skeletonCap.saveSkeletonCalibrationDataToFile(user, calibrationCache.getFile(slot).getPath());
+			calibrationCache.commit(slot, userHeight);
+		} catch (StatusException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Mesure le temps entre l'apparition de l'utilisateur et le dbut de son suivi, puis lve userTrackedEvent
+	 * @param cached, true si la calibration vient du cache
+	 */
+	private void userTracked(int user, boolean cached) {
+		if (user < pendingFrames.length) {
+			pendingFrames[user] = 0;
+			long millis = (System.nanoTime() - appearedTime[user]) / 1000000L;
+			int frames = frameID - appearedFrame[user];
+			System.out.println("User " + user + " tracked after " + millis + " ms, " + frames + " frames ("
+					+ (cached ? "cached calibration" : "pose calibration") + ")");
+			if (calibrationCache != null) {
+				calibrationCache.recordTimeToTracking(millis, frames, cached);
+			}
+		}
+		userTrackedEvent.notify(user);
+	}
+
+	/**
+	 * @return le cache des calibrations et ses statistiques, null s'il est dsactiv
+	 */
+	public CalibrationCache getCalibrationCache() {
+		return calibrationCache;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public ShortBuffer getDepthMap() {
+		depth.rewind();
+		return depth;
+	}
+
+	@Override
+	public ShortBuffer getSceneMap() {
+		scene.rewind();
+		return scene;
+	}
+
+	@Override
+	public ByteBuffer getImageMap() {
+		if (imageGen == null) {
+			return null;
+		}
+		imageGen.getMetaData(imageMD);
+		ImageMap map = imageMD.getData();
+		int xRes = map.getXRes(), yRes = map.getYRes(), bpp = map.getBytesPerPixel();
+		int size = xRes * yRes * bpp;
+		if (xRes == width && yRes == height) {
+			if (image == null || image.capacity() != size) {
+				image = ByteBuffer.allocateDirect(size);
+			}
+			image.clear();
+			map.copyToBuffer(image, size);
+			image.rewind();
+			return image;
+		}
+
+		// Profondeur en QVGA, RGB en VGA : rduction au plus proche voisin
+		if (fullImage == null || fullImage.capacity() != size) {
+			fullImage = ByteBuffer.allocateDirect(size);
+		}
+		fullImage.clear();
+		map.copyToBuffer(fullImage, size);
+		int fullRowSize = xRes * bpp, rowSize = width * bpp;
+		if (image == null || image.capacity() != rowSize * height) {
+			image = ByteBuffer.allocateDirect(rowSize * height);
+		}
+		if (fullRow == null || fullRow.length != fullRowSize) {
+			fullRow = new byte[fullRowSize];
+		}
+		if (reducedRow == null || reducedRow.length != rowSize) {
+			reducedRow = new byte[rowSize];
+		}
+		// Chaque range est lue et crite en bloc, les pixels sont choisis dans les tableaux
+		image.clear();
+		for (int y = 0; y < height; y++) {
+			fullImage.position((y * yRes / height) * fullRowSize);
+			fullImage.get(fullRow);
+			for (int x = 0, i = 0; x < width; x++) {
+				int from = x * xRes / width * bpp;
+				for (int b = 0; b < bpp; b++) {
+					reducedRow[i++] = fullRow[from + b];
+				}
+			}
+			image.put(reducedRow);
+		}
+		image.rewind();
+		return image;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public int getFrameID() {
+		return frameID;
+	}
+
+	@Override
+	public int[] getUsers() throws StatusException {
+		return userGen.getUsers();
+	}
+
+	@Override
+	public boolean isSkeletonTracking(int user) {
+		return skeletonCap.isSkeletonTracking(user);
+	}
+
+	/**
+	 * Lit les joints un par un (OpenNI n'a pas d'appel group pour le squelette),
+	 * puis les convertit en coordonnes projectives avec un seul appel  convertRealWorldToProjective
+	 */
+	@Override
+	public void getSkeleton(int user, float[][] joints) throws StatusException {
+		for (int j = 0; j < realWorld.length; j++) {
+			SkeletonJointPosition pos = skeletonCap.getSkeletonJointPosition(user, KinectModule.TRACKED_JOINTS[j]);
+			realWorld[j] = pos.getPosition();
+			confidences[j] = pos.getConfidence();
+		}
+		Point3D[] projective = depthGen.convertRealWorldToProjective(realWorld);
+		for (int j = 0; j < realWorld.length; j++) {
+			float[] joint = joints[j];
+			if (realWorld[j].getZ() != 0) {
+				Point3D p = projective[j];
+				joint[KinectFrame.X] = p.getX();
+				joint[KinectFrame.Y] = p.getY();
+				joint[KinectFrame.Z] = p.getZ();
+				joint[KinectFrame.CONFIDENCE] = confidences[j];
+			} else {
+				joint[KinectFrame.X] = joint[KinectFrame.Y] = joint[KinectFrame.Z] = joint[KinectFrame.CONFIDENCE] = 0;
+			}
+		}
+	}
+
+	@Override
+	public IObservable<UserEventArgs> getUserTrackedEvent() {
+		return userTrackedEvent;
+	}
+
+	@Override
+	public IObservable<UserEventArgs> getLostUserEvent() {
+		return lostUserEvent;
+	}
+
+	@Override
+	public void release() {
+		if (calibrationCache != null) {
+			calibrationCache.flush();
+		}
+		if (context != null) {
+			context.release();
+			context = null;
+		}
+	}
+
+	public Context getContext() {
+		return context;
+	}
+
+	/**
+	 * @return le champ de vision de la camra de profondeur (pour SensorCalibration)
+	 */
+	public FieldOfView getFieldOfView() throws StatusException {
+		return depthGen.getFieldOfView();
+	}
+}
@@ -0,0 +1,34 @@
+package kinect;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pool partag par les traitements par pixel dcoups en bandes de ranges
+ * (coloration, filtrage temporel...), pour ne pas multiplier les threads.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+final class ParallelRows {
+
+	private static ForkJoinPool pool;
+
+	private ParallelRows() {
+	}
+
+	/**
+	 * @return le pool partag, cr au premier appel
+	 */
+	static synchronized ForkJoinPool pool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	/**
+	 * @return le nombre de bandes dans lequel dcouper une image (deux par thread du pool)
+	 */
+	static int bandCount(int height) {
+		return Math.min(height, 2 * pool().getParallelism());
+	}
+}
@@ -0,0 +1,238 @@
+package kinect;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.lwjgl.BufferUtils;
+
+/**
+ * Conversion de l'image de profondeur en nuage de points 3D (coordonnes relles en mm, comme
+ * convertProjectiveToRealWorld d'OpenNI : X vers la droite, Y vers le haut, Z la profondeur).
+ * La direction du rayon de chaque pixel est prcalcule une fois  partir du champ de vision ; la projection
+ * tant sparable, il suffit d'un facteur par colonne et d'un facteur par range. Chaque image ne cote
+ * alors que deux multiplications par point.
+ * Les points des pixels valides (ventuellement des seuls utilisateurs) sont crits  la suite, X, Y, Z,
+ * dans un FloatBuffer natif (directement utilisable par glVertexPointer). Aucune allocation par image ;
+ * le traitement peut tre dcoup en bandes de ranges (ForkJoin), chacune crivant ses points dans un tableau
+ * intermdiaire, copis ensuite  la suite dans le buffer (plus rapide que l'criture point par point
+ * dans un buffer natif).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class PointCloud {
+
+	/**
+	 * Pixels convertis
+	 */
+	public enum Content {
+		/** Tous les pixels dont la profondeur est connue */
+		ALL,
+		/** Seuls les pixels labelliss (utilisateurs) */
+		USERS
+	}
+
+	/**
+	 * Traitement d'une bande de ranges
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class BandTask extends RecursiveAction {
+		private final int fromRow, toRow;
+		private int count;
+
+		BandTask(int fromRow, int toRow) {
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		protected void compute() {
+			count = writeRows(fromRow, toRow);
+		}
+	}
+
+	/**
+	 * Conversion d'une image complte par bandes, puis copie des points de chaque bande  la suite
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class FrameTask extends RecursiveAction {
+		private int count;
+
+		@Override
+		protected void compute() {
+			for (BandTask band : bands) {
+				band.reinitialize();
+			}
+			invokeAll(bands);
+			count = 0;
+			for (BandTask band : bands) {
+				points.put(scratch, band.fromRow * width * POINT_SIZE, band.count * POINT_SIZE);
+				count += band.count;
+			}
+		}
+	}
+
+	/** Nombre de valeurs par point */
+	public static final int POINT_SIZE = 3;
+
+	private final int width, height;
+
+	/** Coordonne relle, par mm de profondeur, de chaque colonne (X) et de chaque range (Y) */
+	private final float[] rayX, rayY;
+
+	/** Points de chaque bande, crits  partir du dbut de la bande puis copis  la suite dans le buffer */
+	private final float[] scratch;
+
+	/** Pixels convertis */
+	private Content content = Content.ALL;
+
+	/** Image en cours (scene est null si tous les pixels sont convertis) */
+	private short[] depth, scene;
+	private FloatBuffer points;
+
+	/** Mode parallle */
+	private boolean parallel = false;
+	private ForkJoinPool pool;
+	private BandTask[] bands;
+	private FrameTask frameTask;
+
+	/**
+	 * @param width, largeur des images
+	 * @param height, hauteur des images
+	 * @param horizontalFov, verticalFov, champ de vision de la camra de profondeur (radians),
+	 * par exemple celui d'OpenNIFrameSource.getFieldOfView()
+	 */
+	public PointCloud(int width, int height, double horizontalFov, double verticalFov) {
+		this.width = width;
+		this.height = height;
+		float xzFactor = (float) (2 * Math.tan(horizontalFov / 2));
+		float yzFactor = (float) (2 * Math.tan(verticalFov / 2));
+		scratch = new float[width * height * POINT_SIZE];
+		rayX = new float[width];
+		rayY = new float[height];
+		// Mme convention que SensorCalibration.toWorld
+		for (int x = 0; x < width; x++) {
+			rayX[x] = ((float) x / width - 0.5f) * xzFactor;
+		}
+		for (int y = 0; y < height; y++) {
+			rayY[y] = (0.5f - (float) y / height) * yzFactor;
+		}
+	}
+
+	/**
+	 * Utilise le champ de vision nominal de la Kinect
+	 */
+	public PointCloud(int width, int height) {
+		this(width, height, SensorCalibration.KINECT_HORIZONTAL_FOV, SensorCalibration.KINECT_VERTICAL_FOV);
+	}
+
+	/**
+	 * Alloue un buffer natif pouvant recevoir les points de toute une image
+	 */
+	public static FloatBuffer createBuffer(int width, int height) {
+		return BufferUtils.createFloatBuffer(width * height * POINT_SIZE);
+	}
+
+	/**
+	 * Active ou dsactive le traitement parallle par bandes de ranges
+	 */
+	public void setParallel(boolean parallel) {
+		if (parallel && pool == null) {
+			pool = ParallelRows.pool();
+			int bandCount = ParallelRows.bandCount(height);
+			bands = new BandTask[bandCount];
+			for (int i = 0; i < bandCount; i++) {
+				bands[i] = new BandTask(height * i / bandCount, height * (i + 1) / bandCount);
+			}
+			frameTask = new FrameTask();
+		}
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public void setContent(Content content) {
+		this.content = content;
+	}
+
+	public Content getContent() {
+		return content;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Convertit une image en points, crits  la suite  partir du dbut du buffer
+	 * @param depth, la profondeur de chaque pixel
+	 * @param scene, le label de chaque pixel (lu seulement pour Content.USERS)
+	 * @param points, reoit X, Y, Z de chaque point ; sa capacit doit couvrir toute l'image
+	 * (voir createBuffer). En sortie, sa position est 0 et sa limite la fin du dernier point.
+	 * @return le nombre de points
+	 */
+	public int compute(short[] depth, short[] scene, FloatBuffer points) {
+		if (points.capacity() < width * height * POINT_SIZE) {
+			throw new IllegalArgumentException("Point buffer too small for " + width + "x" + height);
+		}
+		points.clear();
+		this.depth = depth;
+		this.scene = content == Content.USERS ? scene : null;
+		this.points = points;
+		int count;
+		if (parallel) {
+			frameTask.reinitialize();
+			pool.invoke(frameTask);
+			count = frameTask.count;
+		} else {
+			count = writeRows(0, height);
+			points.put(scratch, 0, count * POINT_SIZE);
+		}
+		this.depth = this.scene = null;
+		this.points = null;
+		points.flip();
+		return count;
+	}
+
+	/**
+	 * @return true si le pixel donne un point
+	 */
+	private boolean accept(short[] depth, short[] scene, int pos) {
+		return depth[pos] > 0 && (scene == null || scene[pos] != 0);
+	}
+
+	/**
+	 * crit les points des ranges [fromRow, toRow[ dans scratch,  partir du premier pixel de fromRow
+	 * @return le nombre de points
+	 */
+	private int writeRows(int fromRow, int toRow) {
+		short[] depth = this.depth, scene = this.scene;
+		float[] points = scratch, rayX = this.rayX;
+		int start = fromRow * width * POINT_SIZE;
+		int index = start;
+		for (int y = fromRow; y < toRow; y++) {
+			float ray = rayY[y];
+			for (int x = 0, pos = y * width; x < width; x++, pos++) {
+				if (!accept(depth, scene, pos)) {
+					continue;
+				}
+				float z = depth[pos];
+				points[index] = rayX[x] * z;
+				points[index + 1] = ray * z;
+				points[index + 2] = z;
+				index += POINT_SIZE;
+			}
+		}
+		return (index - start) / POINT_SIZE;
+	}
+}
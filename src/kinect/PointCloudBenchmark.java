@@ -0,0 +1,146 @@
+package kinect;
+
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.OpenNI.GeneralException;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Mesure le cot par image (640x480) du nuage de points, sans Kinect (utilisateurs synthtiques, avec des trous) :
+ * - conversion point par point (SensorCalibration.toWorld, le calcul de convertProjectiveToRealWorld) ;
+ * - PointCloud en srie et en parallle, pour toute l'image et pour les seuls utilisateurs.
+ * Vrifie que les points sont ceux de la conversion point par point et qu'aucune image n'alloue de mmoire.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class PointCloudBenchmark {
+
+	private static final int USERS = 4;
+	private static final int WIDTH = SyntheticFrameSource.WIDTH, HEIGHT = SyntheticFrameSource.HEIGHT;
+	private static final int FRAMES = 200;
+	private static final float HOLES = 0.05f;
+
+	/** cart maximal acceptable avec la conversion point par point (mm) */
+	private static final float MAX_ERROR = 0.5f;
+
+	public static void main(String[] args) throws GeneralException {
+		SyntheticFrameSource source = new SyntheticFrameSource(USERS,
+				new SyntheticFrameSource.Motion[] { SyntheticFrameSource.Motion.WAVE }, false);
+		for (int i = 0; i < 10; i++) {
+			source.waitForUpdate(0);
+		}
+		short[] depth = new short[WIDTH * HEIGHT];
+		short[] scene = new short[WIDTH * HEIGHT];
+		source.getDepthMap().get(depth);
+		source.getSceneMap().get(scene);
+		Random random = new Random(42);
+		for (int pos = 0; pos < depth.length; pos++) {
+			if (random.nextFloat() < HOLES) {
+				depth[pos] = 0;
+			}
+		}
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores, " + USERS + " synthetic users");
+
+		// Rfrence : un point  la fois
+		SensorCalibration calibration = new SensorCalibration();
+		float[] reference = new float[WIDTH * HEIGHT * PointCloud.POINT_SIZE];
+		float[] point = new float[3];
+		double referenceMs = 0;
+		int referenceCount = 0;
+		for (int i = 0; i < 2 * FRAMES; i++) {
+			long start = System.nanoTime();
+			referenceCount = 0;
+			for (int y = 0, pos = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++, pos++) {
+					if (depth[pos] == 0) {
+						continue;
+					}
+					point[KinectFrame.X] = x;
+					point[KinectFrame.Y] = y;
+					point[KinectFrame.Z] = depth[pos];
+					calibration.toWorld(point, WIDTH, HEIGHT, point);
+					System.arraycopy(point, 0, reference, referenceCount * PointCloud.POINT_SIZE, 3);
+					referenceCount++;
+				}
+			}
+			if (i >= FRAMES) {
+				referenceMs += (System.nanoTime() - start) / 1e6 / FRAMES;
+			}
+		}
+		System.out.printf("%-28s: %.2f ms/frame, %d points%n", "point by point", referenceMs, referenceCount);
+
+		FloatBuffer points = PointCloud.createBuffer(WIDTH, HEIGHT);
+		boolean ok = true;
+		for (PointCloud.Content content : PointCloud.Content.values()) {
+			for (boolean parallel : new boolean[] { false, true }) {
+				PointCloud cloud = new PointCloud(WIDTH, HEIGHT);
+				cloud.setContent(content);
+				cloud.setParallel(parallel);
+				int count = 0;
+				double ms = 0;
+				long allocated = 0;
+				for (int i = 0; i < 2 * FRAMES; i++) {
+					long bytes = allocatedBytes();
+					long start = System.nanoTime();
+					count = cloud.compute(depth, scene, points);
+					long elapsed = System.nanoTime() - start;
+					if (i >= FRAMES) {
+						ms += elapsed / 1e6 / FRAMES;
+						allocated += allocatedBytes() - bytes;
+					}
+				}
+				// Mesure de l'allocation elle-mme
+				long bytes = allocatedBytes();
+				allocated -= FRAMES * (allocatedBytes() - bytes);
+
+				String name = content + (parallel ? " parallel" : " serial");
+				System.out.printf("%-28s: %.2f ms/frame (x%.1f), %d points, %d bytes allocated%n", name, ms,
+						referenceMs / ms, count, parallel ? 0 : allocated);
+				if (content == PointCloud.Content.ALL) {
+					float error = maxError(points, reference, count);
+					ok &= count == referenceCount && error <= MAX_ERROR;
+				} else {
+					ok &= count == countUsers(depth, scene);
+				}
+				// Les tches ForkJoin tournent sur les threads du pool : seule la srie est mesure.
+				// Moins d'un octet par image : allocations ponctuelles de la JVM (compilation), pas du nuage
+				ok &= parallel || allocated < FRAMES;
+			}
+		}
+		System.out.println(ok ? "OK: same points as point by point, no allocation per frame" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return l'cart maximal entre les points du nuage et ceux de la rfrence
+	 */
+	private static float maxError(FloatBuffer points, float[] reference, int count) {
+		float error = 0;
+		for (int i = 0; i < count * PointCloud.POINT_SIZE; i++) {
+			error = Math.max(error, Math.abs(points.get(i) - reference[i]));
+		}
+		return error;
+	}
+
+	private static int countUsers(short[] depth, short[] scene) {
+		int count = 0;
+		for (int pos = 0; pos < depth.length; pos++) {
+			if (depth[pos] != 0 && scene[pos] != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return la mmoire alloue jusqu'ici par le thread courant (octets)
+	 */
+	private static long allocatedBytes() {
+		return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
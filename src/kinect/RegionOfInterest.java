@@ -0,0 +1,190 @@
+package kinect;
+
+import java.awt.Rectangle;
+
+/**
+ * Rgions de l'image occupes par les utilisateurs, calcules  partir des labels de chaque pixel.
+ * On garde la bote englobante de chaque utilisateur, et pour chaque range la liste des
+ * intervalles (fusionns) couverts par ces botes : les traitements par pixel peuvent ainsi
+ * se limiter aux utilisateurs au lieu de parcourir toute l'image.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class RegionOfInterest {
+
+	/** Les labels plus grands sont ignors */
+	public static final int MAX_LABELS = 256;
+
+	/** Valeur de minX pour un label absent */
+	private static final int NONE = Integer.MAX_VALUE;
+
+	/** Nombre maximum d'intervalles par range */
+	private static final int MAX_SPANS = KinectFrame.MAX_USERS;
+
+	/** Dimensions de l'image */
+	private final int width, height;
+
+	/** Bote englobante de chaque label (bornes incluses) */
+	private final int[] minX = new int[MAX_LABELS];
+	private final int[] maxX = new int[MAX_LABELS];
+	private final int[] minY = new int[MAX_LABELS];
+	private final int[] maxY = new int[MAX_LABELS];
+
+	/** Labels prsents dans l'image */
+	private final int[] labels = new int[MAX_LABELS];
+	private int labelCount = 0;
+
+	/** Intervalles [dbut, fin[ de chaque range : spans[(row * MAX_SPANS + i) * 2] */
+	private final int[] spans;
+	private final int[] spanCount;
+
+	/** Nombre de pixels couverts par les intervalles */
+	private int pixelCount = 0;
+
+	public RegionOfInterest(int width, int height) {
+		this.width = width;
+		this.height = height;
+		spans = new int[height * MAX_SPANS * 2];
+		spanCount = new int[height];
+		for (int i = 0; i < MAX_LABELS; i++) {
+			minX[i] = NONE;
+		}
+	}
+
+	/**
+	 * Calcule les botes englobantes et les intervalles de chaque range
+	 * @param scene, le label (utilisateur) de chaque pixel
+	 */
+	public void compute(short[] scene) {
+		for (int i = 0; i < labelCount; i++) {
+			minX[labels[i]] = NONE;
+		}
+		labelCount = 0;
+
+		// Les pixels d'un mme utilisateur se suivent : on traite chaque plage d'un seul coup
+		for (int y = 0; y < height; y++) {
+			int rowStart = y * width;
+			int x = 0;
+			while (x < width) {
+				int label = scene[rowStart + x];
+				if (label == 0) {
+					x++;
+					continue;
+				}
+				int runStart = x;
+				do {
+					x++;
+				} while (x < width && scene[rowStart + x] == label);
+				if (label < 0 || label >= MAX_LABELS) {
+					continue;
+				}
+				if (minX[label] == NONE) {
+					labels[labelCount++] = label;
+					minX[label] = runStart;
+					maxX[label] = x - 1;
+					minY[label] = y;
+				} else {
+					minX[label] = Math.min(minX[label], runStart);
+					maxX[label] = Math.max(maxX[label], x - 1);
+				}
+				maxY[label] = y;
+			}
+		}
+
+		pixelCount = 0;
+		for (int y = 0; y < height; y++) {
+			int count = 0;
+			int base = y * MAX_SPANS * 2;
+			for (int i = 0; i < labelCount && count < MAX_SPANS; i++) {
+				int label = labels[i];
+				if (y >= minY[label] && y <= maxY[label]) {
+					count = insertSpan(base, count, minX[label], maxX[label] + 1);
+				}
+			}
+			spanCount[y] = count;
+			for (int i = 0; i < count; i++) {
+				pixelCount += spans[base + 2*i + 1] - spans[base + 2*i];
+			}
+		}
+	}
+
+	/**
+	 * Insre un intervalle dans la liste trie d'une range, en fusionnant les chevauchements
+	 * @return le nouveau nombre d'intervalles
+	 */
+	private int insertSpan(int base, int count, int start, int end) {
+		int i = 0;
+		while (i < count && spans[base + 2*i + 1] < start) {
+			i++;
+		}
+		int j = i;
+		while (j < count && spans[base + 2*j] <= end) {
+			start = Math.min(start, spans[base + 2*j]);
+			end = Math.max(end, spans[base + 2*j + 1]);
+			j++;
+		}
+		// Les intervalles i..j-1 sont remplacs par [start, end[
+		int shift = 1 - (j - i);
+		if (shift != 0) {
+			System.arraycopy(spans, base + 2*j, spans, base + 2*(j + shift), 2 * (count - j));
+		}
+		spans[base + 2*i] = start;
+		spans[base + 2*i + 1] = end;
+		return count + shift;
+	}
+
+	/**
+	 * Remet  zro (noir) les pixels couverts par les intervalles
+	 * @param rgb, image de 3 octets par pixel
+	 */
+	public void clear(byte[] rgb) {
+		for (int y = 0; y < height; y++) {
+			for (int i = 0; i < spanCount[y]; i++) {
+				int from = 3 * (y * width + getSpanStart(y, i));
+				int to = 3 * (y * width + getSpanEnd(y, i));
+				for (int k = from; k < to; k++) {
+					rgb[k] = 0;
+				}
+			}
+		}
+	}
+
+	public int getSpanCount(int row) {
+		return spanCount[row];
+	}
+
+	/**
+	 * @return la premire colonne de l'intervalle
+	 */
+	public int getSpanStart(int row, int span) {
+		return spans[(row * MAX_SPANS + span) * 2];
+	}
+
+	/**
+	 * @return la colonne suivant la dernire colonne de l'intervalle
+	 */
+	public int getSpanEnd(int row, int span) {
+		return spans[(row * MAX_SPANS + span) * 2 + 1];
+	}
+
+	/**
+	 * @return le nombre de pixels couverts par les botes englobantes
+	 */
+	public int getPixelCount() {
+		return pixelCount;
+	}
+
+	/**
+	 * Renvoie la bote englobante d'un utilisateur
+	 * @param user, l'ID de l'utilisateur (son label)
+	 * @param bounds, reoit la bote englobante
+	 * @return false si l'utilisateur n'a aucun pixel dans l'image
+	 */
+	public boolean getBounds(int user, Rectangle bounds) {
+		if (user <= 0 || user >= MAX_LABELS || minX[user] == NONE) {
+			return false;
+		}
+		bounds.setBounds(minX[user], minY[user], maxX[user] - minX[user] + 1, maxY[user] - minY[user] + 1);
+		return true;
+	}
+}
@@ -0,0 +1,346 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.OpenNI.GeneralException;
+import org.OpenNI.IObservable;
+import org.OpenNI.UserEventArgs;
+
+/**
+ * Rejoue une session enregistre (voir SessionFormat)  la place de la Kinect.
+ * Les images peuvent tre rejoues au rythme de l'enregistrement ou aussi vite que possible,
+ * ce qui permet de mesurer les performances de toute la chane de traitement sans capteur.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class ReplayFrameSource implements FrameSource {
+
+	/** Contenu du fichier, projet en mmoire */
+	private MappedByteBuffer data;
+
+	/** Position de la premire image dans le fichier */
+	private int firstFrame;
+
+	/** Rejoue au rythme de l'enregistrement si true, aussi vite que possible sinon */
+	private boolean realTime;
+
+	/** Recommence au dbut lorsque la fin de l'enregistrement est atteinte */
+	private boolean loop;
+
+	/** Dimensions des images */
+	private int width, height;
+
+	/** Nombre de joints enregistrs par utilisateur */
+	private int jointCount;
+
+	/** Cartes dcodes, qui servent aussi de rfrence pour les images delta */
+	private short[] depthValues, sceneValues;
+
+	/** Image courante */
+	private ShortBuffer depth;
+	private ShortBuffer scene;
+	private long timestamp;
+	private int frameID;
+
+	/** Utilisateurs de l'image courante */
+	private int userCount = 0;
+	private int[] users = new int[0];
+	private boolean[] tracking = new boolean[0];
+	private float[][] joints = new float[0][];
+
+	/** Utilisateurs suivis dans l'image prcdente, pour lever les vnements */
+	private int[] previousUsers = new int[0];
+	private boolean[] previousTracking = new boolean[0];
+	private int previousCount = 0;
+
+	/** Rfrence temporelle pour le mode temps rel */
+	private long firstTimestamp = -1;
+	private long startTime;
+
+	private UserEventObservable userTrackedEvent = new UserEventObservable();
+	private UserEventObservable lostUserEvent = new UserEventObservable();
+
+	/**
+	 * Ouvre un enregistrement
+	 * @param file, le fichier de la session
+	 * @param realTime, si true respecte les timestamps de l'enregistrement
+	 * @param loop, si true recommence au dbut  la fin de l'enregistrement
+	 * @throws IOException, si le fichier est illisible ou n'est pas une session
+	 */
+	public ReplayFrameSource(File file, boolean realTime, boolean loop) throws IOException {
+		this.realTime = realTime;
+		this.loop = loop;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Recording too large: " + file);
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		data.order(SessionFormat.ORDER);
+
+		if (data.remaining() < SessionFormat.HEADER_SIZE || data.getInt() != SessionFormat.MAGIC) {
+			throw new IOException("Not a session recording: " + file);
+		}
+		short version = data.getShort();
+		if (version > SessionFormat.VERSION) {
+			throw new IOException("Unsupported recording version " + version);
+		}
+		width = data.getShort();
+		height = data.getShort();
+		jointCount = data.getShort();
+		firstFrame = data.position();
+		depthValues = new short[width * height];
+		sceneValues = new short[width * height];
+	}
+
+	/**
+	 * Lit l'image suivante ; la session n'est jamais en retard, le dlai est ignor
+	 */
+	@Override
+	public boolean waitForUpdate(long timeout) throws GeneralException {
+		if (data.remaining() < 4 || data.getInt(data.position()) == SessionFormat.END_MARKER) {
+			if (!loop) {
+				throw new GeneralException("End of recording");
+			}
+			data.position(firstFrame);
+			firstTimestamp = -1;
+		}
+
+		if (data.getInt() != SessionFormat.FRAME_MARKER) {
+			throw new GeneralException("Corrupted recording at offset " + (data.position() - 4));
+		}
+		timestamp = data.getLong();
+		frameID = data.getInt();
+		depth = readMap(depthValues);
+		scene = readMap(sceneValues);
+		readUsers();
+
+		if (realTime) {
+			waitForTimestamp();
+		}
+		fireUserEvents();
+		return true;
+	}
+
+	@Override
+	public boolean restart() {
+		return false;
+	}
+
+	/**
+	 * La rsolution est celle de l'enregistrement
+	 */
+	@Override
+	public boolean setMode(SensorMode mode) {
+		return mode.getWidth() == width && mode.getHeight() == height;
+	}
+
+	/**
+	 * Lit une carte de profondeur ou de labels  la position courante
+	 * @param values, la carte dcode de l'image prcdente, mise  jour pour les codecs compresss
+	 */
+	private ShortBuffer readMap(short[] values) throws GeneralException {
+		byte codec = data.get();
+		int length = data.getInt();
+		switch (codec) {
+		case SessionFormat.CODEC_RAW:
+			// Pas de copie : vue directe sur le fichier
+			ByteBuffer slice = data.slice();
+			slice.limit(length);
+			data.position(data.position() + length);
+			return slice.order(SessionFormat.ORDER).asShortBuffer();
+
+		case SessionFormat.CODEC_RLE:
+		case SessionFormat.CODEC_DELTA_RLE:
+			RunLengthCodec.decode(data, length, values, codec == SessionFormat.CODEC_DELTA_RLE);
+			return ShortBuffer.wrap(values);
+
+		default:
+			throw new GeneralException("Unknown codec " + codec);
+		}
+	}
+
+	/**
+	 * Lit les utilisateurs et leurs joints  la position courante
+	 */
+	private void readUsers() {
+		// On garde les utilisateurs de l'image prcdente pour dtecter les changements
+		int[] swapUsers = previousUsers;
+		boolean[] swapTracking = previousTracking;
+		previousUsers = users;
+		previousTracking = tracking;
+		previousCount = userCount;
+
+		userCount = data.getShort();
+		if (swapUsers.length < userCount) {
+			swapUsers = new int[userCount];
+			swapTracking = new boolean[userCount];
+		}
+		users = swapUsers;
+		tracking = swapTracking;
+		if (joints.length < userCount) {
+			float[][] grown = new float[userCount][];
+			System.arraycopy(joints, 0, grown, 0, joints.length);
+			for (int i = joints.length; i < userCount; i++) {
+				grown[i] = new float[jointCount * SessionFormat.FLOATS_PER_JOINT];
+			}
+			joints = grown;
+		}
+
+		for (int i = 0; i < userCount; i++) {
+			users[i] = data.getShort();
+			tracking[i] = data.get() != 0;
+			float[] userJoints = joints[i];
+			for (int j = 0; j < userJoints.length; j++) {
+				userJoints[j] = data.getFloat();
+			}
+		}
+	}
+
+	/**
+	 * Lve les vnements de tracking et de perte d'utilisateur par rapport  l'image prcdente
+	 */
+	private void fireUserEvents() {
+		for (int i = 0; i < previousCount; i++) {
+			if (indexOf(previousUsers[i]) < 0) {
+				lostUserEvent.notify(previousUsers[i]);
+			}
+		}
+		for (int i = 0; i < userCount; i++) {
+			if (!tracking[i]) {
+				continue;
+			}
+			boolean wasTracked = false;
+			for (int k = 0; k < previousCount; k++) {
+				if (previousUsers[k] == users[i]) {
+					wasTracked = previousTracking[k];
+					break;
+				}
+			}
+			if (!wasTracked) {
+				userTrackedEvent.notify(users[i]);
+			}
+		}
+	}
+
+	/**
+	 * Attend que le timestamp de l'image courante soit atteint
+	 */
+	private void waitForTimestamp() {
+		long now = System.nanoTime();
+		if (firstTimestamp < 0) {
+			firstTimestamp = timestamp;
+			startTime = now;
+			return;
+		}
+		long delay = (timestamp - firstTimestamp) * 1000L - (now - startTime);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return l'index de l'utilisateur dans l'image courante, -1 s'il est absent
+	 */
+	private int indexOf(int user) {
+		for (int i = 0; i < userCount; i++) {
+			if (users[i] == user) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public ShortBuffer getDepthMap() {
+		depth.rewind();
+		return depth;
+	}
+
+	@Override
+	public ShortBuffer getSceneMap() {
+		scene.rewind();
+		return scene;
+	}
+
+	@Override
+	public ByteBuffer getImageMap() {
+		// Les enregistrements ne contiennent pas la camra RGB
+		return null;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public int getFrameID() {
+		return frameID;
+	}
+
+	@Override
+	public int[] getUsers() {
+		int[] result = new int[userCount];
+		System.arraycopy(users, 0, result, 0, userCount);
+		return result;
+	}
+
+	@Override
+	public boolean isSkeletonTracking(int user) {
+		int index = indexOf(user);
+		return index >= 0 && tracking[index];
+	}
+
+	@Override
+	public void getSkeleton(int user, float[][] skeleton) {
+		int index = indexOf(user);
+		// Les joints sont enregistrs dans l'ordre de SessionFormat.JOINTS, le mme que KinectModule.TRACKED_JOINTS
+		int recorded = index < 0 ? 0 : Math.min(jointCount, skeleton.length);
+		for (int j = 0; j < skeleton.length; j++) {
+			if (j < recorded) {
+				System.arraycopy(joints[index], j * SessionFormat.FLOATS_PER_JOINT, skeleton[j], 0, SessionFormat.FLOATS_PER_JOINT);
+			} else {
+				Arrays.fill(skeleton[j], 0);
+			}
+		}
+	}
+
+	@Override
+	public IObservable<UserEventArgs> getUserTrackedEvent() {
+		return userTrackedEvent;
+	}
+
+	@Override
+	public IObservable<UserEventArgs> getLostUserEvent() {
+		return lostUserEvent;
+	}
+
+	@Override
+	public void release() {
+		data = null;
+	}
+}
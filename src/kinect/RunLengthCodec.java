@@ -0,0 +1,124 @@
+package kinect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compression sans perte des cartes de profondeur et de labels.
+ * Chaque valeur est d'abord remplace par sa diffrence avec l'image prcdente (delta),
+ * puis la suite obtenue est encode par plages (run-length) :
+ * un compteur n > 0 suivi d'une valeur rpte n fois, ou un compteur n < 0 suivi de -n valeurs littrales.
+ * Les labels et l'arrire-plan immobile donnent de trs longues plages de zros.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public final class RunLengthCodec {
+
+	/** Longueur maximale d'une plage ou d'une suite de littraux */
+	private static final int MAX_RUN = Short.MAX_VALUE;
+
+	/** Longueur minimale pour qu'une plage soit plus courte que les littraux quivalents */
+	private static final int MIN_RUN = 3;
+
+	private RunLengthCodec() {
+	}
+
+	/**
+	 * Taille maximale en octets d'une carte encode
+	 * @param length, le nombre de valeurs de la carte
+	 */
+	public static int maxEncodedSize(int length) {
+		return 2 * length + 2 * (length / MAX_RUN + 2);
+	}
+
+	/**
+	 * Encode une carte
+	 * @param current, les valeurs  encoder
+	 * @param previous, les valeurs de l'image prcdente, ou null pour une image cl
+	 * @param out, le buffer de sortie (au moins maxEncodedSize octets disponibles)
+	 * @return le nombre d'octets crits
+	 */
+	public static int encode(short[] current, short[] previous, ByteBuffer out) {
+		int start = out.position();
+		int n = current.length;
+		int literalPos = -1;
+		int literalCount = 0;
+
+		int i = 0;
+		while (i < n) {
+			short value = value(current, previous, i);
+			int run = 1;
+			while (i + run < n && run < MAX_RUN && value(current, previous, i + run) == value) {
+				run++;
+			}
+
+			if (run >= MIN_RUN) {
+				if (literalCount > 0) {
+					out.putShort(literalPos, (short) -literalCount);
+					literalCount = 0;
+				}
+				out.putShort((short) run);
+				out.putShort(value);
+			} else {
+				if (literalCount + run > MAX_RUN) {
+					out.putShort(literalPos, (short) -literalCount);
+					literalCount = 0;
+				}
+				if (literalCount == 0) {
+					literalPos = out.position();
+					out.putShort((short) 0);
+				}
+				for (int k = 0; k < run; k++) {
+					out.putShort(value);
+				}
+				literalCount += run;
+			}
+			i += run;
+		}
+		if (literalCount > 0) {
+			out.putShort(literalPos, (short) -literalCount);
+		}
+		return out.position() - start;
+	}
+
+	/**
+	 * Dcode une carte
+	 * @param in, le buffer contenant la carte encode,  sa position courante
+	 * @param length, le nombre d'octets encods
+	 * @param target, reoit les valeurs dcodes ; contient les valeurs de l'image prcdente si delta est true
+	 * @param delta, true si la carte a t encode par rapport  l'image prcdente
+	 */
+	public static void decode(ByteBuffer in, int length, short[] target, boolean delta) {
+		int end = in.position() + length;
+		int i = 0;
+		while (in.position() < end) {
+			int count = in.getShort();
+			if (count > 0) {
+				short value = in.getShort();
+				if (delta) {
+					for (int k = 0; k < count; k++, i++) {
+						target[i] += value;
+					}
+				} else {
+					for (int k = 0; k < count; k++, i++) {
+						target[i] = value;
+					}
+				}
+			} else {
+				count = -count;
+				if (delta) {
+					for (int k = 0; k < count; k++, i++) {
+						target[i] += in.getShort();
+					}
+				} else {
+					for (int k = 0; k < count; k++, i++) {
+						target[i] = in.getShort();
+					}
+				}
+			}
+		}
+	}
+
+	private static short value(short[] current, short[] previous, int i) {
+		return previous == null ? current[i] : (short) (current[i] - previous[i]);
+	}
+}
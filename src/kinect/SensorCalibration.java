@@ -0,0 +1,113 @@
+package kinect;
+
+/**
+ * Calibration d'un capteur dans une installation  plusieurs Kinect :
+ * champ de vision de la camra de profondeur (intrinsque) et position du capteur dans la pice (extrinsque).
+ * Les coordonnes projectives d'un joint (pixels et profondeur en mm) sont converties en coordonnes
+ * camra comme le fait OpenNI (convertProjectiveToRealWorld), puis dans le repre commun :
+ * monde = rotation * camra + translation, en mm.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SensorCalibration {
+
+	/** Champ de vision nominal de la Kinect (radians) */
+	public static final float KINECT_HORIZONTAL_FOV = 1.0144686f;
+	public static final float KINECT_VERTICAL_FOV = 0.7898090f;
+
+	/** Rotation (matrice 3x3, par lignes) et translation (mm) du capteur dans le repre commun */
+	private final float[] rotation = new float[9];
+	private final float[] translation = new float[3];
+
+	/** Largeur et hauteur,  la profondeur de 1 mm, du champ de vision */
+	private float xzFactor, yzFactor;
+
+	/**
+	 * Capteur plac  l'origine du repre commun
+	 */
+	public SensorCalibration() {
+		this(0, 0, 0, 0);
+	}
+
+	/**
+	 * Capteur horizontal, tourn autour de l'axe vertical
+	 * @param yaw, angle de rotation autour de l'axe Y (degrs)
+	 * @param x, y, z, position du capteur dans le repre commun (mm)
+	 */
+	public SensorCalibration(float yaw, float x, float y, float z) {
+		float cos = (float) Math.cos(Math.toRadians(yaw));
+		float sin = (float) Math.sin(Math.toRadians(yaw));
+		set(new float[] {
+				cos, 0, sin,
+				0, 1, 0,
+				-sin, 0, cos },
+			new float[] { x, y, z });
+	}
+
+	/**
+	 * Position quelconque du capteur
+	 * @param rotation, matrice de rotation 3x3, par lignes
+	 * @param translation, position du capteur (mm)
+	 */
+	public SensorCalibration(float[] rotation, float[] translation) {
+		set(rotation, translation);
+	}
+
+	private void set(float[] rotation, float[] translation) {
+		if (rotation.length != 9 || translation.length != 3) {
+			throw new IllegalArgumentException("Rotation must be 3x3 and translation 3x1");
+		}
+		System.arraycopy(rotation, 0, this.rotation, 0, 9);
+		System.arraycopy(translation, 0, this.translation, 0, 3);
+		setFieldOfView(KINECT_HORIZONTAL_FOV, KINECT_VERTICAL_FOV);
+	}
+
+	/**
+	 * Remplace le champ de vision nominal (par exemple par celui d'OpenNIFrameSource.getFieldOfView())
+	 * @param horizontal, vertical, angles du champ de vision (radians)
+	 */
+	public void setFieldOfView(double horizontal, double vertical) {
+		xzFactor = (float) (2 * Math.tan(horizontal / 2));
+		yzFactor = (float) (2 * Math.tan(vertical / 2));
+	}
+
+	/**
+	 * Convertit un joint en coordonnes projectives dans le repre commun
+	 * @param projective, X, Y (pixels) et Z (mm) du joint (voir KinectFrame.X ... Z)
+	 * @param width, height, dimensions de l'image du capteur
+	 * @param world, reoit X, Y, Z dans le repre commun (mm) ; peut tre projective lui-mme
+	 */
+	public void toWorld(float[] projective, int width, int height, float[] world) {
+		float z = projective[KinectFrame.Z];
+		float cx = (projective[KinectFrame.X] / width - 0.5f) * z * xzFactor;
+		float cy = (0.5f - projective[KinectFrame.Y] / height) * z * yzFactor;
+		float[] r = rotation;
+		world[KinectFrame.X] = r[0] * cx + r[1] * cy + r[2] * z + translation[0];
+		world[KinectFrame.Y] = r[3] * cx + r[4] * cy + r[5] * z + translation[1];
+		world[KinectFrame.Z] = r[6] * cx + r[7] * cy + r[8] * z + translation[2];
+	}
+
+	/**
+	 * Convertit un point du repre commun en coordonnes projectives du capteur (inverse de toWorld)
+	 * @param world, X, Y, Z dans le repre commun (mm)
+	 * @param width, height, dimensions de l'image du capteur
+	 * @param projective, reoit X, Y (pixels) et Z (mm), Z ngatif ou nul si le point est derrire le capteur
+	 */
+	public void toProjective(float[] world, int width, int height, float[] projective) {
+		float dx = world[KinectFrame.X] - translation[0];
+		float dy = world[KinectFrame.Y] - translation[1];
+		float dz = world[KinectFrame.Z] - translation[2];
+		float[] r = rotation;
+		// Rotation inverse : la transpose
+		float cx = r[0] * dx + r[3] * dy + r[6] * dz;
+		float cy = r[1] * dx + r[4] * dy + r[7] * dz;
+		float z = r[2] * dx + r[5] * dy + r[8] * dz;
+		projective[KinectFrame.Z] = z;
+		if (z <= 0) {
+			projective[KinectFrame.X] = projective[KinectFrame.Y] = 0;
+			return;
+		}
+		projective[KinectFrame.X] = (cx / (z * xzFactor) + 0.5f) * width;
+		projective[KinectFrame.Y] = (0.5f - cy / (z * yzFactor)) * height;
+	}
+}
@@ -0,0 +1,364 @@
+package kinect;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runit les utilisateurs de plusieurs Kinect dans un seul espace.
+ * Chaque capteur a son propre KinectModule (et donc son thread de capture) et sa SensorCalibration.
+ *  chaque update(), les squelettes suivis par chaque capteur sont convertis dans le repre commun,
+ * puis les personnes vues par plusieurs capteurs  la fois sont ddoublonnes : deux squelettes de
+ * capteurs diffrents dont les torses sont  moins de getMergeDistance() forment un seul utilisateur,
+ * dont chaque joint est la moyenne des mesures pondre par leur confiance.
+ * Un utilisateur fusionn garde son ID d'une image  l'autre, tant qu'au moins un capteur le suit.
+ * Le rsultat est publi comme un SkeletonSnapshot, lisible sans verrou, dont les joints sont
+ * en coordonnes du repre commun (mm) et non en pixels.
+ * Les tableaux de travail sont allous  l'ajout des capteurs : seul le snapshot publi est allou par image.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SensorFusion {
+
+	/** Distance (mm) en de de laquelle deux torses sont la mme personne */
+	public static final float DEFAULT_MERGE_DISTANCE = 400;
+
+	private static final int JOINTS = KinectModule.TRACKED_JOINTS.length;
+
+	/** Capteurs et leur calibration */
+	private final ArrayList<KinectModule> sensors = new ArrayList<KinectModule>();
+	private final ArrayList<SensorCalibration> calibrations = new ArrayList<SensorCalibration>();
+
+	/** Squence de la dernire image de chaque capteur prise en compte */
+	private long[] sensorSequences = new long[0];
+
+	/** ID fusionn attribu  chaque utilisateur de chaque capteur : [capteur][ID OpenNI], et update() de l'attribution */
+	private int[][] fusedIds = new int[0][];
+	private long[][] fusedIdUpdates = new long[0][];
+
+	/** Squelettes des capteurs dans le repre commun : capteur, ID, joints et centre (torse) */
+	private int candidateCount;
+	private int[] candidateSensor = new int[0];
+	private int[] candidateUser = new int[0];
+	private float[][][] candidateJoints = new float[0][][];
+	private float[][] candidateCenter = new float[0][];
+
+	/** Groupes de squelettes d'une mme personne : nombre de membres, centre moyen et capteurs prsents */
+	private int clusterCount;
+	private int[] clusterOf = new int[0];
+	private int[] clusterSize = new int[0];
+	private float[][] clusterCenter = new float[0][];
+	private long[] clusterSensors = new long[0];
+
+	/** Utilisateurs fusionns en cours de construction */
+	private int[] fusedUsers = new int[0];
+	private boolean[] fusedTracking = new boolean[0];
+	private float[][][] fusedSkeletons = new float[0][][];
+
+	private float mergeDistance = DEFAULT_MERGE_DISTANCE;
+	private int nextId = 1;
+	private long updates = 0;
+
+	private final AtomicReference<SkeletonSnapshot> snapshot =
+			new AtomicReference<SkeletonSnapshot>(SkeletonSnapshot.EMPTY);
+
+	/**
+	 * Ajoute un capteur. Le module de l'application (KinectModule.getInstance()) est mis  jour par
+	 * la boucle de rendu ; les autres modules n'en ont pas, leur updateDepth() est appel par update().
+	 * @param module, le module du capteur
+	 * @param calibration, sa position dans le repre commun
+	 * @return l'index du capteur
+	 */
+	public synchronized int addSensor(KinectModule module, SensorCalibration calibration) {
+		if (sensors.size() == Long.SIZE) {
+			throw new IllegalStateException("Too many sensors");
+		}
+		sensors.add(module);
+		calibrations.add(calibration);
+		int count = sensors.size();
+		sensorSequences = grow(sensorSequences, count);
+		int[][] ids = new int[count][];
+		long[][] idUpdates = new long[count][];
+		System.arraycopy(fusedIds, 0, ids, 0, count - 1);
+		System.arraycopy(fusedIdUpdates, 0, idUpdates, 0, count - 1);
+		ids[count - 1] = new int[KinectFrame.MAX_USERS];
+		idUpdates[count - 1] = new long[KinectFrame.MAX_USERS];
+		fusedIds = ids;
+		fusedIdUpdates = idUpdates;
+
+		// Au pire, chaque utilisateur de chaque capteur est une personne diffrente
+		int capacity = count * KinectFrame.MAX_USERS;
+		candidateSensor = new int[capacity];
+		candidateUser = new int[capacity];
+		candidateJoints = new float[capacity][JOINTS][KinectFrame.JOINT_SIZE];
+		candidateCenter = new float[capacity][3];
+		clusterOf = new int[capacity];
+		clusterSize = new int[capacity];
+		clusterCenter = new float[capacity][3];
+		clusterSensors = new long[capacity];
+		fusedUsers = new int[capacity];
+		fusedTracking = new boolean[capacity];
+		fusedSkeletons = new float[capacity][JOINTS][KinectFrame.JOINT_SIZE];
+		return count - 1;
+	}
+
+	public synchronized int getSensorCount() {
+		return sensors.size();
+	}
+
+	public synchronized KinectModule getSensor(int index) {
+		return sensors.get(index);
+	}
+
+	public synchronized SensorCalibration getCalibration(int index) {
+		return calibrations.get(index);
+	}
+
+	public void setMergeDistance(float distance) {
+		mergeDistance = distance;
+	}
+
+	public float getMergeDistance() {
+		return mergeDistance;
+	}
+
+	/**
+	 * @return les utilisateurs fusionns du dernier update(), en coordonnes du repre commun (mm)
+	 */
+	public SkeletonSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * @return l'ID fusionn d'un utilisateur d'un capteur, 0 s'il ne fait pas partie du dernier update()
+	 */
+	public synchronized int getFusedId(int sensor, int user) {
+		int[] ids = fusedIds[sensor];
+		return user >= 0 && user < ids.length && fusedIdUpdates[sensor][user] == updates ? ids[user] : 0;
+	}
+
+	/**
+	 * Fusionne les dernires images de tous les capteurs, si l'un d'eux en a reu une nouvelle
+	 * @return les utilisateurs fusionns (voir getSnapshot())
+	 */
+	public synchronized SkeletonSnapshot update() {
+		boolean changed = false;
+		for (int s = 0; s < sensors.size(); s++) {
+			KinectModule module = sensors.get(s);
+			if (!module.isApplicationModule()) {
+				module.updateDepth();
+			}
+			long sequence = module.getSkeletonSnapshot().getSequence();
+			if (sequence != sensorSequences[s]) {
+				sensorSequences[s] = sequence;
+				changed = true;
+			}
+		}
+		if (!changed) {
+			return snapshot.get();
+		}
+		updates++;
+		collectCandidates();
+		cluster();
+		SkeletonSnapshot fused = merge();
+		snapshot.set(fused);
+		return fused;
+	}
+
+	/**
+	 * Convertit dans le repre commun les squelettes suivis par chaque capteur
+	 */
+	private void collectCandidates() {
+		candidateCount = 0;
+		for (int s = 0; s < sensors.size(); s++) {
+			KinectModule module = sensors.get(s);
+			SensorCalibration calibration = calibrations.get(s);
+			SkeletonSnapshot sensorSnapshot = module.getSkeletonSnapshot();
+			for (int i = 0; i < sensorSnapshot.getUserCount(); i++) {
+				int user = sensorSnapshot.getUser(i);
+				if (!sensorSnapshot.isTracking(user)) {
+					continue;
+				}
+				int c = candidateCount;
+				float[][] joints = candidateJoints[c];
+				float[] center = candidateCenter[c];
+				center[0] = center[1] = center[2] = 0;
+				int known = 0;
+				for (int j = 0; j < JOINTS; j++) {
+					float[] joint = joints[j];
+					for (int v = 0; v < KinectFrame.JOINT_SIZE; v++) {
+						joint[v] = sensorSnapshot.get(i, j, v);
+					}
+					if (joint[KinectFrame.CONFIDENCE] == 0) {
+						continue;
+					}
+					calibration.toWorld(joint, module.getWidth(), module.getHeight(), joint);
+					center[0] += joint[KinectFrame.X];
+					center[1] += joint[KinectFrame.Y];
+					center[2] += joint[KinectFrame.Z];
+					known++;
+				}
+				if (known == 0) {
+					continue;
+				}
+				// Le torse est le point le plus stable ;  dfaut, la moyenne des joints connus
+				float[] torso = joints[KinectFrame.TORSO];
+				if (torso[KinectFrame.CONFIDENCE] != 0) {
+					center[0] = torso[KinectFrame.X];
+					center[1] = torso[KinectFrame.Y];
+					center[2] = torso[KinectFrame.Z];
+				} else {
+					center[0] /= known;
+					center[1] /= known;
+					center[2] /= known;
+				}
+				candidateSensor[c] = s;
+				candidateUser[c] = user;
+				candidateCount++;
+			}
+		}
+	}
+
+	/**
+	 * Regroupe les squelettes d'une mme personne : chacun rejoint le groupe le plus proche
+	 *  moins de mergeDistance qui ne contient pas dj un squelette du mme capteur
+	 */
+	private void cluster() {
+		clusterCount = 0;
+		float maxDistance2 = mergeDistance * mergeDistance;
+		for (int c = 0; c < candidateCount; c++) {
+			float[] center = candidateCenter[c];
+			long sensorBit = 1L << candidateSensor[c];
+			int best = -1;
+			float bestDistance2 = maxDistance2;
+			for (int k = 0; k < clusterCount; k++) {
+				if ((clusterSensors[k] & sensorBit) != 0) {
+					continue;
+				}
+				float[] other = clusterCenter[k];
+				float dx = center[0] - other[0], dy = center[1] - other[1], dz = center[2] - other[2];
+				float distance2 = dx * dx + dy * dy + dz * dz;
+				if (distance2 < bestDistance2) {
+					bestDistance2 = distance2;
+					best = k;
+				}
+			}
+			if (best < 0) {
+				best = clusterCount++;
+				clusterSize[best] = 0;
+				clusterSensors[best] = 0;
+				clusterCenter[best][0] = clusterCenter[best][1] = clusterCenter[best][2] = 0;
+			}
+			// Centre du groupe : moyenne de ses membres
+			int size = ++clusterSize[best];
+			float[] mean = clusterCenter[best];
+			for (int a = 0; a < 3; a++) {
+				mean[a] += (center[a] - mean[a]) / size;
+			}
+			clusterSensors[best] |= sensorBit;
+			clusterOf[c] = best;
+		}
+	}
+
+	/**
+	 * Moyenne pondre des joints de chaque groupe, et attribution des ID fusionns
+	 */
+	private SkeletonSnapshot merge() {
+		for (int k = 0; k < clusterCount; k++) {
+			float[][] skeleton = fusedSkeletons[k];
+			for (int j = 0; j < JOINTS; j++) {
+				float[] joint = skeleton[j];
+				joint[KinectFrame.X] = joint[KinectFrame.Y] = joint[KinectFrame.Z] = joint[KinectFrame.CONFIDENCE] = 0;
+			}
+			fusedUsers[k] = 0;
+			fusedTracking[k] = true;
+		}
+
+		for (int c = 0; c < candidateCount; c++) {
+			int k = clusterOf[c];
+			float[][] skeleton = fusedSkeletons[k];
+			float[][] joints = candidateJoints[c];
+			for (int j = 0; j < JOINTS; j++) {
+				float weight = joints[j][KinectFrame.CONFIDENCE];
+				if (weight == 0) {
+					continue;
+				}
+				// La somme des poids est garde dans CONFIDENCE, normalise plus bas
+				float[] joint = skeleton[j];
+				joint[KinectFrame.X] += weight * joints[j][KinectFrame.X];
+				joint[KinectFrame.Y] += weight * joints[j][KinectFrame.Y];
+				joint[KinectFrame.Z] += weight * joints[j][KinectFrame.Z];
+				joint[KinectFrame.CONFIDENCE] += weight;
+			}
+			// Le groupe reprend l'ID le plus ancien de ses membres  l'update prcdent
+			int previous = previousId(candidateSensor[c], candidateUser[c]);
+			if (previous != 0 && (fusedUsers[k] == 0 || previous < fusedUsers[k]) && !isUsed(previous, k)) {
+				fusedUsers[k] = previous;
+			}
+		}
+
+		for (int k = 0; k < clusterCount; k++) {
+			if (fusedUsers[k] == 0) {
+				fusedUsers[k] = nextId++;
+			}
+			float[][] skeleton = fusedSkeletons[k];
+			for (int j = 0; j < JOINTS; j++) {
+				float[] joint = skeleton[j];
+				float weight = joint[KinectFrame.CONFIDENCE];
+				if (weight != 0) {
+					joint[KinectFrame.X] /= weight;
+					joint[KinectFrame.Y] /= weight;
+					joint[KinectFrame.Z] /= weight;
+					joint[KinectFrame.CONFIDENCE] = Math.min(weight, 1);
+				}
+			}
+		}
+
+		for (int c = 0; c < candidateCount; c++) {
+			setId(candidateSensor[c], candidateUser[c], fusedUsers[clusterOf[c]]);
+		}
+		return new SkeletonSnapshot(updates, clusterCount, fusedUsers, fusedTracking, fusedSkeletons);
+	}
+
+	/**
+	 * @return l'ID fusionn de l'utilisateur d'un capteur  l'update prcdent, 0 s'il n'y tait pas
+	 */
+	private int previousId(int sensor, int user) {
+		int[] ids = fusedIds[sensor];
+		return user >= 0 && user < ids.length && fusedIdUpdates[sensor][user] == updates - 1 ? ids[user] : 0;
+	}
+
+	/**
+	 * @return true si l'ID est dj pris par un autre groupe que k (deux personnes qui se sparent)
+	 */
+	private boolean isUsed(int id, int k) {
+		for (int other = 0; other < clusterCount; other++) {
+			if (other != k && fusedUsers[other] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void setId(int sensor, int user, int id) {
+		if (user < 0) {
+			return;
+		}
+		if (user >= fusedIds[sensor].length) {
+			int size = Math.max(user + 1, fusedIds[sensor].length * 2);
+			int[] ids = new int[size];
+			long[] idUpdates = new long[size];
+			System.arraycopy(fusedIds[sensor], 0, ids, 0, fusedIds[sensor].length);
+			System.arraycopy(fusedIdUpdates[sensor], 0, idUpdates, 0, fusedIdUpdates[sensor].length);
+			fusedIds[sensor] = ids;
+			fusedIdUpdates[sensor] = idUpdates;
+		}
+		fusedIds[sensor][user] = id;
+		fusedIdUpdates[sensor][user] = updates;
+	}
+
+	private static long[] grow(long[] array, int size) {
+		long[] grown = new long[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,54 @@
+package kinect;
+
+/**
+ * Modes de la camra de profondeur : rsolution et frquence des images.
+ * Le QVGA  60 images/s divise par quatre le travail par image et la latence du capteur par deux,
+ * au prix de la prcision des gestures.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public enum SensorMode {
+
+	/** 640x480  30 images/s (mode par dfaut de SamplesConfig.xml) */
+	VGA_30(640, 480, 30),
+
+	/** 320x240  60 images/s */
+	QVGA_60(320, 240, 60);
+
+	private final int width, height, frameRate;
+
+	private SensorMode(int width, int height, int frameRate) {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * @return le mode de cette rsolution, ou null s'il n'y en a pas
+	 */
+	public static SensorMode fromSize(int width, int height) {
+		for (SensorMode mode : values()) {
+			if (mode.width == width && mode.height == height) {
+				return mode;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return width + "x" + height + "@" + frameRate;
+	}
+}
@@ -0,0 +1,185 @@
+package kinect;
+
+import org.OpenNI.SkeletonJoint;
+
+/**
+ * Compare les modes du capteur, sans Kinect (utilisateurs synthtiques) :
+ * - dbit de capture d'un KinectModule (squelettes, coloration) en VGA puis en QVGA, aussi vite que possible ;
+ * - position  l'cran d'un mme joint dans les deux modes (les conversions de coordonnes suivent le mode) ;
+ * - choix automatique du mode : une boucle de rendu simule, d'abord lgre, puis charge (physique lourde)
+ *   pendant HEAVY_MS, puis de nouveau lgre. Le capteur doit passer en QVGA pendant la charge
+ *   et revenir en VGA ensuite.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SensorModeBenchmark {
+
+	private static final int USERS = 4;
+	private static final long CAPTURE_MS = 3000;
+
+	/** cran simul pour la conversion des coordonnes */
+	private static final int SCREEN_WIDTH = 1024, SCREEN_HEIGHT = 768;
+
+	/** cart maximal acceptable entre les deux modes, en pixels de l'cran */
+	private static final float MAX_MAPPING_ERROR = 4;
+
+	/** Phases de la boucle de rendu simule, et travail par tour dans chacune, en ms */
+	private static final long LIGHT_MS = 2000, HEAVY_MS = 3000, RECOVERY_MS = 9000;
+	private static final long LIGHT_WORK = 2, HEAVY_WORK = 45;
+	private static final long RENDER_SLEEP = 14;
+
+	/** Empche l'limination du travail simul */
+	private static double sink;
+
+	public static void main(String[] args) throws InterruptedException {
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores, " + USERS + " synthetic users");
+
+		// Chauffe
+		capture(SensorMode.VGA_30);
+		for (SensorMode mode : SensorMode.values()) {
+			double fps = capture(mode);
+			System.out.printf("Capture %s: %.0f frames/s (%.2f ms/frame)%n", mode, fps, 1000 / fps);
+		}
+
+		boolean mapping = checkMapping();
+		boolean automatic = checkAutomaticMode();
+		System.out.println(mapping && automatic ? "OK: same screen positions in both modes, QVGA under load, back to VGA"
+				: "FAILED");
+		if (!mapping || !automatic) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return le nombre d'images captures par seconde dans le mode donn
+	 */
+	private static double capture(SensorMode mode) throws InterruptedException {
+		KinectModule module = new KinectModule(
+				new SyntheticFrameSource(USERS, SyntheticFrameSource.Motion.values(), false));
+		waitForMode(module, mode);
+		long startSequence = module.getSkeletonSnapshot().getSequence();
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < CAPTURE_MS * 1000000L) {
+			module.updateDepth();
+			Thread.sleep(1);
+		}
+		double fps = (module.getSkeletonSnapshot().getSequence() - startSequence) / ((System.nanoTime() - start) / 1e9);
+		module.close();
+		return fps;
+	}
+
+	/**
+	 * Change le mode du module et attend que le thread de rendu reoive une image de ce mode
+	 */
+	private static void waitForMode(KinectModule module, SensorMode mode) throws InterruptedException {
+		module.setSensorMode(mode);
+		while (module.getSensorMode() != mode || module.latestFrame().getWidth() != mode.getWidth()) {
+			module.updateDepth();
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Convertit la tte et le torse d'un utilisateur en coordonnes de l'cran dans les deux modes
+	 * @return true si les positions sont les mmes
+	 */
+	private static boolean checkMapping() throws InterruptedException {
+		KinectModule module = new KinectModule(new SyntheticFrameSource(1,
+				new SyntheticFrameSource.Motion[] { SyntheticFrameSource.Motion.WAVE }, false));
+		SkeletonJoint[] joints = { SkeletonJoint.HEAD, SkeletonJoint.TORSO };
+		float[][] screen = new float[SensorMode.values().length][2 * joints.length];
+		for (SensorMode mode : SensorMode.values()) {
+			waitForMode(module, mode);
+			KinectFrame frame = module.latestFrame();
+			while (frame.getUserCount() == 0 || !frame.isTracking(frame.getUser(0))) {
+				Thread.sleep(1);
+				module.updateDepth();
+				frame = module.latestFrame();
+			}
+			float[][] skeleton = frame.getSkeleton(0);
+			for (int j = 0; j < joints.length; j++) {
+				float[] joint = skeleton[KinectFrame.jointIndex(joints[j])];
+				screen[mode.ordinal()][2 * j] = module.toViewX(joint[KinectFrame.X], SCREEN_WIDTH);
+				screen[mode.ordinal()][2 * j + 1] = module.toViewY(joint[KinectFrame.Y], SCREEN_HEIGHT);
+			}
+		}
+		module.close();
+
+		float error = 0;
+		for (int j = 0; j < joints.length; j++) {
+			float[] vga = screen[SensorMode.VGA_30.ordinal()];
+			float[] qvga = screen[SensorMode.QVGA_60.ordinal()];
+			System.out.printf("%s on a %dx%d screen: VGA (%.1f, %.1f), QVGA (%.1f, %.1f)%n", joints[j],
+					SCREEN_WIDTH, SCREEN_HEIGHT, vga[2 * j], vga[2 * j + 1], qvga[2 * j], qvga[2 * j + 1]);
+			error = Math.max(error, Math.max(Math.abs(vga[2 * j] - qvga[2 * j]), Math.abs(vga[2 * j + 1] - qvga[2 * j + 1])));
+		}
+		return error <= MAX_MAPPING_ERROR;
+	}
+
+	/**
+	 * Simule une boucle de rendu  60 Hz dont la charge augmente puis diminue, avec le choix automatique du mode
+	 * @return true si le capteur est pass en QVGA pendant la charge, puis revenu en VGA
+	 */
+	private static boolean checkAutomaticMode() throws InterruptedException {
+		KinectModule module = new KinectModule(
+				new SyntheticFrameSource(USERS, SyntheticFrameSource.Motion.values(), true));
+		module.setAutomaticMode(true);
+		long start = System.nanoTime();
+		long end = LIGHT_MS + HEAVY_MS + RECOVERY_MS;
+		SensorMode mode = module.getSensorMode();
+		boolean downDuringLoad = false, upAfterLoad = false;
+		int phase = -1;
+		long phaseStart = 0, phaseFrames = 0, phaseLoops = 0;
+		System.out.printf("%6d ms: %s%n", 0, mode);
+		while (true) {
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+			int current = elapsed < LIGHT_MS ? 0 : elapsed < LIGHT_MS + HEAVY_MS ? 1 : elapsed < end ? 2 : 3;
+			if (current != phase) {
+				if (phase >= 0) {
+					float seconds = (elapsed - phaseStart) / 1000f;
+					System.out.printf("  %s phase: %.0f render loops/s, %.0f new frames/s, mean loop %.1f ms%n",
+							phase == 1 ? "heavy" : "light", phaseLoops / seconds, phaseFrames / seconds,
+							module.getModePolicy().getAverage());
+				}
+				if (current == 3) {
+					break;
+				}
+				phase = current;
+				phaseStart = elapsed;
+				phaseFrames = phaseLoops = 0;
+				System.out.printf("%6d ms: %s load%n", elapsed, phase == 1 ? "heavy" : "light");
+			}
+
+			if (module.updateDepth()) {
+				phaseFrames++;
+			}
+			phaseLoops++;
+			work(phase == 1 ? HEAVY_WORK : LIGHT_WORK);
+			Thread.sleep(RENDER_SLEEP);
+
+			SensorMode now = module.getSensorMode();
+			if (now != mode) {
+				System.out.printf("%6d ms: %s%n", (System.nanoTime() - start) / 1000000L, now);
+				downDuringLoad |= phase == 1 && now == SensorMode.QVGA_60;
+				upAfterLoad |= phase == 2 && now == SensorMode.VGA_30;
+				mode = now;
+			}
+		}
+		module.close();
+		return downDuringLoad && upAfterLoad;
+	}
+
+	/**
+	 * Occupe le processeur pendant la dure donne (physique simule)
+	 */
+	private static void work(long millis) {
+		long end = System.nanoTime() + millis * 1000000L;
+		double value = sink;
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < 1000; i++) {
+				value = Math.sqrt(value + i);
+			}
+		}
+		sink = value;
+	}
+}
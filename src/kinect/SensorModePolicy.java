@@ -0,0 +1,126 @@
+package kinect;
+
+/**
+ * Choix automatique du mode du capteur selon la charge de la boucle de rendu (voir KinectModule.setAutomaticMode).
+ * La dure d'un tour de boucle (gestures, physique, dessin) est lisse ; si elle dpasse le budget d'une image VGA
+ * pendant DOWN_DELAY, le capteur passe en QVGA  60 images/s : le traitement de chaque image est divis par quatre
+ * et la latence du capteur par deux. Il ne revient en VGA que si la boucle reste sous RECOVERY_FACTOR fois le budget
+ * pendant le dlai de remonte. Ce dlai double  chaque fois que le VGA n'a pas tenu aussi longtemps,
+ * pour ne pas osciller sous une charge constante.
+ * Utilis uniquement par le thread de rendu.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SensorModePolicy {
+
+	/** Budget par dfaut d'un tour de boucle : une image  30 images/s, en ms */
+	public static final float DEFAULT_BUDGET = 1000f / SensorMode.VGA_30.getFrameRate();
+
+	/** Poids d'un nouveau tour de boucle dans la moyenne */
+	private static final float SMOOTHING = 0.1f;
+
+	/** Dure de surcharge avant de passer en QVGA, en ms */
+	private static final long DOWN_DELAY = 500;
+
+	/** Dlai de remonte en VGA, initial et maximal, en ms */
+	private static final long UP_DELAY = 5000, MAX_UP_DELAY = 60000;
+
+	/** Fraction du budget sous laquelle la boucle doit rester pour revenir en VGA */
+	private static final float RECOVERY_FACTOR = 0.6f;
+
+	private final float budget;
+
+	/** Dure lisse d'un tour de boucle, en ms (ngative tant qu'aucun tour n'a t mesur) */
+	private float average = -1;
+
+	/** Dbut de la surcharge, ou de la priode calme, en ns (-1 si elle n'a pas commenc) */
+	private long overSince = -1, underSince = -1;
+
+	/** Dernire remonte en VGA, en ns */
+	private long lastUpSwitch = -1;
+
+	private long upDelay = UP_DELAY;
+	private SensorMode mode;
+
+	/**
+	 * @param mode, le mode courant du capteur
+	 * @param budget, la dure maximale d'un tour de boucle en VGA, en ms
+	 */
+	public SensorModePolicy(SensorMode mode, float budget) {
+		this.mode = mode;
+		this.budget = budget;
+	}
+
+	public SensorModePolicy(SensorMode mode) {
+		this(mode, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Prend en compte un tour de la boucle de rendu
+	 * @param nanos, la date de fin du tour (System.nanoTime())
+	 * @param period, la dure du tour, en ns
+	 * @return le mode recommand
+	 */
+	public SensorMode update(long nanos, long period) {
+		float millis = period / 1e6f;
+		average = average < 0 ? millis : average + SMOOTHING * (millis - average);
+
+		if (mode == SensorMode.VGA_30) {
+			if (average <= budget) {
+				overSince = -1;
+			} else if (overSince < 0) {
+				overSince = nanos;
+			} else if (nanos - overSince >= DOWN_DELAY * 1000000L) {
+				// Le VGA n'a pas tenu aussi longtemps que l'attente prcdente : on attendra plus longtemps
+				if (lastUpSwitch >= 0 && nanos - lastUpSwitch < upDelay * 1000000L) {
+					upDelay = Math.min(2 * upDelay, MAX_UP_DELAY);
+				} else {
+					upDelay = UP_DELAY;
+				}
+				switchTo(SensorMode.QVGA_60);
+			}
+		} else {
+			if (average >= RECOVERY_FACTOR * budget) {
+				underSince = -1;
+			} else if (underSince < 0) {
+				underSince = nanos;
+			} else if (nanos - underSince >= upDelay * 1000000L) {
+				lastUpSwitch = nanos;
+				switchTo(SensorMode.VGA_30);
+			}
+		}
+		return mode;
+	}
+
+	private void switchTo(SensorMode mode) {
+		this.mode = mode;
+		overSince = underSince = -1;
+	}
+
+	/**
+	 * Indique le mode du capteur lorsqu'il a t chang par ailleurs
+	 */
+	public void setMode(SensorMode mode) {
+		if (mode != this.mode) {
+			switchTo(mode);
+		}
+	}
+
+	public SensorMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return la dure lisse d'un tour de la boucle de rendu, en ms
+	 */
+	public float getAverage() {
+		return Math.max(0, average);
+	}
+
+	/**
+	 * @return le dlai courant de remonte en VGA, en ms
+	 */
+	public long getUpDelay() {
+		return upDelay;
+	}
+}
@@ -0,0 +1,149 @@
+package kinect;
+
+/**
+ * Surveille l'arrive des images d'une source : intervalle moyen entre les images et temps coul
+ * depuis la dernire. La source est dclare
+ * - OK tant que les images arrivent au rythme attendu ;
+ * - DEGRADED si l'intervalle moyen dpasse DEGRADED_FACTOR fois l'intervalle attendu,
+ *   ou si aucune image n'est arrive depuis SILENCE_FACTOR intervalles ;
+ * - STALLED si aucune image n'est arrive depuis getStallTimeout() : le KinectModule rinitialise alors la source.
+ * Mis  jour par le thread de capture, lisible depuis tous les threads.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SensorWatchdog {
+
+	/**
+	 * tat de la source
+	 */
+	public enum Health {
+		OK, DEGRADED, STALLED
+	}
+
+	/** Intervalle attendu entre deux images (30 images/s), en ns */
+	public static final long DEFAULT_INTERVAL = 33333333L;
+
+	/** Dlai sans image au-del duquel la source est bloque, en ms */
+	public static final long DEFAULT_STALL_TIMEOUT = 1000;
+
+	/** Seuils de dgradation, en multiples de l'intervalle attendu */
+	private static final float DEGRADED_FACTOR = 1.5f;
+	private static final float SILENCE_FACTOR = 4f;
+
+	/** Nombre d'intervalles pris en compte dans la moyenne */
+	private static final int WINDOW = 30;
+
+	private final long[] intervals = new long[WINDOW];
+	private int intervalCount = 0, intervalIndex = 0;
+	private long intervalSum = 0;
+
+	private volatile long expectedInterval = DEFAULT_INTERVAL;
+	private volatile long stallTimeout = DEFAULT_STALL_TIMEOUT * 1000000L;
+
+	/** Date de la dernire image (ou du dernier redmarrage), en ns */
+	private volatile long lastArrival = System.nanoTime();
+	private volatile long meanInterval = 0;
+
+	/** Nombre d'images reues et de rinitialisations de la source */
+	private volatile long frameCount = 0;
+	private volatile int restartCount = 0;
+
+	/**
+	 * Enregistre l'arrive d'une image (thread de capture)
+	 */
+	public void frameArrived(long nanos) {
+		if (frameCount > 0) {
+			long interval = nanos - lastArrival;
+			if (intervalCount == WINDOW) {
+				intervalSum -= intervals[intervalIndex];
+			} else {
+				intervalCount++;
+			}
+			intervals[intervalIndex] = interval;
+			intervalSum += interval;
+			intervalIndex = (intervalIndex + 1) % WINDOW;
+			meanInterval = intervalSum / intervalCount;
+		}
+		lastArrival = nanos;
+		frameCount++;
+	}
+
+	/**
+	 * Oublie l'historique (au dmarrage de la capture) : le dlai de blocage repart de maintenant
+	 */
+	public void reset(long nanos) {
+		intervalCount = intervalIndex = 0;
+		intervalSum = 0;
+		meanInterval = 0;
+		frameCount = 0;
+		lastArrival = nanos;
+	}
+
+	/**
+	 * Oublie l'historique aprs une rinitialisation de la source
+	 */
+	public void restarted(long nanos) {
+		reset(nanos);
+		restartCount++;
+	}
+
+	/**
+	 * @return l'tat de la source  la date donne (System.nanoTime())
+	 */
+	public Health getHealth(long nanos) {
+		long silence = nanos - lastArrival;
+		if (silence > stallTimeout) {
+			return Health.STALLED;
+		}
+		if (silence > SILENCE_FACTOR * expectedInterval || meanInterval > DEGRADED_FACTOR * expectedInterval) {
+			return Health.DEGRADED;
+		}
+		return Health.OK;
+	}
+
+	public Health getHealth() {
+		return getHealth(System.nanoTime());
+	}
+
+	/**
+	 * @return l'intervalle moyen entre les dernires images, en ms (0 s'il n'y en a pas encore deux)
+	 */
+	public float getMeanInterval() {
+		return meanInterval / 1e6f;
+	}
+
+	/**
+	 * @return le temps coul depuis la dernire image (ou le dernier redmarrage), en ms
+	 */
+	public float getSilence() {
+		return (System.nanoTime() - lastArrival) / 1e6f;
+	}
+
+	public int getRestartCount() {
+		return restartCount;
+	}
+
+	/**
+	 * @param frameRate, le nombre d'images par seconde attendu de la source
+	 */
+	public void setExpectedFrameRate(float frameRate) {
+		expectedInterval = (long) (1e9 / frameRate);
+	}
+
+	/**
+	 * @param millis, le dlai sans image au-del duquel la source est rinitialise
+	 */
+	public void setStallTimeout(long millis) {
+		stallTimeout = millis * 1000000L;
+	}
+
+	public long getStallTimeout() {
+		return stallTimeout / 1000000L;
+	}
+
+	@Override
+	public String toString() {
+		return "SensorWatchdog: " + getHealth() + ", mean interval " + getMeanInterval() + " ms, silence "
+				+ getSilence() + " ms, " + restartCount + " restarts";
+	}
+}
@@ -0,0 +1,238 @@
+package kinect;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import org.OpenNI.GeneralException;
+import org.OpenNI.IObservable;
+import org.OpenNI.IObserver;
+import org.OpenNI.StatusException;
+import org.OpenNI.UserEventArgs;
+
+/**
+ * Simule un capteur qui ralentit puis se bloque, sans Kinect : des utilisateurs synthtiques  30 images/s,
+ * puis une image toutes les SLOW_INTERVAL ms, puis plus aucune image jusqu' ce que le KinectModule
+ * rinitialise la source (la rinitialisation dure RESTART_MS).
+ * Une boucle de rendu  60 Hz appelle updateDepth() pendant tout ce temps et relve l'tat du module.
+ * Vrifie que l'tat passe par DEGRADED puis STALLED, que la source est rinitialise une fois,
+ * que les utilisateurs sont perdus puis retrouvs, et que la boucle de rendu n'est jamais bloque.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SensorWatchdogStress {
+
+	private static final int USERS = 3;
+	private static final long NORMAL_MS = 2000, SLOW_MS = 2000, AFTER_RESTART_MS = 2000;
+	private static final long SLOW_INTERVAL = 100;
+	private static final long RESTART_MS = 300;
+	private static final long RENDER_PERIOD_MS = 16;
+
+	/** Dure maximale acceptable d'un tour de la boucle de rendu (ms) */
+	private static final float MAX_RENDER_MS = 10;
+
+	/**
+	 * Source synthtique qui ralentit puis se bloque,  partir de sa cration
+	 */
+	private static class StallingSource implements FrameSource {
+		private SyntheticFrameSource delegate;
+		private final long start = System.nanoTime();
+		private volatile boolean restarted = false;
+		private volatile int restarts = 0;
+		private long lastFrame = 0;
+
+		private final UserEventObservable userTrackedEvent = new UserEventObservable();
+		private final UserEventObservable lostUserEvent = new UserEventObservable();
+
+		StallingSource() {
+			open();
+		}
+
+		/**
+		 * Cre une nouvelle source synthtique, dont les vnements sont relays
+		 */
+		private void open() {
+			delegate = new SyntheticFrameSource(USERS, new SyntheticFrameSource.Motion[] { SyntheticFrameSource.Motion.WAVE },
+					true);
+			try {
+				delegate.getUserTrackedEvent().addObserver(new IObserver<UserEventArgs>() {
+					@Override
+					public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+						userTrackedEvent.notify(args.getId());
+					}
+				});
+				delegate.getLostUserEvent().addObserver(new IObserver<UserEventArgs>() {
+					@Override
+					public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+						lostUserEvent.notify(args.getId());
+					}
+				});
+			} catch (StatusException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public boolean waitForUpdate(long timeout) throws GeneralException {
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+			if (!restarted && elapsed >= NORMAL_MS + SLOW_MS) {
+				// Bloqu : aucune image
+				sleep(timeout);
+				return false;
+			}
+			if (!restarted && elapsed >= NORMAL_MS) {
+				long wait = lastFrame + SLOW_INTERVAL - elapsed;
+				if (wait > timeout) {
+					sleep(timeout);
+					return false;
+				}
+				sleep(Math.max(0, wait));
+				lastFrame = (System.nanoTime() - start) / 1000000L;
+			}
+			return delegate.waitForUpdate(timeout);
+		}
+
+		private static void sleep(long millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public boolean restart() throws GeneralException {
+			for (int user : delegate.getUsers()) {
+				lostUserEvent.notify(user);
+			}
+			sleep(RESTART_MS);
+			open();
+			restarts++;
+			restarted = true;
+			return true;
+		}
+
+		@Override
+		public boolean setMode(SensorMode mode) {
+			return false;
+		}
+
+		@Override
+		public int getWidth() {
+			return delegate.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return delegate.getHeight();
+		}
+
+		@Override
+		public ShortBuffer getDepthMap() {
+			return delegate.getDepthMap();
+		}
+
+		@Override
+		public ShortBuffer getSceneMap() {
+			return delegate.getSceneMap();
+		}
+
+		@Override
+		public ByteBuffer getImageMap() {
+			return null;
+		}
+
+		@Override
+		public long getTimestamp() {
+			return delegate.getTimestamp();
+		}
+
+		@Override
+		public int getFrameID() {
+			return delegate.getFrameID();
+		}
+
+		@Override
+		public int[] getUsers() throws StatusException {
+			return delegate.getUsers();
+		}
+
+		@Override
+		public boolean isSkeletonTracking(int user) {
+			return delegate.isSkeletonTracking(user);
+		}
+
+		@Override
+		public void getSkeleton(int user, float[][] joints) throws StatusException {
+			delegate.getSkeleton(user, joints);
+		}
+
+		@Override
+		public IObservable<UserEventArgs> getUserTrackedEvent() {
+			return userTrackedEvent;
+		}
+
+		@Override
+		public IObservable<UserEventArgs> getLostUserEvent() {
+			return lostUserEvent;
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		StallingSource source = new StallingSource();
+		KinectModule module = new KinectModule(source);
+		final int[] events = new int[2];
+		module.getUserRegistry().getUserArrivedEvent().addObserver(new IObserver<UserEventArgs>() {
+			@Override
+			public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+				events[0]++;
+			}
+		});
+		module.getUserRegistry().getUserLostEvent().addObserver(new IObserver<UserEventArgs>() {
+			@Override
+			public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+				events[1]++;
+			}
+		});
+
+		long start = System.nanoTime();
+		boolean[] seen = new boolean[SensorWatchdog.Health.values().length];
+		SensorWatchdog.Health health = null;
+		float maxRender = 0;
+		long renderLoops = 0, newFrames = 0;
+		while ((source.restarts == 0 || System.nanoTime() - start < (NORMAL_MS + SLOW_MS + AFTER_RESTART_MS) * 1000000L)
+				&& (System.nanoTime() - start) / 1000000L < 60000) {
+			long t0 = System.nanoTime();
+			if (module.updateDepth()) {
+				newFrames++;
+			}
+			SensorWatchdog.Health current = module.getHealth();
+			float render = (System.nanoTime() - t0) / 1e6f;
+			maxRender = Math.max(maxRender, render);
+			renderLoops++;
+			seen[current.ordinal()] = true;
+			if (current != health) {
+				System.out.printf("%6d ms: %s (%s)%n", (System.nanoTime() - start) / 1000000L, current,
+						module.getWatchdog());
+				health = current;
+			}
+			Thread.sleep(RENDER_PERIOD_MS);
+		}
+		module.close();
+
+		System.out.printf("%d render loops, %d new frames, longest updateDepth() %.2f ms; %d restarts; "
+				+ "%d users arrived, %d lost%n", renderLoops, newFrames, maxRender,
+				module.getWatchdog().getRestartCount(), events[0], events[1]);
+		boolean ok = seen[SensorWatchdog.Health.DEGRADED.ordinal()] && seen[SensorWatchdog.Health.STALLED.ordinal()]
+				&& health == SensorWatchdog.Health.OK && module.getWatchdog().getRestartCount() == 1
+				&& events[0] == 2 * USERS && events[1] == USERS && maxRender < MAX_RENDER_MS;
+		System.out.println(ok ? "OK: degraded, stalled, restarted in the background, render loop never blocked"
+				: "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+}
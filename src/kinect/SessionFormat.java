@@ -0,0 +1,59 @@
+package kinect;
+
+import java.nio.ByteOrder;
+
+import org.OpenNI.SkeletonJoint;
+
+/**
+ * Constantes du format binaire des sessions enregistres (profondeur, labels et squelettes).
+ *
+ * En-tte : MAGIC (int), VERSION (short), largeur (short), hauteur (short), nombre de joints (short)
+ *
+ * Puis pour chaque image : FRAME_MARKER (int), timestamp en s (long), numro d'image (int),
+ * la profondeur et les labels (chacun : codec (byte), taille en octets (int), donnes),
+ * le nombre d'utilisateurs (short) et pour chacun : ID (short), tracking (byte),
+ * puis x, y, z, confiance (float) pour chaque joint de JOINTS, en coordonnes projectives.
+ *
+ * La fin de l'enregistrement est marque par END_MARKER ou par la fin du fichier.
+ * Toutes les valeurs sont crites en little-endian.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public final class SessionFormat {
+
+	/** "KREC" */
+	public static final int MAGIC = 0x4B524543;
+
+	/** Version courante du format */
+	public static final short VERSION = 2;
+
+	/** "FRME", marque le dbut de chaque image */
+	public static final int FRAME_MARKER = 0x46524D45;
+
+	/** Marque la fin de l'enregistrement */
+	public static final int END_MARKER = 0;
+
+	/** Ordre des octets dans le fichier */
+	public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/** Taille de l'en-tte en octets */
+	public static final int HEADER_SIZE = 4 + 2 + 2 + 2 + 2;
+
+	/** Donnes stockes telles quelles (2 octets par pixel) */
+	public static final byte CODEC_RAW = 0;
+
+	/** Donnes encodes par plages (image cl), depuis la version 2 */
+	public static final byte CODEC_RLE = 1;
+
+	/** Diffrence avec l'image prcdente, encode par plages, depuis la version 2 */
+	public static final byte CODEC_DELTA_RLE = 2;
+
+	/** Joints enregistrs pour chaque utilisateur, dans cet ordre */
+	public static final SkeletonJoint[] JOINTS = KinectModule.TRACKED_JOINTS;
+
+	/** Nombre de floats enregistrs par joint (x, y, z, confiance) */
+	public static final int FLOATS_PER_JOINT = 4;
+
+	private SessionFormat() {
+	}
+}
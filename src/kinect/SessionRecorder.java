@@ -0,0 +1,289 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enregistre une session (profondeur, labels et squelettes) dans un fichier projet en mmoire.
+ * Le thread de capture se contente de copier l'image dans un emplacement libre d'un buffer circulaire ;
+ * la compression (delta + run-length, voir RunLengthCodec) et l'criture sont faites par ce thread.
+ * Si le buffer circulaire est plein, l'image est ignore plutt que de bloquer la capture.
+ * Les cartes peuvent aussi tre crites sans compression (CODEC_RAW, le format des premiers enregistrements).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SessionRecorder extends Thread {
+
+	/**
+	 * Emplacement du buffer circulaire contenant une image  enregistrer
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	public class Frame {
+		private short[] depth = new short[width * height];
+		private short[] scene = new short[width * height];
+		private long timestamp;
+		private int frameID;
+		private int userCount;
+		private int[] users = new int[MAX_USERS];
+		private boolean[] tracking = new boolean[MAX_USERS];
+		private float[][] joints = new float[MAX_USERS][SessionFormat.JOINTS.length * SessionFormat.FLOATS_PER_JOINT];
+
+		/**
+		 * Copie les cartes de profondeur et de labels
+		 */
+		public void setMaps(short[] depthMap, short[] sceneMap, long timestamp, int frameID) {
+			System.arraycopy(depthMap, 0, depth, 0, depth.length);
+			System.arraycopy(sceneMap, 0, scene, 0, scene.length);
+			this.timestamp = timestamp;
+			this.frameID = frameID;
+			userCount = 0;
+		}
+
+		/**
+		 * Ajoute un utilisateur et ses joints (en coordonnes projectives)
+		 * @param user, l'ID de l'utilisateur
+		 * @param isTracking, true si son squelette est suivi
+		 * @param userJoints, ses joints dans l'ordre de SessionFormat.JOINTS (x, y, z, confiance ; voir KinectFrame)
+		 */
+		public void addUser(int user, boolean isTracking, float[][] userJoints) {
+			if (userCount == MAX_USERS) {
+				return;
+			}
+			users[userCount] = user;
+			tracking[userCount] = isTracking;
+			float[] values = joints[userCount];
+			for (int j = 0; j < SessionFormat.JOINTS.length; j++) {
+				System.arraycopy(userJoints[j], 0, values, j * SessionFormat.FLOATS_PER_JOINT, SessionFormat.FLOATS_PER_JOINT);
+			}
+			userCount++;
+		}
+	}
+
+	/** Nombre maximum d'utilisateurs enregistrs par image */
+	public static final int MAX_USERS = 16;
+
+	/** Nombre d'emplacements du buffer circulaire */
+	private static final int RING_SIZE = 8;
+
+	/** Une image cl (sans delta) est crite toutes les KEYFRAME_INTERVAL images */
+	private static final int KEYFRAME_INTERVAL = 300;
+
+	/** Taille des rgions du fichier projetes en mmoire */
+	private static final int REGION_SIZE = 64 * 1024 * 1024;
+
+	/** Dimensions des images */
+	private final int width, height;
+
+	/** Emplacements libres et images en attente d'criture */
+	private ArrayBlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<Frame>(RING_SIZE);
+	private ArrayBlockingQueue<Frame> pendingFrames = new ArrayBlockingQueue<Frame>(RING_SIZE);
+
+	/** Fichier de sortie */
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer region;
+	private long regionStart = 0;
+
+	/** Dernires cartes crites, rfrence pour le delta */
+	private short[] previousDepth, previousScene;
+	private int framesWritten = 0;
+	private int framesDropped = 0;
+
+	/** Taille maximale d'une image encode */
+	private final int maxFrameSize;
+
+	/** false si les cartes sont crites telles quelles */
+	private final boolean compressed;
+
+	private volatile boolean recording = true;
+
+	/**
+	 * Cre le fichier et dmarre le thread d'criture
+	 * @param output, le fichier de la session
+	 * @param width, largeur des images
+	 * @param height, hauteur des images
+	 * @param compressed, false pour crire les cartes sans compression (fichier plus gros, criture moins coteuse)
+	 * @throws IOException
+	 */
+	public SessionRecorder(File output, int width, int height, boolean compressed) throws IOException {
+		super("SessionRecorder");
+		this.width = width;
+		this.height = height;
+		this.compressed = compressed;
+		for (int i = 0; i < RING_SIZE; i++) {
+			freeFrames.add(new Frame());
+		}
+		previousDepth = new short[width * height];
+		previousScene = new short[width * height];
+		maxFrameSize = 4 + 8 + 4 + 2 * (1 + 4 + RunLengthCodec.maxEncodedSize(width * height))
+				+ 2 + MAX_USERS * (2 + 1 + 4 * SessionFormat.JOINTS.length * SessionFormat.FLOATS_PER_JOINT);
+
+		file = new RandomAccessFile(output, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+		region.order(SessionFormat.ORDER);
+
+		region.putInt(SessionFormat.MAGIC);
+		region.putShort(SessionFormat.VERSION);
+		region.putShort((short) width);
+		region.putShort((short) height);
+		region.putShort((short) SessionFormat.JOINTS.length);
+
+		setDaemon(true);
+		start();
+	}
+
+	/**
+	 * Cre le fichier, les cartes tant compresses, et dmarre le thread d'criture
+	 */
+	public SessionRecorder(File output, int width, int height) throws IOException {
+		this(output, width, height, true);
+	}
+
+	/**
+	 * Rserve un emplacement pour une nouvelle image, sans bloquer
+	 * @return l'emplacement, ou null si le buffer circulaire est plein (l'image est alors perdue)
+	 */
+	public Frame beginFrame() {
+		Frame frame = recording ? freeFrames.poll() : null;
+		if (frame == null) {
+			framesDropped++;
+		}
+		return frame;
+	}
+
+	/**
+	 * Transmet une image remplie au thread d'criture
+	 */
+	public void commitFrame(Frame frame) {
+		pendingFrames.add(frame);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (recording || !pendingFrames.isEmpty()) {
+				Frame frame = pendingFrames.poll(100, TimeUnit.MILLISECONDS);
+				if (frame != null) {
+					writeFrame(frame);
+					freeFrames.add(frame);
+				}
+			}
+			finish();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Compresse et crit une image
+	 */
+	private void writeFrame(Frame frame) throws IOException {
+		if (region.remaining() < maxFrameSize) {
+			regionStart += region.position();
+			region.force();
+			region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, maxFrameSize));
+			region.order(SessionFormat.ORDER);
+		}
+
+		boolean keyFrame = framesWritten % KEYFRAME_INTERVAL == 0;
+		region.putInt(SessionFormat.FRAME_MARKER);
+		region.putLong(frame.timestamp);
+		region.putInt(frame.frameID);
+		writeMap(frame.depth, keyFrame ? null : previousDepth);
+		writeMap(frame.scene, keyFrame ? null : previousScene);
+
+		region.putShort((short) frame.userCount);
+		for (int i = 0; i < frame.userCount; i++) {
+			region.putShort((short) frame.users[i]);
+			region.put((byte) (frame.tracking[i] ? 1 : 0));
+			for (float value : frame.joints[i]) {
+				region.putFloat(value);
+			}
+		}
+
+		// L'image devient la rfrence du delta suivant
+		short[] swap = previousDepth;
+		previousDepth = frame.depth;
+		frame.depth = swap;
+		swap = previousScene;
+		previousScene = frame.scene;
+		frame.scene = swap;
+		framesWritten++;
+	}
+
+	/**
+	 * crit une carte, compresse ou non, prcde de son codec et de sa taille
+	 */
+	private void writeMap(short[] map, short[] previous) {
+		if (!compressed) {
+			region.put(SessionFormat.CODEC_RAW);
+			region.putInt(2 * map.length);
+			region.asShortBuffer().put(map);
+			region.position(region.position() + 2 * map.length);
+			return;
+		}
+		region.put(previous == null ? SessionFormat.CODEC_RLE : SessionFormat.CODEC_DELTA_RLE);
+		int sizePos = region.position();
+		region.putInt(0);
+		int size = RunLengthCodec.encode(map, previous, region);
+		region.putInt(sizePos, size);
+	}
+
+	/**
+	 * Termine le fichier
+	 */
+	private void finish() throws IOException {
+		long end = regionStart + region.position();
+		if (region.remaining() >= 4) {
+			region.putInt(SessionFormat.END_MARKER);
+		}
+		region.force();
+		region = null;
+		try {
+			channel.truncate(end);
+		} catch (IOException e) {
+			// Impossible sous Windows tant que le fichier est projet, le marqueur de fin suffit
+		}
+		channel.close();
+		file.close();
+		System.out.println("Session recorded: " + framesWritten + " frames, " + framesDropped + " dropped");
+	}
+
+	/**
+	 * Arrte l'enregistrement une fois les images en attente crites
+	 */
+	public void close() {
+		recording = false;
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getFramesWritten() {
+		return framesWritten;
+	}
+
+	public int getFramesDropped() {
+		return framesDropped;
+	}
+}
@@ -0,0 +1,136 @@
+package kinect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.OpenNI.GeneralException;
+
+/**
+ * Enregistre une session synthtique (SessionRecorder) puis la rejoue (ReplayFrameSource), sans Kinect :
+ * une fois sans compression (CODEC_RAW), une fois compresse (images cls CODEC_RLE toutes les 300 images,
+ * CODEC_DELTA_RLE entre elles). La session rejoue est compare, image par image,  une seconde source
+ * synthtique identique : profondeur, labels, utilisateurs, suivi des squelettes, joints, timestamp et
+ * numro d'image doivent tre exactement ceux enregistrs, et la session doit se terminer aprs la dernire image.
+ * Affiche aussi la taille par image et le cot de l'enregistrement.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SessionRoundTripBenchmark {
+
+	private static final int USERS = 4;
+	private static final int WIDTH = SyntheticFrameSource.WIDTH, HEIGHT = SyntheticFrameSource.HEIGHT;
+
+	/** Plus d'une priode d'images cls, pour relire une image cl aprs des deltas */
+	private static final int FRAMES = 400;
+
+	public static void main(String[] args) throws IOException, GeneralException, InterruptedException {
+		boolean ok = true;
+		for (boolean compressed : new boolean[] { false, true }) {
+			File file = File.createTempFile("roundtrip", ".session");
+			file.deleteOnExit();
+			double ms = record(file, compressed);
+			int errors = compare(file);
+			String name = compressed ? "RLE + delta RLE" : "raw";
+			System.out.printf("%-16s: %.2f ms/frame to record, %.1f kB/frame, %d mismatches%n", name, ms,
+					file.length() / 1024.0 / FRAMES, errors);
+			ok &= errors == 0;
+			file.delete();
+		}
+		System.out.println(ok ? "OK: replayed sessions identical to the recorded frames" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Enregistre FRAMES images synthtiques, en attendant un emplacement libre plutt que de perdre une image
+	 * @return le temps moyen d'enregistrement d'une image (ms), criture comprise
+	 */
+	private static double record(File file, boolean compressed) throws IOException, GeneralException,
+			InterruptedException {
+		FrameSource source = createSource();
+		short[] depth = new short[WIDTH * HEIGHT];
+		short[] scene = new short[WIDTH * HEIGHT];
+		float[][] skeleton = new float[KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		float[][] none = new float[KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		long start = System.nanoTime();
+		SessionRecorder recorder = new SessionRecorder(file, WIDTH, HEIGHT, compressed);
+		for (int i = 0; i < FRAMES; i++) {
+			source.waitForUpdate(0);
+			source.getDepthMap().get(depth);
+			source.getSceneMap().get(scene);
+			SessionRecorder.Frame frame;
+			while ((frame = recorder.beginFrame()) == null) {
+				Thread.sleep(1);
+			}
+			frame.setMaps(depth, scene, source.getTimestamp(), source.getFrameID());
+			for (int user : source.getUsers()) {
+				boolean tracking = source.isSkeletonTracking(user);
+				if (tracking) {
+					source.getSkeleton(user, skeleton);
+				}
+				frame.addUser(user, tracking, tracking ? skeleton : none);
+			}
+			recorder.commitFrame(frame);
+		}
+		recorder.close();
+		source.release();
+		return (System.nanoTime() - start) / 1e6 / FRAMES;
+	}
+
+	/**
+	 * Rejoue la session en parallle d'une source synthtique identique  celle enregistre
+	 * @return le nombre d'images diffrentes, plus une si la session ne se termine pas aprs la dernire
+	 */
+	private static int compare(File file) throws IOException, GeneralException {
+		FrameSource expected = createSource();
+		ReplayFrameSource replay = new ReplayFrameSource(file, false, false);
+		short[] expectedMap = new short[WIDTH * HEIGHT];
+		short[] replayedMap = new short[WIDTH * HEIGHT];
+		float[][] expectedSkeleton = new float[KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		float[][] replayedSkeleton = new float[KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		int errors = 0;
+		for (int i = 0; i < FRAMES; i++) {
+			expected.waitForUpdate(0);
+			replay.waitForUpdate(0);
+			boolean same = replay.getWidth() == WIDTH && replay.getHeight() == HEIGHT
+					&& replay.getTimestamp() == expected.getTimestamp() && replay.getFrameID() == expected.getFrameID();
+
+			expected.getDepthMap().get(expectedMap);
+			replay.getDepthMap().get(replayedMap);
+			same &= Arrays.equals(expectedMap, replayedMap);
+			expected.getSceneMap().get(expectedMap);
+			replay.getSceneMap().get(replayedMap);
+			same &= Arrays.equals(expectedMap, replayedMap);
+
+			int[] users = expected.getUsers();
+			same &= Arrays.equals(users, replay.getUsers());
+			for (int user : users) {
+				boolean tracking = expected.isSkeletonTracking(user);
+				same &= tracking == replay.isSkeletonTracking(user);
+				if (tracking) {
+					expected.getSkeleton(user, expectedSkeleton);
+					replay.getSkeleton(user, replayedSkeleton);
+					same &= Arrays.deepEquals(expectedSkeleton, replayedSkeleton);
+				}
+			}
+			if (!same) {
+				errors++;
+			}
+		}
+		try {
+			replay.waitForUpdate(0);
+			errors++;
+		} catch (GeneralException e) {
+			// Fin de l'enregistrement, comme attendu
+		}
+		replay.release();
+		expected.release();
+		return errors;
+	}
+
+	private static FrameSource createSource() {
+		return new SyntheticFrameSource(USERS, SyntheticFrameSource.Motion.values(), false);
+	}
+}
@@ -0,0 +1,156 @@
+package kinect;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.OpenNI.SkeletonJoint;
+import org.OpenNI.SkeletonJointPosition;
+
+/**
+ * Positions des joints de chaque utilisateur suivi, remplies au plus une fois par image.
+ * Le premier appel pour une image (numro de squence) lit le squelette dans le SkeletonSnapshot,
+ * les appels suivants de la mme image (gestures, avatar, squelette de dbuggage...) reoivent
+ * directement les valeurs dj lues. Les compteurs permettent de vrifier combien de lectures
+ * redondantes sont vites.
+ *
+ * Rien n'est modifi aprs publication : la liste des utilisateurs est recopie  chaque ajout ou retrait,
+ * et les joints d'une image sont une nouvelle HashMap. Les lectures se font donc sans verrou,
+ * depuis n'importe quel thread, et ne voient jamais un utilisateur  moiti ajout ou retir.
+ *
+ * L'image fait foi : un utilisateur suivi dans l'image mais pas encore ajout (ou dj retir, les vnements
+ * arrivant avant ou aprs l'image) reoit quand mme ses joints, lus  chaque appel.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SkeletonCache {
+
+	/**
+	 * Joints d'un utilisateur ( ne plus modifier) et squence de l'image dont ils proviennent
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	private static class Filled {
+		private final long sequence;
+		private final HashMap<SkeletonJoint, SkeletonJointPosition> joints;
+
+		Filled(long sequence, HashMap<SkeletonJoint, SkeletonJointPosition> joints) {
+			this.sequence = sequence;
+			this.joints = joints;
+		}
+	}
+
+	/** Aucune image lue */
+	private static final Filled NOT_FILLED = new Filled(-1, null);
+
+	/** Utilisateurs suivis, et dernire lecture de chacun (liste recopie  chaque modification) */
+	private final AtomicReference<HashMap<Integer, AtomicReference<Filled>>> entries =
+			new AtomicReference<HashMap<Integer, AtomicReference<Filled>>>(new HashMap<Integer, AtomicReference<Filled>>());
+
+	/** Nombre de squelettes lus dans une image, et nombre de demandes servies sans relecture */
+	private final AtomicLong fills = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Commence  suivre un utilisateur (son squelette est calibr)
+	 */
+	public void add(int user) {
+		HashMap<Integer, AtomicReference<Filled>> current, updated;
+		do {
+			current = entries.get();
+			if (current.containsKey(user)) {
+				return;
+			}
+			updated = new HashMap<Integer, AtomicReference<Filled>>(current);
+			updated.put(user, new AtomicReference<Filled>(NOT_FILLED));
+		} while (!entries.compareAndSet(current, updated));
+	}
+
+	/**
+	 * Oublie un utilisateur (il a quitt le champ de vision)
+	 */
+	public void remove(int user) {
+		HashMap<Integer, AtomicReference<Filled>> current, updated;
+		do {
+			current = entries.get();
+			if (!current.containsKey(user)) {
+				return;
+			}
+			updated = new HashMap<Integer, AtomicReference<Filled>>(current);
+			updated.remove(user);
+		} while (!entries.compareAndSet(current, updated));
+	}
+
+	public boolean contains(int user) {
+		return entries.get().containsKey(user);
+	}
+
+	/**
+	 * Renvoie les joints d'un utilisateur pour une image, en ne les lisant qu'au premier appel
+	 * @param snapshot, l'tat des squelettes de l'image courante
+	 * @param user, l'ID de l'utilisateur
+	 * @return les positions des joints ( ne pas modifier), ou null si l'utilisateur n'est ni ajout
+	 * ni suivi dans l'image
+	 */
+	public HashMap<SkeletonJoint, SkeletonJointPosition> get(SkeletonSnapshot snapshot, int user) {
+		AtomicReference<Filled> entry = entries.get().get(user);
+		if (entry == null) {
+			if (!snapshot.isTracking(user)) {
+				return null;
+			}
+			fills.incrementAndGet();
+			return read(snapshot, user);
+		}
+		Filled filled = entry.get();
+		if (filled.sequence == snapshot.getSequence()) {
+			hits.incrementAndGet();
+			return filled.joints;
+		}
+		HashMap<SkeletonJoint, SkeletonJointPosition> joints = read(snapshot, user);
+		Filled next = new Filled(snapshot.getSequence(), joints);
+		// Un autre thread a pu lire la mme image entre-temps : on garde sa lecture si elle est au moins aussi rcente
+		while (!entry.compareAndSet(filled, next)) {
+			filled = entry.get();
+			if (filled.sequence >= next.sequence) {
+				return filled.joints;
+			}
+		}
+		fills.incrementAndGet();
+		return joints;
+	}
+
+	/**
+	 * Lit les joints d'un utilisateur dans une image
+	 */
+	private static HashMap<SkeletonJoint, SkeletonJointPosition> read(SkeletonSnapshot snapshot, int user) {
+		HashMap<SkeletonJoint, SkeletonJointPosition> joints = new HashMap<SkeletonJoint, SkeletonJointPosition>();
+		for (SkeletonJoint joint : KinectModule.TRACKED_JOINTS) {
+			joints.put(joint, snapshot.getJoint(user, joint));
+		}
+		return joints;
+	}
+
+	/**
+	 * @return le nombre de squelettes effectivement lus dans une image
+	 */
+	public long getFillCount() {
+		return fills.get();
+	}
+
+	/**
+	 * @return le nombre de demandes servies par le cache (lectures redondantes vites)
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public void resetCounters() {
+		fills.set(0);
+		hits.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "SkeletonCache: " + fills + " fills, " + hits + " redundant reads avoided";
+	}
+}
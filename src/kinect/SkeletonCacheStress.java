@@ -0,0 +1,315 @@
+package kinect;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.OpenNI.GeneralException;
+import org.OpenNI.IObservable;
+import org.OpenNI.IObserver;
+import org.OpenNI.SkeletonJoint;
+import org.OpenNI.SkeletonJointPosition;
+import org.OpenNI.StatusException;
+import org.OpenNI.UserEventArgs;
+
+/**
+ * Test de charge de la publication des squelettes, sans Kinect : un KinectModule capture aussi vite
+ * que possible des utilisateurs synthtiques qui sortent de l'image et y reviennent sans cesse
+ * (vnements utilisateur suivi / perdu  chaque entre et sortie). Comme avec NITE, les vnements
+ * et les images ne concordent pas : un utilisateur est suivi dans l'image quelques images avant son vnement
+ * "suivi", et l'est encore quelques images aprs son vnement "perdu".
+ * - le thread "rendu" appelle updateDepth() et, pour chaque utilisateur suivi dans l'image,
+ *   vrifie isSkeletonReady() et getJointsMap(), qu'il soit ou non dj arriv dans le UserRegistry ;
+ * - un second thread lit,  travers le SkeletonCache, les squelettes du dernier SkeletonSnapshot publi.
+ * Les joints lus par le thread de rendu doivent tre exactement ceux de l'image ; le second thread peut recevoir
+ * ceux d'une image plus rcente, mais jamais un squelette absent ou incomplet. Toute erreur ou exception
+ * est compte, et le programme se termine alors avec le code 1.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SkeletonCacheStress {
+
+	/**
+	 * Source qui retarde les vnements "suivi" et laisse les utilisateurs perdus suivis, immobiles,
+	 * pendant EVENT_LAG images
+	 */
+	private static class LaggingSource implements FrameSource {
+		private final FrameSource source;
+		private final UserEventObservable userTrackedEvent = new UserEventObservable();
+		private final UserEventObservable lostUserEvent = new UserEventObservable();
+
+		/** Par utilisateur : images avant l'vnement "suivi", images pendant lesquelles il reste suivi une fois perdu */
+		private final int[] trackedLag = new int[USERS + 1];
+		private final int[] lostLag = new int[USERS + 1];
+
+		/** Dernier squelette de chaque utilisateur */
+		private final float[][][] skeletons = new float[USERS + 1][KinectModule.TRACKED_JOINTS.length][KinectFrame.JOINT_SIZE];
+		private int[] users = new int[0];
+
+		LaggingSource(FrameSource source) throws StatusException {
+			this.source = source;
+			source.getUserTrackedEvent().addObserver(new IObserver<UserEventArgs>() {
+				@Override
+				public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+					trackedLag[args.getId()] = EVENT_LAG;
+					lostLag[args.getId()] = 0;
+				}
+			});
+			source.getLostUserEvent().addObserver(new IObserver<UserEventArgs>() {
+				@Override
+				public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+					trackedLag[args.getId()] = 0;
+					lostLag[args.getId()] = EVENT_LAG;
+					lostUserEvent.notify(args.getId());
+				}
+			});
+		}
+
+		@Override
+		public boolean waitForUpdate(long timeout) throws GeneralException {
+			boolean updated = source.waitForUpdate(timeout);
+			int[] current = source.getUsers();
+			int count = current.length;
+			for (int user = 1; user <= USERS; user++) {
+				if (trackedLag[user] > 0 && --trackedLag[user] == 0) {
+					userTrackedEvent.notify(user);
+				}
+				if (lostLag[user] > 0) {
+					lostLag[user]--;
+					count++;
+				}
+			}
+			users = new int[count];
+			System.arraycopy(current, 0, users, 0, current.length);
+			for (int user = 1, i = current.length; user <= USERS; user++) {
+				if (lostLag[user] > 0) {
+					users[i++] = user;
+				}
+			}
+			for (int user : current) {
+				source.getSkeleton(user, skeletons[user]);
+			}
+			return updated;
+		}
+
+		@Override
+		public boolean isSkeletonTracking(int user) {
+			return lostLag[user] > 0 || source.isSkeletonTracking(user);
+		}
+
+		@Override
+		public void getSkeleton(int user, float[][] joints) {
+			for (int j = 0; j < joints.length; j++) {
+				System.arraycopy(skeletons[user][j], 0, joints[j], 0, KinectFrame.JOINT_SIZE);
+			}
+		}
+
+		@Override
+		public int[] getUsers() {
+			return users;
+		}
+
+		@Override
+		public IObservable<UserEventArgs> getUserTrackedEvent() {
+			return userTrackedEvent;
+		}
+
+		@Override
+		public IObservable<UserEventArgs> getLostUserEvent() {
+			return lostUserEvent;
+		}
+
+		@Override
+		public boolean restart() throws GeneralException {
+			return source.restart();
+		}
+
+		@Override
+		public boolean setMode(SensorMode mode) {
+			return source.setMode(mode);
+		}
+
+		@Override
+		public int getWidth() {
+			return source.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return source.getHeight();
+		}
+
+		@Override
+		public ShortBuffer getDepthMap() {
+			return source.getDepthMap();
+		}
+
+		@Override
+		public ShortBuffer getSceneMap() {
+			return source.getSceneMap();
+		}
+
+		@Override
+		public ByteBuffer getImageMap() {
+			return source.getImageMap();
+		}
+
+		@Override
+		public long getTimestamp() {
+			return source.getTimestamp();
+		}
+
+		@Override
+		public int getFrameID() {
+			return source.getFrameID();
+		}
+
+		@Override
+		public void release() {
+			source.release();
+		}
+	}
+
+	private static final int USERS = 6;
+	private static final long DURATION_MS = 5000;
+
+	/** Dcalage entre les vnements et les images, en images */
+	private static final int EVENT_LAG = 3;
+
+	/** Le script fait sortir chaque utilisateur de l'image (WALK_IN) toutes les deux secondes de session */
+	private static final SyntheticFrameSource.Motion[] SCRIPT = {
+		SyntheticFrameSource.Motion.WALK_IN, SyntheticFrameSource.Motion.WAVE
+	};
+
+	public static void main(String[] args) throws InterruptedException, StatusException {
+		final KinectModule module = new KinectModule(new LaggingSource(new SyntheticFrameSource(USERS, SCRIPT, false)));
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong reads = new AtomicLong();
+		final long[] events = new long[2];
+		final long[] frames = new long[2];
+
+		final UserRegistry registry = module.getUserRegistry();
+		registry.getUserArrivedEvent().addObserver(new IObserver<UserEventArgs>() {
+			@Override
+			public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+				events[0]++;
+			}
+		});
+		registry.getUserLostEvent().addObserver(new IObserver<UserEventArgs>() {
+			@Override
+			public void update(IObservable<UserEventArgs> observable, UserEventArgs args) {
+				events[1]++;
+			}
+		});
+		module.addFrameListener(new FrameListener() {
+			@Override
+			public void frameArrived(KinectFrame frame) {
+				frames[0]++;
+				SkeletonSnapshot snapshot = module.getSkeletonSnapshot();
+				for (int i = 0; i < frame.userCount; i++) {
+					int user = frame.users[i];
+					if (!frame.tracking[i]) {
+						continue;
+					}
+					if (!registry.contains(user)) {
+						// Suivi dans l'image avant que son vnement ne soit trait, ou aprs sa perte
+						frames[1]++;
+					}
+					if (!module.isSkeletonReady(user) || !matches(module.getJointsMap(user), snapshot, user)) {
+						errors.incrementAndGet();
+					}
+					reads.incrementAndGet();
+				}
+			}
+		});
+
+		Thread reader = new Thread("reader") {
+			@Override
+			public void run() {
+				while (running.get()) {
+					SkeletonSnapshot snapshot = module.getSkeletonSnapshot();
+					try {
+						for (int i = 0; i < snapshot.getUserCount(); i++) {
+							int user = snapshot.getUser(i);
+							if (snapshot.isTracking(user)
+									&& !complete(module.getSkeletonCache().get(snapshot, user))) {
+								errors.incrementAndGet();
+							}
+							reads.incrementAndGet();
+						}
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					}
+					Thread.yield();
+				}
+			}
+		};
+		reader.start();
+
+		long end = System.currentTimeMillis() + DURATION_MS;
+		while (System.currentTimeMillis() < end) {
+			try {
+				if (!module.updateDepth()) {
+					Thread.sleep(1);
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				errors.incrementAndGet();
+			}
+		}
+		running.set(false);
+		reader.join();
+		module.close();
+
+		System.out.println(frames[0] + " frames, " + events[0] + " users tracked, " + events[1] + " users lost, "
+				+ frames[1] + " skeletons ahead of or behind their user event, " + reads + " skeleton reads");
+		System.out.println(module.getSkeletonCache());
+		// Sans utilisateurs qui arrivent et repartent, le test ne vrifie rien
+		if (events[0] == 0 || events[1] == 0) {
+			errors.incrementAndGet();
+		}
+		System.out.println(errors.get() == 0 ? "OK: no missing or inconsistent skeleton" : "FAILED: " + errors + " errors");
+		if (errors.get() != 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Les joints doivent tre prsents et identiques  ceux de l'utilisateur dans l'image
+	 */
+	private static boolean matches(HashMap<SkeletonJoint, SkeletonJointPosition> joints, SkeletonSnapshot snapshot, int user) {
+		if (!complete(joints)) {
+			return false;
+		}
+		for (SkeletonJoint joint : KinectModule.TRACKED_JOINTS) {
+			SkeletonJointPosition pos = joints.get(joint);
+			SkeletonJointPosition expected = snapshot.getJoint(user, joint);
+			if (pos.getConfidence() != expected.getConfidence()
+					|| pos.getPosition().getX() != expected.getPosition().getX()
+					|| pos.getPosition().getY() != expected.getPosition().getY()
+					|| pos.getPosition().getZ() != expected.getPosition().getZ()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true si tous les joints sont prsents
+	 */
+	private static boolean complete(HashMap<SkeletonJoint, SkeletonJointPosition> joints) {
+		if (joints == null || joints.size() != KinectModule.TRACKED_JOINTS.length) {
+			return false;
+		}
+		for (SkeletonJoint joint : KinectModule.TRACKED_JOINTS) {
+			if (joints.get(joint) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,132 @@
+package kinect;
+
+import org.OpenNI.Point3D;
+import org.OpenNI.SkeletonJoint;
+import org.OpenNI.SkeletonJointPosition;
+
+/**
+ * tat immuable des utilisateurs et de leurs squelettes pour une image.
+ * Il est cr par le thread de capture et publi par le KinectModule via une AtomicReference :
+ * n'importe quel thread (rendu, callbacks OpenNI...) peut le lire sans verrou, et ne voit jamais
+ * un utilisateur  moiti mis  jour puisque rien n'est modifi aprs la construction.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public final class SkeletonSnapshot {
+
+	/** tat publi avant la premire image */
+	static final SkeletonSnapshot EMPTY = new SkeletonSnapshot();
+
+	/** Numro de squence de l'image */
+	private final long sequence;
+
+	/** Utilisateurs prsents dans l'image */
+	private final int[] users;
+	private final boolean[] tracking;
+
+	/** Squelette de chaque utilisateur : [index][joint][KinectFrame.X ... KinectFrame.CONFIDENCE] */
+	private final float[][][] skeletons;
+
+	private SkeletonSnapshot() {
+		sequence = 0;
+		users = new int[0];
+		tracking = new boolean[0];
+		skeletons = new float[0][][];
+	}
+
+	/**
+	 * Copie l'tat des utilisateurs d'une image
+	 */
+	SkeletonSnapshot(KinectFrame frame) {
+		this(frame.sequence, frame.userCount, frame.users, frame.tracking, frame.skeletons);
+	}
+
+	/**
+	 * Copie l'tat des count premiers utilisateurs de tableaux de travail (par exemple la fusion de plusieurs capteurs)
+	 */
+	SkeletonSnapshot(long sequence, int count, int[] users, boolean[] tracking, float[][][] skeletons) {
+		this.sequence = sequence;
+		this.users = new int[count];
+		this.tracking = new boolean[count];
+		this.skeletons = new float[count][][];
+		System.arraycopy(users, 0, this.users, 0, count);
+		System.arraycopy(tracking, 0, this.tracking, 0, count);
+		for (int i = 0; i < count; i++) {
+			float[][] source = skeletons[i];
+			float[][] copy = new float[source.length][];
+			for (int j = 0; j < source.length; j++) {
+				copy[j] = source[j].clone();
+			}
+			this.skeletons[i] = copy;
+		}
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getUserCount() {
+		return users.length;
+	}
+
+	/**
+	 * @param index, l'index de l'utilisateur (entre 0 et getUserCount())
+	 * @return l'ID de l'utilisateur
+	 */
+	public int getUser(int index) {
+		return users[index];
+	}
+
+	/**
+	 * @return une copie des ID des utilisateurs prsents
+	 */
+	public int[] getUsers() {
+		return users.clone();
+	}
+
+	/**
+	 * @return l'index de l'utilisateur, -1 s'il est absent
+	 */
+	public int indexOf(int user) {
+		for (int i = 0; i < users.length; i++) {
+			if (users[i] == user) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true si le squelette de l'utilisateur est suivi
+	 */
+	public boolean isTracking(int user) {
+		int index = indexOf(user);
+		return index >= 0 && tracking[index];
+	}
+
+	/**
+	 * Renvoie une valeur d'un joint
+	 * @param index, l'index de l'utilisateur
+	 * @param joint, l'index du joint dans KinectModule.TRACKED_JOINTS
+	 * @param value, KinectFrame.X, Y, Z ou CONFIDENCE
+	 */
+	public float get(int index, int joint, int value) {
+		return skeletons[index][joint][value];
+	}
+
+	/**
+	 * Renvoie la position d'un joint, en coordonnes projectives
+	 * @return la position, avec une confiance nulle si elle n'est pas connue
+	 */
+	public SkeletonJointPosition getJoint(int user, SkeletonJoint joint) {
+		int index = indexOf(user);
+		int j = KinectFrame.jointIndex(joint);
+		if (index < 0 || j < 0) {
+			return new SkeletonJointPosition(new Point3D(), 0);
+		}
+		float[] values = skeletons[index][j];
+		return new SkeletonJointPosition(
+				new Point3D(values[KinectFrame.X], values[KinectFrame.Y], values[KinectFrame.Z]),
+				values[KinectFrame.CONFIDENCE]);
+	}
+}
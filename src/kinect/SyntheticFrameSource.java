@@ -0,0 +1,434 @@
+package kinect;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.OpenNI.GeneralException;
+import org.OpenNI.IObservable;
+import org.OpenNI.UserEventArgs;
+
+/**
+ * Source d'images sans capteur : des utilisateurs synthtiques, anims par un script de mouvements,
+ * pour mesurer le comportement des gestures, du menu et de la physique avec beaucoup d'utilisateurs.
+ * Chaque utilisateur enchane les mouvements du script (dcals d'un utilisateur  l'autre) ;
+ * son squelette est projet comme le ferait la Kinect, et sa silhouette (os paissis) est dessine
+ * dans les cartes de profondeur et de labels. Un utilisateur qui sort de l'image est perdu,
+ * puis de nouveau suivi lorsqu'il y revient (mouvement WALK_IN).
+ * Avec la proprit kinect.synthetic, l'application tourne avec ces utilisateurs  la place de la Kinect.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+	/**
+	 * Mouvements disponibles dans un script
+	 */
+	public enum Motion {
+		/** Entre dans l'image par le ct et rejoint sa place */
+		WALK_IN,
+		/** Salue de la main droite leve */
+		WAVE,
+		/** Pousse la main droite vers le capteur (clic) */
+		PUSH,
+		/** Balaye de la main droite, de droite  gauche */
+		SWIPE,
+		/** Pousse les deux mains, en les cartant puis en les rapprochant */
+		PINCH
+	}
+
+	/** Proprit systme : "nombre d'utilisateurs[:mouvement,mouvement...]", par exemple "8:walk_in,wave,push" */
+	public static final String SYNTHETIC_PROPERTY = "kinect.synthetic";
+
+	/** Rsolution par dfaut */
+	public static final int WIDTH = 640, HEIGHT = 480;
+
+	/** Dure d'un mouvement (s) */
+	private static final float MOTION_SECONDS = 2f;
+
+	/** Profondeur de l'arrire-plan (mm) */
+	private static final short BACKGROUND = 4500;
+
+	/** Distance parcourue pour entrer dans l'image (mm) */
+	private static final float ENTRY_DISTANCE = 2500;
+
+	/** Position des joints par rapport au torse (mm), dans l'ordre de KinectModule.TRACKED_JOINTS */
+	static final float[][] BODY = {
+		{ 0, 450 }, { 0, 300 },
+		{ -180, 280 }, { -250, 50 }, { -280, -150 },
+		{ 180, 280 }, { 250, 50 }, { 280, -150 },
+		{ 0, 0 },
+		{ -100, -200 }, { -110, -650 }, { -120, -1050 },
+		{ 100, -200 }, { 110, -650 }, { 120, -1050 },
+	};
+
+	/** Os dessins dans la silhouette : paires de joints et demi-paisseur (mm) */
+	private static final int[][] BONES = {
+		{ KinectFrame.NECK, KinectFrame.TORSO }, { KinectFrame.NECK, KinectFrame.LEFT_SHOULDER },
+		{ KinectFrame.NECK, KinectFrame.RIGHT_SHOULDER }, { KinectFrame.LEFT_SHOULDER, KinectFrame.LEFT_ELBOW },
+		{ KinectFrame.LEFT_ELBOW, KinectFrame.LEFT_HAND }, { KinectFrame.RIGHT_SHOULDER, KinectFrame.RIGHT_ELBOW },
+		{ KinectFrame.RIGHT_ELBOW, KinectFrame.RIGHT_HAND },
+		{ KinectFrame.TORSO, KinectFrame.LEFT_HIP }, { KinectFrame.TORSO, KinectFrame.RIGHT_HIP },
+		{ KinectFrame.LEFT_HIP, KinectFrame.LEFT_KNEE }, { KinectFrame.LEFT_KNEE, KinectFrame.LEFT_FOOT },
+		{ KinectFrame.RIGHT_HIP, KinectFrame.RIGHT_KNEE }, { KinectFrame.RIGHT_KNEE, KinectFrame.RIGHT_FOOT },
+		{ KinectFrame.HEAD, KinectFrame.NECK },
+	};
+	private static final float[] BONE_RADIUS = { 150, 60, 60, 50, 45, 50, 45, 90, 90, 70, 60, 70, 60, 110 };
+
+	private final int userCount;
+	private final Motion[] script;
+	private final boolean realTime;
+
+	/** Projection des positions (le capteur est l'origine du repre) */
+	private final SensorCalibration calibration = new SensorCalibration();
+	private final float xzFactor = (float) (2 * Math.tan(SensorCalibration.KINECT_HORIZONTAL_FOV / 2));
+
+	/** Place de chaque utilisateur (mm) et dcalage de son script (s) */
+	private final float[] homeX, homeZ, offset;
+
+	/** Joints de chaque utilisateur : en mm, puis en coordonnes projectives */
+	private final float[][][] world;
+	private final float[][][] projective;
+
+	/** Utilisateurs visibles dans l'image courante et dans la prcdente */
+	private final boolean[] visible, wasVisible;
+	private int[] users = new int[0];
+
+	/** Rsolution courante et dure d'une image (s), voir setMode() */
+	private int width = WIDTH, height = HEIGHT;
+	private long framePeriod = 33333;
+
+	private short[] depthValues = new short[WIDTH * HEIGHT];
+	private short[] sceneValues = new short[WIDTH * HEIGHT];
+	private ShortBuffer depth = ShortBuffer.wrap(depthValues);
+	private ShortBuffer scene = ShortBuffer.wrap(sceneValues);
+
+	private long timestamp = -framePeriod;
+	private int frameID = -1;
+	private long startTime = -1;
+
+	private UserEventObservable userTrackedEvent = new UserEventObservable();
+	private UserEventObservable lostUserEvent = new UserEventObservable();
+
+	/**
+	 * @param userCount, nombre d'utilisateurs (1  KinectFrame.MAX_USERS)
+	 * @param script, mouvements enchans par chaque utilisateur
+	 * @param realTime, si true une image est produite toutes les 33 ms, sinon aussi vite que possible
+	 */
+	public SyntheticFrameSource(int userCount, Motion[] script, boolean realTime) {
+		if (userCount < 1 || userCount > KinectFrame.MAX_USERS) {
+			throw new IllegalArgumentException("User count must be between 1 and " + KinectFrame.MAX_USERS);
+		}
+		if (script.length == 0) {
+			throw new IllegalArgumentException("Empty motion script");
+		}
+		this.userCount = userCount;
+		this.script = script.clone();
+		this.realTime = realTime;
+		homeX = new float[userCount];
+		homeZ = new float[userCount];
+		offset = new float[userCount];
+		world = new float[userCount][BODY.length][3];
+		projective = new float[userCount][BODY.length][KinectFrame.JOINT_SIZE];
+		visible = new boolean[userCount];
+		wasVisible = new boolean[userCount];
+
+		// Trois ranges en profondeur, les utilisateurs de chaque range rpartis sur sa largeur
+		for (int u = 0; u < userCount; u++) {
+			int row = u % 3;
+			int inRow = (userCount - row + 2) / 3;
+			homeZ[u] = 2200 + row * 800;
+			float rowWidth = homeZ[u] * xzFactor * 0.8f;
+			homeX[u] = ((u / 3) + 0.5f - inRow / 2f) * rowWidth / inRow;
+			offset[u] = u * 0.37f;
+		}
+	}
+
+	/**
+	 * Cre une source  partir d'une description "nombre[:mouvement,mouvement...]"
+	 * (tous les mouvements si le script n'est pas prcis)
+	 */
+	public static SyntheticFrameSource fromSpec(String spec, boolean realTime) {
+		String[] parts = spec.split(":");
+		Motion[] script = Motion.values();
+		if (parts.length > 1) {
+			String[] names = parts[1].split(",");
+			script = new Motion[names.length];
+			for (int i = 0; i < names.length; i++) {
+				script[i] = Motion.valueOf(names[i].trim().toUpperCase());
+			}
+		}
+		return new SyntheticFrameSource(Integer.parseInt(parts[0].trim()), script, realTime);
+	}
+
+	@Override
+	public boolean waitForUpdate(long timeout) throws GeneralException {
+		timestamp += framePeriod;
+		frameID++;
+		if (realTime) {
+			waitForTimestamp();
+		}
+		float time = timestamp / 1e6f;
+
+		Arrays.fill(depthValues, BACKGROUND);
+		Arrays.fill(sceneValues, (short) 0);
+		int count = 0;
+		for (int u = 0; u < userCount; u++) {
+			pose(u, time);
+			float[][] joints = projective[u];
+			for (int j = 0; j < BODY.length; j++) {
+				float[] joint = joints[j];
+				calibration.toProjective(world[u][j], width, height, joint);
+				boolean inside = joint[KinectFrame.Z] > 0 && joint[KinectFrame.X] >= 0 && joint[KinectFrame.X] < width
+						&& joint[KinectFrame.Y] >= 0 && joint[KinectFrame.Y] < height;
+				joint[KinectFrame.CONFIDENCE] = inside ? 1 : 0;
+			}
+			wasVisible[u] = visible[u];
+			visible[u] = joints[KinectFrame.TORSO][KinectFrame.CONFIDENCE] != 0;
+			if (visible[u]) {
+				draw(u);
+				count++;
+			}
+		}
+		if (users.length != count) {
+			users = new int[count];
+		}
+		for (int u = 0, i = 0; u < userCount; u++) {
+			if (visible[u]) {
+				users[i++] = u + 1;
+			}
+		}
+		for (int u = 0; u < userCount; u++) {
+			if (wasVisible[u] && !visible[u]) {
+				lostUserEvent.notify(u + 1);
+			} else if (visible[u] && !wasVisible[u]) {
+				userTrackedEvent.notify(u + 1);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean restart() {
+		return false;
+	}
+
+	private void waitForTimestamp() {
+		long now = System.nanoTime();
+		if (startTime < 0) {
+			startTime = now - timestamp * 1000L;
+		}
+		long delay = startTime + timestamp * 1000L - now;
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Place les joints d'un utilisateur (mm) selon le mouvement en cours de son script
+	 */
+	private void pose(int u, float time) {
+		float t = time + offset[u];
+		Motion motion = script[(int) (t / MOTION_SECONDS) % script.length];
+		float tau = (t % MOTION_SECONDS) / MOTION_SECONDS;
+		float x = homeX[u], z = homeZ[u];
+		float[][] joints = world[u];
+
+		if (motion == Motion.WALK_IN) {
+			// Entre par le ct le plus proche, en ralentissant  l'arrive
+			float remaining = (1 - tau) * (1 - tau);
+			x += (x < 0 ? -1 : 1) * ENTRY_DISTANCE * remaining;
+		}
+		for (int j = 0; j < BODY.length; j++) {
+			joints[j][0] = x + BODY[j][0];
+			joints[j][1] = BODY[j][1];
+			joints[j][2] = z;
+		}
+
+		float wave = (float) Math.sin(2 * Math.PI * tau);
+		float bump = (float) Math.sin(Math.PI * tau);
+		switch (motion) {
+		case WALK_IN:
+			// Jambes alternes
+			float stride = 150 * (float) Math.sin(8 * Math.PI * tau) * (1 - tau);
+			joints[KinectFrame.LEFT_KNEE][2] -= stride / 2;
+			joints[KinectFrame.LEFT_FOOT][2] -= stride;
+			joints[KinectFrame.RIGHT_KNEE][2] += stride / 2;
+			joints[KinectFrame.RIGHT_FOOT][2] += stride;
+			break;
+		case WAVE:
+			set(joints[KinectFrame.RIGHT_ELBOW], x + 300, 300, z);
+			set(joints[KinectFrame.RIGHT_HAND], x + 300 + 150 * (float) Math.sin(8 * Math.PI * tau), 600, z - 50);
+			break;
+		case PUSH:
+			set(joints[KinectFrame.RIGHT_HAND], x + 200, 250, z - 550 * bump);
+			between(joints[KinectFrame.RIGHT_ELBOW], joints[KinectFrame.RIGHT_SHOULDER], joints[KinectFrame.RIGHT_HAND], -80);
+			break;
+		case SWIPE:
+			set(joints[KinectFrame.RIGHT_HAND], x + 400 - 800 * tau, 150, z - 350);
+			between(joints[KinectFrame.RIGHT_ELBOW], joints[KinectFrame.RIGHT_SHOULDER], joints[KinectFrame.RIGHT_HAND], -80);
+			break;
+		case PINCH:
+			float reach = 550 * Math.min(1, 3 * bump);
+			float spread = 100 + 250 * Math.abs(wave);
+			set(joints[KinectFrame.LEFT_HAND], x - spread, 200, z - reach);
+			set(joints[KinectFrame.RIGHT_HAND], x + spread, 200, z - reach);
+			between(joints[KinectFrame.LEFT_ELBOW], joints[KinectFrame.LEFT_SHOULDER], joints[KinectFrame.LEFT_HAND], -80);
+			between(joints[KinectFrame.RIGHT_ELBOW], joints[KinectFrame.RIGHT_SHOULDER], joints[KinectFrame.RIGHT_HAND], -80);
+			break;
+		}
+	}
+
+	private static void set(float[] joint, float x, float y, float z) {
+		joint[0] = x;
+		joint[1] = y;
+		joint[2] = z;
+	}
+
+	/**
+	 * Place un coude au milieu de l'paule et de la main, abaiss de drop mm
+	 */
+	private static void between(float[] elbow, float[] shoulder, float[] hand, float drop) {
+		elbow[0] = (shoulder[0] + hand[0]) / 2;
+		elbow[1] = (shoulder[1] + hand[1]) / 2 + drop;
+		elbow[2] = (shoulder[2] + hand[2]) / 2;
+	}
+
+	/**
+	 * Dessine la silhouette d'un utilisateur : chaque os est une suite de disques
+	 */
+	private void draw(int u) {
+		short label = (short) (u + 1);
+		float[][] joints = projective[u];
+		for (int b = 0; b < BONES.length; b++) {
+			float[] a = joints[BONES[b][0]], c = joints[BONES[b][1]];
+			if (a[KinectFrame.Z] <= 0 || c[KinectFrame.Z] <= 0) {
+				continue;
+			}
+			float dx = c[KinectFrame.X] - a[KinectFrame.X], dy = c[KinectFrame.Y] - a[KinectFrame.Y];
+			float z = (a[KinectFrame.Z] + c[KinectFrame.Z]) / 2;
+			float radius = BONE_RADIUS[b] / (z * xzFactor) * width;
+			int steps = 1 + (int) (Math.sqrt(dx * dx + dy * dy) / Math.max(1, radius / 2));
+			for (int s = 0; s <= steps; s++) {
+				float f = s / (float) steps;
+				disc(a[KinectFrame.X] + f * dx, a[KinectFrame.Y] + f * dy,
+						a[KinectFrame.Z] + f * (c[KinectFrame.Z] - a[KinectFrame.Z]), radius, label);
+			}
+		}
+	}
+
+	private void disc(float cx, float cy, float z, float radius, short label) {
+		short depthValue = (short) z;
+		int minY = Math.max(0, (int) (cy - radius)), maxY = Math.min(height - 1, (int) (cy + radius));
+		float radius2 = radius * radius;
+		for (int y = minY; y <= maxY; y++) {
+			float ry = y - cy;
+			float half = (float) Math.sqrt(Math.max(0, radius2 - ry * ry));
+			int minX = Math.max(0, (int) (cx - half)), maxX = Math.min(width - 1, (int) (cx + half));
+			int row = y * width;
+			for (int x = minX; x <= maxX; x++) {
+				int i = row + x;
+				if (depthValue < depthValues[i]) {
+					depthValues[i] = depthValue;
+					sceneValues[i] = label;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tous les modes sont possibles : les images suivantes sont dessines  la nouvelle rsolution
+	 */
+	@Override
+	public boolean setMode(SensorMode mode) {
+		width = mode.getWidth();
+		height = mode.getHeight();
+		framePeriod = 1000000L / mode.getFrameRate();
+		depthValues = new short[width * height];
+		sceneValues = new short[width * height];
+		depth = ShortBuffer.wrap(depthValues);
+		scene = ShortBuffer.wrap(sceneValues);
+		// Le rythme temps rel repart de l'image courante
+		startTime = -1;
+		return true;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public ShortBuffer getDepthMap() {
+		depth.rewind();
+		return depth;
+	}
+
+	@Override
+	public ShortBuffer getSceneMap() {
+		scene.rewind();
+		return scene;
+	}
+
+	@Override
+	public ByteBuffer getImageMap() {
+		return null;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public int getFrameID() {
+		return frameID;
+	}
+
+	@Override
+	public int[] getUsers() {
+		return users.clone();
+	}
+
+	@Override
+	public boolean isSkeletonTracking(int user) {
+		return user >= 1 && user <= userCount && visible[user - 1];
+	}
+
+	@Override
+	public void getSkeleton(int user, float[][] joints) {
+		if (!isSkeletonTracking(user)) {
+			for (float[] joint : joints) {
+				Arrays.fill(joint, 0);
+			}
+			return;
+		}
+		float[][] source = projective[user - 1];
+		for (int j = 0; j < joints.length; j++) {
+			System.arraycopy(source[j], 0, joints[j], 0, KinectFrame.JOINT_SIZE);
+		}
+	}
+
+	@Override
+	public IObservable<UserEventArgs> getUserTrackedEvent() {
+		return userTrackedEvent;
+	}
+
+	@Override
+	public IObservable<UserEventArgs> getLostUserEvent() {
+		return lostUserEvent;
+	}
+
+	@Override
+	public void release() {
+	}
+}
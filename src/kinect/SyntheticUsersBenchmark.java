@@ -0,0 +1,269 @@
+package kinect;
+
+import gestures.HandGesture;
+import gestures.KinectMouseListener;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.util.Arrays;
+
+import org.OpenNI.IObservable;
+import org.OpenNI.IObserver;
+import org.OpenNI.UserEventArgs;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.joints.MouseJoint;
+import org.jbox2d.dynamics.joints.MouseJointDef;
+
+import box2d.PhysicsWorld;
+
+/**
+ * Mesure la monte en charge avec 1  16 utilisateurs synthtiques (SyntheticFrameSource),
+ * sans capteur ni affichage. Chaque image est traite comme dans l'application :
+ * - gestures : une HandGesture par utilisateur, alimente par les mains et la tte du squelette
+ *   (comme KinectModule.updateDepth), les clics tant compts par un KinectMouseListener
+ *   qui tient lieu de menu ;
+ * - physique : des balles, et pour chaque utilisateur trois corps tirs par des MouseJoint
+ *   vers ses pieds et sa tte (comme PhysicsDemonstration).
+ * Pour chaque nombre d'utilisateurs : images captures et traites par seconde, cot des gestures
+ * et de la physique par image, et nombre d'vnements (utilisateurs suivis / perdus, clics).
+ * Vrifie que chaque utilisateur est perdu puis suivi  nouveau au moins une fois (WALK_IN), et qu'il clique.
+ * Le menu et les dmonstrations ont besoin d'OpenGL ; ils se mesurent dans l'application
+ * lance avec -Dkinect.synthetic=16.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class SyntheticUsersBenchmark {
+
+	private static final int[] USER_COUNTS = { 1, 2, 4, 8, 16 };
+	/** Images par mesure : deux fois le script complet (2 s par mouvement) */
+	private static final int FRAMES = 600;
+	private static final int WARMUP_FRAMES = 150;
+
+	/** Taille de l'cran simul et nombre de balles de la dmonstration physique */
+	private static final int SCREEN_WIDTH = 1024, SCREEN_HEIGHT = 768;
+	private static final int BALLS = 40;
+
+	/** Joints tirant les corps de la physique */
+	private static final int[] PHYSICS_JOINTS = { KinectFrame.LEFT_FOOT, KinectFrame.RIGHT_FOOT, KinectFrame.HEAD };
+
+	public static void main(String[] args) throws InterruptedException {
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores, " + FRAMES + " frames per run, script "
+				+ Arrays.toString(SyntheticFrameSource.Motion.values()));
+		new Run(1).execute(WARMUP_FRAMES, false);
+		boolean ok = true;
+		for (int n : USER_COUNTS) {
+			ok &= new Run(n).execute(FRAMES, true);
+		}
+		System.out.println(ok ? "OK: every user lost, tracked again and clicking" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Une mesure avec un nombre d'utilisateurs donn
+	 */
+	private static class Run implements FrameListener, KinectMouseListener {
+
+		private final int userCount;
+		private final KinectModule module;
+		private final PhysicsWorld world = new PhysicsWorld();
+		private final Body ground;
+
+		private final UserRegistry.Slot<HandGesture> gestures;
+		private final UserRegistry.Slot<MouseJoint[]> physicsJoints;
+
+		private int arrived, lost, clicks, twoHands;
+		private long frames, gestureNanos, physicsNanos;
+
+		Run(int userCount) {
+			this.userCount = userCount;
+			module = new KinectModule(new SyntheticFrameSource(userCount, SyntheticFrameSource.Motion.values(), false));
+			UserRegistry registry = module.getUserRegistry();
+			gestures = registry.createSlot();
+			physicsJoints = registry.createSlot();
+			registry.getUserArrivedEvent().addObserver(new IObserver<UserEventArgs>() {
+				@Override
+				public void update(IObservable<UserEventArgs> observable, UserEventArgs event) {
+					HandGesture gesture = new HandGesture(event.getId());
+					gesture.addKinectMouseListener(Run.this);
+					gestures.set(event.getId(), gesture);
+					arrived++;
+				}
+			});
+			registry.getUserLostEvent().addObserver(new IObserver<UserEventArgs>() {
+				@Override
+				public void update(IObservable<UserEventArgs> observable, UserEventArgs event) {
+					MouseJoint[] joints = physicsJoints.get(event.getId());
+					if (joints != null) {
+						for (MouseJoint joint : joints) {
+							world.destroyJoint(joint);
+						}
+					}
+					lost++;
+				}
+			});
+			module.addFrameListener(this);
+
+			world.createWorld();
+			ground = world.addWall(0, 0, 8 * SCREEN_WIDTH, 1);
+			world.addWall(SCREEN_WIDTH, 0, 1, 8 * SCREEN_HEIGHT);
+			world.addWall(0, 0, 1, 8 * SCREEN_HEIGHT);
+			for (int i = 0; i < BALLS; i++) {
+				world.addBall(25, 100 + (i % 10) * 80, 200 + (i / 10) * 80, new Vec2(0, 0), Color.WHITE);
+			}
+		}
+
+		/**
+		 * Traite le nombre d'images demand une fois tous les utilisateurs apparus
+		 * @param print, false pour une mesure de chauffe
+		 * @return true si tous les utilisateurs ont t perdus, suivis  nouveau et ont cliqu
+		 */
+		boolean execute(int frameCount, boolean print) throws InterruptedException {
+			// Attend que tous les utilisateurs aient t vus une fois
+			while (arrived < userCount) {
+				module.updateDepth();
+				Thread.sleep(1);
+			}
+			long startSequence = module.getSkeletonSnapshot().getSequence();
+			frames = gestureNanos = physicsNanos = 0;
+			arrived = lost = clicks = twoHands = 0;
+			long start = System.nanoTime();
+			while (frames < frameCount) {
+				if (!module.updateDepth()) {
+					Thread.sleep(1);
+				}
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long captured = module.getSkeletonSnapshot().getSequence() - startSequence;
+			module.close();
+			if (!print) {
+				return true;
+			}
+			System.out.printf("%2d users: %4.0f frames/s captured, %4.0f frames/s processed, "
+					+ "gestures %5.1f us/frame, physics %6.1f us/frame; %d tracked, %d lost, %d clicks, %d two-hand%n",
+					userCount, captured / seconds, frames / seconds, gestureNanos / 1e3 / Math.max(1, frames),
+					physicsNanos / 1e3 / Math.max(1, frames), arrived, lost, clicks, twoHands);
+			return lost >= userCount && arrived >= userCount && clicks >= userCount;
+		}
+
+		@Override
+		public void frameArrived(KinectFrame frame) {
+			frames++;
+			long t0 = System.nanoTime();
+			for (int i = 0; i < frame.userCount; i++) {
+				HandGesture gesture = gestures.get(frame.users[i]);
+				if (!frame.tracking[i] || gesture == null) {
+					continue;
+				}
+				float[][] skeleton = frame.skeletons[i];
+				float[] leftHand = skeleton[KinectFrame.LEFT_HAND];
+				float[] rightHand = skeleton[KinectFrame.RIGHT_HAND];
+				float[] head = skeleton[KinectFrame.HEAD];
+				if (head[KinectFrame.CONFIDENCE] != 0 && leftHand[KinectFrame.CONFIDENCE] != 0
+						&& rightHand[KinectFrame.CONFIDENCE] != 0) {
+					Point leftPoint = new Point();
+					leftPoint.setLocation(leftHand[KinectFrame.X], leftHand[KinectFrame.Y]);
+					Point rightPoint = new Point();
+					rightPoint.setLocation(rightHand[KinectFrame.X], rightHand[KinectFrame.Y]);
+					gesture.updateDepth((int) leftHand[KinectFrame.Z], leftPoint, (int) head[KinectFrame.Z],
+							(int) rightHand[KinectFrame.Z], rightPoint);
+				}
+			}
+			long t1 = System.nanoTime();
+			updatePhysics(frame);
+			world.update();
+			long t2 = System.nanoTime();
+			gestureNanos += t1 - t0;
+			physicsNanos += t2 - t1;
+		}
+
+		/**
+		 * Dplace les corps des pieds et de la tte de chaque utilisateur, crs  sa premire image
+		 */
+		private void updatePhysics(KinectFrame frame) {
+			for (int i = 0; i < frame.userCount; i++) {
+				int user = frame.users[i];
+				if (!frame.tracking[i]) {
+					continue;
+				}
+				float[][] skeleton = frame.skeletons[i];
+				MouseJoint[] joints = physicsJoints.get(user);
+				if (joints == null) {
+					joints = new MouseJoint[PHYSICS_JOINTS.length];
+					for (int j = 0; j < joints.length; j++) {
+						float[] joint = skeleton[PHYSICS_JOINTS[j]];
+						joints[j] = createMouseJoint(screenX(joint), screenY(joint));
+					}
+					physicsJoints.set(user, joints);
+					continue;
+				}
+				for (int j = 0; j < joints.length; j++) {
+					float[] joint = skeleton[PHYSICS_JOINTS[j]];
+					if (joint[KinectFrame.CONFIDENCE] != 0) {
+						joints[j].setTarget(new Vec2(screenX(joint) * PhysicsWorld.PTM_RATIO,
+								screenY(joint) * PhysicsWorld.PTM_RATIO));
+					}
+				}
+			}
+		}
+
+		private MouseJoint createMouseJoint(float x, float y) {
+			Body body = world.addBall(30, x, y, new Vec2(0, 0), Color.WHITE, "bone", -1);
+			body.setFixedRotation(true);
+			MouseJointDef definition = new MouseJointDef();
+			definition.bodyA = ground;
+			definition.bodyB = body;
+			definition.collideConnected = true;
+			definition.target.set(x * PhysicsWorld.PTM_RATIO, y * PhysicsWorld.PTM_RATIO);
+			definition.dampingRatio = 0.1f;
+			definition.frequencyHz = 30.0f;
+			definition.maxForce = 50f * body.getMass();
+			return (MouseJoint) world.getJoint(definition);
+		}
+
+		private static float screenX(float[] joint) {
+			return joint[KinectFrame.X] * SCREEN_WIDTH / SyntheticFrameSource.WIDTH;
+		}
+
+		private static float screenY(float[] joint) {
+			return SCREEN_HEIGHT - joint[KinectFrame.Y] * SCREEN_HEIGHT / SyntheticFrameSource.HEIGHT;
+		}
+
+		@Override
+		public void mouseLeftClicked(int userID, int x, int y) {
+			clicks++;
+		}
+
+		@Override
+		public void mouseRightClicked(int userID, int x, int y) {
+			clicks++;
+		}
+
+		@Override
+		public void multiPressed(int userID, int leftx, int lefty, int rightx, int righty) {
+			twoHands++;
+		}
+
+		@Override
+		public void mouseLeftReleased(int userID, int posx, int posy) {
+		}
+
+		@Override
+		public void mouseLeftPressed(int userID, int posx, int posy) {
+		}
+
+		@Override
+		public void mouseRightReleased(int userID, int posx, int posy) {
+		}
+
+		@Override
+		public void mouseRightPressed(int userID, int posx, int posy) {
+		}
+
+		@Override
+		public void multiReleased(int userID, int leftx, int lefty, int rightx, int righty) {
+		}
+	}
+}
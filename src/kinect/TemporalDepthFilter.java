@@ -0,0 +1,255 @@
+package kinect;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Filtre temporel de la profondeur, pour limiter le bruit et les trous (profondeur nulle) de la Kinect.
+ * Deux modes :
+ * - MEDIAN : mdiane, pour chaque pixel, des mesures non nulles des N dernires images ;
+ * - EXPONENTIAL : moyenne exponentielle, rinitialise lorsque la mesure saute (mouvement).
+ * Dans les deux cas un trou est combl par l'historique du pixel s'il date de moins de N images.
+ * L'historique est gard dans des tableaux allous une seule fois (buffer circulaire de short[] pour la mdiane,
+ * moyenne en virgule fixe pour le filtre exponentiel) : aucune allocation par image. Le filtrage peut tre dcoup en bandes de ranges (ForkJoin).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class TemporalDepthFilter {
+
+	/**
+	 * Type de filtrage
+	 */
+	public enum Mode {
+		MEDIAN,
+		EXPONENTIAL
+	}
+
+	/**
+	 * Filtrage d'une bande de ranges
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class BandTask extends RecursiveAction {
+		private final int from, to;
+
+		/** Valeurs d'un pixel pour le calcul de la mdiane */
+		private final int[] window = new int[MAX_HISTORY];
+
+		BandTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			filterRange(from, to, window);
+		}
+	}
+
+	/**
+	 * Filtrage d'une image complte par bandes
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	@SuppressWarnings("serial")
+	private class FrameTask extends RecursiveAction {
+		@Override
+		protected void compute() {
+			for (BandTask band : bands) {
+				band.reinitialize();
+			}
+			invokeAll(bands);
+		}
+	}
+
+	/** Nombre maximum d'images gardes dans l'historique */
+	public static final int MAX_HISTORY = 9;
+
+	/** Les profondeurs sont codes sur 15 bits : un trou (0 - 1) devient 0x7FFF et se retrouve en fin de tri */
+	private static final int HOLE_MASK = 0x7FFF;
+
+	/** cart (mm) au-del duquel le filtre exponentiel repart de la nouvelle mesure */
+	private static final int JUMP_THRESHOLD = 100;
+
+	/** Bits de la partie fractionnaire de la moyenne exponentielle : arrondie au mm, elle atteint la mesure */
+	private static final int FRACTION_BITS = 8;
+	private static final int HALF = 1 << (FRACTION_BITS - 1);
+
+	private final Mode mode;
+
+	/** Nombre d'images de l'historique */
+	private final int history;
+
+	/** Coefficient du filtre exponentiel, sur 256 */
+	private final int alpha;
+
+	private final int width, height;
+
+	/** MEDIAN : les dernires images brutes, ring[head] tant la plus rcente */
+	private short[][] ring;
+	private int head = -1;
+	private int filled = 0;
+
+	/** EXPONENTIAL : valeur filtre (en 1/256 mm) et nombre d'images conscutives sans mesure, pour chaque pixel */
+	private int[] smoothed;
+	private byte[] holeAge;
+
+	/** Image en cours de filtrage */
+	private short[] depth;
+
+	/** Mode parallle */
+	private boolean parallel = false;
+	private ForkJoinPool pool;
+	private BandTask[] bands;
+	private FrameTask frameTask;
+	private final int[] window = new int[MAX_HISTORY];
+
+	/**
+	 * @param width, largeur des images
+	 * @param height, hauteur des images
+	 * @param mode, le type de filtrage
+	 * @param history, le nombre d'images prises en compte (mdiane, comblement des trous), entre 1 et MAX_HISTORY
+	 * @param alpha, poids de la nouvelle mesure pour le filtre exponentiel, entre 0 et 1
+	 */
+	public TemporalDepthFilter(int width, int height, Mode mode, int history, float alpha) {
+		if (history < 1 || history > MAX_HISTORY) {
+			throw new IllegalArgumentException("History must be between 1 and " + MAX_HISTORY);
+		}
+		this.width = width;
+		this.height = height;
+		this.mode = mode;
+		this.history = history;
+		this.alpha = Math.round(alpha * 256);
+		if (mode == Mode.MEDIAN) {
+			ring = new short[history][width * height];
+		} else {
+			smoothed = new int[width * height];
+			holeAge = new byte[width * height];
+		}
+	}
+
+	/**
+	 * Cre un filtre avec les rglages par dfaut (5 images, alpha = 0.5)
+	 */
+	public TemporalDepthFilter(int width, int height, Mode mode) {
+		this(width, height, mode, 5, 0.5f);
+	}
+
+	/**
+	 * Active ou dsactive le filtrage parallle par bandes de ranges
+	 */
+	public void setParallel(boolean parallel) {
+		if (parallel && pool == null) {
+			pool = ParallelRows.pool();
+			int bandCount = ParallelRows.bandCount(height);
+			bands = new BandTask[bandCount];
+			for (int i = 0; i < bandCount; i++) {
+				bands[i] = new BandTask(height * i / bandCount * width, height * (i + 1) / bandCount * width);
+			}
+			frameTask = new FrameTask();
+		}
+		this.parallel = parallel;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Filtre une image (sur place) et l'ajoute  l'historique
+	 * @param depth, la profondeur brute, remplace par la profondeur filtre
+	 */
+	public void filter(short[] depth) {
+		if (ring != null) {
+			head = (head + 1) % history;
+			filled = Math.min(filled + 1, history);
+		}
+		this.depth = depth;
+		if (parallel) {
+			frameTask.reinitialize();
+			pool.invoke(frameTask);
+		} else {
+			filterRange(0, depth.length, window);
+		}
+		this.depth = null;
+	}
+
+	/**
+	 * Filtre les pixels [from, to[ de l'image en cours
+	 * @param window, tableau de travail de MAX_HISTORY valeurs
+	 */
+	private void filterRange(int from, int to, int[] window) {
+		if (ring != null) {
+			System.arraycopy(depth, from, ring[head], from, to - from);
+			filterMedian(from, to, window);
+		} else {
+			filterExponential(from, to);
+		}
+	}
+
+	/**
+	 * Mdiane des mesures non nulles de chaque pixel. Les trous sont cods comme la plus grande
+	 * profondeur et les valeurs tries par un rseau de tri (pair-impair) fait de Math.min et Math.max :
+	 * pas de branchement imprvisible sur des mesures bruites.
+	 */
+	private void filterMedian(int from, int to, int[] window) {
+		short[][] ring = this.ring;
+		int filled = this.filled;
+		for (int pos = from; pos < to; pos++) {
+			int holes = 0;
+			for (int k = 0; k < filled; k++) {
+				int value = ring[k][pos];
+				holes += value == 0 ? 1 : 0;
+				window[k] = (value - 1) & HOLE_MASK;
+			}
+			for (int pass = 0; pass < filled; pass++) {
+				for (int i = pass & 1; i + 1 < filled; i += 2) {
+					int a = window[i];
+					int b = window[i+1];
+					window[i] = Math.min(a, b);
+					window[i+1] = Math.max(a, b);
+				}
+			}
+			int count = filled - holes;
+			depth[pos] = count == 0 ? 0 : (short) (window[(count - 1) / 2] + 1);
+		}
+	}
+
+	private void filterExponential(int from, int to) {
+		int[] smoothed = this.smoothed;
+		byte[] holeAge = this.holeAge;
+		for (int pos = from; pos < to; pos++) {
+			int value = depth[pos];
+			int state = smoothed[pos];
+			if (value == 0) {
+				// Trou : on garde la dernire valeur tant qu'elle est assez rcente
+				if (holeAge[pos] < history) {
+					holeAge[pos]++;
+					depth[pos] = (short) ((state + HALF) >> FRACTION_BITS);
+				} else {
+					smoothed[pos] = 0;
+				}
+				continue;
+			}
+			holeAge[pos] = 0;
+			int target = value << FRACTION_BITS;
+			if (state == 0 || Math.abs(target - state) > JUMP_THRESHOLD << FRACTION_BITS) {
+				state = target;
+			} else {
+				// Le dcalage arrondit vers le bas, mais en 1/256 mm : l'cart qui subsiste disparat  l'arrondi au mm
+				state += ((target - state) * alpha) >> 8;
+			}
+			smoothed[pos] = state;
+			depth[pos] = (short) ((state + HALF) >> FRACTION_BITS);
+		}
+	}
+}
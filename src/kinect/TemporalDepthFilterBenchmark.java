@@ -0,0 +1,136 @@
+package kinect;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Mesure le cot par image (640x480) du filtre temporel, en srie et en parallle,
+ * et son effet sur des images synthtiques bruites et troues : proportion de trous
+ * et variation moyenne d'une image  l'autre, compares aux images brutes.
+ * Vrifie que chaque mode bouche les trous et rduit au moins de moiti la variation, en srie comme en parallle,
+ * et qu'une profondeur constante, atteinte par le haut comme par le bas, est rendue exactement.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class TemporalDepthFilterBenchmark {
+
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int FRAMES = 200;
+
+	/** Images synthtiques pr-calcules, rejoues en boucle */
+	private static final int SEQUENCE = 16;
+
+	/** Variation maximale acceptable aprs filtrage, en proportion de celle des images brutes */
+	private static final double MAX_VARIATION = 0.5;
+
+	/** cart (mm) entre la profondeur de dpart et la profondeur constante vise, et images pour l'atteindre */
+	private static final int STEP = 40;
+	private static final int SETTLE_FRAMES = 30;
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		short[][] sequence = new short[SEQUENCE][WIDTH * HEIGHT];
+		for (short[] frame : sequence) {
+			fillNoisy(frame, random);
+		}
+
+		double[] raw = measure("raw", null, sequence);
+		boolean ok = true;
+		for (TemporalDepthFilter.Mode mode : TemporalDepthFilter.Mode.values()) {
+			TemporalDepthFilter filter = new TemporalDepthFilter(WIDTH, HEIGHT, mode);
+			double[] serial = measure(mode + " serial", filter, sequence);
+			filter = new TemporalDepthFilter(WIDTH, HEIGHT, mode);
+			filter.setParallel(true);
+			double[] parallel = measure(mode + " parallel (" + Runtime.getRuntime().availableProcessors() + " cores)",
+					filter, sequence);
+			ok &= serial[0] < raw[0] && serial[1] <= MAX_VARIATION * raw[1];
+			ok &= serial[0] == parallel[0] && serial[1] == parallel[1];
+			boolean converges = converges(mode);
+			System.out.println(mode + " converges to a constant depth: " + converges);
+			ok &= converges;
+		}
+		System.out.println(ok ? "OK: fewer holes, steadier depth, parallel same as serial" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Filtre une profondeur constante, puis une autre plus haute ou plus basse de STEP mm selon le pixel
+	 * @return true si le filtre rend exactement la nouvelle profondeur
+	 */
+	private static boolean converges(TemporalDepthFilter.Mode mode) {
+		TemporalDepthFilter filter = new TemporalDepthFilter(WIDTH, HEIGHT, mode);
+		short[] target = new short[WIDTH * HEIGHT];
+		short[] depth = new short[WIDTH * HEIGHT];
+		for (int pos = 0; pos < target.length; pos++) {
+			target[pos] = (short) (500 + pos % 3500);
+		}
+		for (int i = 0; i < SETTLE_FRAMES; i++) {
+			for (int pos = 0; pos < depth.length; pos++) {
+				depth[pos] = (short) (target[pos] + (pos % 2 == 0 ? STEP : -STEP));
+			}
+			filter.filter(depth);
+		}
+		for (int i = 0; i < SETTLE_FRAMES; i++) {
+			System.arraycopy(target, 0, depth, 0, depth.length);
+			filter.filter(depth);
+		}
+		return Arrays.equals(depth, target);
+	}
+
+	/**
+	 * @return la proportion de trous et la variation moyenne d'une image  l'autre (mm)
+	 */
+	private static double[] measure(String name, TemporalDepthFilter filter, short[][] sequence) {
+		short[] depth = new short[WIDTH * HEIGHT];
+		short[] previous = new short[WIDTH * HEIGHT];
+		long holes = 0;
+		long variation = 0;
+		long compared = 0;
+		long elapsed = 0;
+
+		for (int i = 0; i < 2 * FRAMES; i++) {
+			System.arraycopy(sequence[i % SEQUENCE], 0, depth, 0, depth.length);
+			long start = System.nanoTime();
+			if (filter != null) {
+				filter.filter(depth);
+			}
+			// La premire moiti sert  chauffer la JVM
+			if (i < FRAMES) {
+				System.arraycopy(depth, 0, previous, 0, depth.length);
+				continue;
+			}
+			elapsed += System.nanoTime() - start;
+
+			for (int pos = 0; pos < depth.length; pos++) {
+				if (depth[pos] == 0) {
+					holes++;
+				} else if (previous[pos] != 0) {
+					variation += Math.abs(depth[pos] - previous[pos]);
+					compared++;
+				}
+			}
+			System.arraycopy(depth, 0, previous, 0, depth.length);
+		}
+
+		double holeRatio = (double) holes / ((long) FRAMES * WIDTH * HEIGHT);
+		double change = (double) variation / Math.max(1, compared);
+		System.out.printf("%-28s : %.3f ms/frame, holes %.1f%%, mean frame-to-frame change %.1f mm%n",
+				name, elapsed / 1e6 / FRAMES, 100.0 * holeRatio, change);
+		return new double[] { holeRatio, change };
+	}
+
+	/**
+	 * Un sol en pente avec un bruit de quelques centimtres et 5% de trous
+	 */
+	private static void fillNoisy(short[] depth, Random random) {
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int pos = y * WIDTH + x;
+				depth[pos] = random.nextInt(20) == 0 ? 0 : (short) (1000 + 6 * y + random.nextInt(40));
+			}
+		}
+	}
+}
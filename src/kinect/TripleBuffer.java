@@ -0,0 +1,68 @@
+package kinect;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer sans verrou entre un producteur et un consommateur.
+ * Le producteur remplit le buffer arrire puis le publie ; le consommateur rcupre
+ * le dernier buffer publi sans jamais attendre le producteur (les buffers intermdiaires
+ * non consomms sont simplement crass).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class TripleBuffer<T> {
+
+	/** Bit indiquant que le buffer du milieu contient une publication non consomme */
+	private static final int FRESH = 4;
+	private static final int INDEX_MASK = 3;
+
+	private final Object[] buffers;
+
+	/** Index du buffer du producteur (seul le producteur y accde) */
+	private int back = 0;
+
+	/** Index du buffer du consommateur (seul le consommateur y accde) */
+	private int front = 2;
+
+	/** Index du buffer du milieu, chang atomiquement */
+	private final AtomicInteger middle = new AtomicInteger(1);
+
+	public TripleBuffer(T first, T second, T third) {
+		buffers = new Object[] {first, second, third};
+	}
+
+	/**
+	 * @return le buffer que le producteur peut remplir
+	 */
+	@SuppressWarnings("unchecked")
+	public T getBackBuffer() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Publie le buffer arrire et donne un nouveau buffer arrire au producteur
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+	}
+
+	/**
+	 * Rcupre la dernire publication si elle est nouvelle
+	 * @return true si le buffer avant a chang
+	 */
+	public boolean update() {
+		if ((middle.get() & FRESH) == 0) {
+			return false;
+		}
+		front = middle.getAndSet(front) & INDEX_MASK;
+		return true;
+	}
+
+	/**
+	 * @return le buffer du consommateur, valide jusqu'au prochain appel  update()
+	 */
+	@SuppressWarnings("unchecked")
+	public T getFrontBuffer() {
+		return (T) buffers[front];
+	}
+}
@@ -0,0 +1,347 @@
+package kinect;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Contour de la silhouette de chaque utilisateur, extrait de ses labels par marching squares
+ * puis simplifi (Ramer-Douglas-Peucker, comme algorithms.PolygonSimplificationAlgorithm).
+ * Le contour suit les bords des pixels du masque, en gardant la silhouette  droite (sens horaire  l'cran) ;
+ * deux pixels qui se touchent par un coin sont relis. Un utilisateur en partie cach peut tre coup
+ * en plusieurs morceaux : seul le contour extrieur du plus grand est gard (les trous sont ignors).
+ * Seule la bote englobante de l'utilisateur est parcourue, et chaque contour n'est suivi qu'une fois :
+ * le bord gauche des pixels longs est marqu. Le masque est celui d'un niveau rduit
+ * de la pyramide ; les coordonnes renvoyes sont celles de l'image complte.
+ * Les tableaux sont rutiliss d'une image  l'autre (agrandis seulement pour un contour plus long).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class UserContours {
+
+	/** Directions de dplacement le long des bords des pixels */
+	private static final int UP = 0, RIGHT = 1, DOWN = 2, LEFT = 3;
+	private static final int[] DX = { 0, 1, 0, -1 };
+	private static final int[] DY = { -1, 0, 1, 0 };
+
+	/** Tolrance par dfaut de la simplification, en pixels du masque rduit */
+	public static final float DEFAULT_TOLERANCE = 1.5f;
+
+	/** Nombre de valeurs par point des contours (x, y) */
+	public static final int POINT_SIZE = 2;
+
+	/** Tolrance au carr, en pixels du masque */
+	private float tolerance2 = DEFAULT_TOLERANCE * DEFAULT_TOLERANCE;
+
+	/** Utilisateurs de l'image, et pour chacun les points de son contour simplifi : x0, y0, x1, y1... */
+	private final int[] users = new int[KinectFrame.MAX_USERS];
+	private int userCount = 0;
+	private final float[][] points = new float[KinectFrame.MAX_USERS][];
+	private final int[] pointCounts = new int[KinectFrame.MAX_USERS];
+
+	/**
+	 * Sommets (coins o la direction change) du plus grand contour de l'utilisateur en cours, du contour
+	 * en cours de suivi, et sommets gards par la simplification
+	 */
+	private int[] vertexX = new int[256], vertexY = new int[256];
+	private int[] traceX = new int[256], traceY = new int[256];
+	private int traceLength;
+	private boolean[] keep = new boolean[256];
+
+	/** Pixels du masque dont le bord gauche a t long, pour l'utilisateur en cours s'ils valent stamp */
+	private int[] marks;
+	private int stamp = 0;
+
+	/** Intervalles restant  simplifier */
+	private int[] stack = new int[64];
+
+	private final Rectangle bounds = new Rectangle();
+
+	public UserContours() {
+		for (int i = 0; i < KinectFrame.MAX_USERS; i++) {
+			points[i] = new float[64];
+		}
+	}
+
+	/**
+	 * @param tolerance, l'cart maximal entre le contour simplifi et le contour complet, en pixels du masque
+	 */
+	public void setTolerance(float tolerance) {
+		if (tolerance <= 0) {
+			throw new IllegalArgumentException("Tolerance must be greater than zero");
+		}
+		tolerance2 = tolerance * tolerance;
+	}
+
+	/**
+	 * Calcule le contour de chaque utilisateur
+	 * @param scene, les labels d'un niveau de la pyramide
+	 * @param width, height, les dimensions de ce niveau
+	 * @param level, le niveau (0 pour l'image complte) : les coordonnes sont multiplies par 2^level
+	 * @param roi, les botes englobantes des utilisateurs dans l'image complte
+	 * @param userIDs, les utilisateurs de l'image
+	 * @param count, leur nombre
+	 */
+	public void compute(short[] scene, int width, int height, int level, RegionOfInterest roi, int[] userIDs, int count) {
+		userCount = Math.min(count, KinectFrame.MAX_USERS);
+		for (int i = 0; i < userCount; i++) {
+			users[i] = userIDs[i];
+			pointCounts[i] = 0;
+			if (roi.getBounds(users[i], bounds)) {
+				int vertices = trace(scene, width, height, users[i], bounds.x >> level, bounds.y >> level,
+						(bounds.x + bounds.width - 1) >> level, (bounds.y + bounds.height - 1) >> level);
+				if (vertices > 0) {
+					simplify(i, vertices, 1 << level);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ne garde aucun contour (image sans utilisateur)
+	 */
+	public void clear() {
+		userCount = 0;
+	}
+
+	public int getUserCount() {
+		return userCount;
+	}
+
+	/**
+	 * @param index, l'index de l'utilisateur (entre 0 et getUserCount())
+	 * @return son ID
+	 */
+	public int getUser(int index) {
+		return users[index];
+	}
+
+	/**
+	 * @return l'index de l'utilisateur, -1 s'il n'a pas de contour
+	 */
+	public int indexOf(int user) {
+		for (int i = 0; i < userCount; i++) {
+			if (users[i] == user) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param index, l'index de l'utilisateur
+	 * @return le nombre de sommets de son contour ferm (0 si l'utilisateur n'a pas de pixel dans le masque)
+	 */
+	public int getPointCount(int index) {
+		return pointCounts[index];
+	}
+
+	/**
+	 * @param index, l'index de l'utilisateur
+	 * @return les sommets de son contour, x et y  la suite (pixels de l'image complte) ; le dernier sommet
+	 * est reli au premier. Le tableau peut tre plus long que getPointCount(index) * POINT_SIZE.
+	 */
+	public float[] getPoints(int index) {
+		return points[index];
+	}
+
+	private static boolean inside(short[] scene, int width, int height, int user, int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height && scene[y * width + x] == user;
+	}
+
+	/**
+	 * Suit tous les contours d'un utilisateur dans la bote donne et garde le plus grand contour extrieur
+	 * dans vertexX, vertexY
+	 * @return le nombre de sommets, 0 si l'utilisateur n'a aucun pixel dans la bote
+	 */
+	private int trace(short[] scene, int width, int height, int user, int minX, int minY, int maxX, int maxY) {
+		if (marks == null || marks.length != width * height) {
+			marks = new int[width * height];
+		}
+		if (++stamp == 0) {
+			Arrays.fill(marks, 0);
+			stamp = 1;
+		}
+		maxX = Math.min(maxX, width - 1);
+		maxY = Math.min(maxY, height - 1);
+		int best = 0;
+		long bestArea = 0;
+		for (int y = minY; y <= maxY; y++) {
+			for (int x = minX, pos = y * width + minX; x <= maxX; x++, pos++) {
+				// Bord gauche d'un morceau de l'utilisateur qui n'a pas encore t suivi
+				if (scene[pos] != user || (x > 0 && scene[pos - 1] == user) || marks[pos] == stamp) {
+					continue;
+				}
+				long area = follow(scene, width, height, user, x, y);
+				if (area > bestArea) {
+					bestArea = area;
+					best = traceLength;
+					int[] swap = vertexX;
+					vertexX = traceX;
+					traceX = swap;
+					swap = vertexY;
+					vertexY = traceY;
+					traceY = swap;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Suit un contour dans traceX, traceY (traceLength sommets), en partant du bord gauche d'un pixel,
+	 * et marque le bord gauche de chaque pixel long
+	 * @return le double de la surface du contour, positive pour un contour extrieur, ngative pour un trou
+	 */
+	private long follow(short[] scene, int width, int height, int user, int startX, int startY) {
+		// Chaque sommet est le coin commun  4 pixels : (x-1, y-1), (x, y-1), (x-1, y) et (x, y).
+		// On part du coin bas-gauche du pixel, vers le haut : le pixel est  droite.
+		int x = startX, y = startY + 1;
+		int direction = -1;
+		int vertices = 0;
+		long area = 0;
+		while (true) {
+			int next;
+			if (direction < 0) {
+				next = UP;
+			} else {
+				int state = (inside(scene, width, height, user, x - 1, y - 1) ? 1 : 0)
+						| (inside(scene, width, height, user, x, y - 1) ? 2 : 0)
+						| (inside(scene, width, height, user, x - 1, y) ? 4 : 0)
+						| (inside(scene, width, height, user, x, y) ? 8 : 0);
+				switch (state) {
+				case 2: case 10: case 14:
+					next = UP;
+					break;
+				case 8: case 12: case 13:
+					next = RIGHT;
+					break;
+				case 4: case 5: case 7:
+					next = DOWN;
+					break;
+				case 1: case 3: case 11:
+					next = LEFT;
+					break;
+				case 6:
+					// Deux pixels en diagonale : on passe de l'un  l'autre
+					next = direction == LEFT ? DOWN : UP;
+					break;
+				case 9:
+					next = direction == DOWN ? RIGHT : LEFT;
+					break;
+				default:
+					throw new IllegalStateException("Contour lost at " + x + ", " + y);
+				}
+				if (next == UP && x == startX && y == startY + 1) {
+					break;
+				}
+			}
+			if (next != direction) {
+				if (vertices == traceX.length) {
+					grow();
+				}
+				traceX[vertices] = x;
+				traceY[vertices] = y;
+				vertices++;
+			}
+			direction = next;
+			int nextX = x + DX[direction], nextY = y + DY[direction];
+			if (direction == UP) {
+				marks[nextY * width + x] = stamp;
+			}
+			area += (long) x * nextY - (long) nextX * y;
+			x = nextX;
+			y = nextY;
+		}
+		traceLength = vertices;
+		return area;
+	}
+
+	private void grow() {
+		int length = 2 * traceX.length;
+		int[] newX = new int[length];
+		int[] newY = new int[length];
+		System.arraycopy(traceX, 0, newX, 0, traceX.length);
+		System.arraycopy(traceY, 0, newY, 0, traceY.length);
+		traceX = newX;
+		traceY = newY;
+		if (keep.length < length) {
+			keep = new boolean[length];
+		}
+	}
+
+	/**
+	 * Simplifie le contour ferm des sommets [0, vertices[ dans les points de l'utilisateur d'index donn.
+	 * Le contour est coup au premier sommet et au sommet le plus loign de celui-ci,
+	 * puis chaque moiti est simplifie sans rcursion.
+	 */
+	private void simplify(int index, int vertices, int scale) {
+		for (int i = 0; i < vertices; i++) {
+			keep[i] = false;
+		}
+		int far = 0;
+		long farthest = -1;
+		for (int i = 1; i < vertices; i++) {
+			long dx = vertexX[i] - vertexX[0], dy = vertexY[i] - vertexY[0];
+			if (dx * dx + dy * dy > farthest) {
+				farthest = dx * dx + dy * dy;
+				far = i;
+			}
+		}
+		keep[0] = keep[far] = true;
+
+		// Le sommet d'indice vertices est le premier sommet
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = far;
+		stack[top++] = far;
+		stack[top++] = vertices;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			int x0 = vertexX[first], y0 = vertexY[first];
+			int x1 = vertexX[last % vertices], y1 = vertexY[last % vertices];
+			long dx = x1 - x0, dy = y1 - y0;
+			long length2 = dx * dx + dy * dy;
+			// cart de chaque sommet  la droite, compar au carr : (produit vectoriel) > tolrance * longueur
+			float maxCross = 0;
+			int split = -1;
+			for (int i = first + 1; i < last; i++) {
+				long cross = dx * (vertexY[i] - y0) - dy * (vertexX[i] - x0);
+				float cross2 = (float) cross * cross;
+				if (cross2 > maxCross) {
+					maxCross = cross2;
+					split = i;
+				}
+			}
+			if (split >= 0 && maxCross > tolerance2 * length2) {
+				keep[split] = true;
+				if (top + 4 > stack.length) {
+					int[] newStack = new int[2 * stack.length];
+					System.arraycopy(stack, 0, newStack, 0, top);
+					stack = newStack;
+				}
+				stack[top++] = first;
+				stack[top++] = split;
+				stack[top++] = split;
+				stack[top++] = last;
+			}
+		}
+
+		int kept = 0;
+		for (int i = 0; i < vertices; i++) {
+			kept += keep[i] ? 1 : 0;
+		}
+		if (points[index].length < kept * POINT_SIZE) {
+			points[index] = new float[2 * kept * POINT_SIZE];
+		}
+		float[] result = points[index];
+		int n = 0;
+		for (int i = 0; i < vertices; i++) {
+			if (keep[i]) {
+				result[n++] = vertexX[i] * scale;
+				result[n++] = vertexY[i] * scale;
+			}
+		}
+		pointCounts[index] = kept;
+	}
+}
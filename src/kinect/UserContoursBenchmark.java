@@ -0,0 +1,224 @@
+package kinect;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.OpenNI.GeneralException;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Mesure l'extraction des contours des utilisateurs, sans Kinect (utilisateurs synthtiques en mouvement),
+ * sur les labels de l'image complte et sur ceux des niveaux rduits de la pyramide :
+ * dure par utilisateur, nombre de sommets aprs simplification, cart de surface entre le polygone
+ * simplifi et le contour exact, et part des pixels de l'utilisateur entours par le contour exact
+ * (un utilisateur en partie cach peut tre coup en plusieurs morceaux, seul le plus grand est suivi).
+ * Vrifie que le niveau utilis par KinectModule reste sous MAX_MS par utilisateur, que la simplification
+ * change la surface de moins de MAX_AREA_ERROR et qu'aucune image n'alloue de mmoire ;  tous les niveaux,
+ * la surface du contour exact doit tre celle du plus grand morceau (8-connexe) de l'utilisateur, trous compris.
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class UserContoursBenchmark {
+
+	private static final int USERS = 6;
+	private static final int WIDTH = SyntheticFrameSource.WIDTH, HEIGHT = SyntheticFrameSource.HEIGHT;
+	private static final int FRAMES = 300;
+
+	/** Niveau de la pyramide utilis par KinectModule */
+	private static final int CONTOUR_LEVEL = 1;
+
+	/** Dure maximale par utilisateur (ms) et cart relatif moyen maximal de la surface due  la simplification */
+	private static final double MAX_MS = 2;
+	private static final double MAX_AREA_ERROR = 0.1;
+
+	/** Tolrance donnant le contour exact (aucun sommet n'est retir) */
+	private static final float EXACT_TOLERANCE = 0.01f;
+
+	/** Contours exacts dont la surface n'est pas celle du plus grand morceau, tous niveaux confondus */
+	private static long areaMismatches = 0;
+
+	public static void main(String[] args) throws GeneralException {
+		System.out.println(USERS + " synthetic users, " + FRAMES + " frames");
+		boolean ok = true;
+		for (int level = 0; level <= DepthPyramid.LEVELS; level++) {
+			ok &= measure(level) || level != CONTOUR_LEVEL;
+		}
+		ok &= areaMismatches == 0;
+		System.out.println(ok ? "OK: contours under " + MAX_MS + " ms per user, areas match, no allocation per frame"
+				: "FAILED (" + areaMismatches + " exact contours not enclosing the largest piece)");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Extrait les contours sur un niveau de la pyramide
+	 * @return true si les contours sont assez rapides et justes, sans allocation
+	 */
+	private static boolean measure(int level) throws GeneralException {
+		SyntheticFrameSource source = new SyntheticFrameSource(USERS, SyntheticFrameSource.Motion.values(), false);
+		short[] depth = new short[WIDTH * HEIGHT];
+		short[] scene = new short[WIDTH * HEIGHT];
+		RegionOfInterest roi = new RegionOfInterest(WIDTH, HEIGHT);
+		DepthPyramid pyramid = new DepthPyramid(WIDTH, HEIGHT);
+		UserContours contours = new UserContours();
+		UserContours exact = new UserContours();
+		exact.setTolerance(EXACT_TOLERANCE);
+		int width = pyramid.getWidth(level), height = pyramid.getHeight(level);
+		int scale = 1 << level;
+		int[] pieces = new int[width * height];
+		int[] queue = new int[(width + 2) * (height + 2)];
+		int[] outside = new int[(width + 2) * (height + 2)];
+
+		long nanos = 0, allocated = 0, contourCount = 0, points = 0, mismatches = 0;
+		double areaError = 0, coverage = 0;
+		for (int f = 0; f < 2 * FRAMES; f++) {
+			source.waitForUpdate(0);
+			source.getDepthMap().get(depth);
+			source.getSceneMap().get(scene);
+			int[] users = source.getUsers();
+			roi.compute(scene);
+			pyramid.compute(depth, scene, level, DepthPyramid.Reduction.MIN);
+			short[] labels = pyramid.getScene(level);
+
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			contours.compute(labels, width, height, level, roi, users, users.length);
+			long elapsed = System.nanoTime() - start;
+			// La premire moiti sert  chauffer la JVM
+			if (f < FRAMES) {
+				continue;
+			}
+			allocated += allocatedBytes() - bytes;
+			nanos += elapsed;
+			exact.compute(labels, width, height, level, roi, users, users.length);
+
+			for (int i = 0; i < contours.getUserCount(); i++) {
+				int count = contours.getPointCount(i);
+				if (count == 0) {
+					continue;
+				}
+				long pixels = 0;
+				for (short label : labels) {
+					pixels += label == contours.getUser(i) ? 1 : 0;
+				}
+				double area = area(contours.getPoints(i), count);
+				double exactArea = area(exact.getPoints(i), exact.getPointCount(i));
+				if (exactArea / (scale * scale) != largestPiece(labels, width, height, contours.getUser(i), pieces, queue, outside)) {
+					mismatches++;
+				}
+				areaError += Math.abs(area - exactArea) / exactArea;
+				coverage += exactArea / (scale * scale) / pixels;
+				points += count;
+				contourCount++;
+			}
+		}
+		// Mesure de l'allocation elle-mme
+		long bytes = allocatedBytes();
+		allocated -= FRAMES * (allocatedBytes() - bytes);
+
+		double ms = nanos / 1e6 / Math.max(1, contourCount);
+		areaError /= Math.max(1, contourCount);
+		coverage /= Math.max(1, contourCount);
+		areaMismatches += mismatches;
+		System.out.printf("level %d (%dx%d): %.3f ms per user, %.1f vertices, simplification area error %.1f%%, "
+				+ "%.1f%% of the user pixels enclosed, %d/%d exact areas off the largest piece, %d bytes allocated%n",
+				level, width, height, ms, (double) points / Math.max(1, contourCount), 100 * areaError,
+				100 * coverage, mismatches, contourCount, allocated);
+		// Moins d'un octet par image : allocations ponctuelles de la JVM (compilation)
+		return ms < MAX_MS && areaError < MAX_AREA_ERROR && allocated < FRAMES && contourCount > 0;
+	}
+
+	/**
+	 * Dcoupe un utilisateur en morceaux 8-connexes et mesure la surface de chacun, trous compris
+	 * (le fond, 4-connexe, qui n'est pas reli  l'extrieur de la bote englobante est entour par le contour)
+	 * @param pieces, reoit le numro du morceau de chaque pixel de l'utilisateur (rinitialis ici)
+	 * @param queue, file des pixels  visiter
+	 * @param outside, marque des pixels du fond visits (au moins (width + 2) * (height + 2) valeurs)
+	 * @return la plus grande surface, en pixels
+	 */
+	private static int largestPiece(short[] labels, int width, int height, int user, int[] pieces, int[] queue,
+			int[] outside) {
+		Arrays.fill(pieces, 0);
+		int count = 0;
+		int minX = width, minY = height, maxX = -1, maxY = -1;
+		for (int start = 0; start < labels.length; start++) {
+			if (labels[start] != user || pieces[start] != 0) {
+				continue;
+			}
+			count++;
+			int head = 0, tail = 0;
+			queue[tail++] = start;
+			pieces[start] = count;
+			while (head < tail) {
+				int pos = queue[head++];
+				int x = pos % width, y = pos / width;
+				minX = Math.min(minX, x);
+				maxX = Math.max(maxX, x);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						int nx = x + dx, ny = y + dy;
+						if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+							continue;
+						}
+						int next = ny * width + nx;
+						if (labels[next] == user && pieces[next] == 0) {
+							pieces[next] = count;
+							queue[tail++] = next;
+						}
+					}
+				}
+			}
+		}
+
+		// Bote englobante agrandie d'un pixel de fond tout autour, parcourue depuis un coin pour chaque morceau
+		int boxWidth = maxX - minX + 3, boxHeight = maxY - minY + 3;
+		int largest = 0;
+		for (int piece = 1; piece <= count; piece++) {
+			Arrays.fill(outside, 0, boxWidth * boxHeight, 0);
+			int head = 0, tail = 0;
+			queue[tail++] = 0;
+			outside[0] = 1;
+			while (head < tail) {
+				int cell = queue[head++];
+				int bx = cell % boxWidth, by = cell / boxWidth;
+				for (int d = 0; d < 4; d++) {
+					int nx = bx + (d == 0 ? 1 : d == 1 ? -1 : 0), ny = by + (d == 2 ? 1 : d == 3 ? -1 : 0);
+					if (nx < 0 || ny < 0 || nx >= boxWidth || ny >= boxHeight || outside[ny * boxWidth + nx] != 0) {
+						continue;
+					}
+					int x = nx - 1 + minX, y = ny - 1 + minY;
+					if (nx > 0 && ny > 0 && nx < boxWidth - 1 && ny < boxHeight - 1 && pieces[y * width + x] == piece) {
+						continue;
+					}
+					outside[ny * boxWidth + nx] = 1;
+					queue[tail++] = ny * boxWidth + nx;
+				}
+			}
+			largest = Math.max(largest, boxWidth * boxHeight - tail);
+		}
+		return largest;
+	}
+
+	/**
+	 * @return la surface d'un polygone ferm (formule du lacet)
+	 */
+	private static double area(float[] points, int count) {
+		double area = 0;
+		for (int i = 0; i < count; i++) {
+			int j = (i + 1) % count;
+			area += (double) points[2 * i] * points[2 * j + 1] - (double) points[2 * j] * points[2 * i + 1];
+		}
+		return Math.abs(area) / 2;
+	}
+
+	/**
+	 * @return la mmoire alloue jusqu'ici par le thread courant (octets)
+	 */
+	private static long allocatedBytes() {
+		return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
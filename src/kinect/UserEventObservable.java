@@ -0,0 +1,45 @@
+package kinect;
+
+import java.util.ArrayList;
+
+import org.OpenNI.IObservable;
+import org.OpenNI.IObserver;
+import org.OpenNI.UserEventArgs;
+
+/**
+ * vnement utilisateur lev depuis Java (sans passer par les callbacks natifs d'OpenNI)
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class UserEventObservable implements IObservable<UserEventArgs> {
+
+	/** Liste des observers abonns  cet vnement */
+	private ArrayList<IObserver<UserEventArgs>> observers = new ArrayList<IObserver<UserEventArgs>>();
+
+	@Override
+	public synchronized void addObserver(IObserver<UserEventArgs> observer) {
+		if (!observers.contains(observer)) {
+			observers.add(observer);
+		}
+	}
+
+	@Override
+	public synchronized void deleteObserver(IObserver<UserEventArgs> observer) {
+		observers.remove(observer);
+	}
+
+	/**
+	 * Notifie tous les observers
+	 * @param userID, l'ID de l'utilisateur concern
+	 */
+	public void notify(int userID) {
+		ArrayList<IObserver<UserEventArgs>> copy;
+		synchronized (this) {
+			copy = new ArrayList<IObserver<UserEventArgs>>(observers);
+		}
+		UserEventArgs args = new UserEventArgs(userID);
+		for (IObserver<UserEventArgs> observer : copy) {
+			observer.update(this, args);
+		}
+	}
+}
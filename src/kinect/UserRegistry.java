@@ -0,0 +1,147 @@
+package kinect;
+
+/**
+ * Registre des utilisateurs suivis et de tout leur tat (gestures, dessin  la main, corps physiques...).
+ * OpenNI attribue de petits ID (1, 2, 3...) : chaque sous-systme cre un Slot, un tableau index directement
+ * par l'ID, au lieu d'une HashMap<Integer, ...> qui cre un Integer  chaque accs.
+ * Quand un utilisateur est perdu, les observers de getUserLostEvent() sont notifis, puis tous les slots
+ * sont vids : aucun sous-systme ne peut garder l'tat d'un utilisateur parti.
+ * Le registre est utilis depuis le thread de rendu (les vnements y sont transmis par le KinectModule).
+ * @author Jonathan Cheseaux et William Trouleau
+ *
+ */
+public class UserRegistry {
+
+	/**
+	 * Valeur associe  chaque utilisateur pour un sous-systme
+	 * @author Jonathan Cheseaux et William Trouleau
+	 *
+	 */
+	public static class Slot<T> {
+		private Object[] values = new Object[INITIAL_CAPACITY];
+
+		private Slot() {
+		}
+
+		/**
+		 * @return la valeur de l'utilisateur, null s'il n'en a pas
+		 */
+		@SuppressWarnings("unchecked")
+		public T get(int user) {
+			return user >= 0 && user < values.length ? (T) values[user] : null;
+		}
+
+		public void set(int user, T value) {
+			if (user >= values.length) {
+				Object[] grown = new Object[Math.max(user + 1, values.length * 2)];
+				System.arraycopy(values, 0, grown, 0, values.length);
+				values = grown;
+			}
+			values[user] = value;
+		}
+
+		private void clear(int user) {
+			if (user >= 0 && user < values.length) {
+				values[user] = null;
+			}
+		}
+	}
+
+	/** Taille initiale des tableaux (agrandis si OpenNI donne un ID plus grand) */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Slots crs par les sous-systmes */
+	private Slot<?>[] slots = new Slot<?>[0];
+
+	/** Utilisateurs prsents : present[ID], et liste dense des ID */
+	private boolean[] present = new boolean[INITIAL_CAPACITY];
+	private int[] users = new int[INITIAL_CAPACITY];
+	private int userCount = 0;
+
+	/** vnements d'arrive (squelette suivi) et de perte d'un utilisateur */
+	private final UserEventObservable userArrivedEvent = new UserEventObservable();
+	private final UserEventObservable userLostEvent = new UserEventObservable();
+
+	/**
+	 * Cre un emplacement pour l'tat d'un sous-systme
+	 */
+	public <T> Slot<T> createSlot() {
+		Slot<T> slot = new Slot<T>();
+		Slot<?>[] grown = new Slot<?>[slots.length + 1];
+		System.arraycopy(slots, 0, grown, 0, slots.length);
+		grown[slots.length] = slot;
+		slots = grown;
+		return slot;
+	}
+
+	/**
+	 * Enregistre un utilisateur dont le squelette est suivi, puis notifie getUserArrivedEvent()
+	 */
+	public void userArrived(int user) {
+		if (contains(user)) {
+			return;
+		}
+		if (user >= present.length) {
+			boolean[] grown = new boolean[Math.max(user + 1, present.length * 2)];
+			System.arraycopy(present, 0, grown, 0, present.length);
+			present = grown;
+		}
+		if (userCount == users.length) {
+			int[] grown = new int[users.length * 2];
+			System.arraycopy(users, 0, grown, 0, userCount);
+			users = grown;
+		}
+		present[user] = true;
+		users[userCount++] = user;
+		userArrivedEvent.notify(user);
+	}
+
+	/**
+	 * Notifie getUserLostEvent(), puis efface l'utilisateur de tous les slots
+	 */
+	public void userLost(int user) {
+		userLostEvent.notify(user);
+		for (Slot<?> slot : slots) {
+			slot.clear(user);
+		}
+		if (!contains(user)) {
+			return;
+		}
+		present[user] = false;
+		for (int i = 0; i < userCount; i++) {
+			if (users[i] == user) {
+				users[i] = users[--userCount];
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return true si l'utilisateur est suivi
+	 */
+	public boolean contains(int user) {
+		return user >= 0 && user < present.length && present[user];
+	}
+
+	public int getUserCount() {
+		return userCount;
+	}
+
+	/**
+	 * @param index, entre 0 et getUserCount()
+	 * @return l'ID de l'utilisateur
+	 */
+	public int getUser(int index) {
+		return users[index];
+	}
+
+	/** vnement lev lorsqu'un utilisateur est calibr et que son squelette est suivi */
+	public UserEventObservable getUserArrivedEvent() {
+		return userArrivedEvent;
+	}
+
+	/** vnement lev lorsqu'un utilisateur quitte le champ de vision, avant que ses slots ne soient vids */
+	public UserEventObservable getUserLostEvent() {
+		return userLostEvent;
+	}
+}
@@ -177,6 +177,9 @@ public class ProjectApplication implements Observer {
 
 			drawBackground();
 
+			// Traite la dernire image de la Kinect, une seule fois par image capture
+			KinectModule.getInstance().updateDepth();
+
 			try {
 				for(Demonstrations demo : demonstrations) {
 					demo.drawDemonstration();